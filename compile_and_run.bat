@@ -3,7 +3,7 @@ echo === Diet Planner & Nutrition Tracker ===
 echo.
 
 echo Compiling Java files...
-javac -d bin src\main\java\com\diettracker\*.java src\main\java\com\diettracker\model\*.java src\main\java\com\diettracker\service\*.java src\main\java\com\diettracker\util\*.java
+javac --add-modules jdk.incubator.vector -d bin src\main\java\com\diettracker\*.java src\main\java\com\diettracker\benchmark\*.java src\main\java\com\diettracker\event\*.java src\main\java\com\diettracker\model\*.java src\main\java\com\diettracker\service\*.java src\main\java\com\diettracker\storage\*.java src\main\java\com\diettracker\util\*.java
 
 if %errorlevel% neq 0 (
     echo Compilation failed! Please check for errors.
@@ -16,6 +16,6 @@ echo.
 echo Starting the application...
 echo.
 
-java -cp bin com.diettracker.DietTrackerApp
+java --add-modules jdk.incubator.vector -cp bin com.diettracker.DietTrackerApp
 
 pause
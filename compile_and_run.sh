@@ -4,7 +4,7 @@ echo "=== Diet Planner & Nutrition Tracker ==="
 echo
 
 echo "Compiling Java files..."
-javac -d bin src/main/java/com/diettracker/*.java src/main/java/com/diettracker/*/*.java
+javac --add-modules jdk.incubator.vector -d bin src/main/java/com/diettracker/*.java src/main/java/com/diettracker/*/*.java
 
 if [ $? -ne 0 ]; then
     echo "Compilation failed! Please check for errors."
@@ -16,4 +16,4 @@ echo
 echo "Starting the application..."
 echo
 
-java -cp bin com.diettracker.DietTrackerApp
+java --add-modules jdk.incubator.vector -cp bin com.diettracker.DietTrackerApp
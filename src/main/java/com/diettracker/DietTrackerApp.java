@@ -4,6 +4,8 @@ import com.diettracker.model.*;
 import com.diettracker.service.*;
 import com.diettracker.util.ValidationUtil;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -14,13 +16,22 @@ import java.util.List;
  * Provides a console-based interface for users to manage their diet tracking.
  */
 public class DietTrackerApp {
+    private static final int HISTORY_PAGE_SIZE = 10;
+    private static final int SUGGESTION_COUNT = 3;
+    
     private UserService userService;
     private MealService mealService;
+    private IngestionService ingestionService;
+    private ReplicationService replicationService;
+    private ExportService exportService;
     private User currentUser;
     
     public DietTrackerApp() {
         this.userService = new UserService();
         this.mealService = new MealService(userService);
+        this.ingestionService = new IngestionService(mealService);
+        this.replicationService = new ReplicationService(userService, mealService);
+        this.exportService = new ExportService(mealService);
         this.currentUser = null;
     }
     
@@ -37,8 +48,15 @@ public class DietTrackerApp {
      * Main application loop.
      */
     public void run() {
+        replicationService.start();
+        if (!replicationService.isFollower()) {
+            ingestionService.start();
+        }
         System.out.println("=== Diet Planner & Nutrition Tracker ===");
         System.out.println("Welcome to your personal diet tracking system!");
+        if (replicationService.isFollower()) {
+            System.out.println("This is a read replica: changes are made on the primary.");
+        }
         
         while (true) {
             if (currentUser == null) {
@@ -70,6 +88,9 @@ public class DietTrackerApp {
             case 3:
                 System.out.println("Thank you for using Diet Planner & Nutrition Tracker!");
                 ValidationUtil.closeScanner();
+                replicationService.shutdown();
+                ingestionService.shutdown();
+                mealService.shutdown();
                 System.exit(0);
         }
     }
@@ -85,10 +106,11 @@ public class DietTrackerApp {
         System.out.println("3. View Meal History");
         System.out.println("4. Update Calorie Goal");
         System.out.println("5. View Statistics");
-        System.out.println("6. Logout");
-        System.out.println("7. Exit");
+        System.out.println("6. Export Meal History");
+        System.out.println("7. Logout");
+        System.out.println("8. Exit");
         
-        int choice = ValidationUtil.getValidIntegerInRangeInput("Enter your choice (1-7): ", 1, 7);
+        int choice = ValidationUtil.getValidIntegerInRangeInput("Enter your choice (1-8): ", 1, 8);
         
         switch (choice) {
             case 1:
@@ -107,11 +129,17 @@ public class DietTrackerApp {
                 viewStatistics();
                 break;
             case 6:
-                logout();
+                exportMealHistory();
                 break;
             case 7:
+                logout();
+                break;
+            case 8:
                 System.out.println("Thank you for using Diet Planner & Nutrition Tracker!");
                 ValidationUtil.closeScanner();
+                replicationService.shutdown();
+                ingestionService.shutdown();
+                mealService.shutdown();
                 System.exit(0);
         }
     }
@@ -127,6 +155,7 @@ public class DietTrackerApp {
         User user = userService.authenticateUser(username, password);
         if (user != null) {
             currentUser = user;
+            mealService.loadUser(user.getUsername());
             System.out.println("Login successful! Welcome back, " + username + "!");
         } else {
             System.out.println("Invalid username or password. Please try again.");
@@ -138,6 +167,9 @@ public class DietTrackerApp {
      */
     private void register() {
         System.out.println("\n=== Registration ===");
+        if (isReadReplica()) {
+            return;
+        }
         
         String username;
         do {
@@ -169,6 +201,9 @@ public class DietTrackerApp {
      */
     private void logMeal() {
         System.out.println("\n=== Log a Meal ===");
+        if (isReadReplica()) {
+            return;
+        }
         System.out.println("Select meal type:");
         System.out.println("1. Breakfast");
         System.out.println("2. Lunch");
@@ -184,9 +219,24 @@ public class DietTrackerApp {
         while (addMore) {
             System.out.println("\n--- Add Food Item ---");
             String foodName = ValidationUtil.getValidStringInput("Food name: ");
-            int caloriesPerUnit = ValidationUtil.getValidPositiveIntegerInput("Calories per unit: ");
+            FoodItem knownFood = mealService.lookupFood(foodName);
+            
+            int caloriesPerUnit;
+            String unit;
+            if (knownFood != null && ValidationUtil.getYesNoInput("Found " + knownFood.getName() + 
+                    " (" + knownFood.getCaloriesPerUnit() + " calories per " + knownFood.getUnit() + "). Use it?")) {
+                foodName = knownFood.getName();
+                caloriesPerUnit = knownFood.getCaloriesPerUnit();
+                unit = knownFood.getUnit();
+            } else {
+                caloriesPerUnit = ValidationUtil.getValidPositiveIntegerInput("Calories per unit: ");
+                unit = null;
+            }
+            
             double quantity = ValidationUtil.getValidPositiveDoubleInput("Quantity: ");
-            String unit = ValidationUtil.getValidStringInput("Unit (e.g., grams, pieces, cups): ");
+            if (unit == null) {
+                unit = ValidationUtil.getValidStringInput("Unit (e.g., grams, pieces, cups): ");
+            }
             
             FoodItem foodItem = new FoodItem(foodName, caloriesPerUnit, quantity, unit);
             foodItems.add(foodItem);
@@ -241,43 +291,71 @@ public class DietTrackerApp {
                     System.out.println("  " + mealType.getDisplayName() + ": " + totalCalories + " calories");
                 }
             }
+            
+            showMealSuggestions(dailyLog.getRemainingCalories());
         } else {
             System.out.println("No meals logged for today.");
         }
     }
     
+    /**
+     * Displays combinations of the user's usual foods that fill the remaining calories.
+     * @param remainingCalories Calories left in today's budget
+     */
+    private void showMealSuggestions(int remainingCalories) {
+        List<MealSuggestion> suggestions =
+                mealService.suggestMeals(currentUser.getUsername(), remainingCalories, SUGGESTION_COUNT);
+        if (suggestions.isEmpty()) {
+            return;
+        }
+        
+        System.out.println("\nIdeas for your remaining " + remainingCalories + " calories:");
+        for (MealSuggestion suggestion : suggestions) {
+            List<String> foods = new ArrayList<>();
+            for (FoodItem item : suggestion.getFoodItems()) {
+                foods.add(item.getName() + " (" + item.getQuantity() + " " + item.getUnit() + ")");
+            }
+            System.out.println("  " + String.join(" + ", foods) + " - " + suggestion.getTotalCalories() + " calories");
+        }
+    }
+    
     /**
      * Displays meal history.
      */
     private void viewMealHistory() {
         System.out.println("\n=== Meal History ===");
-        List<Meal> userMeals = mealService.getMealsByUser(currentUser.getUsername());
+        MealPage page = mealService.getMealHistoryPage(currentUser.getUsername(), null, HISTORY_PAGE_SIZE, null);
         
-        if (userMeals.isEmpty()) {
+        if (page.getMeals().isEmpty()) {
             System.out.println("No meals found in your history.");
             return;
         }
         
-        // Group meals by date
-        userMeals.sort((m1, m2) -> m2.getTimestamp().compareTo(m1.getTimestamp()));
-        
+        // Group meals by date, newest first
         String currentDate = "";
-        for (Meal meal : userMeals) {
-            String mealDate = meal.getFormattedDate();
-            if (!mealDate.equals(currentDate)) {
-                currentDate = mealDate;
-                System.out.println("\n" + mealDate + ":");
+        while (true) {
+            for (Meal meal : page.getMeals()) {
+                String mealDate = meal.getFormattedDate();
+                if (!mealDate.equals(currentDate)) {
+                    currentDate = mealDate;
+                    System.out.println("\n" + mealDate + ":");
+                }
+                
+                System.out.println("  " + meal.getFormattedTime() + " - " + 
+                                 meal.getMealType().getDisplayName() + 
+                                 " (" + meal.getTotalCalories() + " calories)");
+                
+                for (FoodItem item : meal.getFoodItemsView()) {
+                    System.out.println("    • " + item.getName() + " - " + 
+                                     item.getQuantity() + " " + item.getUnit() + 
+                                     " (" + item.getTotalCalories() + " calories)");
+                }
             }
             
-            System.out.println("  " + meal.getFormattedTime() + " - " + 
-                             meal.getMealType().getDisplayName() + 
-                             " (" + meal.getTotalCalories() + " calories)");
-            
-            for (FoodItem item : meal.getFoodItems()) {
-                System.out.println("    • " + item.getName() + " - " + 
-                                 item.getQuantity() + " " + item.getUnit() + 
-                                 " (" + item.getTotalCalories() + " calories)");
+            if (!page.hasMore() || !ValidationUtil.getYesNoInput("\nShow older meals?")) {
+                break;
             }
+            page = mealService.getMealHistoryPage(currentUser.getUsername(), page.getNextCursor(), HISTORY_PAGE_SIZE, null);
         }
     }
     
@@ -286,6 +364,9 @@ public class DietTrackerApp {
      */
     private void updateCalorieGoal() {
         System.out.println("\n=== Update Calorie Goal ===");
+        if (isReadReplica()) {
+            return;
+        }
         System.out.println("Current daily calorie goal: " + currentUser.getDailyCalorieGoal() + " calories");
         
         int newGoal = ValidationUtil.getValidPositiveIntegerInput("Enter new daily calorie goal: ");
@@ -323,6 +404,79 @@ public class DietTrackerApp {
             double goalPercentage = (stats[2] / currentUser.getDailyCalorieGoal()) * 100;
             System.out.printf("Average daily goal achievement: %.1f%%\n", goalPercentage);
         }
+        
+        CalorieDistribution distribution = mealService.getCalorieDistribution(currentUser.getUsername());
+        if (distribution.getMealCount() > 0) {
+            System.out.printf("Calories per meal: median %.0f, 90th percentile %.0f, 99th percentile %.0f\n",
+                    distribution.getMealMedian(), distribution.getMealP90(), distribution.getMealP99());
+        }
+        if (distribution.getDayCount() > 0) {
+            System.out.printf("Calories per day: median %.0f, 90th percentile %.0f, 99th percentile %.0f\n",
+                    distribution.getDailyMedian(), distribution.getDailyP90(), distribution.getDailyP99());
+        }
+        
+        // History chart from the persisted rollups
+        CalorieRollup.Granularity granularity = choice == 1 ? CalorieRollup.Granularity.DAY :
+                choice == 2 ? CalorieRollup.Granularity.WEEK : CalorieRollup.Granularity.MONTH;
+        LocalDate today = LocalDate.now();
+        List<CalorieRollup> history = mealService.getCalorieHistory(
+                currentUser.getUsername(), granularity, today.minusDays(days - 1), today);
+        
+        if (!history.isEmpty()) {
+            System.out.println("\nCalories by " + granularity.getDisplayName().toLowerCase() + ":");
+            int maxCalories = history.stream().mapToInt(CalorieRollup::getTotalCalories).max().orElse(0);
+            for (CalorieRollup rollup : history) {
+                int barLength = maxCalories > 0 ? rollup.getTotalCalories() * 30 / maxCalories : 0;
+                System.out.printf("  %s %-30s %d calories (%d meals)\n",
+                        rollup.getPeriodStart().format(DateTimeFormatter.ISO_LOCAL_DATE),
+                        "#".repeat(Math.max(barLength, 0)), rollup.getTotalCalories(), rollup.getMealCount());
+            }
+        }
+        
+        ReplicationStatus replication = replicationService.getStatus();
+        if (replication != null && replication.getRole() == ReplicationStatus.Role.PRIMARY) {
+            System.out.println("\nReplication: primary at change " + replication.getAppliedSequence()
+                    + ", " + replication.getFollowers() + " followers connected");
+        } else if (replication != null) {
+            System.out.printf("\nReplication: follower %s, at change %d of %d (%d behind, %.1f s)\n",
+                    replication.isConnected() ? "connected" : "disconnected",
+                    replication.getAppliedSequence(), replication.getPrimarySequence(),
+                    replication.getLagChanges(), replication.getLagMillis() / 1000.0);
+        }
+    }
+    
+    /**
+     * Checks whether this instance is a read replica and says so if it is.
+     * @return true if changes must be made on the primary instead
+     */
+    private boolean isReadReplica() {
+        if (replicationService.isFollower()) {
+            System.out.println("This is a read replica; please make changes on the primary.");
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Exports the user's whole meal history to a file.
+     */
+    private void exportMealHistory() {
+        System.out.println("\n=== Export Meal History ===");
+        System.out.println("1. CSV (one row per food item)");
+        System.out.println("2. JSON");
+        
+        int choice = ValidationUtil.getValidIntegerInRangeInput("Enter your choice (1-2): ", 1, 2);
+        ExportService.Format format = choice == 1 ? ExportService.Format.CSV : ExportService.Format.JSON;
+        boolean gzip = ValidationUtil.getYesNoInput("Compress with gzip?");
+        
+        Path target = ExportService.defaultTarget(currentUser.getUsername(), format, gzip);
+        try {
+            ExportStats stats = exportService.export(currentUser.getUsername(), format, gzip, target);
+            System.out.printf("Exported %d meals to %s in %d ms (%.0f meals per second).\n",
+                    stats.getRecords(), target, stats.getElapsedMillis(), stats.getRecordsPerSecond());
+        } catch (IOException e) {
+            System.out.println("Export failed: " + e.getMessage());
+        }
     }
     
     /**
@@ -0,0 +1,174 @@
+package com.diettracker.benchmark;
+
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.service.BinaryProtocolClient;
+import com.diettracker.service.BinaryProtocolServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks and times a running BinaryProtocolServer.
+ *
+ * Usage: java -cp bin com.diettracker.benchmark.BinaryProtocolLoadTest host:port username password
+ *        [connections] [requestsPerConnection] [pipelineDepth] [logEvery]
+ *
+ * Opens the given number of connections signed in as one existing user,
+ * and on each sends batches of pipelined requests, one meal logged in
+ * every logEvery requests (0 for none) and calorie totals read otherwise,
+ * waiting for each batch's responses before sending the next. Reports
+ * throughput and batch latency percentiles, and checks that every
+ * response arrived in order with OK and that the day's total grew by
+ * exactly the calories logged. Meals are really logged, so run it against
+ * a test data directory. Reading a day's total costs more as the day's
+ * meals grow, so long runs that log meals measure the meal service more
+ * than the protocol. Exits with status 1 if any check fails.
+ */
+public class BinaryProtocolLoadTest {
+    private static final String[] FOODS = {"Oats", "Rice", "Chicken", "Apple", "Yogurt", "Salmon"};
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: BinaryProtocolLoadTest host:port username password "
+                               + "[connections] [requestsPerConnection] [pipelineDepth] [logEvery]");
+            System.exit(2);
+        }
+        String[] hostPort = args[0].split(":");
+        InetSocketAddress address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        String username = args[1];
+        String password = args[2];
+        int connections = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        int requests = args.length > 4 ? Integer.parseInt(args[4]) : 100_000;
+        int depth = args.length > 5 ? Integer.parseInt(args[5]) : 64;
+        int logEvery = args.length > 6 ? Integer.parseInt(args[6]) : 4;
+        System.out.println("Connections: " + connections + ", requests per connection: " + requests
+                           + ", pipeline depth: " + depth + ", meal logged every: " + logEvery);
+
+        LocalDate today = LocalDate.now();
+        int before;
+        try (BinaryProtocolClient client = new BinaryProtocolClient(address)) {
+            client.sendDayCalories(today);
+            check("requests before signing in are refused",
+                  client.receive() == BinaryProtocolServer.NOT_AUTHENTICATED);
+            check("wrong password is rejected", client.authenticate(username, password + "x") < 0);
+            check("sign in as " + username, client.authenticate(username, password) >= 0);
+            client.sendDayCalories(today);
+            client.receive();
+            before = client.getResponseValue();
+        }
+
+        AtomicLong loggedCalories = new AtomicLong();
+        long[][] latencies = new long[connections][];
+        boolean[] passed = new boolean[connections];
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            int connection = c;
+            Thread thread = new Thread(() -> {
+                try {
+                    latencies[connection] = run(address, username, password, requests, depth, logEvery,
+                                                new Random(connection), loggedCalories);
+                    passed[connection] = latencies[connection] != null;
+                } catch (IOException e) {
+                    System.err.println("Error on connection " + connection + ": " + e.getMessage());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - start;
+
+        long total = (long) connections * requests;
+        System.out.printf("  %,d requests in %.2f ms: %,.0f requests/s%n", total, nanos / 1e6, total / (nanos / 1e9));
+        long[] all = Arrays.stream(latencies).filter(batch -> batch != null).flatMapToLong(Arrays::stream)
+                           .sorted().toArray();
+        if (all.length > 0) {
+            System.out.printf("  batch latency (%d requests): p50 %.1f us, p99 %.1f us, max %.1f us%n", depth,
+                              percentile(all, 0.50), percentile(all, 0.99), all[all.length - 1] / 1e3);
+        }
+        boolean allPassed = true;
+        for (boolean connectionPassed : passed) {
+            allPassed &= connectionPassed;
+        }
+        check("every response OK and in request order", allPassed);
+
+        try (BinaryProtocolClient client = new BinaryProtocolClient(address)) {
+            client.authenticate(username, password);
+            client.sendDayCalories(today);
+            client.receive();
+            check("day total grew by the " + loggedCalories.get() + " calories logged",
+                  client.getResponseValue() == before + loggedCalories.get());
+        }
+
+        System.out.println();
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) FAILED");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs one connection's requests.
+     * @return Nanoseconds per batch, or null if a response was wrong
+     */
+    private static long[] run(InetSocketAddress address, String username, String password, int requests, int depth,
+                              int logEvery, Random random, AtomicLong loggedCalories) throws IOException {
+        LocalDate today = LocalDate.now();
+        List<List<FoodItem>> meals = new ArrayList<>();
+        for (String food : FOODS) {
+            meals.add(List.of(new FoodItem(food, 50 + random.nextInt(400), 1.0, "serving")));
+        }
+        long[] latencies = new long[(requests + depth - 1) / depth];
+        try (BinaryProtocolClient client = new BinaryProtocolClient(address)) {
+            if (client.authenticate(username, password) < 0) {
+                return null;
+            }
+            int sent = 0;
+            for (int batch = 0; sent < requests; batch++) {
+                long start = System.nanoTime();
+                int first = -1;
+                int count = Math.min(depth, requests - sent);
+                for (int i = 0; i < count; i++, sent++) {
+                    int id;
+                    if (logEvery > 0 && sent % logEvery == 0) {
+                        List<FoodItem> meal = meals.get(random.nextInt(meals.size()));
+                        id = client.sendLogMeal(Meal.MealType.SNACK, meal);
+                        loggedCalories.addAndGet(meal.get(0).getTotalCalories());
+                    } else {
+                        id = client.sendDayCalories(today);
+                    }
+                    first = first < 0 ? id : first;
+                }
+                for (int i = 0; i < count; i++) {
+                    if (client.receive() != BinaryProtocolServer.OK || client.getResponseId() != first + i) {
+                        return null;
+                    }
+                }
+                latencies[batch] = System.nanoTime() - start;
+            }
+        }
+        return latencies;
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(quantile * sorted.length))] / 1e3;
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "  ok    " : "  FAIL  ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.diettracker.benchmark;
+
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.util.CalorieKernel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the scalar and vector calorie kernels on synthetic meals.
+ *
+ * Usage: java --add-modules jdk.incubator.vector -cp bin
+ *        com.diettracker.benchmark.CalorieKernelBenchmark [meals] [rounds]
+ *
+ * Without the module only the scalar kernel and the object path are timed.
+ * Every kernel's results are checked against Meal.getTotalCalories first.
+ */
+public class CalorieKernelBenchmark {
+    private static final int DEFAULT_MEALS = 1_000_000;
+    private static final int DEFAULT_ROUNDS = 20;
+    private static final int WARMUP_ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int mealCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MEALS;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+        Random random = new Random(42);
+        List<Meal> meals = new ArrayList<>(mealCount);
+        int[] offsets = new int[mealCount + 1];
+        List<FoodItem> items = new ArrayList<>();
+        for (int m = 0; m < mealCount; m++) {
+            Meal meal = new Meal("bench", Meal.MealType.values()[m % 4]);
+            int itemCount = 1 + random.nextInt(6);
+            for (int i = 0; i < itemCount; i++) {
+                // Fractional quantities exercise truncation; a few extremes exercise saturation
+                double quantity = random.nextInt(1000) == 0 ? 1e12 * (random.nextBoolean() ? 1 : -1)
+                                                            : random.nextInt(400) / 100.0;
+                FoodItem item = new FoodItem("food" + random.nextInt(500), random.nextInt(900), quantity, "g");
+                meal.addFoodItem(item);
+                items.add(item);
+            }
+            meals.add(meal);
+            offsets[m + 1] = items.size();
+        }
+
+        int[] caloriesPerUnit = new int[items.size()];
+        double[] quantities = new double[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            caloriesPerUnit[i] = items.get(i).getCaloriesPerUnit();
+            quantities[i] = items.get(i).getQuantity();
+        }
+
+        int[] expected = new int[mealCount];
+        int expectedTotal = 0;
+        for (int m = 0; m < mealCount; m++) {
+            expected[m] = meals.get(m).getTotalCalories();
+            expectedTotal += expected[m];
+        }
+
+        System.out.println("Meals: " + mealCount + ", food items: " + items.size() + ", rounds: " + rounds);
+        double objectNanos = timeObjects(meals, rounds);
+        report("Meal.getTotalCalories", objectNanos, items.size(), objectNanos);
+
+        List<CalorieKernel> kernels = new ArrayList<>();
+        kernels.add(CalorieKernel.scalar());
+        if (CalorieKernel.get() != CalorieKernel.scalar()) {
+            kernels.add(CalorieKernel.get());
+        } else {
+            System.out.println("(vector kernel unavailable; run with --add-modules jdk.incubator.vector)");
+        }
+
+        for (CalorieKernel kernel : kernels) {
+            int[] totals = kernel.segmentTotals(caloriesPerUnit, quantities, offsets, mealCount);
+            if (!Arrays.equals(totals, expected)) {
+                System.out.println(kernel.getName() + ": RESULTS DIFFER from Meal.getTotalCalories");
+                continue;
+            }
+            double nanos = timeKernel(kernel, caloriesPerUnit, quantities, offsets, mealCount, rounds);
+            report(kernel.getName() + " per meal", nanos, items.size(), objectNanos);
+
+            if (kernel.total(caloriesPerUnit, quantities, 0, items.size()) != expectedTotal) {
+                System.out.println(kernel.getName() + ": TOTAL DIFFERS from Meal.getTotalCalories");
+                continue;
+            }
+            double totalNanos = timeTotal(kernel, caloriesPerUnit, quantities, rounds);
+            report(kernel.getName() + " total", totalNanos, items.size(), objectNanos);
+        }
+    }
+
+    private static double timeObjects(List<Meal> meals, int rounds) {
+        long sink = 0;
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < WARMUP_ROUNDS + rounds; r++) {
+            long start = System.nanoTime();
+            for (Meal meal : meals) {
+                sink += meal.getTotalCalories();
+            }
+            long elapsed = System.nanoTime() - start;
+            if (r >= WARMUP_ROUNDS) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        consume(sink);
+        return best;
+    }
+
+    private static double timeKernel(CalorieKernel kernel, int[] caloriesPerUnit, double[] quantities,
+                                     int[] offsets, int segments, int rounds) {
+        long sink = 0;
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < WARMUP_ROUNDS + rounds; r++) {
+            long start = System.nanoTime();
+            int[] totals = kernel.segmentTotals(caloriesPerUnit, quantities, offsets, segments);
+            long elapsed = System.nanoTime() - start;
+            sink += totals[r % segments];
+            if (r >= WARMUP_ROUNDS) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        consume(sink);
+        return best;
+    }
+
+    private static double timeTotal(CalorieKernel kernel, int[] caloriesPerUnit, double[] quantities, int rounds) {
+        long sink = 0;
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < WARMUP_ROUNDS + rounds; r++) {
+            long start = System.nanoTime();
+            sink += kernel.total(caloriesPerUnit, quantities, 0, caloriesPerUnit.length);
+            long elapsed = System.nanoTime() - start;
+            if (r >= WARMUP_ROUNDS) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        consume(sink);
+        return best;
+    }
+
+    private static void report(String name, double nanos, int items, double baselineNanos) {
+        System.out.printf("%-36s %8.2f ms  %6.2f ns/item  %5.1fx%n",
+                name, nanos / 1e6, nanos / items, baselineNanos / nanos);
+    }
+
+    private static void consume(long value) {
+        if (value == 42) {
+            System.out.print("");
+        }
+    }
+}
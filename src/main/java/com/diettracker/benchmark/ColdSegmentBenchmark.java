@@ -0,0 +1,267 @@
+package com.diettracker.benchmark;
+
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.service.FileService;
+import com.diettracker.service.MealSegment;
+import com.diettracker.storage.MealRepository;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the two cold tier month file formats: plain meals-file text and
+ * block-compressed MealSegment files.
+ *
+ * Usage: java -cp bin com.diettracker.benchmark.ColdSegmentBenchmark [meals] [blockMeals]
+ *
+ * Writes the same generated meals as one file per user and month in each
+ * format, in a temporary directory, and reports the compression ratio, the
+ * throughput of reading every file, and date range scans, where text files
+ * are read whole and segments decompress only the blocks in range. Checks
+ * that both formats return the same meals. Exits with status 1 if any
+ * check fails.
+ */
+public class ColdSegmentBenchmark {
+    private static final int DEFAULT_MEALS = 200_000;
+    private static final int USERS = 20;
+    private static final int DAYS = 730;
+    private static final int SCANS = 2000;
+    private static final String[] FOODS = {"Oats", "Rice", "Chicken", "Apple", "Yogurt", "Salmon"};
+    private static final String[] UNITS = {"serving", "cup", "piece", "g"};
+
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        int mealCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MEALS;
+        int blockMeals = args.length > 1 ? Integer.parseInt(args[1]) : MealSegment.DEFAULT_BLOCK_MEALS;
+        Map<String, List<Meal>> months = groupByUserMonth(generateMeals(mealCount, new Random(42)));
+        System.out.println("Meals: " + mealCount + ", month files: " + months.size() + ", meals per block: "
+                           + blockMeals);
+
+        Path directory = Files.createTempDirectory("diettracker-segments");
+        try {
+            long start = System.nanoTime();
+            for (Map.Entry<String, List<Meal>> month : months.entrySet()) {
+                writeText(directory.resolve(month.getKey() + ".txt"), month.getValue());
+            }
+            report("write text", start, mealCount);
+            start = System.nanoTime();
+            for (Map.Entry<String, List<Meal>> month : months.entrySet()) {
+                MealSegment.write(directory.resolve(month.getKey() + ".seg"), month.getValue(), blockMeals);
+            }
+            report("write segments", start, mealCount);
+
+            long textBytes = 0;
+            long segmentBytes = 0;
+            int blocks = 0;
+            for (String name : months.keySet()) {
+                textBytes += Files.size(directory.resolve(name + ".txt"));
+                segmentBytes += Files.size(directory.resolve(name + ".seg"));
+                blocks += MealSegment.open(directory.resolve(name + ".seg")).getBlockCount();
+            }
+            System.out.printf("  text %,d bytes, segments %,d bytes in %,d blocks: ratio %.2fx%n",
+                              textBytes, segmentBytes, blocks, (double) textBytes / segmentBytes);
+
+            timeFullScans(directory, months, mealCount, textBytes);
+            timeRangeScans(directory, months, 1);
+            timeRangeScans(directory, months, 7);
+        } finally {
+            deleteDirectory(directory);
+        }
+
+        System.out.println();
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) FAILED");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void timeFullScans(Path directory, Map<String, List<Meal>> months, int mealCount,
+                                      long textBytes) throws IOException {
+        // The first passes warm up the JIT; the last is reported. Both keep what they read.
+        for (int pass = 0; pass < 3; pass++) {
+            Map<String, List<Meal>> text = new TreeMap<>();
+            long start = System.nanoTime();
+            for (String name : months.keySet()) {
+                text.put(name, readText(directory.resolve(name + ".txt"), null, null));
+            }
+            long textNanos = System.nanoTime() - start;
+            Map<String, List<Meal>> segments = new TreeMap<>();
+            start = System.nanoTime();
+            for (String name : months.keySet()) {
+                segments.put(name, MealSegment.open(directory.resolve(name + ".seg")).read(null, null));
+            }
+            long segmentNanos = System.nanoTime() - start;
+            if (pass == 2) {
+                throughput("full scan, text", textNanos, mealCount, textBytes);
+                throughput("full scan, segments", segmentNanos, mealCount, textBytes);
+                boolean same = true;
+                for (String name : months.keySet()) {
+                    same &= describeMeals(segments.get(name)).equals(describeMeals(text.get(name)));
+                }
+                check("full scan: segments hold every meal, in order", same);
+            }
+        }
+    }
+
+    private static void timeRangeScans(Path directory, Map<String, List<Meal>> months, int days)
+            throws IOException {
+        Random random = new Random(days);
+        List<LocalDate> froms = new ArrayList<>();
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < SCANS; i++) {
+            froms.add(LocalDate.now().minusDays(DAYS - random.nextInt(DAYS - days)));
+            users.add("user" + random.nextInt(USERS));
+        }
+
+        long found = 0;
+        List<List<Meal>> textResults = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) {
+            List<Meal> meals = new ArrayList<>();
+            LocalDate from = froms.get(i);
+            LocalDate to = from.plusDays(days - 1);
+            YearMonth last = YearMonth.from(to);
+            for (YearMonth month = YearMonth.from(from); !month.isAfter(last); month = month.plusMonths(1)) {
+                Path file = directory.resolve(users.get(i) + "_" + month + ".txt");
+                if (Files.exists(file)) {
+                    meals.addAll(readText(file, from, to));
+                }
+            }
+            found += meals.size();
+            textResults.add(meals);
+        }
+        report("range scan (" + days + (days == 1 ? " day), text" : " days), text"), start, SCANS);
+
+        int blocksRead = 0;
+        int blocksTotal = 0;
+        List<List<Meal>> segmentResults = new ArrayList<>();
+        start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) {
+            List<Meal> meals = new ArrayList<>();
+            LocalDate from = froms.get(i);
+            LocalDate to = from.plusDays(days - 1);
+            YearMonth last = YearMonth.from(to);
+            for (YearMonth month = YearMonth.from(from); !month.isAfter(last); month = month.plusMonths(1)) {
+                Path file = directory.resolve(users.get(i) + "_" + month + ".seg");
+                if (Files.exists(file)) {
+                    MealSegment segment = MealSegment.open(file);
+                    blocksRead += segment.countBlocks(from, to);
+                    blocksTotal += segment.getBlockCount();
+                    meals.addAll(segment.read(from, to));
+                }
+            }
+            segmentResults.add(meals);
+        }
+        report("range scan (" + days + (days == 1 ? " day), segments" : " days), segments"), start, SCANS);
+        System.out.printf("  found meals: %d, blocks decompressed: %d of %d in the month files%n",
+                          found, blocksRead, blocksTotal);
+        boolean same = true;
+        for (int i = 0; i < SCANS; i++) {
+            same &= describeMeals(segmentResults.get(i)).equals(describeMeals(textResults.get(i)));
+        }
+        check("range scan (" + days + (days == 1 ? " day" : " days") + "): segments match text", same);
+    }
+
+    private static List<Meal> generateMeals(int count, Random random) {
+        LocalDateTime start = LocalDate.now().minusDays(DAYS).atTime(6, 0);
+        List<Meal> meals = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Meal meal = new Meal("user" + random.nextInt(USERS), Meal.MealType.values()[random.nextInt(4)],
+                                 start.plusMinutes(random.nextInt(DAYS * 24 * 60)));
+            meal.setId(i + 1);
+            int items = 1 + random.nextInt(3);
+            for (int j = 0; j < items; j++) {
+                meal.addFoodItem(new FoodItem(FOODS[random.nextInt(FOODS.length)], 50 + random.nextInt(400),
+                                              1 + random.nextInt(3), UNITS[random.nextInt(UNITS.length)]));
+            }
+            meals.add(meal);
+        }
+        return meals;
+    }
+
+    /**
+     * Groups meals like the cold tier: one sorted list per user and month, named user_yyyy-MM.
+     */
+    private static Map<String, List<Meal>> groupByUserMonth(List<Meal> meals) {
+        Map<String, List<Meal>> months = new TreeMap<>();
+        for (Meal meal : meals) {
+            months.computeIfAbsent(meal.getUsername() + "_" + YearMonth.from(meal.getTimestamp()),
+                                   name -> new ArrayList<>()).add(meal);
+        }
+        months.values().forEach(month -> month.sort(MealRepository.MEAL_ORDER));
+        return months;
+    }
+
+    private static void writeText(Path file, List<Meal> meals) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            for (Meal meal : meals) {
+                writer.println(meal.toString());
+            }
+        }
+    }
+
+    private static List<Meal> readText(Path file, LocalDate from, LocalDate to) throws IOException {
+        List<Meal> meals = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Meal meal = FileService.parseMeal(line);
+                if (meal == null) {
+                    continue;
+                }
+                LocalDate date = meal.getTimestamp().toLocalDate();
+                if ((from == null || !date.isBefore(from)) && (to == null || !date.isAfter(to))) {
+                    meals.add(meal);
+                }
+            }
+        }
+        return meals;
+    }
+
+    private static String describeMeals(List<Meal> meals) {
+        return meals.stream().map(Meal::toString).collect(Collectors.joining("|"));
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "  ok    " : "  FAIL  ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    private static void report(String name, long startNanos, int operations) {
+        double millis = (System.nanoTime() - startNanos) / 1e6;
+        System.out.printf("  %-32s %9.2f ms  %8.2f us/op%n", name, millis, millis * 1000 / operations);
+    }
+
+    private static void throughput(String name, long nanos, int meals, long textBytes) {
+        double seconds = nanos / 1e9;
+        System.out.printf("  %-32s %9.2f ms  %,10.0f meals/s  %7.1f MB/s of text%n", name, seconds * 1000,
+                          meals / seconds, textBytes / seconds / 1e6);
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+}
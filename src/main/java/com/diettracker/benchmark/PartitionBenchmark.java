@@ -0,0 +1,169 @@
+package com.diettracker.benchmark;
+
+import com.diettracker.model.CalorieDistribution;
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.model.PopulationReport;
+import com.diettracker.service.PartitionRouter;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks and times a partitioned tracker made of running PartitionNode processes.
+ *
+ * Usage: java -cp bin com.diettracker.benchmark.PartitionBenchmark users mealsPerUser node... [+node]
+ *
+ * Registers users under a fresh prefix, logs meals for them through the
+ * router and checks that every user is served by the node the ring assigns,
+ * and that the fanned-out report and cohort distribution cover all of them.
+ * A node given as +host:port is then added: only the users it takes over
+ * may move, and every user must keep all their meals. Exits with status 1
+ * if any check fails.
+ */
+public class PartitionBenchmark {
+    private static final int VIRTUAL_NODES = 128;
+    private static final String[] FOODS = {"Oats", "Rice", "Chicken", "Apple", "Yogurt", "Salmon"};
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: PartitionBenchmark users mealsPerUser node... [+node]");
+            System.exit(2);
+        }
+        int userCount = Integer.parseInt(args[0]);
+        int mealsPerUser = Integer.parseInt(args[1]);
+        List<String> nodes = new ArrayList<>();
+        String addedNode = null;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("+")) {
+                addedNode = args[i].substring(1);
+            } else {
+                nodes.add(args[i]);
+            }
+        }
+
+        PartitionRouter router = new PartitionRouter(nodes, VIRTUAL_NODES);
+        String prefix = "p" + Long.toString(System.currentTimeMillis() % 1_000_000, 36) + "_";
+        List<String> usernames = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            usernames.add(prefix + i);
+        }
+        System.out.println("Nodes: " + nodes + ", users: " + userCount + ", meals per user: " + mealsPerUser);
+
+        long start = System.nanoTime();
+        Random random = new Random(42);
+        boolean written = true;
+        for (String username : usernames) {
+            written &= router.registerUser(username, "password");
+            written &= router.updateCalorieGoal(username, 1500 + random.nextInt(1500));
+            for (int i = 0; i < mealsPerUser; i++) {
+                List<FoodItem> items = List.of(new FoodItem(FOODS[random.nextInt(FOODS.length)],
+                                                            50 + random.nextInt(400), 1 + random.nextInt(3)));
+                written &= router.addMeal(username, Meal.MealType.values()[i % 4], items);
+            }
+        }
+        long calls = (long) userCount * (2 + mealsPerUser);
+        report("routed writes", start, calls);
+        check("writes: every registration, goal and meal accepted", written);
+
+        Map<String, Integer> calories = new HashMap<>();
+        for (String username : usernames) {
+            calories.put(username, totalCalories(router.getMealsByUser(username)));
+        }
+        checkPlacement(router, usernames, mealsPerUser);
+        checkAnalytics(router, usernames, mealsPerUser, calories);
+
+        if (addedNode != null) {
+            Map<String, String> owners = new HashMap<>();
+            usernames.forEach(username -> owners.put(username, router.getNode(username)));
+            System.out.println("User counts before adding " + addedNode + ": " + router.getUserCounts());
+
+            start = System.nanoTime();
+            int moved = router.addNode(addedNode);
+            report("rebalance (" + moved + " users)", start, moved);
+            System.out.println("User counts after: " + router.getUserCounts());
+
+            int expected = 0;
+            boolean onlyToNewNode = true;
+            for (String username : usernames) {
+                String owner = router.getNode(username);
+                if (!owner.equals(owners.get(username))) {
+                    expected++;
+                    onlyToNewNode &= owner.equals(addedNode);
+                }
+            }
+            check("rebalance: users only move to the new node", onlyToNewNode);
+            check("rebalance: moved users are those the new node owns (" + expected + " of " + userCount + ")",
+                  moved >= expected);
+            checkPlacement(router, usernames, mealsPerUser);
+            checkAnalytics(router, usernames, mealsPerUser, calories);
+        }
+
+        for (String username : usernames) {
+            router.deleteUser(username);
+        }
+        router.close();
+        System.out.println();
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) FAILED");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void checkPlacement(PartitionRouter router, List<String> usernames, int mealsPerUser) {
+        boolean found = true;
+        boolean complete = true;
+        for (String username : usernames) {
+            found &= router.getUserByUsername(username) != null;
+            complete &= router.getMealsByUser(username).size() == mealsPerUser;
+        }
+        check("placement: every user found on the node the ring assigns", found);
+        check("placement: every user has all their meals", complete);
+    }
+
+    private static void checkAnalytics(PartitionRouter router, List<String> usernames, int mealsPerUser,
+                                       Map<String, Integer> calories) {
+        long start = System.nanoTime();
+        LocalDate today = LocalDate.now();
+        PopulationReport population = router.computeReport(today, today);
+        report("fanned-out report", start, 1);
+        boolean matches = true;
+        for (String username : usernames) {
+            PopulationReport.UserMetrics metrics = population.getUserMetrics(username);
+            matches &= mealsPerUser == 0 ? metrics == null
+                    : metrics != null && metrics.getTotalCalories() == calories.get(username);
+        }
+        check("analytics: report covers every user with their own calories", matches);
+
+        start = System.nanoTime();
+        CalorieDistribution distribution = router.getCohortCalorieDistribution(usernames);
+        report("cohort distribution", start, 1);
+        check("analytics: cohort distribution counts every meal",
+              distribution.getMealCount() == (long) usernames.size() * mealsPerUser);
+    }
+
+    private static int totalCalories(List<Meal> meals) {
+        int total = 0;
+        for (Meal meal : meals) {
+            total += meal.getTotalCalories();
+        }
+        return total;
+    }
+
+    private static void report(String name, long startNanos, long operations) {
+        double millis = (System.nanoTime() - startNanos) / 1e6;
+        System.out.printf("  %-28s %9.2f ms  %8.2f us/op%n", name, millis, millis * 1000 / Math.max(operations, 1));
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "  ok    " : "  FAIL  ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+}
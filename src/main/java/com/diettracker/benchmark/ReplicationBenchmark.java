@@ -0,0 +1,330 @@
+package com.diettracker.benchmark;
+
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.model.ReplicationStatus;
+import com.diettracker.model.User;
+import com.diettracker.service.MealService;
+import com.diettracker.service.ReplicationService;
+import com.diettracker.service.UserService;
+import com.diettracker.storage.InMemoryMealRepository;
+import com.diettracker.storage.InMemoryUserRepository;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Checks that a follower in another JVM converges to its primary, and times
+ * replication.
+ *
+ * Usage: java -cp bin com.diettracker.benchmark.ReplicationBenchmark [users] [mealsPerUser] [port]
+ *
+ * Runs a primary on in-memory storage in this JVM and starts each follower
+ * as a child JVM on the same classpath, in its own temporary working
+ * directory. Writes users and meals from several threads, with goal
+ * changes, meal removals and user deletions among them, and reports the
+ * write rate and how long the follower takes to catch up once writes stop.
+ * Then disconnects the follower while writes go on, which must resume
+ * where it stopped, kills it and starts a new one, which must catch up from
+ * a snapshot, and starts one with a wrong token, which must be refused. Convergence is checked by comparing digests of all users
+ * and meals on both sides. Derived data is written under data/ in the
+ * working directory, so run it from an empty one. Exits with status 1 if
+ * any check fails.
+ */
+public class ReplicationBenchmark {
+    private static final String FOLLOWER_MODE = "--follower";
+    private static final int WRITERS = 2;
+    private static final long CATCH_UP_TIMEOUT_MILLIS = 60_000;
+    private static final long REFUSAL_WAIT_MILLIS = 3000;
+    private static final String[] FOODS = {"Oats", "Rice", "Chicken", "Apple", "Yogurt", "Salmon"};
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(FOLLOWER_MODE)) {
+            runFollower(Integer.parseInt(args[1]), args[2]);
+            return;
+        }
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int mealsPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 7391;
+        System.out.println("Users: " + userCount + ", meals per user: " + mealsPerUser + ", port: " + port);
+
+        String token = Long.toHexString(new SecureRandom().nextLong());
+        UserService userService = new UserService(new InMemoryUserRepository());
+        MealService mealService = new MealService(userService, new InMemoryMealRepository());
+        ReplicationService primary = new ReplicationService(userService, mealService, ReplicationStatus.Role.PRIMARY,
+                                                            new InetSocketAddress("localhost", port), token, null);
+        if (!primary.start()) {
+            System.out.println("  FAIL  primary could not listen on port " + port);
+            System.exit(1);
+        }
+
+        Follower follower = new Follower(port, token);
+        long start = System.nanoTime();
+        long writes = write(userService, mealService, "a", userCount, mealsPerUser);
+        report("writes, follower attached", start, writes);
+        catchUp(follower, primary, userService, mealService, "follower converges to the primary");
+
+        Thread writer = new Thread(() -> write(userService, mealService, "b", userCount, mealsPerUser));
+        writer.start();
+        Thread.sleep(200);
+        follower.reconnect();
+        writer.join();
+        catchUp(follower, primary, userService, mealService, "follower resumes after a disconnect");
+
+        // Writes go on while the follower dies; its replacement starts empty and needs a snapshot
+        writer = new Thread(() -> write(userService, mealService, "c", userCount, mealsPerUser));
+        writer.start();
+        Thread.sleep(200);
+        follower.kill();
+        writer.join();
+        follower = new Follower(port, token);
+        catchUp(follower, primary, userService, mealService, "restarted follower converges from a snapshot");
+        follower.close();
+
+        Follower intruder = new Follower(port, token + "x");
+        String[] state = intruder.check(1, REFUSAL_WAIT_MILLIS);
+        intruder.close();
+        check("follower with a wrong token gets nothing",
+              state != null && state[1].equals("0") && state[2].equals("0") && state[3].equals("0"));
+
+        primary.shutdown();
+        mealService.shutdown();
+
+        System.out.println();
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) FAILED");
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    /**
+     * Registers users and logs their meals from several threads, changing
+     * some goals and deleting every fifth user with their last meal.
+     * @return Number of changes made
+     */
+    private static long write(UserService userService, MealService mealService, String prefix, int userCount,
+                              int mealsPerUser) {
+        AtomicLong changes = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int first = w;
+            threads.add(new Thread(() -> {
+                for (int i = first; i < userCount; i += WRITERS) {
+                    String username = prefix + i;
+                    userService.registerUser(username, "secret" + i);
+                    for (int m = 0; m < mealsPerUser; m++) {
+                        mealService.addMeal(username, Meal.MealType.values()[m % 4],
+                                            List.of(new FoodItem(FOODS[(i + m) % FOODS.length], 50 + i % 400,
+                                                                 1.0, "serving")));
+                    }
+                    changes.addAndGet(1 + mealsPerUser);
+                    if (i % 3 == 0) {
+                        userService.updateCalorieGoal(username, 1500 + i % 1000);
+                        changes.incrementAndGet();
+                    }
+                    if (i % 5 == 0) {
+                        Meal last = mealService.getMostRecentMeal(username);
+                        if (last != null) {
+                            mealService.removeMeal(last.getId());
+                        }
+                        userService.deleteUser(username);
+                        changes.addAndGet(2);
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return changes.get();
+    }
+
+    /**
+     * Waits for a follower to apply every change so far and compares its users and meals with the primary's.
+     */
+    private static void catchUp(Follower follower, ReplicationService primary, UserService userService,
+                                MealService mealService, String name) throws IOException {
+        long sequence = primary.getStatus().getAppliedSequence();
+        long start = System.nanoTime();
+        String[] state = follower.check(sequence, CATCH_UP_TIMEOUT_MILLIS);
+        double millis = (System.nanoTime() - start) / 1e6;
+        System.out.printf("  catch-up to change %,d: %.0f ms, %,d users, %,d meals%n", sequence, millis,
+                          userService.getAllUsers().size(), mealService.getAllMeals().size());
+        check(name, state != null && Long.parseLong(state[1]) >= sequence
+                    && state[4].equals(digest(userService, mealService)));
+    }
+
+    /**
+     * Digest of every user and meal record, in sorted order.
+     */
+    private static String digest(UserService userService, MealService mealService) {
+        List<String> records = new ArrayList<>();
+        for (User user : userService.getAllUsers()) {
+            records.add("U," + user);
+        }
+        for (Meal meal : mealService.getAllMeals()) {
+            records.add("M," + meal);
+        }
+        Collections.sort(records);
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            for (String record : records) {
+                sha.update((record + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Body of a follower JVM: answers "CHECK <sequence> <timeoutMillis>" on
+     * standard input, once it has applied that change or timed out, with
+     * "STATE <applied> <users> <meals> <digest>", and "RECONNECT", after
+     * dropping the connection and following again, with "RECONNECTED".
+     */
+    private static void runFollower(int port, String token) throws IOException, InterruptedException {
+        UserService userService = new UserService(new InMemoryUserRepository());
+        MealService mealService = new MealService(userService, new InMemoryMealRepository());
+        ReplicationService follower = new ReplicationService(userService, mealService,
+                                                             ReplicationStatus.Role.FOLLOWER,
+                                                             new InetSocketAddress("localhost", port), token, null);
+        follower.start();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals("RECONNECT")) {
+                // Keeps the applied sequence, so the primary is asked to resume after it
+                follower.shutdown();
+                follower.start();
+                System.out.println("RECONNECTED");
+                System.out.flush();
+                continue;
+            }
+            String[] request = line.split(" ");
+            long sequence = Long.parseLong(request[1]);
+            long deadline = System.currentTimeMillis() + Long.parseLong(request[2]);
+            while (follower.getStatus().getAppliedSequence() < sequence && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            System.out.println("STATE " + follower.getStatus().getAppliedSequence() + " "
+                               + userService.getAllUsers().size() + " " + mealService.getAllMeals().size() + " "
+                               + digest(userService, mealService));
+            System.out.flush();
+        }
+        follower.shutdown();
+        mealService.shutdown();
+        System.exit(0);
+    }
+
+    /**
+     * A follower JVM with its own temporary working directory.
+     */
+    private static final class Follower {
+        private final Path directory;
+        private final Process process;
+        private final PrintWriter commands;
+        private final BufferedReader answers;
+
+        Follower(int port, String token) throws IOException {
+            directory = Files.createTempDirectory("diettracker-follower");
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                command.add("--add-modules");
+                command.add("jdk.incubator.vector");
+            }
+            command.add("-cp");
+            // The child runs elsewhere, so relative classpath entries are resolved here
+            List<String> classPath = new ArrayList<>();
+            for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                classPath.add(Paths.get(entry).toAbsolutePath().toString());
+            }
+            command.add(String.join(File.pathSeparator, classPath));
+            command.add(ReplicationBenchmark.class.getName());
+            command.add(FOLLOWER_MODE);
+            command.add(Integer.toString(port));
+            command.add(token);
+            process = new ProcessBuilder(command).directory(directory.toFile())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            commands = new PrintWriter(process.getOutputStream(), true, StandardCharsets.UTF_8);
+            answers = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Waits for the follower to apply a change.
+         * @return "STATE" and the applied sequence, user and meal counts and digest, or null if it exited
+         */
+        String[] check(long sequence, long timeoutMillis) throws IOException {
+            commands.println("CHECK " + sequence + " " + timeoutMillis);
+            String line;
+            while ((line = answers.readLine()) != null) {
+                if (line.startsWith("STATE ")) {
+                    return line.split(" ");
+                }
+            }
+            return null;
+        }
+
+        void reconnect() throws IOException {
+            commands.println("RECONNECT");
+            String line;
+            while ((line = answers.readLine()) != null && !line.equals("RECONNECTED")) {
+                // Skips anything else the follower printed
+            }
+        }
+
+        void kill() throws IOException, InterruptedException {
+            process.destroyForcibly().waitFor();
+            deleteDirectory(directory);
+        }
+
+        void close() throws IOException, InterruptedException {
+            commands.close();
+            process.waitFor();
+            deleteDirectory(directory);
+        }
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "  ok    " : "  FAIL  ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    private static void report(String name, long startNanos, long operations) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("  %-32s %9.2f ms  %,10.0f changes/s%n", name, seconds * 1000, operations / seconds);
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.diettracker.benchmark;
+
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.model.MealQuery;
+import com.diettracker.model.User;
+import com.diettracker.storage.MealRepository;
+import com.diettracker.storage.Repositories;
+import com.diettracker.storage.StorageCapability;
+import com.diettracker.storage.UserRepository;
+import java.io.File;
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the same conformance checks and timings against every storage engine.
+ *
+ * Usage: java -cp bin com.diettracker.benchmark.RepositoryBenchmark [meals] [engine...]
+ *
+ * Each engine works in its own temporary directory, so the data directory
+ * is never touched. Checks cover the operations every repository must
+ * implement and those its capabilities declare; declared-unsupported
+ * operations must throw UnsupportedOperationException. Engines that cannot
+ * be opened, such as jdbc without its driver on the classpath, are skipped
+ * unless named on the command line. Exits with status 1 if any check fails.
+ */
+public class RepositoryBenchmark {
+    private static final int DEFAULT_MEALS = 50_000;
+    private static final int USERS = 20;
+    private static final int SCANS = 200;
+    private static final String[] FOODS = {"Oats", "Rice", "Chicken", "Apple", "Yogurt", "Salmon"};
+
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        int mealCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MEALS;
+        List<String> engines = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            engines.add(args[i]);
+        }
+        boolean allEngines = engines.isEmpty();
+        if (allEngines) {
+            engines.addAll(Repositories.getEngineNames());
+        }
+
+        List<Meal> meals = generateMeals(mealCount, new Random(42));
+        System.out.println("Meals: " + mealCount + ", users: " + USERS + ", scans: " + SCANS);
+        for (String engine : engines) {
+            Path directory = Files.createTempDirectory("diettracker-" + engine);
+            try {
+                System.out.println();
+                System.out.println("== " + engine + " ==");
+                String unavailable = probe(engine, directory.toFile());
+                if (unavailable != null) {
+                    // Engines needing a driver that is not on the classpath only fail when asked for by name
+                    if (allEngines) {
+                        System.out.println("  skipped: " + unavailable);
+                    } else {
+                        check("engine opens (" + unavailable + ")", false);
+                    }
+                    continue;
+                }
+                checkUsers(engine, directory.toFile());
+                checkMeals(engine, directory.toFile());
+                timeMeals(engine, directory.toFile(), meals);
+            } finally {
+                deleteDirectory(directory);
+            }
+        }
+
+        System.out.println();
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) FAILED");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Tries to open an engine's stores.
+     * @return Why the engine cannot be opened, or null if it can
+     */
+    private static String probe(String engine, File directory) {
+        try {
+            Repositories.openUsers(engine, directory).close();
+            Repositories.openMeals(engine, directory).close();
+            return null;
+        } catch (IllegalStateException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static void checkUsers(String engine, File directory) {
+        UserRepository users = Repositories.openUsers(engine, directory);
+        check("users: empty store loads nothing", users.loadUsers().isEmpty());
+
+        List<User> saved = List.of(new User("alice", "secret1", 1800), new User("bob", "secret2", 2500));
+        users.saveUsers(saved);
+        check("users: save then load", describeUsers(users.loadUsers()).equals(describeUsers(saved)));
+
+        if (users.supports(StorageCapability.APPEND)) {
+            users.addUser(new User("carol", "secret3", 2000));
+            users.updateUser(new User("alice", "secret1", 1600));
+            check("users: add and update", describeUsers(users.loadUsers()).equals(
+                    "alice,secret1,1600|bob,secret2,2500|carol,secret3,2000"));
+        } else {
+            check("users: add unsupported", throwsUnsupported(() -> users.addUser(saved.get(0))));
+        }
+
+        if (users.supports(StorageCapability.POINT_DELETE)) {
+            users.deleteUser("bob");
+            check("users: delete", users.loadUsers().stream().noneMatch(u -> u.getUsername().equals("bob")));
+        } else {
+            check("users: delete unsupported", throwsUnsupported(() -> users.deleteUser("bob")));
+        }
+        users.close();
+    }
+
+    private static void checkMeals(String engine, File directory) {
+        MealRepository repository = Repositories.openMeals(engine, directory);
+        check("meals: empty store loads nothing", repository.loadMeals().isEmpty());
+
+        List<Meal> expected = generateMeals(500, new Random(7));
+        repository.saveMeals(expected);
+        check("meals: save then load", sameMeals(repository.loadMeals(), expected));
+        repository.saveMeals(expected.subList(0, 100));
+        check("meals: save replaces everything", sameMeals(repository.loadMeals(), expected.subList(0, 100)));
+        repository.saveMeals(expected);
+
+        if (repository.supports(StorageCapability.APPEND)) {
+            List<Meal> added = generateMeals(50, new Random(8));
+            for (int i = 0; i < added.size(); i++) {
+                added.get(i).setId(expected.size() + i + 1);
+            }
+            repository.appendMeals(added);
+            expected.addAll(added);
+            check("meals: append", sameMeals(repository.loadMeals(), expected));
+
+            Meal updated = copyOf(expected.get(3));
+            updated.setFoodItems(List.of(new FoodItem("Edited", 123, 2, "serving")));
+            repository.updateMeal(updated);
+            expected.set(3, updated);
+            check("meals: update replaces by id", sameMeals(repository.loadMeals(), expected));
+        } else {
+            check("meals: append unsupported", throwsUnsupported(() -> repository.appendMeals(expected)));
+        }
+
+        if (repository.supports(StorageCapability.POINT_DELETE)) {
+            List<Meal> deleted = new ArrayList<>(expected.subList(10, 20));
+            repository.deleteMeals(deleted);
+            expected.removeAll(deleted);
+            check("meals: delete by id", sameMeals(repository.loadMeals(), expected));
+        } else {
+            check("meals: delete unsupported", throwsUnsupported(() -> repository.deleteMeals(expected)));
+        }
+
+        LocalDate from = LocalDate.now().minusDays(200);
+        LocalDate to = LocalDate.now().minusDays(100);
+        boolean scansMatch = true;
+        for (int u = 0; u < USERS; u++) {
+            String username = "user" + u;
+            scansMatch &= describeMeals(repository.scanMeals(username, from, to))
+                    .equals(describeMeals(filter(expected, username, from, to)));
+            scansMatch &= describeMeals(repository.scanMeals(username, null, null))
+                    .equals(describeMeals(filter(expected, username, null, null)));
+        }
+        check("meals: range scan matches a filtered load, in order", scansMatch);
+
+        List<MealQuery> queries = List.of(
+                MealQuery.builder().user("user3").between(from, to).mealType(Meal.MealType.LUNCH).build(),
+                MealQuery.builder().user("user1").user("user2").newestFirst().limit(7).build(),
+                MealQuery.builder().foodName("oats").calories(300, 900).dayOfWeek(DayOfWeek.MONDAY).build(),
+                MealQuery.builder().between(to, null).mealType(Meal.MealType.DINNER).mealType(Meal.MealType.SNACK)
+                        .newestFirst().limit(20).build());
+        boolean queriesMatch = true;
+        for (MealQuery query : queries) {
+            queriesMatch &= describeMeals(repository.findMeals(query)).equals(describeMeals(find(expected, query)));
+        }
+        check("meals: queries match a filtered load, in order", queriesMatch);
+
+        repository.close();
+        if (!engine.equals(Repositories.MEMORY)) {
+            MealRepository reopened = Repositories.openMeals(engine, directory);
+            check("meals: reopened store loads the same meals", sameMeals(reopened.loadMeals(), expected));
+            reopened.close();
+        }
+    }
+
+    private static void timeMeals(String engine, File directory, List<Meal> meals) {
+        deleteContents(directory);
+        MealRepository repository = Repositories.openMeals(engine, directory);
+        System.out.println("  capabilities: " + repository.getCapabilities());
+
+        long start = System.nanoTime();
+        repository.saveMeals(meals);
+        report("save all", start, meals.size());
+
+        start = System.nanoTime();
+        List<Meal> loaded = repository.loadMeals();
+        report("load all", start, loaded.size());
+
+        if (repository.supports(StorageCapability.APPEND)) {
+            List<Meal> extra = generateMeals(1000, new Random(9));
+            long nextId = meals.size();
+            start = System.nanoTime();
+            for (Meal meal : extra) {
+                meal.setId(++nextId);
+                repository.appendMeals(List.of(meal));
+            }
+            report("append one at a time", start, extra.size());
+        }
+
+        // Without native range scans or queries every one is a full load, so fewer are timed
+        int scans = repository.supports(StorageCapability.RANGE_SCAN) ? SCANS : SCANS / 20;
+        Random random = new Random(10);
+        int scanned = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < scans; i++) {
+            LocalDate from = LocalDate.now().minusDays(random.nextInt(700));
+            scanned += repository.scanMeals("user" + random.nextInt(USERS), from, from.plusDays(30)).size();
+        }
+        report("range scan (30 days)", start, scans);
+        System.out.println("  scanned meals: " + scanned);
+
+        int queries = repository.supports(StorageCapability.QUERY) ? SCANS : SCANS / 20;
+        int found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            found += repository.findMeals(MealQuery.builder().user("user" + random.nextInt(USERS))
+                    .mealType(Meal.MealType.values()[random.nextInt(4)]).newestFirst().limit(20).build()).size();
+        }
+        report("query (type, newest 20)", start, queries);
+        System.out.println("  found meals: " + found);
+        repository.close();
+    }
+
+    private static List<Meal> generateMeals(int count, Random random) {
+        LocalDateTime start = LocalDate.now().minusDays(730).atTime(6, 0);
+        List<Meal> meals = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Meal meal = new Meal("user" + random.nextInt(USERS), Meal.MealType.values()[random.nextInt(4)],
+                                 start.plusMinutes(random.nextInt(730 * 24 * 60)));
+            meal.setId(i + 1);
+            int items = 1 + random.nextInt(3);
+            for (int j = 0; j < items; j++) {
+                meal.addFoodItem(new FoodItem(FOODS[random.nextInt(FOODS.length)], 50 + random.nextInt(400),
+                                              1 + random.nextInt(3), "serving"));
+            }
+            meals.add(meal);
+        }
+        return meals;
+    }
+
+    private static Meal copyOf(Meal meal) {
+        Meal copy = new Meal(meal.getUsername(), meal.getMealType(), meal.getTimestamp());
+        copy.setId(meal.getId());
+        copy.setFoodItems(meal.getFoodItems());
+        return copy;
+    }
+
+    private static List<Meal> filter(List<Meal> meals, String username, LocalDate from, LocalDate to) {
+        return meals.stream()
+                .filter(meal -> meal.getUsername().equals(username))
+                .filter(meal -> from == null || !meal.getTimestamp().toLocalDate().isBefore(from))
+                .filter(meal -> to == null || !meal.getTimestamp().toLocalDate().isAfter(to))
+                .sorted(MealRepository.MEAL_ORDER)
+                .collect(Collectors.toList());
+    }
+
+    private static List<Meal> find(List<Meal> meals, MealQuery query) {
+        Comparator<Meal> order = query.isNewestFirst() ? MealRepository.MEAL_ORDER.reversed() : MealRepository.MEAL_ORDER;
+        return meals.stream()
+                .filter(query::matches)
+                .sorted(order)
+                .limit(query.getLimit() > 0 ? query.getLimit() : Long.MAX_VALUE)
+                .collect(Collectors.toList());
+    }
+
+    private static boolean sameMeals(List<Meal> actual, List<Meal> expected) {
+        Comparator<Meal> byId = Comparator.comparingLong(Meal::getId);
+        return describeMeals(actual.stream().sorted(byId).collect(Collectors.toList()))
+                .equals(describeMeals(expected.stream().sorted(byId).collect(Collectors.toList())));
+    }
+
+    private static String describeMeals(List<Meal> meals) {
+        return meals.stream().map(Meal::toString).collect(Collectors.joining("|"));
+    }
+
+    private static String describeUsers(List<User> users) {
+        return users.stream().map(User::toString).sorted().collect(Collectors.joining("|"));
+    }
+
+    private static boolean throwsUnsupported(Runnable operation) {
+        try {
+            operation.run();
+            return false;
+        } catch (UnsupportedOperationException e) {
+            return true;
+        }
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "  ok    " : "  FAIL  ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    private static void report(String name, long startNanos, int operations) {
+        double millis = (System.nanoTime() - startNanos) / 1e6;
+        System.out.printf("  %-28s %9.2f ms  %8.2f us/op%n", name, millis, millis * 1000 / operations);
+    }
+
+    private static void deleteContents(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        deleteContents(directory.toFile());
+        Files.deleteIfExists(directory);
+    }
+}
@@ -0,0 +1,197 @@
+package com.diettracker.benchmark;
+
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.model.ResidencyStats;
+import com.diettracker.service.MealService;
+import com.diettracker.service.UserService;
+import com.diettracker.storage.InMemoryMealRepository;
+import com.diettracker.storage.InMemoryUserRepository;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures per-user residency under a heap budget: the cost of reads that
+ * find a user's meals in memory and of those that load them back first.
+ *
+ * Usage: java -cp bin com.diettracker.benchmark.ResidencyBenchmark [users] [mealsPerUser] [budgetMb] [accesses]
+ *
+ * Sets cache.heapBudgetMb (default 2) unless it is given as a system
+ * property, imports the generated meals into in-memory storage and lets the
+ * service evict down to the budget. Then reads day totals of random users,
+ * most of them from a small set of hot users, and reports the time per read,
+ * the hit rate and the loads. Finally looks up, edits and removes meals of
+ * evicted users by id, which must load the owner back rather than miss.
+ * Checks that resident meals fit the budget and that every user keeps
+ * exactly their meals, less the removed ones. The cold tier is written under data/ in the working
+ * directory, so run it from an empty one. Exits with status 1 if any check
+ * fails.
+ */
+public class ResidencyBenchmark {
+    private static final String BUDGET_PROPERTY = "diettracker.cache.heapBudgetMb";
+    private static final String[] FOODS = {"Oats", "Rice", "Chicken", "Apple", "Yogurt", "Salmon"};
+    private static final int DAYS = 365;
+    private static final double HOT_USERS = 0.1;
+    private static final double HOT_ACCESSES = 0.8;
+    private static final int ID_ACCESSES = 20;
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int mealsPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        if (args.length > 2) {
+            System.setProperty(BUDGET_PROPERTY, args[2]);
+        } else if (System.getProperty(BUDGET_PROPERTY) == null) {
+            System.setProperty(BUDGET_PROPERTY, "2");
+        }
+        int accesses = args.length > 3 ? Integer.parseInt(args[3]) : 20_000;
+        System.out.println("Users: " + userCount + ", meals per user: " + mealsPerUser + ", heap budget: "
+                           + System.getProperty(BUDGET_PROPERTY) + " MB, accesses: " + accesses);
+
+        UserService userService = new UserService(new InMemoryUserRepository());
+        MealService mealService = new MealService(userService, new InMemoryMealRepository());
+        List<String> usernames = new ArrayList<>();
+        List<Meal> meals = new ArrayList<>();
+        Random random = new Random(42);
+        LocalDateTime start = LocalDate.now().minusDays(DAYS).atTime(8, 0);
+        for (int u = 0; u < userCount; u++) {
+            String username = "resident" + u;
+            userService.registerUser(username, "secret");
+            usernames.add(username);
+            for (int m = 0; m < mealsPerUser; m++) {
+                Meal meal = new Meal(username, Meal.MealType.values()[random.nextInt(Meal.MealType.values().length)],
+                                     start.plusMinutes(random.nextInt(DAYS * 24 * 60)));
+                meal.setFoodItems(List.of(new FoodItem(FOODS[random.nextInt(FOODS.length)],
+                                                       50 + random.nextInt(500), 1.0, "serving")));
+                meals.add(meal);
+            }
+        }
+        long importStart = System.nanoTime();
+        int imported = mealService.importMeals(meals);
+        System.out.printf("  imported %,d meals in %.0f ms%n", imported, (System.nanoTime() - importStart) / 1e6);
+        check("all meals imported", imported == meals.size());
+
+        long evictStart = System.nanoTime();
+        int evicted = mealService.evictInactiveUsers();
+        report("evict to budget (" + evicted + " users)", evictStart, Math.max(1, evicted));
+        ResidencyStats stats = mealService.getResidencyStats();
+        System.out.println("  " + stats);
+        check("resident meals fit the heap budget", stats.getEstimatedBytes() <= stats.getBudgetBytes());
+
+        timeReads(mealService, usernames, accesses);
+        int removedFrom = checkAccessById(mealService, usernames);
+
+        boolean intact = true;
+        for (int u = 0; u < usernames.size(); u++) {
+            int expected = u < removedFrom ? mealsPerUser - 1 : mealsPerUser;
+            intact &= mealService.getMealsByUser(usernames.get(u)).size() == expected;
+        }
+        check("every user has exactly their meals", intact);
+        mealService.shutdown();
+
+        System.out.println();
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) FAILED");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void timeReads(MealService mealService, List<String> usernames, int accesses) {
+        Random random = new Random(7);
+        int hotUsers = Math.max(1, (int) (usernames.size() * HOT_USERS));
+        LocalDate today = LocalDate.now();
+        ResidencyStats before = mealService.getResidencyStats();
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < accesses; i++) {
+            String username = random.nextDouble() < HOT_ACCESSES
+                    ? usernames.get(random.nextInt(hotUsers))
+                    : usernames.get(random.nextInt(usernames.size()));
+            sink += mealService.getTotalCaloriesForDate(username, today.minusDays(random.nextInt(DAYS)));
+        }
+        report("day totals, skewed users", start, accesses);
+        ResidencyStats after = mealService.getResidencyStats();
+        long loads = after.getLoads() - before.getLoads();
+        System.out.printf("  loads: %,d of %,d reads (%.1f%%), calories read: %,d%n",
+                          loads, accesses, 100.0 * loads / accesses, sink);
+        check("resident meals still fit the heap budget", after.getEstimatedBytes() <= after.getBudgetBytes());
+    }
+
+    /**
+     * Looks up, edits and removes meals by id right after their owners were
+     * evicted; each must find the meal on disk and load its owner back.
+     * @return Number of meals removed from each of the first users
+     */
+    private static int checkAccessById(MealService mealService, List<String> usernames) {
+        int rounds = Math.min(ID_ACCESSES, usernames.size() / 2);
+        List<FoodItem> edited = List.of(new FoodItem("Salmon", 420, 2.0, "serving"));
+        boolean found = true;
+        boolean updated = true;
+        boolean removed = true;
+        long loadsBefore = mealService.getResidencyStats().getLoads();
+        long nanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            String owner = usernames.get(i);
+            List<Meal> ownMeals = mealService.getMealsByUser(owner);
+            long updateId = ownMeals.get(0).getId();
+            long removeId = ownMeals.get(1).getId();
+
+            evict(mealService, usernames, owner);
+            long start = System.nanoTime();
+            Meal meal = mealService.getMealById(updateId);
+            nanos += System.nanoTime() - start;
+            found &= meal != null && meal.getUsername().equals(owner);
+
+            evict(mealService, usernames, owner);
+            start = System.nanoTime();
+            updated &= mealService.updateMeal(updateId, edited);
+            nanos += System.nanoTime() - start;
+
+            evict(mealService, usernames, owner);
+            start = System.nanoTime();
+            removed &= mealService.removeMeal(removeId);
+            nanos += System.nanoTime() - start;
+
+            Meal current = mealService.getMealById(updateId);
+            updated &= current != null && current.getTotalCalories() == 840;
+            removed &= mealService.getMealById(removeId) == null;
+        }
+        long loads = mealService.getResidencyStats().getLoads() - loadsBefore;
+        System.out.printf("  %-32s %9.2f us/op, %,d loads in all%n", "by id, owner evicted",
+                          rounds == 0 ? 0 : nanos / 1e3 / (3.0 * rounds), loads);
+        check("getMealById finds meals of evicted users", found);
+        check("updateMeal edits meals of evicted users", updated);
+        check("removeMeal removes meals of evicted users", removed);
+        return rounds;
+    }
+
+    /**
+     * Evicts a user by reading as many other users as fit in the budget, so
+     * that the user becomes the least recently used.
+     */
+    private static void evict(MealService mealService, List<String> usernames, String username) {
+        mealService.loadUser(username);
+        int others = mealService.getResidencyStats().getResidentUsers();
+        int next = usernames.indexOf(username);
+        for (int loaded = 0; loaded < others; loaded++) {
+            next = (next + 1) % usernames.size();
+            mealService.loadUser(usernames.get(next));
+        }
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "  ok    " : "  FAIL  ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    private static void report(String name, long startNanos, int operations) {
+        double millis = (System.nanoTime() - startNanos) / 1e6;
+        System.out.printf("  %-32s %9.2f ms  %8.2f us/op%n", name, millis, millis * 1000 / operations);
+    }
+}
@@ -0,0 +1,162 @@
+package com.diettracker.benchmark;
+
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.service.MealService;
+import com.diettracker.service.UserService;
+import com.diettracker.storage.InMemoryMealRepository;
+import com.diettracker.storage.InMemoryUserRepository;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how MealService read throughput scales with reader threads
+ * while a writer keeps changing meals.
+ *
+ * Usage: java -cp bin com.diettracker.benchmark.SnapshotReadBenchmark [users] [mealsPerUser] [seconds]
+ *        [maxReaders]
+ *
+ * Imports the generated meals into in-memory storage, then for 1, 2, 4 ...
+ * up to maxReaders (default: the number of cores) reader threads runs a
+ * mix of daily logs, day totals and history pages for random users, while
+ * one writer thread adds and removes meals as fast as it can. Reports
+ * reads per second, the speedup over one reader and the writer's rate;
+ * reads take no lock, so the speedup should follow the reader count up to
+ * the core count. Checks that every user still has exactly the imported
+ * meals afterwards. Derived data is written under data/ in the working
+ * directory, so run it from an empty one. Exits with status 1 if any check
+ * fails.
+ */
+public class SnapshotReadBenchmark {
+    private static final String[] FOODS = {"Oats", "Rice", "Chicken", "Apple", "Yogurt", "Salmon"};
+    private static final int DAYS = 365;
+
+    private static int failures;
+
+    public static void main(String[] args) throws InterruptedException {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int mealsPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int maxReaders = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        System.out.println("Users: " + userCount + ", meals per user: " + mealsPerUser + ", seconds per run: "
+                           + seconds + ", cores: " + Runtime.getRuntime().availableProcessors());
+
+        UserService userService = new UserService(new InMemoryUserRepository());
+        MealService mealService = new MealService(userService, new InMemoryMealRepository());
+        List<String> usernames = new ArrayList<>();
+        List<Meal> meals = new ArrayList<>();
+        Random random = new Random(42);
+        LocalDateTime start = LocalDate.now().minusDays(DAYS).atTime(8, 0);
+        for (int u = 0; u < userCount; u++) {
+            String username = "reader" + u;
+            userService.registerUser(username, "secret");
+            usernames.add(username);
+            for (int m = 0; m < mealsPerUser; m++) {
+                Meal meal = new Meal(username, Meal.MealType.values()[random.nextInt(Meal.MealType.values().length)],
+                                     start.plusMinutes(random.nextInt(DAYS * 24 * 60)));
+                meal.setFoodItems(List.of(new FoodItem(FOODS[random.nextInt(FOODS.length)],
+                                                       50 + random.nextInt(500), 1.0, "serving")));
+                meals.add(meal);
+            }
+        }
+        long importStart = System.nanoTime();
+        int imported = mealService.importMeals(meals);
+        System.out.printf("  imported %,d meals in %.0f ms%n", imported, (System.nanoTime() - importStart) / 1e6);
+        check("all meals imported", imported == meals.size());
+
+        // Untimed, so that the single reader run is not the one compiling the read paths
+        run(mealService, usernames, 1, seconds);
+        double baseline = 0;
+        for (int readers = 1; readers <= Math.max(1, maxReaders); readers *= 2) {
+            double[] rates = run(mealService, usernames, readers, seconds);
+            baseline = readers == 1 ? rates[0] : baseline;
+            System.out.printf("  %2d reader(s): %,12.0f reads/s, speedup %.2fx, writer %,.0f changes/s%n",
+                              readers, rates[0], rates[0] / baseline, rates[1]);
+        }
+
+        boolean intact = true;
+        for (String username : usernames) {
+            intact &= mealService.getMealsByUser(username).size() == mealsPerUser;
+        }
+        check("every user has exactly the imported meals", intact);
+        mealService.shutdown();
+
+        System.out.println();
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) FAILED");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs reader threads and one writer for a while.
+     * @return Reads per second over all readers, and the writer's changes per second
+     */
+    private static double[] run(MealService mealService, List<String> usernames, int readers, int seconds)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+
+        Thread writer = new Thread(() -> {
+            Random random = new Random(-1);
+            List<FoodItem> snack = List.of(new FoodItem("Apple", 95, 1.0, "piece"));
+            while (running.get()) {
+                String username = usernames.get(random.nextInt(usernames.size()));
+                mealService.addMeal(username, Meal.MealType.SNACK, snack);
+                mealService.removeMeal(mealService.getMostRecentMeal(username).getId());
+                writes.addAndGet(2);
+            }
+        });
+        threads.add(writer);
+        for (int r = 0; r < readers; r++) {
+            int seed = r;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                LocalDate today = LocalDate.now();
+                long count = 0;
+                long sink = 0;
+                while (running.get()) {
+                    String username = usernames.get(random.nextInt(usernames.size()));
+                    LocalDate date = today.minusDays(random.nextInt(DAYS));
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            sink += mealService.createDailyLog(username, date).getTotalCaloriesConsumed();
+                            break;
+                        case 1:
+                            sink += mealService.getTotalCaloriesForDate(username, date);
+                            break;
+                        default:
+                            sink += mealService.getMealHistoryPage(username, null, 20, null).getMeals().size();
+                            break;
+                    }
+                    count++;
+                }
+                reads.addAndGet(count + (sink == Long.MIN_VALUE ? 1 : 0));
+            }));
+        }
+
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        return new double[] {reads.get() / elapsed, writes.get() / elapsed};
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "  ok    " : "  FAIL  ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.diettracker.event;
+
+import com.diettracker.model.Meal;
+
+/**
+ * Listener for meal changes that must be seen in order with user changes.
+ * Called on the thread that made the change, after it was stored and while
+ * the write lock shared with UserService is still held, so it must not block.
+ */
+public interface MealChangeListener {
+    /**
+     * Called when a meal was added or updated.
+     * @param meal The meal's new state
+     */
+    void mealSaved(Meal meal);
+
+    /**
+     * Called when a meal was removed.
+     * @param meal The removed meal
+     */
+    void mealRemoved(Meal meal);
+}
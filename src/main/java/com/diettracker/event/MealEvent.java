@@ -0,0 +1,65 @@
+package com.diettracker.event;
+
+import com.diettracker.model.Meal;
+
+/**
+ * A meal change published on the meal event ring buffer.
+ * Instances are pre-allocated ring slots that are overwritten as the ring
+ * wraps, so handlers must copy anything they keep beyond onEvent.
+ */
+public class MealEvent {
+    public enum Type {
+        ADDED,
+        UPDATED,
+        REMOVED
+    }
+
+    private Type type;
+    private Meal meal;
+    private Meal previousMeal;
+    private long version;
+
+    /**
+     * Overwrites this slot with a new change. Called only by the publisher.
+     */
+    void set(Type type, Meal meal, Meal previousMeal, long version) {
+        this.type = type;
+        this.meal = meal;
+        this.previousMeal = previousMeal;
+        this.version = version;
+    }
+
+    // Getters
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the meal after the change (the removed meal for REMOVED events).
+     * @return The meal
+     */
+    public Meal getMeal() {
+        return meal;
+    }
+
+    /**
+     * Gets the meal before an update.
+     * @return The previous meal state, or null for ADDED and REMOVED events
+     */
+    public Meal getPreviousMeal() {
+        return previousMeal;
+    }
+
+    /**
+     * Gets the version of the meal store that includes this change.
+     * @return Store version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return type + "," + version + "," + (meal == null ? "" : meal.getId());
+    }
+}
@@ -0,0 +1,18 @@
+package com.diettracker.event;
+
+/**
+ * Subscriber to meal change events.
+ * Each handler runs on its own consumer thread and receives events in
+ * publication order, in batches of whatever has been published since its
+ * last call.
+ */
+public interface MealEventHandler {
+    /**
+     * Handles one event.
+     * @param event The event (valid only during this call)
+     * @param sequence The event's position in the stream
+     * @param endOfBatch true for the last event currently available,
+     *                   a good point to flush batched work
+     */
+    void onEvent(MealEvent event, long sequence, boolean endOfBatch);
+}
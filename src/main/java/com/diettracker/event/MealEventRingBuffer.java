@@ -0,0 +1,274 @@
+package com.diettracker.event;
+
+import com.diettracker.model.Meal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer, multi-consumer ring buffer of meal change events.
+ * Slots are allocated once and reused. The producer claims the next
+ * sequence, fills the slot and advances a published cursor; each
+ * subscriber follows on its own thread with its own sequence, consuming
+ * everything published since its last pass as one batch. An idle
+ * subscriber spins briefly, then parks until the next publish wakes it.
+ * The producer only waits when it would overwrite a slot the slowest
+ * subscriber has not read.
+ *
+ * Publishing is not thread-safe: callers must serialize publish calls.
+ */
+public class MealEventRingBuffer {
+    private static final long INITIAL_SEQUENCE = -1;
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final MealEvent[] slots;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong(INITIAL_SEQUENCE);
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private long nextSequence = INITIAL_SEQUENCE + 1; // producer only
+    private volatile boolean running;
+    private volatile boolean stopped;
+
+    /**
+     * Creates a ring buffer.
+     * @param capacity Number of slots, a power of two
+     */
+    public MealEventRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        this.slots = new MealEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new MealEvent();
+        }
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Registers a subscriber. One registered after start() begins with the
+     * next published event and must not be registered while publishing.
+     * @param name Name used for the consumer thread and lag reporting
+     * @param handler The handler
+     */
+    public void subscribe(String name, MealEventHandler handler) {
+        Subscriber subscriber = new Subscriber(name, handler);
+        subscriber.sequence.set(cursor.get());
+        subscribers.add(subscriber);
+        if (running) {
+            startThread(subscriber);
+        }
+    }
+
+    /**
+     * Starts one daemon consumer thread per subscriber.
+     */
+    public void start() {
+        running = true;
+        for (Subscriber subscriber : subscribers) {
+            startThread(subscriber);
+        }
+    }
+
+    private void startThread(Subscriber subscriber) {
+        Thread thread = new Thread(subscriber, "meal-events-" + subscriber.name);
+        thread.setDaemon(true);
+        subscriber.thread = thread;
+        thread.start();
+    }
+
+    /**
+     * Publishes a change. Returns as soon as the event is visible to subscribers.
+     * @param type The change type
+     * @param meal The meal after the change (the removed meal for REMOVED)
+     * @param previousMeal The meal before an update, otherwise null
+     * @param version Store version that includes the change
+     * @return The event's sequence
+     * @throws IllegalStateException if the buffer has been shut down, as no
+     *         subscriber would ever free a slot again
+     */
+    public long publish(MealEvent.Type type, Meal meal, Meal previousMeal, long version) {
+        if (stopped) {
+            throw new IllegalStateException("Meal event buffer is shut down");
+        }
+        long sequence = nextSequence;
+        long wrapPoint = sequence - slots.length;
+
+        // Wait until every subscriber has moved past the slot being reused
+        int tries = 0;
+        while (wrapPoint > minimumSubscriberSequence()) {
+            if (stopped) {
+                throw new IllegalStateException("Meal event buffer is shut down");
+            }
+            tries = idle(tries);
+        }
+
+        nextSequence++;
+        slots[(int) (sequence & mask)].set(type, meal, previousMeal, version);
+        cursor.set(sequence);
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.parked) {
+                LockSupport.unpark(subscriber.thread);
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Delivers stored meals as ADDED events to handlers on the calling
+     * thread, each meal to every handler before the next is read, so that
+     * derived data is built in a single pass over the history. For startup,
+     * before the handlers receive published events.
+     * @param meals The stored meals, iterated once
+     * @param version Store version that includes them
+     * @param handlers The handlers to build
+     */
+    public static void replay(Iterable<Meal> meals, long version, List<MealEventHandler> handlers) {
+        MealEvent event = new MealEvent();
+        long sequence = INITIAL_SEQUENCE;
+        for (Meal meal : meals) {
+            event.set(MealEvent.Type.ADDED, meal, null, version);
+            sequence++;
+            for (MealEventHandler handler : handlers) {
+                handler.onEvent(event, sequence, false);
+            }
+        }
+    }
+
+    /**
+     * Gets the sequence of the last published event.
+     * @return Published cursor (-1 before the first event)
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * Gets how many published events each subscriber has not processed yet.
+     * @return Subscriber name mapped to lag in events
+     */
+    public Map<String, Long> getLag() {
+        long published = cursor.get();
+        Map<String, Long> lag = new LinkedHashMap<>();
+        for (Subscriber subscriber : subscribers) {
+            lag.put(subscriber.name, published - subscriber.sequence.get());
+        }
+        return lag;
+    }
+
+    /**
+     * Waits until every subscriber has processed all events published so far.
+     * @param timeoutMillis Maximum time to wait
+     * @return true if all subscribers caught up, false on timeout
+     */
+    public boolean awaitDrained(long timeoutMillis) {
+        long target = cursor.get();
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        int tries = 0;
+        while (minimumSubscriberSequence() < target) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            tries = idle(tries);
+        }
+        return true;
+    }
+
+    /**
+     * Drains outstanding events and stops the consumer threads. Later
+     * publish calls fail.
+     * @param timeoutMillis Maximum time to wait for the drain
+     */
+    public void shutdown(long timeoutMillis) {
+        awaitDrained(timeoutMillis);
+        stopped = true;
+        running = false;
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.thread != null) {
+                LockSupport.unpark(subscriber.thread);
+            }
+        }
+    }
+
+    private long minimumSubscriberSequence() {
+        long minimum = cursor.get();
+        for (Subscriber subscriber : subscribers) {
+            minimum = Math.min(minimum, subscriber.sequence.get());
+        }
+        return minimum;
+    }
+
+    /**
+     * Spins briefly, then yields, then parks: short waits stay cheap without burning a core.
+     */
+    private static int idle(int tries) {
+        if (tries < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (tries < SPIN_TRIES * 2) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return tries + 1;
+    }
+
+    /**
+     * A consumer with its own sequence barrier.
+     */
+    private class Subscriber implements Runnable {
+        private final String name;
+        private final MealEventHandler handler;
+        private final AtomicLong sequence = new AtomicLong(INITIAL_SEQUENCE);
+        private Thread thread;
+        // Set before parking, so the producer knows to unpark this subscriber
+        private volatile boolean parked;
+
+        Subscriber(String name, MealEventHandler handler) {
+            this.name = name;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            int tries = 0;
+            while (running) {
+                long processed = sequence.get();
+                long available = cursor.get();
+                if (available <= processed) {
+                    if (tries < SPIN_TRIES * 2) {
+                        tries = idle(tries);
+                    } else {
+                        await(processed);
+                    }
+                    continue;
+                }
+
+                tries = 0;
+                for (long next = processed + 1; next <= available; next++) {
+                    try {
+                        handler.onEvent(slots[(int) (next & mask)], next, next == available);
+                    } catch (RuntimeException e) {
+                        System.err.println("Error in meal event subscriber " + name + ": " + e.getMessage());
+                    }
+                }
+                // Releases the whole batch back to the producer at once
+                sequence.set(available);
+            }
+        }
+
+        /**
+         * Parks until a publish or shutdown. The cursor is checked again after
+         * announcing the park, so an event published in between is not missed.
+         */
+        private void await(long processed) {
+            parked = true;
+            if (running && cursor.get() <= processed) {
+                LockSupport.park(this);
+            }
+            parked = false;
+        }
+    }
+}
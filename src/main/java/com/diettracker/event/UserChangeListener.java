@@ -0,0 +1,21 @@
+package com.diettracker.event;
+
+import com.diettracker.model.User;
+
+/**
+ * Listener for changes to user accounts.
+ * Called on the thread that made the change, after it was stored.
+ */
+public interface UserChangeListener {
+    /**
+     * Called when a user was registered or changed.
+     * @param user The user's new state (the live object; copy what is kept)
+     */
+    void userSaved(User user);
+
+    /**
+     * Called when a user was deleted.
+     * @param username The username
+     */
+    void userDeleted(String username);
+}
@@ -0,0 +1,71 @@
+package com.diettracker.model;
+
+import java.io.Serializable;
+
+/**
+ * Represents the spread of a user's (or a group's) calorie intake.
+ * Holds the median, 90th and 99th percentile of calories per meal and
+ * per completed day, estimated from streaming quantile summaries.
+ */
+public class CalorieDistribution implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final long mealCount;
+    private final double mealMedian;
+    private final double mealP90;
+    private final double mealP99;
+    private final long dayCount;
+    private final double dailyMedian;
+    private final double dailyP90;
+    private final double dailyP99;
+
+    public CalorieDistribution(long mealCount, double mealMedian, double mealP90, double mealP99,
+                               long dayCount, double dailyMedian, double dailyP90, double dailyP99) {
+        this.mealCount = mealCount;
+        this.mealMedian = mealMedian;
+        this.mealP90 = mealP90;
+        this.mealP99 = mealP99;
+        this.dayCount = dayCount;
+        this.dailyMedian = dailyMedian;
+        this.dailyP90 = dailyP90;
+        this.dailyP99 = dailyP99;
+    }
+
+    // Getters
+    public long getMealCount() {
+        return mealCount;
+    }
+
+    public double getMealMedian() {
+        return mealMedian;
+    }
+
+    public double getMealP90() {
+        return mealP90;
+    }
+
+    public double getMealP99() {
+        return mealP99;
+    }
+
+    public long getDayCount() {
+        return dayCount;
+    }
+
+    public double getDailyMedian() {
+        return dailyMedian;
+    }
+
+    public double getDailyP90() {
+        return dailyP90;
+    }
+
+    public double getDailyP99() {
+        return dailyP99;
+    }
+
+    @Override
+    public String toString() {
+        return mealCount + "," + mealMedian + "," + mealP90 + "," + mealP99 + "," +
+               dayCount + "," + dailyMedian + "," + dailyP90 + "," + dailyP99;
+    }
+}
@@ -0,0 +1,128 @@
+package com.diettracker.model;
+
+import java.io.Serializable;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Represents a user's calorie totals over one day, ISO week or month.
+ * Rollups are kept up to date as meals change so that long-range
+ * statistics do not need to rescan every meal. Rollups are immutable;
+ * updates produce a new rollup.
+ */
+public class CalorieRollup implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Granularity {
+        DAY("Day"),
+        WEEK("Week"),
+        MONTH("Month");
+
+        private final String displayName;
+
+        Granularity(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        /**
+         * Gets the first day of the period containing a date.
+         * Weeks follow ISO-8601 and start on Monday.
+         * @param date The date
+         * @return Start of the enclosing period
+         */
+        public LocalDate periodStart(LocalDate date) {
+            switch (this) {
+                case WEEK:
+                    return date.with(DayOfWeek.MONDAY);
+                case MONTH:
+                    return date.withDayOfMonth(1);
+                default:
+                    return date;
+            }
+        }
+    }
+
+    private final String username;
+    private final Granularity granularity;
+    private final LocalDate periodStart;
+    private final int mealCount;
+    private final int totalCalories;
+
+    public CalorieRollup(String username, Granularity granularity, LocalDate periodStart) {
+        this(username, granularity, periodStart, 0, 0);
+    }
+
+    public CalorieRollup(String username, Granularity granularity, LocalDate periodStart,
+                         int mealCount, int totalCalories) {
+        this.username = username;
+        this.granularity = granularity;
+        this.periodStart = periodStart;
+        this.mealCount = mealCount;
+        this.totalCalories = totalCalories;
+    }
+
+    // Getters
+    public String getUsername() {
+        return username;
+    }
+
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
+    public LocalDate getPeriodStart() {
+        return periodStart;
+    }
+
+    public int getMealCount() {
+        return mealCount;
+    }
+
+    public int getTotalCalories() {
+        return totalCalories;
+    }
+
+    /**
+     * Creates a copy with meals and calories added (or, with negative values, subtracted).
+     * @param meals Change in meal count
+     * @param calories Change in calories
+     * @return The updated rollup
+     */
+    public CalorieRollup plus(int meals, int calories) {
+        return new CalorieRollup(username, granularity, periodStart, mealCount + meals, totalCalories + calories);
+    }
+
+    /**
+     * Checks whether the rollup no longer covers any meal.
+     * @return true if empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return mealCount == 0;
+    }
+
+    @Override
+    public String toString() {
+        return username + "," + periodStart.format(DateTimeFormatter.ISO_LOCAL_DATE) + "," +
+               mealCount + "," + totalCalories;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        CalorieRollup other = (CalorieRollup) obj;
+        return username.equals(other.username) && granularity == other.granularity &&
+               periodStart.equals(other.periodStart) && mealCount == other.mealCount &&
+               totalCalories == other.totalCalories;
+    }
+
+    @Override
+    public int hashCode() {
+        return (username.hashCode() * 31 + periodStart.hashCode()) * 31 + granularity.hashCode();
+    }
+}
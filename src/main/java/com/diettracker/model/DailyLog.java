@@ -11,6 +11,7 @@ import java.util.List;
  * Contains the date, total calories consumed, and goal comparison.
  */
 public class DailyLog implements Serializable {
+    private static final long serialVersionUID = 1L;
     private String username;
     private LocalDate date;
     private List<Meal> meals;
@@ -0,0 +1,52 @@
+package com.diettracker.model;
+
+import java.io.Serializable;
+
+/**
+ * Represents the outcome of one meal history export.
+ */
+public class ExportStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final long records;
+    private final long bytes;
+    private final long elapsedMillis;
+
+    public ExportStats(long records, long bytes, long elapsedMillis) {
+        this.records = records;
+        this.bytes = bytes;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    // Getters
+
+    /**
+     * Gets the number of meals exported.
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Gets the size of the written file (compressed, if gzipped).
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Gets the export throughput.
+     * @return Meals exported per second
+     */
+    public double getRecordsPerSecond() {
+        return records * 1000.0 / Math.max(elapsedMillis, 1);
+    }
+
+    @Override
+    public String toString() {
+        return records + "," + bytes + "," + elapsedMillis;
+    }
+}
@@ -7,6 +7,7 @@ import java.io.Serializable;
  * Contains food name, calories per unit, and quantity consumed.
  */
 public class FoodItem implements Serializable {
+    private static final long serialVersionUID = 1L;
     private String name;
     private int caloriesPerUnit;
     private double quantity;
@@ -4,13 +4,17 @@ import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Represents a meal with its type, food items, and timestamp.
  * Supports different meal types: breakfast, lunch, dinner, and snacks.
+ * Each stored meal carries a unique id assigned by MealService (0 until stored).
  */
 public class Meal implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
     public enum MealType {
         BREAKFAST("Breakfast"),
         LUNCH("Lunch"),
@@ -28,6 +32,7 @@ public class Meal implements Serializable {
         }
     }
     
+    private long id;
     private String username;
     private MealType mealType;
     private List<FoodItem> foodItems;
@@ -48,6 +53,14 @@ public class Meal implements Serializable {
     }
     
     // Getters and Setters
+    public long getId() {
+        return id;
+    }
+    
+    public void setId(long id) {
+        this.id = id;
+    }
+    
     public String getUsername() {
         return username;
     }
@@ -68,6 +81,14 @@ public class Meal implements Serializable {
         return new ArrayList<>(foodItems);
     }
     
+    /**
+     * Gets a read-only view of the food items without copying them.
+     * @return Unmodifiable view of the food items
+     */
+    public List<FoodItem> getFoodItemsView() {
+        return Collections.unmodifiableList(foodItems);
+    }
+    
     public void setFoodItems(List<FoodItem> foodItems) {
         this.foodItems = new ArrayList<>(foodItems);
     }
@@ -130,7 +151,8 @@ public class Meal implements Serializable {
         StringBuilder sb = new StringBuilder();
         sb.append(username).append(",")
           .append(mealType.name()).append(",")
-          .append(timestamp.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+          .append(timestamp.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append(",")
+          .append(id);
         
         for (FoodItem item : foodItems) {
             sb.append(",").append(item.toString());
@@ -0,0 +1,76 @@
+package com.diettracker.model;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents one page of a user's meal history, newest meal first.
+ * The next page is requested with the cursor of this page's last meal.
+ */
+public class MealPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Position in a user's history: the timestamp and id of a meal.
+     * A page requested with a cursor holds only meals older than it.
+     */
+    public static class Cursor implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final LocalDateTime timestamp;
+        private final long mealId;
+
+        public Cursor(LocalDateTime timestamp, long mealId) {
+            this.timestamp = timestamp;
+            this.mealId = mealId;
+        }
+
+        /**
+         * Creates the cursor pointing at a meal.
+         * @param meal The meal
+         * @return Cursor at the meal's position
+         */
+        public static Cursor of(Meal meal) {
+            return new Cursor(meal.getTimestamp(), meal.getId());
+        }
+
+        public LocalDateTime getTimestamp() {
+            return timestamp;
+        }
+
+        public long getMealId() {
+            return mealId;
+        }
+
+        @Override
+        public String toString() {
+            return timestamp + "," + mealId;
+        }
+    }
+
+    private final List<Meal> meals;
+    private final Cursor nextCursor;
+
+    public MealPage(List<Meal> meals, Cursor nextCursor) {
+        this.meals = Collections.unmodifiableList(meals);
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters
+    public List<Meal> getMeals() {
+        return meals;
+    }
+
+    /**
+     * Gets the cursor for the following (older) page.
+     * @return The cursor, or null if this is the last page
+     */
+    public Cursor getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,259 @@
+package com.diettracker.model;
+
+import java.io.Serializable;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Represents a filter over stored meals.
+ * Every criterion is optional; a query without criteria matches all meals.
+ * Instances are immutable and created through {@link #builder()}.
+ */
+public class MealQuery implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final Set<String> usernames;
+    private final LocalDate from;
+    private final LocalDate to;
+    private final Set<Meal.MealType> mealTypes;
+    private final Set<DayOfWeek> daysOfWeek;
+    private final int minCalories;
+    private final int maxCalories;
+    private final String foodName;
+    private final boolean newestFirst;
+    private final int limit;
+
+    private MealQuery(Builder builder) {
+        this.usernames = Collections.unmodifiableSet(new LinkedHashSet<>(builder.usernames));
+        this.from = builder.from;
+        this.to = builder.to;
+        this.mealTypes = Collections.unmodifiableSet(EnumSet.copyOf(builder.mealTypes));
+        this.daysOfWeek = Collections.unmodifiableSet(EnumSet.copyOf(builder.daysOfWeek));
+        this.minCalories = builder.minCalories;
+        this.maxCalories = builder.maxCalories;
+        this.foodName = builder.foodName;
+        this.newestFirst = builder.newestFirst;
+        this.limit = builder.limit;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // Getters
+    /**
+     * Gets the users to search.
+     * @return The usernames, or an empty set for all users
+     */
+    public Set<String> getUsernames() {
+        return usernames;
+    }
+
+    /**
+     * Gets the first date to include.
+     * @return The date, or null if unbounded
+     */
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    /**
+     * Gets the last date to include.
+     * @return The date, or null if unbounded
+     */
+    public LocalDate getTo() {
+        return to;
+    }
+
+    /**
+     * Gets the meal types to include.
+     * @return The meal types, or an empty set for all types
+     */
+    public Set<Meal.MealType> getMealTypes() {
+        return mealTypes;
+    }
+
+    /**
+     * Gets the days of the week to include.
+     * @return The days, or an empty set for every day
+     */
+    public Set<DayOfWeek> getDaysOfWeek() {
+        return daysOfWeek;
+    }
+
+    public int getMinCalories() {
+        return minCalories;
+    }
+
+    public int getMaxCalories() {
+        return maxCalories;
+    }
+
+    /**
+     * Gets the food name a meal must contain (compared ignoring case).
+     * @return The food name, or null for any food
+     */
+    public String getFoodName() {
+        return foodName;
+    }
+
+    public boolean isNewestFirst() {
+        return newestFirst;
+    }
+
+    /**
+     * Gets the maximum number of meals to return.
+     * @return The limit, or 0 for no limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Checks whether a meal matches every criterion except the limit.
+     * @param meal The meal
+     * @return true if the meal matches, false otherwise
+     */
+    public boolean matches(Meal meal) {
+        if (!usernames.isEmpty() && !usernames.contains(meal.getUsername())) {
+            return false;
+        }
+        LocalDate date = meal.getTimestamp().toLocalDate();
+        if ((from != null && date.isBefore(from)) || (to != null && date.isAfter(to))) {
+            return false;
+        }
+        return matchesResidual(meal);
+    }
+
+    /**
+     * Checks the criteria that timeline ranges do not answer: meal type, day
+     * of week, calories and food name.
+     * @param meal The meal
+     * @return true if the meal matches them, false otherwise
+     */
+    public boolean matchesResidual(Meal meal) {
+        if (!mealTypes.isEmpty() && !mealTypes.contains(meal.getMealType())) {
+            return false;
+        }
+        if (!daysOfWeek.isEmpty() && !daysOfWeek.contains(meal.getTimestamp().getDayOfWeek())) {
+            return false;
+        }
+        if (hasCalorieBounds()) {
+            int calories = meal.getTotalCalories();
+            if (calories < minCalories || calories > maxCalories) {
+                return false;
+            }
+        }
+        if (foodName != null) {
+            for (FoodItem item : meal.getFoodItemsView()) {
+                if (item.getName().trim().equalsIgnoreCase(foodName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    public boolean hasCalorieBounds() {
+        return minCalories > 0 || maxCalories < Integer.MAX_VALUE;
+    }
+
+    /**
+     * Builder for meal queries.
+     */
+    public static class Builder {
+        private final Set<String> usernames = new LinkedHashSet<>();
+        private LocalDate from;
+        private LocalDate to;
+        private final Set<Meal.MealType> mealTypes = EnumSet.noneOf(Meal.MealType.class);
+        private final Set<DayOfWeek> daysOfWeek = EnumSet.noneOf(DayOfWeek.class);
+        private int minCalories = 0;
+        private int maxCalories = Integer.MAX_VALUE;
+        private String foodName;
+        private boolean newestFirst;
+        private int limit;
+
+        private Builder() {
+        }
+
+        public Builder user(String username) {
+            usernames.add(username);
+            return this;
+        }
+
+        public Builder users(Iterable<String> usernames) {
+            for (String username : usernames) {
+                this.usernames.add(username);
+            }
+            return this;
+        }
+
+        /**
+         * Restricts the query to an inclusive date range; either end may be null.
+         */
+        public Builder between(LocalDate from, LocalDate to) {
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+
+        public Builder on(LocalDate date) {
+            return between(date, date);
+        }
+
+        public Builder mealType(Meal.MealType mealType) {
+            mealTypes.add(mealType);
+            return this;
+        }
+
+        public Builder dayOfWeek(DayOfWeek day) {
+            daysOfWeek.add(day);
+            return this;
+        }
+
+        public Builder weekends() {
+            return dayOfWeek(DayOfWeek.SATURDAY).dayOfWeek(DayOfWeek.SUNDAY);
+        }
+
+        /**
+         * Restricts total meal calories to an inclusive range.
+         */
+        public Builder calories(int minCalories, int maxCalories) {
+            this.minCalories = minCalories;
+            this.maxCalories = maxCalories;
+            return this;
+        }
+
+        public Builder foodName(String foodName) {
+            this.foodName = foodName == null ? null : foodName.trim();
+            return this;
+        }
+
+        /**
+         * Returns meals newest first instead of oldest first.
+         */
+        public Builder newestFirst() {
+            this.newestFirst = true;
+            return this;
+        }
+
+        public Builder limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public MealQuery build() {
+            if (from != null && to != null && to.isBefore(from)) {
+                throw new IllegalArgumentException("Date range ends before it starts");
+            }
+            if (minCalories > maxCalories || limit < 0) {
+                throw new IllegalArgumentException("Invalid calorie range or limit");
+            }
+            return new MealQuery(this);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.diettracker.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents a suggested combination of a user's usual foods that fits
+ * their remaining calorie budget. Each food item holds the suggested
+ * quantity: the user's typical portion times the number of portions.
+ */
+public class MealSuggestion implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final List<FoodItem> foodItems;
+    private final int totalCalories;
+
+    public MealSuggestion(List<FoodItem> foodItems) {
+        this.foodItems = new ArrayList<>(foodItems);
+        this.totalCalories = foodItems.stream().mapToInt(FoodItem::getTotalCalories).sum();
+    }
+
+    // Getters
+    public List<FoodItem> getFoodItems() {
+        return Collections.unmodifiableList(foodItems);
+    }
+
+    public int getTotalCalories() {
+        return totalCalories;
+    }
+
+    @Override
+    public String toString() {
+        return totalCalories + "," + foodItems;
+    }
+}
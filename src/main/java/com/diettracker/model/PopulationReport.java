@@ -0,0 +1,180 @@
+package com.diettracker.model;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Represents intake metrics for every user over one date range.
+ * Produced by the analytics service in a single pass over all meals.
+ */
+public class PopulationReport implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Metrics for one user over the report's date range.
+     */
+    public static class UserMetrics implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String username;
+        private final int dailyCalorieGoal;
+        private final int mealCount;
+        private final long totalCalories;
+        private final int daysLogged;
+        private final int daysWithinGoal;
+        private final int[] mealTypeCounts;
+
+        public UserMetrics(String username, int dailyCalorieGoal, int mealCount, long totalCalories,
+                           int daysLogged, int daysWithinGoal, int[] mealTypeCounts) {
+            this.username = username;
+            this.dailyCalorieGoal = dailyCalorieGoal;
+            this.mealCount = mealCount;
+            this.totalCalories = totalCalories;
+            this.daysLogged = daysLogged;
+            this.daysWithinGoal = daysWithinGoal;
+            this.mealTypeCounts = mealTypeCounts.clone();
+        }
+
+        // Getters
+        public String getUsername() {
+            return username;
+        }
+
+        public int getDailyCalorieGoal() {
+            return dailyCalorieGoal;
+        }
+
+        public int getMealCount() {
+            return mealCount;
+        }
+
+        public long getTotalCalories() {
+            return totalCalories;
+        }
+
+        public int getDaysLogged() {
+            return daysLogged;
+        }
+
+        public int getDaysWithinGoal() {
+            return daysWithinGoal;
+        }
+
+        /**
+         * Gets the number of meals of a given type.
+         * @param mealType The meal type
+         * @return Meal count for that type
+         */
+        public int getMealTypeCount(Meal.MealType mealType) {
+            return mealTypeCounts[mealType.ordinal()];
+        }
+
+        /**
+         * Gets the share of logged days that stayed within the calorie goal.
+         * @return Adherence rate (0.0 to 1.0), or 0 if no days were logged
+         */
+        public double getGoalAdherenceRate() {
+            return daysLogged == 0 ? 0.0 : (double) daysWithinGoal / daysLogged;
+        }
+
+        /**
+         * Gets the average calories per logged day.
+         * @return Average daily intake, or 0 if no days were logged
+         */
+        public double getAverageDailyIntake() {
+            return daysLogged == 0 ? 0.0 : (double) totalCalories / daysLogged;
+        }
+
+        @Override
+        public String toString() {
+            return username + "," + mealCount + "," + totalCalories + "," + daysLogged + "," + daysWithinGoal;
+        }
+    }
+
+    private final LocalDate from;
+    private final LocalDate to;
+    private final Map<String, UserMetrics> userMetrics;
+
+    public PopulationReport(LocalDate from, LocalDate to, Map<String, UserMetrics> userMetrics) {
+        this.from = from;
+        this.to = to;
+        this.userMetrics = Collections.unmodifiableMap(userMetrics);
+    }
+
+    // Getters
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    public LocalDate getTo() {
+        return to;
+    }
+
+    /**
+     * Gets the metrics of every user with at least one meal in range.
+     * @return Unmodifiable map of username to metrics
+     */
+    public Map<String, UserMetrics> getUserMetrics() {
+        return userMetrics;
+    }
+
+    /**
+     * Gets one user's metrics.
+     * @param username The username
+     * @return The metrics, or null if the user logged nothing in range
+     */
+    public UserMetrics getUserMetrics(String username) {
+        return userMetrics.get(username);
+    }
+
+    /**
+     * Gets the share of all logged user-days that stayed within goal.
+     * @return Population adherence rate (0.0 to 1.0)
+     */
+    public double getGoalAdherenceRate() {
+        long days = 0;
+        long withinGoal = 0;
+        for (UserMetrics metrics : userMetrics.values()) {
+            days += metrics.getDaysLogged();
+            withinGoal += metrics.getDaysWithinGoal();
+        }
+        return days == 0 ? 0.0 : (double) withinGoal / days;
+    }
+
+    /**
+     * Gets the average calories per logged user-day.
+     * @return Population average daily intake
+     */
+    public double getAverageDailyIntake() {
+        long days = 0;
+        long calories = 0;
+        for (UserMetrics metrics : userMetrics.values()) {
+            days += metrics.getDaysLogged();
+            calories += metrics.getTotalCalories();
+        }
+        return days == 0 ? 0.0 : (double) calories / days;
+    }
+
+    /**
+     * Gets the share of all meals that are of a given type.
+     * @param mealType The meal type
+     * @return Fraction of meals (0.0 to 1.0)
+     */
+    public double getMealTypeShare(Meal.MealType mealType) {
+        long total = 0;
+        long ofType = 0;
+        for (UserMetrics metrics : userMetrics.values()) {
+            total += metrics.getMealCount();
+            ofType += metrics.getMealTypeCount(mealType);
+        }
+        return total == 0 ? 0.0 : (double) ofType / total;
+    }
+
+    @Override
+    public String toString() {
+        DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE;
+        return from.format(formatter) + "," + to.format(formatter) + "," + userMetrics.size();
+    }
+}
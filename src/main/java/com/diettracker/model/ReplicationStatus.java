@@ -0,0 +1,87 @@
+package com.diettracker.model;
+
+import java.io.Serializable;
+
+/**
+ * Represents the replication state of a primary or a follower.
+ * Sequences number the primary's changes from 1; 0 means none yet.
+ */
+public class ReplicationStatus implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Role {
+        PRIMARY,
+        FOLLOWER
+    }
+
+    private final Role role;
+    private final boolean connected;
+    private final int followers;
+    private final long primarySequence;
+    private final long appliedSequence;
+    private final long lagMillis;
+
+    public ReplicationStatus(Role role, boolean connected, int followers, long primarySequence,
+                             long appliedSequence, long lagMillis) {
+        this.role = role;
+        this.connected = connected;
+        this.followers = followers;
+        this.primarySequence = primarySequence;
+        this.appliedSequence = appliedSequence;
+        this.lagMillis = lagMillis;
+    }
+
+    // Getters
+    public Role getRole() {
+        return role;
+    }
+
+    /**
+     * Checks whether a follower is connected to its primary (always true on a primary).
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Gets the number of followers connected to a primary (0 on a follower).
+     */
+    public int getFollowers() {
+        return followers;
+    }
+
+    /**
+     * Gets the sequence of the primary's latest change, as last heard by a follower.
+     */
+    public long getPrimarySequence() {
+        return primarySequence;
+    }
+
+    /**
+     * Gets the sequence of the latest change applied (the primary's own on a primary).
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * Gets how many of the primary's changes a follower has not applied yet.
+     */
+    public long getLagChanges() {
+        return Math.max(0, primarySequence - appliedSequence);
+    }
+
+    /**
+     * Gets how long a follower has been behind the primary.
+     * @return Milliseconds since it was last caught up, or 0 if it is
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    @Override
+    public String toString() {
+        return role + "," + connected + "," + followers + "," + primarySequence + "," +
+               appliedSequence + "," + lagMillis;
+    }
+}
@@ -0,0 +1,89 @@
+package com.diettracker.model;
+
+import java.io.Serializable;
+
+/**
+ * Represents how many users' meals are held in memory and why users were
+ * loaded or evicted since startup.
+ */
+public class ResidencyStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final int residentUsers;
+    private final long residentMeals;
+    private final long estimatedBytes;
+    private final long budgetBytes;
+    private final long hits;
+    private final long loads;
+    private final long idleEvictions;
+    private final long budgetEvictions;
+
+    public ResidencyStats(int residentUsers, long residentMeals, long estimatedBytes, long budgetBytes,
+                          long hits, long loads, long idleEvictions, long budgetEvictions) {
+        this.residentUsers = residentUsers;
+        this.residentMeals = residentMeals;
+        this.estimatedBytes = estimatedBytes;
+        this.budgetBytes = budgetBytes;
+        this.hits = hits;
+        this.loads = loads;
+        this.idleEvictions = idleEvictions;
+        this.budgetEvictions = budgetEvictions;
+    }
+
+    // Getters
+    public int getResidentUsers() {
+        return residentUsers;
+    }
+
+    public long getResidentMeals() {
+        return residentMeals;
+    }
+
+    /**
+     * Gets the estimated heap held by resident meals.
+     * @return Bytes (a rough per-object estimate, not a measurement)
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Gets the heap budget for resident meals.
+     * @return Bytes, or 0 if there is no budget
+     */
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Gets how often a user's meals were already in memory when needed.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets how often a user's meals had to be loaded from disk.
+     */
+    public long getLoads() {
+        return loads;
+    }
+
+    public long getIdleEvictions() {
+        return idleEvictions;
+    }
+
+    public long getBudgetEvictions() {
+        return budgetEvictions;
+    }
+
+    public double getHitRate() {
+        long total = hits + loads;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return residentUsers + "," + residentMeals + "," + estimatedBytes + "," + budgetBytes + "," +
+               hits + "," + loads + "," + idleEvictions + "," + budgetEvictions;
+    }
+}
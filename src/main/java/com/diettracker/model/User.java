@@ -7,6 +7,7 @@ import java.io.Serializable;
  * Contains user information including username, password, and daily calorie goal.
  */
 public class User implements Serializable {
+    private static final long serialVersionUID = 1L;
     private String username;
     private String password;
     private int dailyCalorieGoal;
@@ -0,0 +1,116 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+import com.diettracker.model.MealQuery;
+import com.diettracker.model.PopulationReport;
+import com.diettracker.model.User;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collector;
+
+/**
+ * Service class for population-wide reports.
+ * Computes every user's metrics in one parallel pass over all meals instead
+ * of querying MealService once per user.
+ */
+public class AnalyticsService {
+    private UserService userService;
+    private MealService mealService;
+
+    public AnalyticsService(UserService userService, MealService mealService) {
+        this.userService = userService;
+        this.mealService = mealService;
+    }
+
+    /**
+     * Computes goal adherence, intake and meal-type mix for all users.
+     * @param from First date (inclusive)
+     * @param to Last date (inclusive)
+     * @return Report keyed by username for the date range
+     */
+    public PopulationReport computeReport(LocalDate from, LocalDate to) {
+        if (from == null || to == null || from.isAfter(to)) {
+            return new PopulationReport(from, to, new HashMap<>());
+        }
+
+        Map<String, Integer> goals = new HashMap<>();
+        for (User user : userService.getAllUsers()) {
+            goals.put(user.getUsername(), user.getDailyCalorieGoal());
+        }
+
+        int rangeDays = (int) ChronoUnit.DAYS.between(from, to) + 1;
+        // The planner narrows each user's timeline to the range instead of filtering every meal
+        List<Meal> meals = mealService.findMeals(MealQuery.builder().between(from, to).build());
+
+        // Each fork/join worker fills its own accumulators; they are merged pairwise at the end
+        Map<String, UserAccumulator> accumulators = meals.parallelStream()
+                .collect(Collector.of(
+                        HashMap<String, UserAccumulator>::new,
+                        (map, meal) -> map.computeIfAbsent(meal.getUsername(),
+                                u -> new UserAccumulator(rangeDays)).add(meal, from),
+                        (left, right) -> {
+                            right.forEach((username, acc) -> left.merge(username, acc, UserAccumulator::merge));
+                            return left;
+                        },
+                        Collector.Characteristics.UNORDERED));
+
+        Map<String, PopulationReport.UserMetrics> metrics = new HashMap<>();
+        accumulators.forEach((username, acc) ->
+                metrics.put(username, acc.toMetrics(username, goals.getOrDefault(username, 0))));
+        return new PopulationReport(from, to, metrics);
+    }
+
+    /**
+     * Per-user running totals owned by a single worker until merged.
+     */
+    private static class UserAccumulator {
+        private final long[] dayCalories;
+        private final int[] mealTypeCounts = new int[Meal.MealType.values().length];
+        private int mealCount;
+        private long totalCalories;
+
+        UserAccumulator(int rangeDays) {
+            this.dayCalories = new long[rangeDays];
+        }
+
+        UserAccumulator add(Meal meal, LocalDate from) {
+            int calories = meal.getTotalCalories();
+            int day = (int) ChronoUnit.DAYS.between(from, meal.getTimestamp().toLocalDate());
+            dayCalories[day] += calories;
+            mealTypeCounts[meal.getMealType().ordinal()]++;
+            mealCount++;
+            totalCalories += calories;
+            return this;
+        }
+
+        UserAccumulator merge(UserAccumulator other) {
+            for (int i = 0; i < dayCalories.length; i++) {
+                dayCalories[i] += other.dayCalories[i];
+            }
+            for (int i = 0; i < mealTypeCounts.length; i++) {
+                mealTypeCounts[i] += other.mealTypeCounts[i];
+            }
+            mealCount += other.mealCount;
+            totalCalories += other.totalCalories;
+            return this;
+        }
+
+        PopulationReport.UserMetrics toMetrics(String username, int goal) {
+            int daysLogged = 0;
+            int daysWithinGoal = 0;
+            for (long calories : dayCalories) {
+                if (calories > 0) {
+                    daysLogged++;
+                    if (calories <= goal) {
+                        daysWithinGoal++;
+                    }
+                }
+            }
+            return new PopulationReport.UserMetrics(username, goal, mealCount, totalCalories,
+                                                    daysLogged, daysWithinGoal, mealTypeCounts);
+        }
+    }
+}
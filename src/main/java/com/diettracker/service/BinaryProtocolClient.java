@@ -0,0 +1,197 @@
+package com.diettracker.service;
+
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Client of a BinaryProtocolServer, for device integrations and load tests.
+ *
+ * Requests are queued in a reusable buffer with the send methods and go
+ * out on flush, or when the buffer fills, so many requests can be in
+ * flight at once. Responses arrive in request order and are read one at a
+ * time with receive. Not thread-safe: use one client per thread.
+ */
+public class BinaryProtocolClient implements Closeable {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final SocketChannel channel;
+    // out stays in write mode, in in read mode
+    private final ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);
+    private final ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+    private int nextId;
+    private int responseId;
+    private int responseValue;
+
+    /**
+     * Connects to a server.
+     * @param address The server address
+     * @throws IOException if the server cannot be reached
+     */
+    public BinaryProtocolClient(InetSocketAddress address) throws IOException {
+        this.channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        in.flip();
+    }
+
+    /**
+     * Signs the connection in as a user and waits for the answer.
+     * @param username The username
+     * @param password The password
+     * @return The user's daily calorie goal, or -1 if the credentials are wrong
+     * @throws IOException if the connection fails
+     */
+    public int authenticate(String username, String password) throws IOException {
+        int start = begin(BinaryProtocolServer.AUTHENTICATE, 4 + 3 * (username.length() + password.length()));
+        putString(username);
+        putString(password);
+        end(start);
+        return receive() == BinaryProtocolServer.OK ? responseValue : -1;
+    }
+
+    /**
+     * Queues a meal to log now for the signed-in user.
+     * @param mealType The type of meal
+     * @param foodItems The food items, at most 255
+     * @return The request id
+     * @throws IOException if queued requests cannot be sent to make room
+     */
+    public int sendLogMeal(Meal.MealType mealType, List<FoodItem> foodItems) throws IOException {
+        if (foodItems.size() > 255) {
+            throw new IllegalArgumentException("At most 255 food items per meal");
+        }
+        int size = 2;
+        for (FoodItem item : foodItems) {
+            size += 2 + 3 * item.getName().length() + 4 + 8 + 2 + 3 * item.getUnit().length();
+        }
+        int start = begin(BinaryProtocolServer.LOG_MEAL, size);
+        out.put((byte) mealType.ordinal()).put((byte) foodItems.size());
+        for (FoodItem item : foodItems) {
+            putString(item.getName());
+            out.putInt(item.getCaloriesPerUnit()).putDouble(item.getQuantity());
+            putString(item.getUnit());
+        }
+        return end(start);
+    }
+
+    /**
+     * Queues a request for the signed-in user's calories on a date.
+     * @param date The date
+     * @return The request id
+     * @throws IOException if queued requests cannot be sent to make room
+     */
+    public int sendDayCalories(LocalDate date) throws IOException {
+        int start = begin(BinaryProtocolServer.DAY_CALORIES, 4);
+        out.putInt((int) date.toEpochDay());
+        return end(start);
+    }
+
+    /**
+     * Sends the queued requests.
+     * @throws IOException if the connection fails
+     */
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Waits for the next response, sending any queued requests first.
+     * @return Its status, one of the BinaryProtocolServer status codes
+     * @throws IOException if the connection fails or closes
+     */
+    public int receive() throws IOException {
+        if (out.position() > 0) {
+            flush();
+        }
+        while (in.remaining() < BinaryProtocolServer.RESPONSE_BYTES) {
+            in.compact();
+            int read = channel.read(in);
+            in.flip();
+            if (read < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+        }
+        int length = in.getInt();
+        if (length != BinaryProtocolServer.RESPONSE_BYTES - 4) {
+            throw new IOException("Invalid response length " + length);
+        }
+        int status = in.get();
+        responseId = in.getInt();
+        responseValue = in.getInt();
+        return status;
+    }
+
+    /**
+     * Gets the request id of the last response received.
+     */
+    public int getResponseId() {
+        return responseId;
+    }
+
+    /**
+     * Gets the value of the last response received: a calorie goal or total.
+     */
+    public int getResponseValue() {
+        return responseValue;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Starts a frame with room for a payload of up to maxPayload bytes.
+     * @return The frame's position in the buffer
+     */
+    private int begin(byte operation, int maxPayload) throws IOException {
+        if (4 + 1 + 4 + maxPayload > BinaryProtocolServer.MAX_FRAME_BYTES) {
+            throw new IllegalArgumentException("Request too large");
+        }
+        if (out.remaining() < 4 + 1 + 4 + maxPayload) {
+            flush();
+        }
+        int start = out.position();
+        out.putInt(0).put(operation).putInt(nextId);
+        return start;
+    }
+
+    /**
+     * Fills in the frame's length.
+     * @return The frame's request id
+     */
+    private int end(int start) {
+        out.putInt(start, out.position() - start - 4);
+        return nextId++;
+    }
+
+    /**
+     * Writes a string, ASCII without encoding it to a byte array first.
+     */
+    private void putString(String value) {
+        int start = out.position();
+        out.putShort((short) 0);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                out.position(start + 2).put(value.getBytes(StandardCharsets.UTF_8));
+                break;
+            }
+            out.put((byte) c);
+        }
+        out.putShort(start, (short) (out.position() - start - 2));
+    }
+}
@@ -0,0 +1,558 @@
+package com.diettracker.service;
+
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.model.User;
+import com.diettracker.util.AppConfig;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the most frequent device calls (sign in, log a meal, get a day's
+ * calories) over a compact binary protocol, for integrations that make
+ * many small calls.
+ *
+ * Usage: java -cp bin com.diettracker.service.BinaryProtocolServer [port]
+ *
+ * Listens on binary.host (default localhost); sign in is the protocol's only
+ * check, so set it to an address devices on other machines can reach only
+ * on a trusted network.
+ *
+ * Requests are frames of (int length of the rest, byte operation, int
+ * request id, payload), big-endian. Every response is 13 bytes: (int 9,
+ * byte status, int request id, int value). A connection may send many
+ * requests without waiting; they are answered in order. Strings are an
+ * unsigned short byte count followed by UTF-8 bytes. Payloads:
+ *
+ *   AUTHENTICATE  username, password; value is the daily calorie goal
+ *   LOG_MEAL      byte meal type ordinal, unsigned byte item count, then per
+ *                 item (name, int calories per unit, double quantity, unit)
+ *   DAY_CALORIES  int epoch day; value is the calories logged that day
+ *
+ * LOG_MEAL and DAY_CALORIES act for the user the connection authenticated
+ * as, and map onto MealService.addMeal and getTotalCaloriesForDate.
+ *
+ * One selector thread reads, decodes and writes; the service calls run on
+ * a pool of binary.workers threads (default: one per core), so a slow call
+ * such as logging a meal never holds up other connections. A connection's
+ * requests are queued and run by one worker at a time, in order, and their
+ * responses are written into its write buffer, which the selector sends
+ * once a worker hands the connection back. Each connection reuses one read
+ * and one write buffer, and a request is only decoded once the write buffer
+ * has room for its response and those of the requests ahead of it; when a
+ * client does not read its responses, the connection stops being read
+ * until they drain. Usernames, food names and units are looked up in a
+ * cache of decoded strings, so repeated values are not decoded again.
+ */
+public class BinaryProtocolServer {
+    private static final String HOST_SETTING = "binary.host";
+    private static final String PORT_SETTING = "binary.port";
+    private static final String WORKERS_SETTING = "binary.workers";
+    private static final int DEFAULT_PORT = 7400;
+
+    // Operations
+    public static final byte AUTHENTICATE = 1;
+    public static final byte LOG_MEAL = 2;
+    public static final byte DAY_CALORIES = 3;
+
+    // Response statuses
+    public static final byte OK = 0;
+    public static final byte REJECTED = 1;
+    public static final byte NOT_AUTHENTICATED = 2;
+    public static final byte MALFORMED = 3;
+    public static final byte UNKNOWN_OPERATION = 4;
+
+    /** Largest request frame, including its length field. */
+    public static final int MAX_FRAME_BYTES = 16 * 1024;
+    /** Size of every response frame. */
+    public static final int RESPONSE_BYTES = 4 + 1 + 4 + 4;
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final UserService userService;
+    private final MealService mealService;
+    private final InetSocketAddress address;
+    private final StringCache strings = new StringCache();
+    // Connections whose workers wrote responses for the selector to send
+    private final Queue<Connection> answered = new ConcurrentLinkedQueue<>();
+    private ExecutorService workers;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    /**
+     * Starts a server on the data directory of the working directory.
+     * @param args Optional port, overriding the binary.port setting
+     */
+    public static void main(String[] args) {
+        String host = AppConfig.getString(HOST_SETTING, "localhost");
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : AppConfig.getInt(PORT_SETTING, DEFAULT_PORT);
+        UserService userService = new UserService();
+        MealService mealService = new MealService(userService);
+        BinaryProtocolServer server =
+                new BinaryProtocolServer(userService, mealService, new InetSocketAddress(host, port));
+        if (!server.start()) {
+            mealService.shutdown();
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.shutdown();
+            mealService.shutdown();
+        }));
+        System.out.println("Binary protocol server listening on " + host + ":" + port);
+    }
+
+    /**
+     * Creates a server over local services.
+     * @param userService The users
+     * @param mealService The meals
+     * @param address Address to listen on
+     */
+    public BinaryProtocolServer(UserService userService, MealService mealService, InetSocketAddress address) {
+        this.userService = userService;
+        this.mealService = mealService;
+        this.address = address;
+    }
+
+    /**
+     * Starts accepting connections.
+     * @return true if listening, false if the address cannot be bound
+     */
+    public synchronized boolean start() {
+        if (running) {
+            return true;
+        }
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            System.err.println("Error listening on " + address + ": " + e.getMessage());
+            closeQuietly();
+            return false;
+        }
+        int workerCount = AppConfig.getInt(WORKERS_SETTING, Runtime.getRuntime().availableProcessors());
+        workers = Executors.newFixedThreadPool(Math.max(1, workerCount), task -> {
+            Thread thread = new Thread(task, "binary-protocol-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        Thread thread = new Thread(this::run, "binary-protocol");
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Stops the server and closes its connections.
+     */
+    public synchronized void shutdown() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                for (Connection connection = answered.poll(); connection != null; connection = answered.poll()) {
+                    try {
+                        connection.answered();
+                    } catch (IOException e) {
+                        System.err.println("Error serving device " + connection.remote + ": " + e.getMessage());
+                        connection.close();
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isWritable()) {
+                            connection.writable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.readable();
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Error serving device " + connection.remote + ": " + e.getMessage());
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error in binary protocol server: " + e.getMessage());
+        } finally {
+            running = false;
+            closeQuietly();
+            workers.shutdown();
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+        } catch (IOException e) {
+            System.err.println("Error accepting device connection: " + e.getMessage());
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    /**
+     * One device connection with its buffers and signed-in user.
+     * The read buffer and decoding belong to the selector thread; the queue,
+     * the write buffer and the count of unanswered requests are guarded by
+     * the connection; the signed-in user belongs to the worker running the
+     * queue.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final String remote;
+        // Both buffers stay in write mode between calls
+        private final ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+        private final ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);
+        private final Queue<Request> queue = new ArrayDeque<>();
+        private int unanswered; // decoded requests whose responses are not in out yet
+        private boolean scheduled; // a worker is running the queue
+        private boolean stalled; // no room in out for another response
+        private User user;
+        // Devices ask for the same day over and over
+        private int lastDay = Integer.MIN_VALUE;
+        private LocalDate lastDate;
+
+        Connection(SocketChannel channel, SelectionKey key) throws IOException {
+            this.channel = channel;
+            this.key = key;
+            this.remote = String.valueOf(channel.getRemoteAddress());
+        }
+
+        void readable() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            decode();
+        }
+
+        void writable() throws IOException {
+            flush();
+            // Frames left undecoded while the responses were backed up
+            decode();
+        }
+
+        /**
+         * Sends the responses a worker wrote and decodes the frames waiting for room.
+         */
+        void answered() throws IOException {
+            if (key.isValid()) {
+                flush();
+                decode();
+            }
+        }
+
+        /**
+         * Queues the complete frames in the read buffer, as far as the write
+         * buffer has room for their responses, and hands them to a worker.
+         */
+        private void decode() throws IOException {
+            in.flip();
+            boolean schedule = false;
+            stalled = false;
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < 5 || length > MAX_FRAME_BYTES - 4) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    break;
+                }
+                synchronized (this) {
+                    stalled = out.position() + (unanswered + 1) * RESPONSE_BYTES > out.capacity();
+                    if (stalled) {
+                        break;
+                    }
+                    unanswered++;
+                }
+                int frameEnd = in.position() + 4 + length;
+                int limit = in.limit();
+                in.position(in.position() + 4).limit(frameEnd);
+                Request request = decodeRequest();
+                in.limit(limit).position(frameEnd);
+                synchronized (this) {
+                    queue.add(request);
+                    schedule |= !scheduled;
+                    scheduled = true;
+                }
+            }
+            in.compact();
+            if (schedule) {
+                workers.execute(this::work);
+            }
+            flush();
+        }
+
+        private Request decodeRequest() {
+            Request request = new Request(in.get(), in.getInt());
+            try {
+                switch (request.operation) {
+                    case AUTHENTICATE:
+                        request.username = readString();
+                        request.password = readPassword();
+                        break;
+                    case LOG_MEAL:
+                        decodeMeal(request);
+                        break;
+                    case DAY_CALORIES: {
+                        int day = in.getInt();
+                        if (day != lastDay) {
+                            lastDate = LocalDate.ofEpochDay(day);
+                            lastDay = day;
+                        }
+                        request.date = lastDate;
+                        break;
+                    }
+                    default:
+                        request.status = UNKNOWN_OPERATION;
+                        return request;
+                }
+                if (in.hasRemaining()) {
+                    request.status = MALFORMED;
+                }
+            } catch (BufferUnderflowException e) {
+                request.status = MALFORMED;
+            } catch (RuntimeException e) {
+                System.err.println("Error handling request from " + remote + ": " + e.getMessage());
+                request.status = REJECTED;
+            }
+            return request;
+        }
+
+        private void decodeMeal(Request request) {
+            int type = in.get();
+            int count = in.get() & 0xFF;
+            if (type < 0 || type >= Meal.MealType.values().length) {
+                request.status = MALFORMED;
+                return;
+            }
+            request.mealType = Meal.MealType.values()[type];
+            request.foodItems = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = readString();
+                int caloriesPerUnit = in.getInt();
+                double quantity = in.getDouble();
+                FoodItem item = new FoodItem(name, caloriesPerUnit, quantity, readString());
+                request.valid &= mealService.isValidFoodItem(item);
+                request.foodItems.add(item);
+            }
+        }
+
+        /**
+         * Runs the queued requests in order on a worker, then hands the
+         * connection back to the selector to send the responses.
+         */
+        private void work() {
+            while (true) {
+                Request request;
+                synchronized (this) {
+                    request = queue.poll();
+                    if (request == null) {
+                        scheduled = false;
+                        break;
+                    }
+                }
+                if (request.status == OK) {
+                    execute(request);
+                }
+                synchronized (this) {
+                    out.putInt(RESPONSE_BYTES - 4).put(request.status).putInt(request.id).putInt(request.value);
+                    unanswered--;
+                }
+            }
+            answered.add(this);
+            selector.wakeup();
+        }
+
+        private void execute(Request request) {
+            try {
+                switch (request.operation) {
+                    case AUTHENTICATE:
+                        user = userService.authenticateUser(request.username, request.password);
+                        request.status = user == null ? REJECTED : OK;
+                        request.value = user == null ? 0 : user.getDailyCalorieGoal();
+                        break;
+                    case LOG_MEAL:
+                        if (user == null) {
+                            request.status = NOT_AUTHENTICATED;
+                        } else if (!request.valid
+                                   || !mealService.addMeal(user.getUsername(), request.mealType, request.foodItems)) {
+                            request.status = REJECTED;
+                        }
+                        break;
+                    default:
+                        if (user == null) {
+                            request.status = NOT_AUTHENTICATED;
+                        } else {
+                            request.value = mealService.getTotalCaloriesForDate(user.getUsername(), request.date);
+                        }
+                        break;
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Error handling request from " + remote + ": " + e.getMessage());
+                request.status = REJECTED;
+            }
+        }
+
+        private String readString() {
+            int length = in.getShort() & 0xFFFF;
+            if (length > in.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            String value = strings.get(in.array(), in.arrayOffset() + in.position(), length);
+            in.position(in.position() + length);
+            return value;
+        }
+
+        /**
+         * Reads a password, which is never kept in the string cache.
+         */
+        private String readPassword() {
+            int length = in.getShort() & 0xFFFF;
+            if (length > in.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+
+        private void flush() throws IOException {
+            boolean backedUp;
+            synchronized (this) {
+                if (out.position() > 0) {
+                    out.flip();
+                    channel.write(out);
+                    out.compact();
+                }
+                backedUp = out.position() > 0;
+            }
+            // Stop reading until there is room for more responses
+            key.interestOps((backedUp ? SelectionKey.OP_WRITE : 0) | (stalled ? 0 : SelectionKey.OP_READ));
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    /**
+     * A decoded request, with its response once a worker has run it.
+     */
+    private static final class Request {
+        private final byte operation;
+        private final int id;
+        private byte status = OK;
+        private int value;
+        private String username;
+        private String password;
+        private Meal.MealType mealType;
+        private List<FoodItem> foodItems;
+        private boolean valid = true;
+        private LocalDate date;
+
+        Request(byte operation, int id) {
+            this.operation = operation;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Direct-mapped cache of decoded strings, keyed by their UTF-8 bytes.
+     * Only used from the selector thread.
+     */
+    private static final class StringCache {
+        private static final int SLOTS = 4096;
+        private static final int MAX_CACHED_BYTES = 64;
+
+        private final byte[][] keys = new byte[SLOTS][];
+        private final String[] values = new String[SLOTS];
+
+        String get(byte[] bytes, int offset, int length) {
+            if (length > MAX_CACHED_BYTES) {
+                return new String(bytes, offset, length, StandardCharsets.UTF_8);
+            }
+            int hash = 0x811C9DC5; // FNV-1a
+            for (int i = offset; i < offset + length; i++) {
+                hash = (hash ^ (bytes[i] & 0xFF)) * 0x01000193;
+            }
+            int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+            byte[] key = keys[slot];
+            if (key != null && Arrays.equals(key, 0, key.length, bytes, offset, offset + length)) {
+                return values[slot];
+            }
+
+            String value = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            keys[slot] = Arrays.copyOfRange(bytes, offset, offset + length);
+            values[slot] = value;
+            return value;
+        }
+    }
+}
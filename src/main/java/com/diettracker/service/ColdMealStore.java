@@ -0,0 +1,478 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+import com.diettracker.model.MealQuery;
+import com.diettracker.util.AppConfig;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * On-disk tier for meals older than the in-memory window of MealService,
+ * and for all meals of users evicted from memory.
+ *
+ * Archived meals are kept in one file per user and month, in the meals file
+ * format and sorted by (timestamp, id): data/cold/<username>/<yyyy-MM>.txt.
+ * A manifest holds the meal count and highest id of every month file, so
+ * queries skip months outside their date range without touching the disk;
+ * it is the only state kept in memory. Scans read one month at a time.
+ *
+ * With cold.format=compressed, months are written as MealSegment files
+ * (<yyyy-MM>.seg) instead: blocks of records compressed with Deflater and
+ * indexed by day, so a scan decompresses only the blocks in its date range.
+ * Both formats are read, so months written under the other setting are
+ * still found; they are converted the next time they are rewritten.
+ *
+ * Files are replaced by writing a temporary file and renaming it, so readers
+ * always see whole months. Archiving the same meal twice keeps one copy,
+ * which makes a repeated archive after a crash harmless.
+ */
+final class ColdMealStore implements MealArchive {
+    private static final String DATA_DIR = "data";
+    private static final String COLD_DIR = DATA_DIR + "/cold";
+    private static final String MANIFEST_FILE = "manifest.txt";
+    private static final String MONTH_SUFFIX = ".txt";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String FORMAT_SETTING = "cold.format";
+    private static final String COMPRESSED_FORMAT = "compressed";
+    private static final String BLOCK_MEALS_SETTING = "cold.blockMeals";
+
+    private final Path directory;
+    private final boolean compressed;
+    private final int blockMeals;
+    // Username to month to file statistics; replaced as a whole by each archive
+    private volatile Map<String, NavigableMap<YearMonth, MonthFile>> months;
+
+    private ColdMealStore(Path directory) {
+        this.directory = directory;
+        this.compressed = COMPRESSED_FORMAT.equalsIgnoreCase(AppConfig.getString(FORMAT_SETTING, "text"));
+        this.blockMeals = Math.max(1, AppConfig.getInt(BLOCK_MEALS_SETTING, MealSegment.DEFAULT_BLOCK_MEALS));
+        this.months = loadManifest();
+    }
+
+    /**
+     * Opens the cold tier in the default data directory.
+     * @return The store (empty if nothing was archived yet)
+     */
+    static ColdMealStore openDefault() {
+        return new ColdMealStore(Paths.get(COLD_DIR));
+    }
+
+    /**
+     * Gets the number of archived meals.
+     */
+    long size() {
+        long size = 0;
+        for (NavigableMap<YearMonth, MonthFile> userMonths : months.values()) {
+            for (MonthFile file : userMonths.values()) {
+                size += file.mealCount;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean storesCopies() {
+        return true;
+    }
+
+    @Override
+    public long getMaxId() {
+        long maxId = 0;
+        for (NavigableMap<YearMonth, MonthFile> userMonths : months.values()) {
+            for (MonthFile file : userMonths.values()) {
+                maxId = Math.max(maxId, file.maxId);
+            }
+        }
+        return maxId;
+    }
+
+    Set<String> getUsernames() {
+        return months.keySet();
+    }
+
+    /**
+     * Adds meals to their month files, replacing archived copies with the same id.
+     * @param meals The meals to archive
+     * @return true if every month file and the manifest were written, false otherwise
+     */
+    @Override
+    public boolean archive(Collection<Meal> meals) {
+        return rewrite(meals, true);
+    }
+
+    /**
+     * Deletes meals from their month files, e.g. once they are back in memory.
+     * @param meals The meals to delete (matched by id)
+     * @return true if every month file and the manifest were written, false otherwise
+     */
+    @Override
+    public boolean remove(Collection<Meal> meals) {
+        return rewrite(meals, false);
+    }
+
+    private boolean rewrite(Collection<Meal> meals, boolean add) {
+        Map<String, Map<YearMonth, List<Meal>>> grouped = new HashMap<>();
+        for (Meal meal : meals) {
+            grouped.computeIfAbsent(meal.getUsername(), u -> new HashMap<>())
+                   .computeIfAbsent(YearMonth.from(meal.getTimestamp()), m -> new ArrayList<>())
+                   .add(meal);
+        }
+
+        Map<String, NavigableMap<YearMonth, MonthFile>> updated = new HashMap<>(months);
+        boolean anyChanged = false;
+        try {
+            for (Map.Entry<String, Map<YearMonth, List<Meal>>> user : grouped.entrySet()) {
+                String username = user.getKey();
+                NavigableMap<YearMonth, MonthFile> userMonths =
+                        new TreeMap<>(updated.getOrDefault(username, Collections.emptyNavigableMap()));
+                for (Map.Entry<YearMonth, List<Meal>> month : user.getValue().entrySet()) {
+                    if (!add && !userMonths.containsKey(month.getKey())) {
+                        continue;
+                    }
+                    Map<Long, Meal> merged = new LinkedHashMap<>();
+                    for (Meal meal : readMonth(username, month.getKey(), null, null)) {
+                        merged.put(meal.getId(), meal);
+                    }
+                    boolean changed = add;
+                    for (Meal meal : month.getValue()) {
+                        if (add) {
+                            merged.put(meal.getId(), meal);
+                        } else {
+                            changed |= merged.remove(meal.getId()) != null;
+                        }
+                    }
+                    if (!changed) {
+                        continue;
+                    }
+                    anyChanged = true;
+                    List<Meal> sorted = new ArrayList<>(merged.values());
+                    sorted.sort((m1, m2) -> MealTimeline.compare(m1, m2.getTimestamp(), m2.getId()));
+                    if (sorted.isEmpty()) {
+                        Files.deleteIfExists(monthFile(username, month.getKey(), MONTH_SUFFIX));
+                        Files.deleteIfExists(monthFile(username, month.getKey(), SEGMENT_SUFFIX));
+                        userMonths.remove(month.getKey());
+                    } else {
+                        writeMonth(username, month.getKey(), sorted);
+                        userMonths.put(month.getKey(), MonthFile.of(sorted));
+                    }
+                }
+                if (userMonths.isEmpty()) {
+                    updated.remove(username);
+                } else {
+                    updated.put(username, Collections.unmodifiableNavigableMap(userMonths));
+                }
+            }
+            if (!anyChanged) {
+                return true;
+            }
+            saveManifest(updated);
+        } catch (IOException e) {
+            System.err.println("Error " + (add ? "archiving" : "restoring") + " meals: " + e.getMessage());
+            return false;
+        }
+
+        months = Collections.unmodifiableMap(updated);
+        return true;
+    }
+
+    /**
+     * Streams one user's archived meals in a date range, reading a month at a time.
+     * @param username The username
+     * @param from First date (inclusive), or null for the oldest meal
+     * @param to Last date (inclusive), or null for the newest meal
+     * @param newestFirst true to stream newest first, false for oldest first
+     * @return Meals sorted by (timestamp, id) in the requested direction
+     */
+    @Override
+    public Stream<Meal> scan(String username, LocalDate from, LocalDate to, boolean newestFirst) {
+        NavigableMap<YearMonth, MonthFile> range = monthsInRange(username, from, to);
+        Collection<YearMonth> order = newestFirst ? range.descendingKeySet() : range.keySet();
+        return order.stream().flatMap(month -> {
+            List<Meal> meals = new ArrayList<>();
+            try {
+                for (Meal meal : readMonth(username, month, from, to)) {
+                    LocalDate date = meal.getTimestamp().toLocalDate();
+                    if ((from == null || !date.isBefore(from)) && (to == null || !date.isAfter(to))) {
+                        meals.add(meal);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error reading archived meals: " + e.getMessage());
+            }
+            if (newestFirst) {
+                Collections.reverse(meals);
+            }
+            return meals.stream();
+        });
+    }
+
+    /**
+     * Streams the archived meals matching a query, merged across users.
+     * The limit of the query is not applied.
+     * @param query The query
+     * @return Matching meals in the query's timestamp order
+     */
+    @Override
+    public Stream<Meal> scan(MealQuery query) {
+        Collection<String> users = query.getUsernames().isEmpty() ? getUsernames() : query.getUsernames();
+        List<Iterator<Meal>> sources = new ArrayList<>();
+        for (String username : users) {
+            if (!monthsInRange(username, query.getFrom(), query.getTo()).isEmpty()) {
+                sources.add(scan(username, query.getFrom(), query.getTo(), query.isNewestFirst()).iterator());
+            }
+        }
+        return MealQueryPlanner.merge(sources, query.isNewestFirst()).filter(query::matches);
+    }
+
+    /**
+     * Describes which month files a query reads, for query plans.
+     */
+    @Override
+    public String describe(MealQuery query) {
+        Collection<String> users = query.getUsernames().isEmpty() ? getUsernames() : query.getUsernames();
+        int files = 0;
+        long rows = 0;
+        int scannedUsers = 0;
+        for (String username : users) {
+            NavigableMap<YearMonth, MonthFile> range = monthsInRange(username, query.getFrom(), query.getTo());
+            if (!range.isEmpty()) {
+                scannedUsers++;
+                files += range.size();
+                for (MonthFile file : range.values()) {
+                    rows += file.mealCount;
+                }
+            }
+        }
+        return "Cold tier scan " + files + (files == 1 ? " month file, " : " month files, ")
+               + scannedUsers + (scannedUsers == 1 ? " user" : " users") + " (" + rows + " meals)";
+    }
+
+    /**
+     * Checks whether a query reaches into any archived month.
+     */
+    @Override
+    public boolean covers(MealQuery query) {
+        Collection<String> users = query.getUsernames().isEmpty() ? getUsernames() : query.getUsernames();
+        for (String username : users) {
+            if (!monthsInRange(username, query.getFrom(), query.getTo()).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Views in-memory meals and the archived ones as one collection, without
+     * loading the archive, e.g. for rebuilding derived data.
+     * @param hotMeals The meals held in memory (none of them archived)
+     * @return A view iterating over the hot meals, then the archived ones
+     */
+    @Override
+    public Collection<Meal> withHotMeals(Collection<Meal> hotMeals) {
+        return new AbstractCollection<Meal>() {
+            @Override
+            public Iterator<Meal> iterator() {
+                // Archived meals are read a month at a time, user by user
+                return Stream.concat(hotMeals.stream(), getUsernames().stream()
+                        .flatMap(username -> scan(username, null, null, false))).iterator();
+            }
+
+            @Override
+            public int size() {
+                return (int) Math.min(Integer.MAX_VALUE, hotMeals.size() + ColdMealStore.this.size());
+            }
+        };
+    }
+
+    private NavigableMap<YearMonth, MonthFile> monthsInRange(String username, LocalDate from, LocalDate to) {
+        NavigableMap<YearMonth, MonthFile> userMonths = months.get(username);
+        if (userMonths == null || userMonths.isEmpty()) {
+            return Collections.emptyNavigableMap();
+        }
+        YearMonth first = from == null ? userMonths.firstKey() : YearMonth.from(from);
+        YearMonth last = to == null ? userMonths.lastKey() : YearMonth.from(to);
+        if (first.isAfter(last)) {
+            return Collections.emptyNavigableMap();
+        }
+        return userMonths.subMap(first, true, last, true);
+    }
+
+    /**
+     * Reads a month file. Segments return only the meals in the date range;
+     * text files are read whole, so callers still filter by date.
+     */
+    private List<Meal> readMonth(String username, YearMonth month, LocalDate from, LocalDate to) throws IOException {
+        // The current format wins if a crash left the month in both
+        Path file = monthFile(username, month, compressed ? SEGMENT_SUFFIX : MONTH_SUFFIX);
+        if (!Files.exists(file)) {
+            file = monthFile(username, month, compressed ? MONTH_SUFFIX : SEGMENT_SUFFIX);
+            if (!Files.exists(file)) {
+                return new ArrayList<>();
+            }
+        }
+        if (file.getFileName().toString().endsWith(SEGMENT_SUFFIX)) {
+            return MealSegment.open(file).read(from, to);
+        }
+
+        List<Meal> meals = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Meal meal = FileService.parseMeal(line);
+                if (meal != null) {
+                    meals.add(meal);
+                }
+            }
+        }
+        return meals;
+    }
+
+    private void writeMonth(String username, YearMonth month, List<Meal> meals) throws IOException {
+        Path file = monthFile(username, month, compressed ? SEGMENT_SUFFIX : MONTH_SUFFIX);
+        Files.createDirectories(file.getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        if (compressed) {
+            MealSegment.write(tempFile, meals, blockMeals);
+        } else {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))) {
+                for (Meal meal : meals) {
+                    writer.println(meal.toString());
+                }
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        // A copy in the other format, written under the other setting, is now stale
+        Files.deleteIfExists(monthFile(username, month, compressed ? MONTH_SUFFIX : SEGMENT_SUFFIX));
+    }
+
+    private Path monthFile(String username, YearMonth month, String suffix) {
+        // Usernames become directory names, so anything unusual is escaped
+        return directory.resolve(URLEncoder.encode(username, StandardCharsets.UTF_8))
+                        .resolve(month + suffix);
+    }
+
+    /**
+     * Writes one line per month file: username,yyyy-MM,mealCount,maxId.
+     */
+    private void saveManifest(Map<String, NavigableMap<YearMonth, MonthFile>> manifest) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(MANIFEST_FILE);
+        Path tempFile = file.resolveSibling(MANIFEST_FILE + ".tmp");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, NavigableMap<YearMonth, MonthFile>> user : manifest.entrySet()) {
+                String name = URLEncoder.encode(user.getKey(), StandardCharsets.UTF_8);
+                for (Map.Entry<YearMonth, MonthFile> month : user.getValue().entrySet()) {
+                    writer.println(name + "," + month.getKey() + "," + month.getValue().mealCount
+                                   + "," + month.getValue().maxId);
+                }
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Map<String, NavigableMap<YearMonth, MonthFile>> loadManifest() {
+        Path file = directory.resolve(MANIFEST_FILE);
+        if (!Files.exists(file)) {
+            return Files.isDirectory(directory) ? rebuildManifest() : Collections.emptyMap();
+        }
+
+        Map<String, NavigableMap<YearMonth, MonthFile>> manifest = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length < 4) {
+                    continue;
+                }
+                String username = URLDecoder.decode(parts[0], StandardCharsets.UTF_8);
+                manifest.computeIfAbsent(username, u -> new TreeMap<>())
+                        .put(YearMonth.parse(parts[1]),
+                             new MonthFile(Integer.parseInt(parts[2]), Long.parseLong(parts[3])));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error loading cold tier manifest, rebuilding it: " + e.getMessage());
+            return rebuildManifest();
+        }
+        return freeze(manifest);
+    }
+
+    /**
+     * Recreates the manifest from the month files, e.g. after it was lost.
+     */
+    private Map<String, NavigableMap<YearMonth, MonthFile>> rebuildManifest() {
+        Map<String, NavigableMap<YearMonth, MonthFile>> manifest = new HashMap<>();
+        try (DirectoryStream<Path> users = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path userDirectory : users) {
+                String username = URLDecoder.decode(userDirectory.getFileName().toString(), StandardCharsets.UTF_8);
+                String pattern = "*{" + MONTH_SUFFIX + "," + SEGMENT_SUFFIX + "}";
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(userDirectory, pattern)) {
+                    for (Path file : files) {
+                        String name = file.getFileName().toString();
+                        // Both suffixes have the same length
+                        YearMonth month = YearMonth.parse(name.substring(0, name.length() - MONTH_SUFFIX.length()));
+                        manifest.computeIfAbsent(username, u -> new TreeMap<>())
+                                .put(month, MonthFile.of(readMonth(username, month, null, null)));
+                    }
+                }
+            }
+            saveManifest(manifest);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error rebuilding cold tier manifest: " + e.getMessage());
+        }
+        return freeze(manifest);
+    }
+
+    private static Map<String, NavigableMap<YearMonth, MonthFile>> freeze(
+            Map<String, NavigableMap<YearMonth, MonthFile>> manifest) {
+        Map<String, NavigableMap<YearMonth, MonthFile>> frozen = new HashMap<>();
+        for (Map.Entry<String, NavigableMap<YearMonth, MonthFile>> user : manifest.entrySet()) {
+            frozen.put(user.getKey(), Collections.unmodifiableNavigableMap(user.getValue()));
+        }
+        return Collections.unmodifiableMap(frozen);
+    }
+
+    /**
+     * Manifest entry of one month file.
+     */
+    private static final class MonthFile {
+        private final int mealCount;
+        private final long maxId;
+
+        MonthFile(int mealCount, long maxId) {
+            this.mealCount = mealCount;
+            this.maxId = maxId;
+        }
+
+        static MonthFile of(List<Meal> meals) {
+            long maxId = 0;
+            for (Meal meal : meals) {
+                maxId = Math.max(maxId, meal.getId());
+            }
+            return new MonthFile(meals.size(), maxId);
+        }
+    }
+}
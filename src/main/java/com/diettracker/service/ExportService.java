@@ -0,0 +1,380 @@
+package com.diettracker.service;
+
+import com.diettracker.model.ExportStats;
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Service class for exporting meal history to CSV or JSON files.
+ *
+ * Meals are streamed from MealService, archived ones straight from the
+ * archive, into a Flow publisher with a small bounded buffer. A subscriber on
+ * its own thread formats each meal into a reused character buffer, encodes
+ * it into a direct byte buffer and writes that to the file channel whenever
+ * it fills, through gzip if requested. The reader blocks while the buffer is
+ * full, so memory use does not depend on how many meals are exported.
+ *
+ * Usage: java -cp bin com.diettracker.service.ExportService csv|json [--gzip] [--user username] [file]
+ */
+public class ExportService {
+    public enum Format {
+        CSV("csv"),
+        JSON("json");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    // Meals the publisher holds for the writer (a power of two)
+    private static final int BUFFER_RECORDS = 1024;
+    private static final int REQUEST_BATCH = BUFFER_RECORDS / 2;
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+    private static final String CSV_HEADER =
+            "meal_id,username,meal_type,timestamp,food,calories_per_unit,quantity,unit,calories";
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    private final MealService mealService;
+
+    public ExportService(MealService mealService) {
+        this.mealService = mealService;
+    }
+
+    /**
+     * Exports the meals of every user, or of the given one, from the data directory.
+     * @param args Format, then optionally --gzip, --user and a username, and the target file
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: ExportService csv|json [--gzip] [--user username] [file]");
+            System.exit(2);
+        }
+        Format format = Format.valueOf(args[0].toUpperCase());
+        boolean gzip = false;
+        String username = null;
+        Path target = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--gzip")) {
+                gzip = true;
+            } else if (args[i].equals("--user") && i + 1 < args.length) {
+                username = args[++i];
+            } else {
+                target = Paths.get(args[i]);
+            }
+        }
+        if (target == null) {
+            target = defaultTarget(username, format, gzip);
+        }
+
+        MealService mealService = new MealService(new UserService());
+        try {
+            ExportStats stats = new ExportService(mealService).export(username, format, gzip, target);
+            System.out.printf("Exported %d meals to %s (%d bytes) in %d ms, %.0f meals/s%n", stats.getRecords(),
+                              target, stats.getBytes(), stats.getElapsedMillis(), stats.getRecordsPerSecond());
+        } catch (IOException e) {
+            System.err.println("Error exporting meals: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            mealService.shutdown();
+        }
+    }
+
+    /**
+     * Gets the default file for an export: exports/&lt;username or all&gt;.&lt;extension&gt;[.gz].
+     * @param username The username, or null for all users
+     * @param format The format
+     * @param gzip true if compressed
+     * @return The path
+     */
+    public static Path defaultTarget(String username, Format format, boolean gzip) {
+        String name = (username == null ? "all" : username) + "." + format.getExtension() + (gzip ? ".gz" : "");
+        return Paths.get("exports", name);
+    }
+
+    /**
+     * Exports meals, oldest first, replacing the target file.
+     * @param username The username, or null for all users
+     * @param format CSV (one row per food item) or JSON (an array of meals)
+     * @param gzip true to compress the file
+     * @param target The file to write
+     * @return Meals written, file size and time taken
+     * @throws IOException if the file cannot be written
+     */
+    public ExportStats export(String username, Format format, boolean gzip, Path target) throws IOException {
+        long start = System.nanoTime();
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        MealWriter writer = new MealWriter(openChannel(target, gzip), format);
+        ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "meal-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        SubmissionPublisher<Meal> publisher = new SubmissionPublisher<>(executor, BUFFER_RECORDS);
+        publisher.subscribe(writer);
+        try (Stream<Meal> meals = mealService.streamMeals(username)) {
+            Iterator<Meal> iterator = meals.iterator();
+            // submit blocks while the writer's buffer is full; stop early if it failed
+            while (iterator.hasNext() && !writer.done.isDone()) {
+                publisher.submit(iterator.next());
+            }
+            publisher.close();
+        } catch (RuntimeException e) {
+            publisher.closeExceptionally(e);
+        } finally {
+            executor.shutdown();
+        }
+
+        long records;
+        try {
+            records = writer.done.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        return new ExportStats(records, Files.size(target), millis);
+    }
+
+    private static WritableByteChannel openChannel(Path target, boolean gzip) throws IOException {
+        FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                            StandardOpenOption.TRUNCATE_EXISTING);
+        if (!gzip) {
+            return file;
+        }
+        try {
+            return Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(file), WRITE_BUFFER_BYTES));
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Subscriber formatting meals into the file. Runs on the publisher's
+     * executor thread, one signal at a time.
+     */
+    private static final class MealWriter implements Flow.Subscriber<Meal> {
+        private final WritableByteChannel channel;
+        private final Format format;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        private final StringBuilder record = new StringBuilder(256);
+        private char[] chars = new char[256];
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+        private long records;
+        private int pendingRequests;
+
+        MealWriter(WritableByteChannel channel, Format format) {
+            this.channel = channel;
+            this.format = format;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            try {
+                write(format == Format.CSV ? CSV_HEADER + "\n" : "[");
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            pendingRequests = REQUEST_BATCH;
+            subscription.request(REQUEST_BATCH);
+        }
+
+        @Override
+        public void onNext(Meal meal) {
+            if (done.isDone()) {
+                return;
+            }
+            record.setLength(0);
+            if (format == Format.CSV) {
+                appendCsv(meal);
+            } else {
+                appendJson(meal);
+            }
+            try {
+                write(record);
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            records++;
+            if (--pendingRequests == 0) {
+                pendingRequests = REQUEST_BATCH;
+                subscription.request(REQUEST_BATCH);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            fail(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (done.isDone()) {
+                return;
+            }
+            try {
+                write(format == Format.CSV ? "" : (records == 0 ? "]\n" : "\n]\n"));
+                flush();
+                channel.close();
+                done.complete(records);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable throwable) {
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Reporting the original failure
+            }
+            done.completeExceptionally(throwable);
+        }
+
+        private void appendCsv(Meal meal) {
+            for (FoodItem item : meal.getFoodItemsView()) {
+                record.append(meal.getId()).append(',');
+                appendCsvField(meal.getUsername());
+                record.append(',').append(meal.getMealType().name()).append(',');
+                record.append(meal.getTimestamp().format(TIMESTAMP_FORMAT)).append(',');
+                appendCsvField(item.getName());
+                record.append(',').append(item.getCaloriesPerUnit()).append(',').append(item.getQuantity()).append(',');
+                appendCsvField(item.getUnit());
+                record.append(',').append(item.getTotalCalories()).append('\n');
+            }
+        }
+
+        private void appendCsvField(String value) {
+            if (value == null) {
+                return;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                    && value.indexOf('\r') < 0) {
+                record.append(value);
+                return;
+            }
+            record.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    record.append('"');
+                }
+                record.append(c);
+            }
+            record.append('"');
+        }
+
+        private void appendJson(Meal meal) {
+            record.append(records == 0 ? "\n" : ",\n");
+            record.append("{\"id\":").append(meal.getId()).append(",\"username\":");
+            appendJsonString(meal.getUsername());
+            record.append(",\"mealType\":\"").append(meal.getMealType().name()).append("\",\"timestamp\":\"")
+                  .append(meal.getTimestamp().format(TIMESTAMP_FORMAT)).append("\",\"totalCalories\":")
+                  .append(meal.getTotalCalories()).append(",\"foodItems\":[");
+            boolean first = true;
+            for (FoodItem item : meal.getFoodItemsView()) {
+                record.append(first ? "{\"name\":" : ",{\"name\":");
+                appendJsonString(item.getName());
+                record.append(",\"caloriesPerUnit\":").append(item.getCaloriesPerUnit())
+                      .append(",\"quantity\":").append(item.getQuantity()).append(",\"unit\":");
+                appendJsonString(item.getUnit());
+                record.append('}');
+                first = false;
+            }
+            record.append("]}");
+        }
+
+        private void appendJsonString(String value) {
+            if (value == null) {
+                record.append("null");
+                return;
+            }
+            record.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    record.append('\\').append(c);
+                } else if (c < 0x20) {
+                    record.append(String.format("\\u%04x", (int) c));
+                } else {
+                    record.append(c);
+                }
+            }
+            record.append('"');
+        }
+
+        /**
+         * Encodes text into the byte buffer, writing it out whenever it fills.
+         */
+        private void write(CharSequence text) throws IOException {
+            int length = text.length();
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                chars[i] = text.charAt(i);
+            }
+            CharBuffer input = CharBuffer.wrap(chars, 0, length);
+            while (true) {
+                CoderResult result = encoder.encode(input, bytes, true);
+                if (result.isOverflow()) {
+                    flush();
+                } else if (result.isUnderflow()) {
+                    break;
+                } else {
+                    result.throwException();
+                }
+            }
+            encoder.reset();
+        }
+
+        private void flush() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
+    }
+}
@@ -1,22 +1,30 @@
 package com.diettracker.service;
 
 import com.diettracker.model.*;
+import com.diettracker.util.ValidationError;
+import com.diettracker.util.ValidationUtil;
 import java.io.*;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
  * Service class for handling file I/O operations.
  * Manages reading and writing data to text files for persistence.
+ * Users and meals are stored through the repositories of the storage
+ * package; this class parses the meal record format they share.
  */
 public class FileService {
     private static final String DATA_DIR = "data";
     private static final String USERS_FILE = DATA_DIR + "/users.txt";
     private static final String MEALS_FILE = DATA_DIR + "/meals.txt";
+    private static final String MEAL_DELTAS_FILE = DATA_DIR + "/meal_deltas.txt";
     private static final String DAILY_LOGS_FILE = DATA_DIR + "/daily_logs.txt";
+    private static final String ROLLUPS_FILE_PREFIX = DATA_DIR + "/rollups_";
+    private static final String ROLLUP_DELTAS_FILE = DATA_DIR + "/rollup_deltas.txt";
     
     /**
      * Ensures the data directory exists.
@@ -29,30 +37,94 @@ public class FileService {
     }
     
     /**
-     * Saves a list of users to file.
-     * @param users List of users to save
+     * Parses one meal record in the meals file format:
+     * username,mealType,timestamp[,id],(foodName,caloriesPerUnit,quantity,unit)*
+     * The id field is absent in files written before meals had ids.
+     * @param line The record
+     * @return The parsed meal, or null if the line is blank or malformed
      */
-    public static void saveUsers(List<User> users) {
+    public static Meal parseMeal(String line) {
+        if (line == null || line.trim().isEmpty()) {
+            return null;
+        }
+        
+        String[] parts = line.split(",");
+        if (parts.length < 3) {
+            return null;
+        }
+        
+        // Invalid fields are reported without exceptions; see ValidationUtil
+        String username = parts[0];
+        Meal.MealType mealType = ValidationUtil.parseMealType(parts[1], 0, parts[1].length());
+        if (mealType == null) {
+            return skipMalformed(ValidationError.INVALID_MEAL_TYPE);
+        }
+        LocalDateTime timestamp = ValidationUtil.parseTimestamp(parts[2]);
+        if (timestamp == null) {
+            return skipMalformed(ValidationError.INVALID_TIMESTAMP);
+        }
+        
+        Meal meal = new Meal(username, mealType, timestamp);
+        
+        // Food items come in groups of four, so a leftover field is the id
+        int firstItem = 3;
+        if ((parts.length - 3) % 4 != 0) {
+            long id = ValidationUtil.parseLong(parts[3]);
+            if (id == ValidationUtil.INVALID_NUMBER) {
+                return skipMalformed(ValidationError.INVALID_ID);
+            }
+            meal.setId(id);
+            firstItem = 4;
+        }
+        
+        for (int i = firstItem; i + 3 < parts.length; i += 4) {
+            String foodName = parts[i];
+            long caloriesPerUnit = ValidationUtil.parseLong(parts[i + 1]);
+            if (caloriesPerUnit < Integer.MIN_VALUE || caloriesPerUnit > Integer.MAX_VALUE) {
+                return skipMalformed(ValidationError.INVALID_CALORIES);
+            }
+            double quantity = ValidationUtil.parseDouble(parts[i + 2]);
+            if (Double.isNaN(quantity)) {
+                return skipMalformed(ValidationError.INVALID_QUANTITY);
+            }
+            String unit = parts[i + 3];
+            
+            meal.addFoodItem(new FoodItem(foodName, (int) caloriesPerUnit, quantity, unit));
+        }
+        
+        return meal;
+    }
+    
+    private static Meal skipMalformed(ValidationError error) {
+        System.err.println("Skipping malformed meal record: " + error.getMessage());
+        return null;
+    }
+    
+    /**
+     * Saves a list of daily logs to file.
+     * @param dailyLogs List of daily logs to save
+     */
+    public static void saveDailyLogs(List<DailyLog> dailyLogs) {
         ensureDataDirectory();
-        try (PrintWriter writer = new PrintWriter(new FileWriter(USERS_FILE))) {
-            for (User user : users) {
-                writer.println(user.toString());
+        try (PrintWriter writer = new PrintWriter(new FileWriter(DAILY_LOGS_FILE))) {
+            for (DailyLog log : dailyLogs) {
+                writer.println(log.toString());
             }
         } catch (IOException e) {
-            System.err.println("Error saving users: " + e.getMessage());
+            System.err.println("Error saving daily logs: " + e.getMessage());
         }
     }
     
     /**
-     * Loads users from file.
-     * @return List of loaded users
+     * Loads daily logs from file.
+     * @return List of loaded daily logs
      */
-    public static List<User> loadUsers() {
-        List<User> users = new ArrayList<>();
-        File file = new File(USERS_FILE);
+    public static List<DailyLog> loadDailyLogs() {
+        List<DailyLog> dailyLogs = new ArrayList<>();
+        File file = new File(DAILY_LOGS_FILE);
         
         if (!file.exists()) {
-            return users;
+            return dailyLogs;
         }
         
         try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
@@ -60,132 +132,137 @@ public class FileService {
             while ((line = reader.readLine()) != null) {
                 if (!line.trim().isEmpty()) {
                     String[] parts = line.split(",");
-                    if (parts.length >= 3) {
+                    if (parts.length >= 4) {
                         String username = parts[0];
-                        String password = parts[1];
-                        int calorieGoal = Integer.parseInt(parts[2]);
-                        users.add(new User(username, password, calorieGoal));
+                        LocalDate date = LocalDate.parse(parts[1], DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+                        int totalCalories = Integer.parseInt(parts[2]);
+                        int dailyGoal = Integer.parseInt(parts[3]);
+                        
+                        DailyLog log = new DailyLog(username, date, dailyGoal);
+                        dailyLogs.add(log);
                     }
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error loading users: " + e.getMessage());
+            System.err.println("Error loading daily logs: " + e.getMessage());
         }
         
-        return users;
+        return dailyLogs;
     }
     
     /**
-     * Saves a list of meals to file.
-     * @param meals List of meals to save
+     * Saves calorie rollups of one granularity to file.
+     * @param granularity The rollup granularity
+     * @param rollups Rollups to save
      */
-    public static void saveMeals(List<Meal> meals) {
+    public static void saveRollups(CalorieRollup.Granularity granularity, Collection<CalorieRollup> rollups) {
         ensureDataDirectory();
-        try (PrintWriter writer = new PrintWriter(new FileWriter(MEALS_FILE))) {
-            for (Meal meal : meals) {
-                writer.println(meal.toString());
+        try (PrintWriter writer = new PrintWriter(new FileWriter(getRollupsFile(granularity)))) {
+            for (CalorieRollup rollup : rollups) {
+                writer.println(rollup.toString());
             }
         } catch (IOException e) {
-            System.err.println("Error saving meals: " + e.getMessage());
+            System.err.println("Error saving rollups: " + e.getMessage());
         }
     }
     
     /**
-     * Loads meals from file.
-     * @return List of loaded meals
+     * Loads calorie rollups of one granularity from file.
+     * @param granularity The rollup granularity
+     * @return List of loaded rollups, or null if no rollup file exists yet
      */
-    public static List<Meal> loadMeals() {
-        List<Meal> meals = new ArrayList<>();
-        File file = new File(MEALS_FILE);
+    public static List<CalorieRollup> loadRollups(CalorieRollup.Granularity granularity) {
+        File file = new File(getRollupsFile(granularity));
         
         if (!file.exists()) {
-            return meals;
+            return null;
         }
         
+        List<CalorieRollup> rollups = new ArrayList<>();
         try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 if (!line.trim().isEmpty()) {
                     String[] parts = line.split(",");
-                    if (parts.length >= 3) {
+                    if (parts.length >= 4) {
                         String username = parts[0];
-                        Meal.MealType mealType = Meal.MealType.valueOf(parts[1]);
-                        LocalDateTime timestamp = LocalDateTime.parse(parts[2], DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-                        
-                        Meal meal = new Meal(username, mealType, timestamp);
-                        
-                        // Parse food items (starting from index 3)
-                        for (int i = 3; i < parts.length; i += 4) {
-                            if (i + 3 < parts.length) {
-                                String foodName = parts[i];
-                                int caloriesPerUnit = Integer.parseInt(parts[i + 1]);
-                                double quantity = Double.parseDouble(parts[i + 2]);
-                                String unit = parts[i + 3];
-                                
-                                FoodItem foodItem = new FoodItem(foodName, caloriesPerUnit, quantity, unit);
-                                meal.addFoodItem(foodItem);
-                            }
-                        }
-                        
-                        meals.add(meal);
+                        LocalDate periodStart = LocalDate.parse(parts[1], DateTimeFormatter.ISO_LOCAL_DATE);
+                        int mealCount = Integer.parseInt(parts[2]);
+                        int totalCalories = Integer.parseInt(parts[3]);
+                        rollups.add(new CalorieRollup(username, granularity, periodStart, mealCount, totalCalories));
                     }
                 }
             }
-        } catch (IOException e) {
-            System.err.println("Error loading meals: " + e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error loading rollups: " + e.getMessage());
+            return null;
         }
         
-        return meals;
+        return rollups;
     }
     
     /**
-     * Saves a list of daily logs to file.
-     * @param dailyLogs List of daily logs to save
+     * Appends the current values of changed rollups to the rollup journal, in one write.
+     * A rollup without meals records that its period was emptied.
+     * @param rollups Changed rollups
      */
-    public static void saveDailyLogs(List<DailyLog> dailyLogs) {
+    public static void appendRollupDeltas(Collection<CalorieRollup> rollups) {
+        if (rollups.isEmpty()) {
+            return;
+        }
         ensureDataDirectory();
-        try (PrintWriter writer = new PrintWriter(new FileWriter(DAILY_LOGS_FILE))) {
-            for (DailyLog log : dailyLogs) {
-                writer.println(log.toString());
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(ROLLUP_DELTAS_FILE, true)))) {
+            for (CalorieRollup rollup : rollups) {
+                writer.println(rollup.getGranularity().name() + "," + rollup.toString());
             }
         } catch (IOException e) {
-            System.err.println("Error saving daily logs: " + e.getMessage());
+            System.err.println("Error saving rollup changes: " + e.getMessage());
         }
     }
     
     /**
-     * Loads daily logs from file.
-     * @return List of loaded daily logs
+     * Loads the rollup journal, oldest record first. Later records for the
+     * same period replace earlier ones; torn records are skipped.
+     * @return The journaled rollups, empty if there is no journal
      */
-    public static List<DailyLog> loadDailyLogs() {
-        List<DailyLog> dailyLogs = new ArrayList<>();
-        File file = new File(DAILY_LOGS_FILE);
-        
+    public static List<CalorieRollup> loadRollupDeltas() {
+        List<CalorieRollup> rollups = new ArrayList<>();
+        File file = new File(ROLLUP_DELTAS_FILE);
         if (!file.exists()) {
-            return dailyLogs;
+            return rollups;
         }
         
         try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
-                    String[] parts = line.split(",");
-                    if (parts.length >= 4) {
-                        String username = parts[0];
-                        LocalDate date = LocalDate.parse(parts[1], DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-                        int totalCalories = Integer.parseInt(parts[2]);
-                        int dailyGoal = Integer.parseInt(parts[3]);
-                        
-                        DailyLog log = new DailyLog(username, date, dailyGoal);
-                        dailyLogs.add(log);
-                    }
+                String[] parts = line.split(",");
+                if (parts.length < 5) {
+                    continue;
+                }
+                try {
+                    rollups.add(new CalorieRollup(parts[1], CalorieRollup.Granularity.valueOf(parts[0]),
+                                                  LocalDate.parse(parts[2], DateTimeFormatter.ISO_LOCAL_DATE),
+                                                  Integer.parseInt(parts[3]), Integer.parseInt(parts[4])));
+                } catch (RuntimeException e) {
+                    // Skip a torn record
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error loading daily logs: " + e.getMessage());
+            System.err.println("Error loading rollup changes: " + e.getMessage());
         }
-        
-        return dailyLogs;
+        return rollups;
+    }
+    
+    /**
+     * Deletes the rollup journal once the rollup files include it.
+     */
+    public static void clearRollupDeltas() {
+        File file = new File(ROLLUP_DELTAS_FILE);
+        if (file.exists()) file.delete();
+    }
+    
+    private static String getRollupsFile(CalorieRollup.Granularity granularity) {
+        return ROLLUPS_FILE_PREFIX + granularity.name().toLowerCase() + ".txt";
     }
     
     /**
@@ -194,10 +271,19 @@ public class FileService {
     public static void clearAllData() {
         File usersFile = new File(USERS_FILE);
         File mealsFile = new File(MEALS_FILE);
+        File mealDeltasFile = new File(MEAL_DELTAS_FILE);
         File dailyLogsFile = new File(DAILY_LOGS_FILE);
+        File rollupDeltasFile = new File(ROLLUP_DELTAS_FILE);
         
         if (usersFile.exists()) usersFile.delete();
         if (mealsFile.exists()) mealsFile.delete();
+        if (mealDeltasFile.exists()) mealDeltasFile.delete();
         if (dailyLogsFile.exists()) dailyLogsFile.delete();
+        if (rollupDeltasFile.exists()) rollupDeltasFile.delete();
+        
+        for (CalorieRollup.Granularity granularity : CalorieRollup.Granularity.values()) {
+            File rollupsFile = new File(getRollupsFile(granularity));
+            if (rollupsFile.exists()) rollupsFile.delete();
+        }
     }
 }
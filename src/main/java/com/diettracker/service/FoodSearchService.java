@@ -0,0 +1,391 @@
+package com.diettracker.service;
+
+import com.diettracker.event.MealEvent;
+import com.diettracker.event.MealEventHandler;
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Service class for finding a user's meals by food name.
+ *
+ * Keeps an inverted index per user from food tokens (the lower-case words
+ * of food names, e.g. "greek" and "yogurt") to posting lists of meal ids
+ * sorted by time, for every meal including archived ones. A term query
+ * looks up one posting list and a prefix query the neighbouring tokens in
+ * sorted order; date bounds are binary searches in the lists. Updates
+ * arrive as meal events, so results trail changes by the consumer's lag.
+ *
+ * A user's index can be rebuilt from their stored meals; it remembers the
+ * store version it was built from and ignores older events that it already
+ * includes. Methods are synchronized because queries and updates touch the
+ * same postings.
+ *
+ * Indexes of users evicted from memory are dropped and must be rebuilt
+ * before the user is searched again.
+ */
+public class FoodSearchService implements MealEventHandler {
+    private final Map<String, UserIndex> users = new HashMap<>();
+    private final Set<String> evicted = new HashSet<>();
+
+    /**
+     * Creates an empty index; the stored meals are replayed into it as events.
+     */
+    public FoodSearchService() {
+    }
+
+    /**
+     * Applies a meal change to the index.
+     */
+    @Override
+    public synchronized void onEvent(MealEvent event, long sequence, boolean endOfBatch) {
+        Meal meal = event.getMeal();
+        if (evicted.contains(meal.getUsername())) {
+            return;
+        }
+        UserIndex index = users.computeIfAbsent(meal.getUsername(), u -> new UserIndex());
+        if (event.getVersion() <= index.builtVersion) {
+            return;
+        }
+
+        switch (event.getType()) {
+            case ADDED:
+                index.add(meal);
+                break;
+            case REMOVED:
+                index.remove(meal);
+                break;
+            case UPDATED:
+                index.remove(event.getPreviousMeal());
+                index.add(meal);
+                break;
+        }
+    }
+
+    /**
+     * Checks whether a user's index was dropped and must be rebuilt before searching.
+     * @param username The username
+     * @return true if evicted, false otherwise
+     */
+    public synchronized boolean isEvicted(String username) {
+        return evicted.contains(username);
+    }
+
+    /**
+     * Drops a user's index; it is rebuilt before they are next searched.
+     * @param username The username
+     */
+    public synchronized void evictUser(String username) {
+        users.remove(username);
+        evicted.add(username);
+    }
+
+    /**
+     * Rebuilds one user's index from their meals.
+     * @param username The username
+     * @param userMeals All of the user's meals as of the given store version
+     * @param version The store version the meals were read from
+     */
+    public synchronized void rebuildUser(String username, Collection<Meal> userMeals, long version) {
+        UserIndex existing = users.get(username);
+        if (existing != null && existing.builtVersion >= version) {
+            return;
+        }
+        evicted.remove(username);
+
+        UserIndex index = new UserIndex();
+        index.builtVersion = version;
+        for (Meal meal : userMeals) {
+            index.add(meal);
+        }
+        users.put(username, index);
+    }
+
+    /**
+     * Finds a user's meals containing foods that match every word
+     * of the search text.
+     * @param username The username
+     * @param text Food words, e.g. "banana" or "greek yogurt"
+     * @param prefix true to match words starting with the given ones, false for whole words
+     * @param from First date (inclusive), or null for the oldest meal
+     * @param to Last date (inclusive), or null for the newest meal
+     * @param limit Maximum number of ids, or 0 for no limit
+     * @return The matching meals, newest first
+     */
+    public synchronized List<Hit> search(String username, String text, boolean prefix,
+                                          LocalDate from, LocalDate to, int limit) {
+        UserIndex index = users.get(username);
+        List<String> terms = tokenize(text);
+        if (index == null || terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        long fromSecond = from == null ? Long.MIN_VALUE : toSecond(from.atStartOfDay());
+        long toSecond = to == null ? Long.MAX_VALUE : toSecond(to.plusDays(1).atStartOfDay()) - 1;
+
+        // The rarest word drives the search; the others only filter its meals
+        List<Set<Long>> filters = new ArrayList<>();
+        List<Postings> driver = null;
+        int driverSize = Integer.MAX_VALUE;
+        for (String term : terms) {
+            List<Postings> postings = index.lookup(term, prefix);
+            int size = 0;
+            for (Postings list : postings) {
+                size += list.size;
+            }
+            if (size == 0) {
+                return new ArrayList<>();
+            }
+            if (size < driverSize) {
+                if (driver != null) {
+                    filters.add(ids(driver, fromSecond, toSecond));
+                }
+                driver = postings;
+                driverSize = size;
+            } else {
+                filters.add(ids(postings, fromSecond, toSecond));
+            }
+        }
+
+        List<Hit> result = new ArrayList<>();
+        for (Hit hit : newestFirst(driver, fromSecond, toSecond)) {
+            if (filters.stream().allMatch(filter -> filter.contains(hit.id))) {
+                result.add(hit);
+                if (result.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets how many distinct food words are indexed for a user.
+     * @param username The username
+     * @return Number of words
+     */
+    public synchronized int getTermCount(String username) {
+        UserIndex index = users.get(username);
+        return index == null ? 0 : index.terms.size();
+    }
+
+    /**
+     * Splits a food name into its index words: lower-case runs of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static Set<Long> ids(List<Postings> postings, long fromSecond, long toSecond) {
+        Set<Long> ids = new HashSet<>();
+        for (Postings list : postings) {
+            int end = list.upperBound(toSecond);
+            for (int i = list.lowerBound(fromSecond, Long.MIN_VALUE); i < end; i++) {
+                ids.add(list.ids[i]);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Merges the entries of posting lists in a time range, newest first,
+     * without duplicates (a meal can hold several words sharing a prefix).
+     */
+    private static Iterable<Hit> newestFirst(List<Postings> postings, long fromSecond, long toSecond) {
+        if (postings.size() == 1) {
+            Postings list = postings.get(0);
+            int first = list.lowerBound(fromSecond, Long.MIN_VALUE);
+            int end = list.upperBound(toSecond);
+            List<Hit> hits = new ArrayList<>(Math.max(0, end - first));
+            for (int i = end - 1; i >= first; i--) {
+                hits.add(new Hit(list.seconds[i], list.ids[i]));
+            }
+            return hits;
+        }
+        TreeSet<Hit> merged = new TreeSet<>(Collections.reverseOrder());
+        for (Postings list : postings) {
+            int end = list.upperBound(toSecond);
+            for (int i = list.lowerBound(fromSecond, Long.MIN_VALUE); i < end; i++) {
+                merged.add(new Hit(list.seconds[i], list.ids[i]));
+            }
+        }
+        return merged;
+    }
+
+    private static long toSecond(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * Inverted index of one user's meals.
+     */
+    private static final class UserIndex {
+        private final NavigableMap<String, Postings> terms = new TreeMap<>();
+        private long builtVersion; // events up to this store version are included
+
+        void add(Meal meal) {
+            long second = toSecond(meal.getTimestamp());
+            for (String term : terms(meal)) {
+                terms.computeIfAbsent(term, t -> new Postings()).add(second, meal.getId());
+            }
+        }
+
+        void remove(Meal meal) {
+            long second = toSecond(meal.getTimestamp());
+            for (String term : terms(meal)) {
+                Postings postings = terms.get(term);
+                if (postings != null && postings.remove(second, meal.getId()) && postings.size == 0) {
+                    terms.remove(term);
+                }
+            }
+        }
+
+        List<Postings> lookup(String term, boolean prefix) {
+            if (!prefix) {
+                Postings postings = terms.get(term);
+                return postings == null ? Collections.emptyList() : Collections.singletonList(postings);
+            }
+            return new ArrayList<>(terms.subMap(term, true, term + Character.MAX_VALUE, false).values());
+        }
+
+        private static Set<String> terms(Meal meal) {
+            Set<String> terms = new HashSet<>();
+            for (FoodItem item : meal.getFoodItemsView()) {
+                terms.addAll(tokenize(item.getName()));
+            }
+            return terms;
+        }
+    }
+
+    /**
+     * Meal ids sorted by (timestamp to the second, id), in parallel arrays.
+     * Meals are mostly added in time order, so inserts are mostly appends.
+     */
+    private static final class Postings {
+        private long[] seconds = new long[4];
+        private long[] ids = new long[4];
+        private int size;
+
+        void add(long second, long id) {
+            int index = lowerBound(second, id);
+            if (index < size && seconds[index] == second && ids[index] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                seconds = Arrays.copyOf(seconds, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(seconds, index, seconds, index + 1, size - index);
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            seconds[index] = second;
+            ids[index] = id;
+            size++;
+        }
+
+        boolean remove(long second, long id) {
+            int index = lowerBound(second, id);
+            if (index == size || seconds[index] != second || ids[index] != id) {
+                return false;
+            }
+            System.arraycopy(seconds, index + 1, seconds, index, size - index - 1);
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        /**
+         * Finds the first entry at or after (second, id).
+         */
+        int lowerBound(long second, long id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (seconds[mid] < second || (seconds[mid] == second && ids[mid] < id)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Finds the first entry after the given second.
+         */
+        int upperBound(long second) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (seconds[mid] <= second) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * A matching meal: its id and when it was eaten. Ordered by time, then id.
+     */
+    public static final class Hit implements Comparable<Hit> {
+        private final long second;
+        private final long id;
+
+        Hit(long second, long id) {
+            this.second = second;
+            this.id = id;
+        }
+
+        public long getMealId() {
+            return id;
+        }
+
+        public LocalDate getDate() {
+            return LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC).toLocalDate();
+        }
+
+        @Override
+        public int compareTo(Hit other) {
+            int bySecond = Long.compare(second, other.second);
+            return bySecond != 0 ? bySecond : Long.compare(id, other.id);
+        }
+
+        @Override
+        public String toString() {
+            return id + "," + getDate();
+        }
+    }
+}
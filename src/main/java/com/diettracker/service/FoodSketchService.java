@@ -0,0 +1,295 @@
+package com.diettracker.service;
+
+import com.diettracker.event.MealEvent;
+import com.diettracker.event.MealEventHandler;
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.util.CountMinSketch;
+import com.diettracker.util.HeavyHitters;
+import com.diettracker.util.HyperLogLog;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Service class for food statistics over logged meals, kept per ISO week
+ * and merged to answer queries over longer ranges. Ranges therefore cover
+ * the whole weeks (Monday to Sunday) that overlap them.
+ *
+ * Across all users, where the foods are too many to count exactly, each
+ * week has a Count-Min sketch with a top-k heap for the most-logged foods
+ * and a HyperLogLog sketch for distinct food counts. A user logs a few
+ * dozen foods a week, so per user each week keeps exact counts in a small
+ * open-addressing table instead: top foods and distinct counts are exact
+ * and unaffected by other users' foods, and cost less memory than a
+ * sketch of their own.
+ *
+ * Updates arrive as meal events; methods are synchronized because queries
+ * and updates touch the same in-memory tables.
+ */
+public class FoodSketchService implements MealEventHandler {
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 8192;
+    private static final int GLOBAL_TOP_CAPACITY = 64;
+    private static final int GLOBAL_HLL_PRECISION = 14;
+
+    private TreeMap<LocalDate, Window> windows;
+
+    /**
+     * Creates empty sketches; the stored meals are replayed into them as events.
+     */
+    public FoodSketchService() {
+        this.windows = new TreeMap<>();
+    }
+
+    /**
+     * Applies a meal change to the sketches.
+     */
+    @Override
+    public synchronized void onEvent(MealEvent event, long sequence, boolean endOfBatch) {
+        switch (event.getType()) {
+            case ADDED:
+                mealAdded(event.getMeal());
+                break;
+            case REMOVED:
+                removeFoods(event.getMeal(), event.getMeal().getFoodItems());
+                break;
+            case UPDATED:
+                removeFoods(event.getPreviousMeal(), event.getPreviousMeal().getFoodItems());
+                mealAdded(event.getMeal());
+                break;
+        }
+    }
+
+    /**
+     * Records the foods of a newly added meal.
+     * Removed meals are subtracted from the counts; distinct counts may stay
+     * slightly high until the sketches are rebuilt on load.
+     */
+    private void mealAdded(Meal meal) {
+        Window window = windows.computeIfAbsent(weekOf(meal.getTimestamp().toLocalDate()), w -> new Window());
+        for (FoodItem item : meal.getFoodItems()) {
+            window.add(meal.getUsername(), normalize(item.getName()), 1);
+        }
+    }
+
+    /**
+     * Gets the most frequently logged foods in the weeks overlapping a date range.
+     * @param username The username, or null for all users
+     * @param from First date (inclusive, rounded down to its week's Monday)
+     * @param to Last date (inclusive, rounded up to its week's Sunday)
+     * @param limit Maximum number of foods
+     * @return Normalized food names mapped to log counts (exact for a user,
+     *         estimated for all users), highest first
+     */
+    public synchronized Map<String, Long> getTopFoods(String username, LocalDate from, LocalDate to, int limit) {
+        Collection<Window> range = windowsBetween(from, to);
+        if (range.isEmpty() || limit <= 0) {
+            return new LinkedHashMap<>();
+        }
+        if (username != null) {
+            return userTopFoods(username, range, limit);
+        }
+
+        CountMinSketch counts = null;
+        Set<String> candidates = new HashSet<>();
+        for (Window window : range) {
+            counts = counts == null ? window.counts.copy() : counts.merge(window.counts);
+            candidates.addAll(window.globalTop.getCandidates());
+        }
+
+        // Re-rank the union of every window's candidates against the merged counts
+        HeavyHitters merged = new HeavyHitters(Math.max(limit, 1));
+        for (String food : candidates) {
+            merged.offer(food, counts.estimate(food));
+        }
+        return merged.getTop(limit);
+    }
+
+    /**
+     * Counts the distinct foods logged in the weeks overlapping a date range.
+     * @param username The username, or null for all users
+     * @param from First date (inclusive, rounded down to its week's Monday)
+     * @param to Last date (inclusive, rounded up to its week's Sunday)
+     * @return Distinct food count, exact for a user and estimated for all users
+     */
+    public synchronized long getDistinctFoodCount(String username, LocalDate from, LocalDate to) {
+        if (username != null) {
+            Set<String> foods = new HashSet<>();
+            for (Window window : windowsBetween(from, to)) {
+                FoodCounts counts = window.userCounts.get(username);
+                if (counts != null) {
+                    counts.forEach((food, count) -> foods.add(food));
+                }
+            }
+            return foods.size();
+        }
+
+        HyperLogLog distinct = null;
+        for (Window window : windowsBetween(from, to)) {
+            distinct = distinct == null ? window.globalDistinct.copy() : distinct.merge(window.globalDistinct);
+        }
+        return distinct == null ? 0 : distinct.cardinality();
+    }
+
+    private static Map<String, Long> userTopFoods(String username, Collection<Window> range, int limit) {
+        Map<String, Long> totals = new HashMap<>();
+        for (Window window : range) {
+            FoodCounts counts = window.userCounts.get(username);
+            if (counts != null) {
+                counts.forEach((food, count) -> totals.merge(food, (long) count, Long::sum));
+            }
+        }
+
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(totals.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size() && i < limit; i++) {
+            top.put(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+        return top;
+    }
+
+    private void removeFoods(Meal meal, List<FoodItem> items) {
+        Window window = windows.get(weekOf(meal.getTimestamp().toLocalDate()));
+        if (window == null) {
+            return;
+        }
+        for (FoodItem item : items) {
+            window.add(meal.getUsername(), normalize(item.getName()), -1);
+        }
+    }
+
+    private Collection<Window> windowsBetween(LocalDate from, LocalDate to) {
+        if (from == null || to == null || from.isAfter(to)) {
+            return new ArrayList<>();
+        }
+        return windows.subMap(weekOf(from), true, weekOf(to), true).values();
+    }
+
+    private static LocalDate weekOf(LocalDate date) {
+        return date.with(DayOfWeek.MONDAY);
+    }
+
+    private static String normalize(String foodName) {
+        return foodName.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Statistics for one ISO week.
+     */
+    private static class Window {
+        private final CountMinSketch counts = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+        private final HeavyHitters globalTop = new HeavyHitters(GLOBAL_TOP_CAPACITY);
+        private final HyperLogLog globalDistinct = new HyperLogLog(GLOBAL_HLL_PRECISION);
+        private final Map<String, FoodCounts> userCounts = new HashMap<>();
+
+        void add(String username, String food, int delta) {
+            globalTop.offer(food, counts.add(food, delta));
+            if (delta > 0) {
+                globalDistinct.add(food);
+            }
+
+            FoodCounts user = userCounts.computeIfAbsent(username, u -> new FoodCounts());
+            if (user.add(food, delta) <= 0) {
+                user.remove(food);
+                if (user.isEmpty()) {
+                    userCounts.remove(username);
+                }
+            }
+        }
+    }
+
+    /**
+     * Exact counts of one user's foods in a week: an open-addressing table
+     * of parallel arrays, far smaller than a HashMap of boxed counts.
+     */
+    private static final class FoodCounts {
+        private String[] foods = new String[8];
+        private int[] counts = new int[8];
+        private int size;
+
+        /**
+         * Adds to a food's count.
+         * @return The new count
+         */
+        int add(String food, int delta) {
+            int slot = slot(food);
+            if (foods[slot] == null) {
+                if ((size + 1) * 4 > foods.length * 3) {
+                    grow();
+                    slot = slot(food);
+                }
+                foods[slot] = food;
+                size++;
+            }
+            counts[slot] += delta;
+            return counts[slot];
+        }
+
+        void remove(String food) {
+            int slot = slot(food);
+            if (foods[slot] == null) {
+                return;
+            }
+            foods[slot] = null;
+            counts[slot] = 0;
+            size--;
+            // Re-insert the rest of the probe run so lookups still find it
+            for (int i = (slot + 1) & (foods.length - 1); foods[i] != null; i = (i + 1) & (foods.length - 1)) {
+                String moved = foods[i];
+                int count = counts[i];
+                foods[i] = null;
+                counts[i] = 0;
+                int target = slot(moved);
+                foods[target] = moved;
+                counts[target] = count;
+            }
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void forEach(ObjIntConsumer<String> action) {
+            for (int i = 0; i < foods.length; i++) {
+                if (foods[i] != null && counts[i] > 0) {
+                    action.accept(foods[i], counts[i]);
+                }
+            }
+        }
+
+        private int slot(String food) {
+            int mask = foods.length - 1;
+            int slot = (food.hashCode() * 0x9E3779B9 >>> 16) & mask;
+            while (foods[slot] != null && !foods[slot].equals(food)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            String[] oldFoods = foods;
+            int[] oldCounts = counts;
+            foods = new String[oldFoods.length * 2];
+            counts = new int[oldFoods.length * 2];
+            for (int i = 0; i < oldFoods.length; i++) {
+                if (oldFoods[i] != null) {
+                    int slot = slot(oldFoods[i]);
+                    foods[slot] = oldFoods[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+import com.diettracker.util.ValidationError;
+import com.diettracker.util.ValidationUtil;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Service class for importing meal files dropped by partner devices.
+ *
+ * Files ending in .csv that appear in data/inbox hold one meal per line in
+ * the meals.txt record format. A watcher thread streams each file line by
+ * line into a bounded queue; when the queue is full the reader blocks, so a
+ * large file never has to fit in memory. An importer thread takes records
+ * off the queue in batches, imports each batch through MealService and then
+ * records how many lines of the file are done. Finished files are moved to
+ * data/inbox/processed.
+ *
+ * Checkpoints are kept per file name, size and modification time, so a new
+ * file dropped under an old name starts from its first line. Before each
+ * batch is imported, the lines it covers are recorded as pending; after a
+ * crash, reading resumes at the last checkpoint and a pending line is only
+ * imported if the user has no identical meal yet, so a batch interrupted
+ * between import and checkpoint is not imported twice. A finished file
+ * keeps its checkpoint until it has been moved, so a failed move never
+ * causes a re-import. Partners should write under another name and rename
+ * to .csv when done.
+ *
+ * Each line is checked with ValidationUtil.validateMealRecord before it is
+ * parsed, so malformed lines cost no exceptions, and rejections are counted
+ * by reason.
+ */
+public class IngestionService {
+    private static final String DATA_DIR = "data";
+    private static final String INBOX_DIR = DATA_DIR + "/inbox";
+    private static final String PROCESSED_DIR = INBOX_DIR + "/processed";
+    private static final String CHECKPOINT_FILE = DATA_DIR + "/ingest_checkpoints.txt";
+    private static final String FILE_SUFFIX = ".csv";
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int BATCH_SIZE = 256;
+
+    private final MealService mealService;
+    private final Path inbox;
+    private final Path processed;
+    private final Path checkpointFile;
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // Progress per file key (see fileKey); written only by the importer thread
+    private final Map<String, Checkpoint> checkpoints;
+    // Files being streamed or waiting to be moved, so repeated events are ignored
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+    private final AtomicLong importedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLongArray rejectionCounts = new AtomicLongArray(ValidationError.values().length);
+    // Ids of existing meals already matched to pending lines; importer thread only
+    private final Set<Long> matchedMeals = new HashSet<>();
+    private WatchService watchService;
+    private Thread watcher;
+    private Thread importer;
+    private volatile boolean running;
+
+    public IngestionService(MealService mealService) {
+        this(mealService, Paths.get(INBOX_DIR), Paths.get(PROCESSED_DIR), Paths.get(CHECKPOINT_FILE));
+    }
+
+    /**
+     * Creates an ingestion service for custom locations.
+     * @param mealService The meal service to import into
+     * @param inbox Directory watched for new files
+     * @param processed Directory finished files are moved to
+     * @param checkpointFile File holding per-file progress
+     */
+    public IngestionService(MealService mealService, Path inbox, Path processed, Path checkpointFile) {
+        this.mealService = mealService;
+        this.inbox = inbox;
+        this.processed = processed;
+        this.checkpointFile = checkpointFile;
+        this.checkpoints = new ConcurrentHashMap<>(loadCheckpoints());
+    }
+
+    /**
+     * Starts watching the inbox. Files already waiting there are imported first.
+     * @return true if the watcher started, false if the inbox cannot be watched
+     */
+    public synchronized boolean start() {
+        if (running) {
+            return true;
+        }
+
+        try {
+            Files.createDirectories(inbox);
+            Files.createDirectories(processed);
+            watchService = inbox.getFileSystem().newWatchService();
+            inbox.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException e) {
+            System.err.println("Error watching meal inbox: " + e.getMessage());
+            return false;
+        }
+
+        running = true;
+        watcher = new Thread(this::watch, "ingest-watcher");
+        importer = new Thread(this::importRecords, "ingest-importer");
+        watcher.setDaemon(true);
+        importer.setDaemon(true);
+        importer.start();
+        watcher.start();
+        return true;
+    }
+
+    /**
+     * Stops both threads. Records still queued are dropped; they are read
+     * again from the checkpoint on the next start.
+     */
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.err.println("Error closing meal inbox watcher: " + e.getMessage());
+        }
+        watcher.interrupt();
+        importer.interrupt();
+        try {
+            watcher.join();
+            importer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.clear();
+        inProgress.clear();
+    }
+
+    /**
+     * Gets the number of meals imported since start.
+     * @return Imported meal count
+     */
+    public long getImportedCount() {
+        return importedCount.get();
+    }
+
+    /**
+     * Gets the number of lines that were blank, malformed or belonged to unknown users.
+     * @return Rejected record count
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Gets the number of rejected lines by reason since start.
+     * @return Reasons that occurred, mapped to their counts
+     */
+    public Map<ValidationError, Long> getRejectionReasons() {
+        Map<ValidationError, Long> reasons = new EnumMap<>(ValidationError.class);
+        for (ValidationError error : ValidationError.values()) {
+            long count = rejectionCounts.get(error.ordinal());
+            if (count > 0) {
+                reasons.put(error, count);
+            }
+        }
+        return reasons;
+    }
+
+    /**
+     * Gets the number of records read but not yet imported.
+     * @return Queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Watcher thread: picks up waiting files, then each newly created file.
+     */
+    private void watch() {
+        try {
+            scanInbox();
+            while (running) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        scanInbox();
+                    } else {
+                        enqueueFile(inbox.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    System.err.println("Meal inbox is no longer accessible");
+                    break;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
+        }
+    }
+
+    private void scanInbox() throws InterruptedException {
+        Set<Path> files = new TreeSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(inbox, "*" + FILE_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } catch (IOException e) {
+            System.err.println("Error listing meal inbox: " + e.getMessage());
+        }
+        for (Path file : files) {
+            enqueueFile(file);
+        }
+    }
+
+    /**
+     * Streams one file's records into the queue, starting after its checkpoint.
+     * Blocks while the queue is full.
+     */
+    private void enqueueFile(Path file) throws InterruptedException {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(FILE_SUFFIX) || !Files.isRegularFile(file) || !inProgress.add(name)) {
+            return;
+        }
+
+        String key;
+        long lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            key = fileKey(file);
+            Checkpoint checkpoint = checkpoints.getOrDefault(key, Checkpoint.NONE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber <= checkpoint.done) {
+                    continue;
+                }
+                ValidationError error = ValidationUtil.validateMealRecord(line);
+                Meal meal = error == ValidationError.NONE ? FileService.parseMeal(line) : null;
+                queue.put(new Record(key, name, lineNumber, meal, error, lineNumber <= checkpoint.pending));
+            }
+        } catch (IOException e) {
+            // The file stays in the inbox and is retried on its next event or start
+            System.err.println("Error reading meal file " + name + ": " + e.getMessage());
+            inProgress.remove(name);
+            return;
+        }
+        queue.put(new Record(key, name, lineNumber));
+    }
+
+    /**
+     * Identifies a version of a file: its name, size and modification time.
+     */
+    private static String fileKey(Path file) throws IOException {
+        return file.getFileName() + "," + Files.size(file) + "," + Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * Importer thread: imports records in batches and checkpoints after each batch.
+     */
+    private void importRecords() {
+        List<Record> batch = new ArrayList<>(BATCH_SIZE);
+        List<Meal> meals = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (running) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+
+                List<Record> finished = new ArrayList<>();
+                Map<String, Long> lastLines = new LinkedHashMap<>();
+                boolean pending = false;
+                for (Record record : batch) {
+                    if (record.endOfFile) {
+                        finished.add(record);
+                    } else if (record.meal != null) {
+                        if (record.pending && isImported(record.meal)) {
+                            importedCount.incrementAndGet();
+                        } else {
+                            meals.add(record.meal);
+                        }
+                    } else {
+                        reject(record.error, 1);
+                    }
+                    lastLines.put(record.fileKey, record.lineNumber);
+                    pending |= record.pending;
+                }
+                if (!pending) {
+                    matchedMeals.clear();
+                }
+
+                if (!meals.isEmpty()) {
+                    // Recorded first, so that a crash during the import cannot import these lines twice
+                    for (Map.Entry<String, Long> entry : lastLines.entrySet()) {
+                        long done = checkpoints.getOrDefault(entry.getKey(), Checkpoint.NONE).done;
+                        checkpoints.put(entry.getKey(), new Checkpoint(done, entry.getValue()));
+                    }
+                    saveCheckpoints();
+                }
+                int imported = mealService.importMeals(meals);
+                importedCount.addAndGet(imported);
+                // MealService only skips meals of users it does not know
+                reject(ValidationError.UNKNOWN_USER, meals.size() - imported);
+
+                for (Map.Entry<String, Long> entry : lastLines.entrySet()) {
+                    checkpoints.put(entry.getKey(), new Checkpoint(entry.getValue(), entry.getValue()));
+                }
+                saveCheckpoints();
+
+                // Checkpoints of finished files are only dropped once the file has moved
+                boolean moved = false;
+                for (Record record : finished) {
+                    if (moveToProcessed(record.fileName)) {
+                        checkpoints.remove(record.fileKey);
+                        moved = true;
+                    }
+                    inProgress.remove(record.fileName);
+                }
+                if (moved) {
+                    saveCheckpoints();
+                }
+
+                batch.clear();
+                meals.clear();
+            }
+        } catch (InterruptedException e) {
+            // Shutting down; unimported records are read again from the checkpoint
+        }
+    }
+
+    private void reject(ValidationError reason, long count) {
+        if (count > 0) {
+            rejectedCount.addAndGet(count);
+            rejectionCounts.addAndGet(reason.ordinal(), count);
+        }
+    }
+
+    /**
+     * Checks whether a meal from a pending line was imported before a crash:
+     * the user has an identical meal not yet matched to another such line.
+     */
+    private boolean isImported(Meal meal) {
+        for (Meal existing : mealService.getMealsByUserAndDate(meal.getUsername(),
+                                                               meal.getTimestamp().toLocalDate())) {
+            if (existing.getMealType() == meal.getMealType()
+                    && existing.getTimestamp().equals(meal.getTimestamp())
+                    && existing.getFoodItems().toString().equals(meal.getFoodItems().toString())
+                    && matchedMeals.add(existing.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean moveToProcessed(String fileName) {
+        try {
+            Files.move(inbox.resolve(fileName), processed.resolve(fileName), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            // Keeps its checkpoint: the next start skips its lines and retries the move
+            System.err.println("Error moving imported meal file " + fileName + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes checkpoints to a temporary file and renames it, so a crash never
+     * leaves a half-written checkpoint file.
+     */
+    private void saveCheckpoints() {
+        Path tempFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try {
+            Path parent = checkpointFile.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+                    writer.println(entry.getKey() + "," + entry.getValue().done + "," + entry.getValue().pending);
+                }
+            }
+            Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Error saving ingestion checkpoints: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads checkpoints written as "fileKey,done,pending" lines.
+     */
+    private Map<String, Checkpoint> loadCheckpoints() {
+        Map<String, Checkpoint> loaded = new LinkedHashMap<>();
+        if (!Files.exists(checkpointFile)) {
+            return loaded;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(checkpointFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int pendingComma = line.lastIndexOf(',');
+                int doneComma = pendingComma > 0 ? line.lastIndexOf(',', pendingComma - 1) : -1;
+                if (doneComma > 0) {
+                    loaded.put(line.substring(0, doneComma),
+                               new Checkpoint(Long.parseLong(line.substring(doneComma + 1, pendingComma)),
+                                              Long.parseLong(line.substring(pendingComma + 1))));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error loading ingestion checkpoints: " + e.getMessage());
+        }
+        return loaded;
+    }
+
+    /**
+     * Progress through one file: lines up to done are imported, lines up to
+     * pending may have been imported just before a crash.
+     */
+    private static class Checkpoint {
+        private static final Checkpoint NONE = new Checkpoint(0, 0);
+
+        private final long done;
+        private final long pending;
+
+        Checkpoint(long done, long pending) {
+            this.done = done;
+            this.pending = pending;
+        }
+    }
+
+    /**
+     * One line of an inbox file, or the end-of-file marker when endOfFile is set.
+     */
+    private static class Record {
+        private final String fileKey;
+        private final String fileName;
+        private final long lineNumber;
+        private final Meal meal; // null if the line was blank or malformed
+        private final ValidationError error; // why meal is null
+        private final boolean pending; // may have been imported before a crash
+        private final boolean endOfFile;
+
+        Record(String fileKey, String fileName, long lineNumber, Meal meal, ValidationError error, boolean pending) {
+            this.fileKey = fileKey;
+            this.fileName = fileName;
+            this.lineNumber = lineNumber;
+            this.meal = meal;
+            this.error = error;
+            this.pending = pending;
+            this.endOfFile = false;
+        }
+
+        Record(String fileKey, String fileName, long lineNumber) {
+            this.fileKey = fileKey;
+            this.fileName = fileName;
+            this.lineNumber = lineNumber;
+            this.meal = null;
+            this.error = ValidationError.NONE;
+            this.pending = false;
+            this.endOfFile = true;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+import com.diettracker.model.MealQuery;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.stream.Stream;
+
+/**
+ * Where MealService finds the meals it does not hold in memory: meals older
+ * than the tiered window and those of evicted users.
+ *
+ * An archive either keeps copies of its own, which meals are moved into and
+ * out of (the cold tier files), or is a view of the meal repository, which
+ * keeps every meal anyway; then archiving and removing are no-ops and the
+ * repository is left alone when meals leave or return to memory.
+ */
+interface MealArchive {
+    /**
+     * Checks whether meals are moved into the archive rather than kept in the repository.
+     */
+    boolean storesCopies();
+
+    /**
+     * Gets the highest archived meal id, so new meals never reuse one.
+     */
+    long getMaxId();
+
+    /**
+     * Archives meals leaving memory.
+     * @param meals The meals
+     * @return true if they were archived, false otherwise
+     */
+    boolean archive(Collection<Meal> meals);
+
+    /**
+     * Deletes archived meals, e.g. once they are back in memory.
+     * @param meals The meals (matched by id)
+     * @return true if they were deleted, false otherwise
+     */
+    boolean remove(Collection<Meal> meals);
+
+    /**
+     * Streams one user's archived meals in an inclusive date range.
+     * A view of the repository also streams meals held in memory.
+     * @param username The username
+     * @param from First date, or null for the oldest meal
+     * @param to Last date, or null for the newest meal
+     * @param newestFirst true to stream newest first, false for oldest first
+     * @return Meals sorted by (timestamp, id) in the requested direction
+     */
+    Stream<Meal> scan(String username, LocalDate from, LocalDate to, boolean newestFirst);
+
+    /**
+     * Streams the archived meals matching a query, merged across users.
+     * A view of the repository also streams meals held in memory.
+     * @param query The query
+     * @return Matching meals in the query's timestamp order
+     */
+    Stream<Meal> scan(MealQuery query);
+
+    /**
+     * Checks whether a query may reach archived meals.
+     */
+    boolean covers(MealQuery query);
+
+    /**
+     * Describes how the archive answers a query, for query plans.
+     */
+    String describe(MealQuery query);
+
+    /**
+     * Views in-memory meals and the archived ones as one collection, e.g. for
+     * rebuilding derived data.
+     * @param hotMeals The meals held in memory
+     * @return Every stored meal once
+     */
+    Collection<Meal> withHotMeals(Collection<Meal> hotMeals);
+}
@@ -0,0 +1,423 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+import com.diettracker.util.RoaringBitmap;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable bitmap indexes over meals, by meal type and by epoch day,
+ * for every user and for all users together.
+ *
+ * Meal ids are longs, so each indexed meal gets a dense int row number
+ * and the bitmaps hold rows; {@link #mealId} maps a row back. Rows of
+ * removed meals are reused, so rows stay below the number of meals indexed
+ * at once however large the ids grow.
+ *
+ * Day bitmaps are grouped in blocks of 64 consecutive days, so an update
+ * copies one small block array instead of a map of every day. Users and
+ * blocks are kept in persistent maps, so an update copies only the path to
+ * the changed entry and returns a new index sharing everything else.
+ */
+final class MealBitmapIndex {
+    private static final int DAY_BLOCK_BITS = 6;
+    private static final int DAY_BLOCK_SIZE = 1 << DAY_BLOCK_BITS;
+    private static final int TYPE_COUNT = Meal.MealType.values().length;
+
+    static final MealBitmapIndex EMPTY =
+            new MealBitmapIndex(Dimensions.EMPTY, PersistentSortedMap.empty(), Rows.EMPTY);
+
+    private final Dimensions global;
+    private final PersistentSortedMap<String, Dimensions> byUser;
+    private final Rows rows;
+
+    private MealBitmapIndex(Dimensions global, PersistentSortedMap<String, Dimensions> byUser, Rows rows) {
+        this.global = global;
+        this.byUser = byUser;
+        this.rows = rows;
+    }
+
+    /**
+     * Builds the indexes for loaded meals in one pass, numbering rows in id order.
+     */
+    static MealBitmapIndex of(Collection<Meal> meals) {
+        List<Meal> sorted = new ArrayList<>(meals);
+        sorted.sort(Comparator.comparingLong(Meal::getId));
+        List<Long> ids = new ArrayList<>(sorted.size());
+        List<Integer> rowNumbers = new ArrayList<>(sorted.size());
+
+        DimensionsBuilder global = new DimensionsBuilder();
+        Map<String, DimensionsBuilder> users = new HashMap<>();
+        for (int row = 0; row < sorted.size(); row++) {
+            Meal meal = sorted.get(row);
+            ids.add(meal.getId());
+            rowNumbers.add(row);
+            global.add(meal, row);
+            users.computeIfAbsent(meal.getUsername(), u -> new DimensionsBuilder()).add(meal, row);
+        }
+
+        PersistentSortedMap<String, Dimensions> byUser = PersistentSortedMap.empty();
+        for (Map.Entry<String, DimensionsBuilder> entry : users.entrySet()) {
+            byUser = byUser.with(entry.getKey(), entry.getValue().build());
+        }
+        Rows rows = new Rows(PersistentSortedMap.ofSorted(ids, rowNumbers),
+                             PersistentSortedMap.ofSorted(rowNumbers, ids), sorted.size(), null);
+        return new MealBitmapIndex(global.build(), byUser, rows);
+    }
+
+    /**
+     * Gets the id of the meal indexed at a bitmap row.
+     */
+    long mealId(int row) {
+        return rows.ids.get(row);
+    }
+
+    /**
+     * Gets the indexes of one user, or of all users.
+     * @param username The username, or null for all users
+     */
+    Dimensions get(String username) {
+        if (username == null) {
+            return global;
+        }
+        Dimensions dimensions = byUser.get(username);
+        return dimensions == null ? Dimensions.EMPTY : dimensions;
+    }
+
+    MealBitmapIndex with(Meal meal) {
+        return update(meal, true);
+    }
+
+    MealBitmapIndex without(Meal meal) {
+        return update(meal, false);
+    }
+
+    /**
+     * Indexes many new meals in one pass, each touched bitmap updated once.
+     */
+    MealBitmapIndex withMeals(Collection<Meal> meals) {
+        RowEditor editor = new RowEditor(rows);
+        DimensionsBuilder added = new DimensionsBuilder();
+        Map<String, DimensionsBuilder> users = new HashMap<>();
+        for (Meal meal : meals) {
+            int row = editor.assign(meal.getId());
+            added.add(meal, row);
+            users.computeIfAbsent(meal.getUsername(), u -> new DimensionsBuilder()).add(meal, row);
+        }
+
+        PersistentSortedMap<String, Dimensions> newByUser = byUser;
+        for (Map.Entry<String, DimensionsBuilder> entry : users.entrySet()) {
+            newByUser = newByUser.with(entry.getKey(), get(entry.getKey()).merge(entry.getValue().build(), true));
+        }
+        return new MealBitmapIndex(global.merge(added.build(), true), newByUser, editor.build());
+    }
+
+    /**
+     * Indexes the meals of a user who has none indexed, in one pass.
+     */
+    MealBitmapIndex withUser(String username, Collection<Meal> meals) {
+        RowEditor editor = new RowEditor(rows);
+        DimensionsBuilder builder = new DimensionsBuilder();
+        for (Meal meal : meals) {
+            builder.add(meal, editor.assign(meal.getId()));
+        }
+        Dimensions user = builder.build();
+        return new MealBitmapIndex(global.merge(user, true), byUser.with(username, user), editor.build());
+    }
+
+    /**
+     * Drops all meals of a user from the indexes.
+     */
+    MealBitmapIndex withoutUser(String username) {
+        Dimensions user = byUser.get(username);
+        if (user == null) {
+            return this;
+        }
+        // Every meal has exactly one type, so the type bitmaps hold all the user's rows
+        RowEditor editor = new RowEditor(rows);
+        user.ofTypes(EnumSet.allOf(Meal.MealType.class)).forEach(row -> editor.release(rows.ids.get(row)));
+        return new MealBitmapIndex(global.merge(user, false), byUser.without(username), editor.build());
+    }
+
+    private MealBitmapIndex update(Meal meal, boolean add) {
+        RowEditor editor = new RowEditor(rows);
+        int row = add ? editor.assign(meal.getId()) : editor.release(meal.getId());
+        if (row < 0) {
+            return this;
+        }
+        Dimensions user = get(meal.getUsername()).update(meal, row, add);
+        PersistentSortedMap<String, Dimensions> newByUser =
+                user.isEmpty() ? byUser.without(meal.getUsername()) : byUser.with(meal.getUsername(), user);
+        return new MealBitmapIndex(global.update(meal, row, add), newByUser, editor.build());
+    }
+
+    /**
+     * Row numbers of the indexed meals, both ways, with the rows free for reuse.
+     */
+    private static final class Rows {
+        static final Rows EMPTY = new Rows(PersistentSortedMap.empty(), PersistentSortedMap.empty(), 0, null);
+
+        private final PersistentSortedMap<Long, Integer> byId;
+        private final PersistentSortedMap<Integer, Long> ids;
+        private final int next; // lowest row never assigned
+        private final FreeRow free; // rows released by removed meals
+
+        Rows(PersistentSortedMap<Long, Integer> byId, PersistentSortedMap<Integer, Long> ids, int next, FreeRow free) {
+            this.byId = byId;
+            this.ids = ids;
+            this.next = next;
+            this.free = free;
+        }
+    }
+
+    /**
+     * Immutable stack of free rows.
+     */
+    private static final class FreeRow {
+        private final int row;
+        private final FreeRow next;
+
+        FreeRow(int row, FreeRow next) {
+            this.row = row;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Assigns and releases rows for one update, starting from a version of the rows.
+     */
+    private static final class RowEditor {
+        private PersistentSortedMap<Long, Integer> byId;
+        private PersistentSortedMap<Integer, Long> ids;
+        private int next;
+        private FreeRow free;
+
+        RowEditor(Rows rows) {
+            this.byId = rows.byId;
+            this.ids = rows.ids;
+            this.next = rows.next;
+            this.free = rows.free;
+        }
+
+        /**
+         * Gets the row of a meal id, assigning a free one if it has none.
+         */
+        int assign(long id) {
+            Integer existing = byId.get(id);
+            if (existing != null) {
+                return existing;
+            }
+            int row;
+            if (free != null) {
+                row = free.row;
+                free = free.next;
+            } else if (next == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many meals for the bitmap index");
+            } else {
+                row = next++;
+            }
+            byId = byId.with(id, row);
+            ids = ids.with(row, id);
+            return row;
+        }
+
+        /**
+         * Frees the row of a meal id.
+         * @return The row, or -1 if the id had none
+         */
+        int release(long id) {
+            Integer row = byId.get(id);
+            if (row == null) {
+                return -1;
+            }
+            byId = byId.without(id);
+            ids = ids.without(row);
+            free = new FreeRow(row, free);
+            return row;
+        }
+
+        Rows build() {
+            return new Rows(byId, ids, next, free);
+        }
+    }
+
+    /**
+     * Type and day bitmaps of one scope.
+     */
+    static final class Dimensions {
+        static final Dimensions EMPTY = new Dimensions(emptyTypes(), PersistentSortedMap.empty());
+
+        private final RoaringBitmap[] byType;
+        // Block number (epoch day >> DAY_BLOCK_BITS) to that block's day bitmaps
+        private final PersistentSortedMap<Long, RoaringBitmap[]> dayBlocks;
+
+        private Dimensions(RoaringBitmap[] byType, PersistentSortedMap<Long, RoaringBitmap[]> dayBlocks) {
+            this.byType = byType;
+            this.dayBlocks = dayBlocks;
+        }
+
+        /**
+         * Whether no meal is indexed: each meal is in exactly one day bitmap.
+         */
+        boolean isEmpty() {
+            return dayBlocks.isEmpty();
+        }
+
+        /**
+         * Union of the bitmaps of the given meal types.
+         */
+        RoaringBitmap ofTypes(Set<Meal.MealType> mealTypes) {
+            RoaringBitmap result = RoaringBitmap.EMPTY;
+            for (Meal.MealType mealType : mealTypes) {
+                result = result.or(byType[mealType.ordinal()]);
+            }
+            return result;
+        }
+
+        /**
+         * Union of the bitmaps of the days in an inclusive range, optionally
+         * only those falling on the given days of the week.
+         * @param from First date, or null for the earliest indexed day
+         * @param to Last date, or null for the latest indexed day
+         * @param daysOfWeek Days of the week to keep, or empty for all
+         */
+        RoaringBitmap ofDays(LocalDate from, LocalDate to, Set<DayOfWeek> daysOfWeek) {
+            if (dayBlocks.isEmpty()) {
+                return RoaringBitmap.EMPTY;
+            }
+            long first = from == null ? dayBlocks.firstKey() << DAY_BLOCK_BITS : from.toEpochDay();
+            long last = to == null ? (dayBlocks.lastKey() << DAY_BLOCK_BITS) + DAY_BLOCK_SIZE - 1 : to.toEpochDay();
+            if (first > last) {
+                // An open range can lie wholly outside the indexed days
+                return RoaringBitmap.EMPTY;
+            }
+
+            RoaringBitmap[] result = {RoaringBitmap.EMPTY};
+            dayBlocks.forEachInRange(first >> DAY_BLOCK_BITS, last >> DAY_BLOCK_BITS, (blockKey, days) -> {
+                long base = blockKey << DAY_BLOCK_BITS;
+                for (int offset = 0; offset < DAY_BLOCK_SIZE; offset++) {
+                    long day = base + offset;
+                    if (days[offset] == null || day < first || day > last) {
+                        continue;
+                    }
+                    if (!daysOfWeek.isEmpty() && !daysOfWeek.contains(LocalDate.ofEpochDay(day).getDayOfWeek())) {
+                        continue;
+                    }
+                    result[0] = result[0].or(days[offset]);
+                }
+            });
+            return result[0];
+        }
+
+        private Dimensions update(Meal meal, int row, boolean add) {
+            RoaringBitmap[] newByType = byType.clone();
+            int type = meal.getMealType().ordinal();
+            newByType[type] = add ? byType[type].with(row) : byType[type].without(row);
+
+            long day = meal.getTimestamp().toLocalDate().toEpochDay();
+            long blockKey = day >> DAY_BLOCK_BITS;
+            int offset = (int) (day & (DAY_BLOCK_SIZE - 1));
+            RoaringBitmap[] block = dayBlocks.get(blockKey);
+            RoaringBitmap[] newBlock = block == null ? new RoaringBitmap[DAY_BLOCK_SIZE] : block.clone();
+            RoaringBitmap current = newBlock[offset] == null ? RoaringBitmap.EMPTY : newBlock[offset];
+            RoaringBitmap updated = add ? current.with(row) : current.without(row);
+            newBlock[offset] = updated.isEmpty() ? null : updated;
+
+            PersistentSortedMap<Long, RoaringBitmap[]> newBlocks =
+                    isEmptyBlock(newBlock) ? dayBlocks.without(blockKey) : dayBlocks.with(blockKey, newBlock);
+            return new Dimensions(newByType, newBlocks);
+        }
+
+        /**
+         * Adds or subtracts all bitmaps of another scope, block by block.
+         */
+        private Dimensions merge(Dimensions other, boolean add) {
+            RoaringBitmap[] newByType = byType.clone();
+            for (int type = 0; type < TYPE_COUNT; type++) {
+                newByType[type] = add ? byType[type].or(other.byType[type]) : byType[type].andNot(other.byType[type]);
+            }
+
+            PersistentSortedMap<Long, RoaringBitmap[]> newBlocks = dayBlocks;
+            for (Long blockKey : other.dayBlocks.keySet()) {
+                RoaringBitmap[] otherDays = other.dayBlocks.get(blockKey);
+                RoaringBitmap[] block = newBlocks.get(blockKey);
+                RoaringBitmap[] newBlock = block == null ? new RoaringBitmap[DAY_BLOCK_SIZE] : block.clone();
+                for (int offset = 0; offset < DAY_BLOCK_SIZE; offset++) {
+                    RoaringBitmap day = otherDays[offset];
+                    if (day == null) {
+                        continue;
+                    }
+                    RoaringBitmap current = newBlock[offset] == null ? RoaringBitmap.EMPTY : newBlock[offset];
+                    RoaringBitmap updated = add ? current.or(day) : current.andNot(day);
+                    newBlock[offset] = updated.isEmpty() ? null : updated;
+                }
+                newBlocks = isEmptyBlock(newBlock) ? newBlocks.without(blockKey) : newBlocks.with(blockKey, newBlock);
+            }
+            return new Dimensions(newByType, newBlocks);
+        }
+
+        private static boolean isEmptyBlock(RoaringBitmap[] block) {
+            for (RoaringBitmap day : block) {
+                if (day != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static RoaringBitmap[] emptyTypes() {
+            RoaringBitmap[] types = new RoaringBitmap[Meal.MealType.values().length];
+            Arrays.fill(types, RoaringBitmap.EMPTY);
+            return types;
+        }
+    }
+
+    /**
+     * Collects rows per bitmap so that each bitmap is built once.
+     */
+    private static final class DimensionsBuilder {
+        private final IntStream.Builder[] byType = new IntStream.Builder[TYPE_COUNT];
+        private final Map<Long, IntStream.Builder> byDay = new HashMap<>();
+
+        DimensionsBuilder() {
+            for (int i = 0; i < TYPE_COUNT; i++) {
+                byType[i] = IntStream.builder();
+            }
+        }
+
+        void add(Meal meal, int row) {
+            byType[meal.getMealType().ordinal()].add(row);
+            byDay.computeIfAbsent(meal.getTimestamp().toLocalDate().toEpochDay(), d -> IntStream.builder()).add(row);
+        }
+
+        Dimensions build() {
+            RoaringBitmap[] types = new RoaringBitmap[TYPE_COUNT];
+            for (int i = 0; i < TYPE_COUNT; i++) {
+                types[i] = RoaringBitmap.of(byType[i].build().toArray());
+            }
+
+            TreeMap<Long, RoaringBitmap[]> blocks = new TreeMap<>();
+            for (Map.Entry<Long, IntStream.Builder> entry : byDay.entrySet()) {
+                long day = entry.getKey();
+                RoaringBitmap[] block = blocks.computeIfAbsent(day >> DAY_BLOCK_BITS, b -> new RoaringBitmap[DAY_BLOCK_SIZE]);
+                block[(int) (day & (DAY_BLOCK_SIZE - 1))] = RoaringBitmap.of(entry.getValue().build().toArray());
+            }
+            PersistentSortedMap<Long, RoaringBitmap[]> dayBlocks = PersistentSortedMap.empty();
+            for (Map.Entry<Long, RoaringBitmap[]> block : blocks.entrySet()) {
+                dayBlocks = dayBlocks.with(block.getKey(), block.getValue());
+            }
+            return new Dimensions(types, dayBlocks);
+        }
+    }
+}
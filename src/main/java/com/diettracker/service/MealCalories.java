@@ -0,0 +1,67 @@
+package com.diettracker.service;
+
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.util.CalorieKernel;
+import java.util.Collection;
+
+/**
+ * Batch calorie totals of many meals at once.
+ * Copies the food items into primitive columns and hands them to the
+ * calorie kernel; results equal Meal.getTotalCalories for every meal.
+ */
+final class MealCalories {
+    private MealCalories() {
+    }
+
+    /**
+     * Computes the total calories of each meal.
+     * @param meals The meals
+     * @return Totals in the collection's iteration order
+     */
+    static int[] totals(Collection<Meal> meals) {
+        Columns columns = new Columns(meals);
+        return CalorieKernel.get().segmentTotals(columns.caloriesPerUnit, columns.quantities,
+                                                 columns.offsets, meals.size());
+    }
+
+    /**
+     * Computes the combined calories of a group of meals, e.g. one day.
+     * @param meals The meals
+     * @return Sum of the meals' totals
+     */
+    static int sum(Collection<Meal> meals) {
+        Columns columns = new Columns(meals);
+        return CalorieKernel.get().total(columns.caloriesPerUnit, columns.quantities,
+                                         0, columns.caloriesPerUnit.length);
+    }
+
+    /**
+     * Food items of the meals in primitive columns, meal after meal.
+     */
+    private static final class Columns {
+        final int[] caloriesPerUnit;
+        final double[] quantities;
+        final int[] offsets;
+
+        Columns(Collection<Meal> meals) {
+            int items = 0;
+            for (Meal meal : meals) {
+                items += meal.getFoodItemsView().size();
+            }
+
+            caloriesPerUnit = new int[items];
+            quantities = new double[items];
+            offsets = new int[meals.size() + 1];
+            int item = 0;
+            int segment = 0;
+            for (Meal meal : meals) {
+                for (FoodItem foodItem : meal.getFoodItemsView()) {
+                    caloriesPerUnit[item] = foodItem.getCaloriesPerUnit();
+                    quantities[item++] = foodItem.getQuantity();
+                }
+                offsets[++segment] = item;
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+
+/**
+ * Immutable, persistent map from meal id to meal.
+ * A 32-way radix trie over the id bits: lookups follow one node per level,
+ * and updates copy only the nodes on the path to the changed slot, sharing
+ * the rest with the previous version.
+ */
+final class MealIdIndex {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    static final MealIdIndex EMPTY = new MealIdIndex(new Object[WIDTH], 0, 0);
+
+    private final Object[] root;
+    private final int shift; // bit offset handled by the root level
+    private final int size;
+
+    private MealIdIndex(Object[] root, int shift, int size) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Meal get(long id) {
+        if (id < 0 || !fits(id, shift)) {
+            return null;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(int) ((id >>> level) & MASK)];
+            if (node == null) {
+                return null;
+            }
+        }
+        return (Meal) node[(int) (id & MASK)];
+    }
+
+    /**
+     * Returns a new version mapping the meal's id to the meal.
+     */
+    MealIdIndex with(Meal meal) {
+        long id = meal.getId();
+        if (id < 0) {
+            throw new IllegalArgumentException("Meal ids must not be negative");
+        }
+
+        Object[] newRoot = root;
+        int newShift = shift;
+        while (!fits(id, newShift)) {
+            Object[] grown = new Object[WIDTH];
+            grown[0] = newRoot;
+            newRoot = grown;
+            newShift += BITS;
+        }
+
+        boolean existed = get(id) != null;
+        newRoot = set(newRoot, newShift, id, meal);
+        return new MealIdIndex(newRoot, newShift, existed ? size : size + 1);
+    }
+
+    /**
+     * Returns a new version without the given id, or this index if absent.
+     */
+    MealIdIndex without(long id) {
+        if (get(id) == null) {
+            return this;
+        }
+        return new MealIdIndex(set(root, shift, id, null), shift, size - 1);
+    }
+
+    private static Object[] set(Object[] node, int level, long id, Meal meal) {
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        int slot = (int) ((id >>> level) & MASK);
+        if (level == 0) {
+            copy[slot] = meal;
+        } else {
+            copy[slot] = set((Object[]) copy[slot], level - BITS, id, meal);
+        }
+        return copy;
+    }
+
+    private static boolean fits(long id, int shift) {
+        int bits = shift + BITS;
+        return bits >= 63 || (id >>> bits) == 0;
+    }
+}
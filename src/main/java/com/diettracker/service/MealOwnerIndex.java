@@ -0,0 +1,123 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Owners of the meals of evicted users, by meal id.
+ * Lets MealService find a meal by id while its owner's meals are out of
+ * memory, so it can load them back first. An open-addressing table of ids
+ * and owner numbers, with usernames stored once, costs about 24 bytes per
+ * meal, a tenth of what the meal takes in the snapshot.
+ */
+final class MealOwnerIndex {
+    private static final int MIN_CAPACITY = 16;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private long[] ids = new long[MIN_CAPACITY];
+    private int[] owners = new int[MIN_CAPACITY]; // owner number + 1, 0 for a free slot
+    private int size;
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> numbers = new HashMap<>();
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the owner of a meal.
+     * @return The username, or null if the id is not recorded
+     */
+    synchronized String get(long id) {
+        int slot = find(id);
+        return slot < 0 ? null : names.get(owners[slot] - 1);
+    }
+
+    synchronized void add(Meal meal) {
+        if (size + 1 > ids.length / 2) {
+            resize(ids.length * 2);
+        }
+        int owner = numbers.computeIfAbsent(meal.getUsername(), name -> {
+            names.add(name);
+            return names.size();
+        });
+        int slot = home(meal.getId());
+        while (owners[slot] != 0 && ids[slot] != meal.getId()) {
+            slot = (slot + 1) & (ids.length - 1);
+        }
+        if (owners[slot] == 0) {
+            size++;
+        }
+        ids[slot] = meal.getId();
+        owners[slot] = owner;
+    }
+
+    synchronized void addAll(Collection<Meal> meals) {
+        meals.forEach(this::add);
+    }
+
+    synchronized void remove(long id) {
+        int slot = find(id);
+        if (slot < 0) {
+            return;
+        }
+        owners[slot] = 0;
+        size--;
+        // Shifts later entries of the probe run back, so lookups never stop at the hole
+        int mask = ids.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; owners[next] != 0; next = (next + 1) & mask) {
+            int wanted = home(ids[next]);
+            boolean reachable = hole <= next ? hole < wanted && wanted <= next : hole < wanted || wanted <= next;
+            if (!reachable) {
+                ids[hole] = ids[next];
+                owners[hole] = owners[next];
+                owners[next] = 0;
+                hole = next;
+            }
+        }
+        if (ids.length > MIN_CAPACITY && size < ids.length / 8) {
+            resize(ids.length / 2);
+        }
+    }
+
+    synchronized void removeAll(Collection<Meal> meals) {
+        for (Meal meal : meals) {
+            remove(meal.getId());
+        }
+    }
+
+    private int find(long id) {
+        for (int slot = home(id); owners[slot] != 0; slot = (slot + 1) & (ids.length - 1)) {
+            if (ids[slot] == id) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int home(long id) {
+        return (int) ((id * HASH_MULTIPLIER) >>> 33) & (ids.length - 1);
+    }
+
+    private void resize(int capacity) {
+        long[] oldIds = ids;
+        int[] oldOwners = owners;
+        ids = new long[capacity];
+        owners = new int[capacity];
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldOwners[i] != 0) {
+                int slot = home(oldIds[i]);
+                while (owners[slot] != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                ids[slot] = oldIds[i];
+                owners[slot] = oldOwners[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+import com.diettracker.model.MealQuery;
+import com.diettracker.util.RoaringBitmap;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Turns a MealQuery into a plan over one meal snapshot.
+ *
+ * Meals are partitioned by user into timelines sorted by timestamp. The
+ * planner prunes partitions to the queried users, pushes the date range
+ * down into a binary-searched index range of each timeline and skips
+ * partitions whose range is empty. The remaining criteria are applied as a
+ * residual filter while the ranges are streamed; several partitions are
+ * merged by timestamp so that results and limits are in global order.
+ *
+ * When the query restricts meal types or days of the week, the planner
+ * also ANDs the type and day bitmaps. If that leaves far fewer candidates
+ * than the range scan would read, it fetches just those meals by id and
+ * sorts them instead. A range scan with a limit stops early, after about
+ * limit / selectivity rows, so a small limit over common matches keeps the
+ * scan even when the bitmap would beat a full one.
+ */
+final class MealQueryPlanner {
+    // Fetching and sorting a bitmap candidate costs about this many sequential range rows
+    private static final int BITMAP_ROW_COST = 4;
+
+    private MealQueryPlanner() {
+    }
+
+    static Plan plan(MealSnapshot snapshot, MealQuery query) {
+        Collection<String> users = query.getUsernames().isEmpty() ? snapshot.getUsernames() : query.getUsernames();
+        LocalDateTime start = query.getFrom() == null ? null : query.getFrom().atStartOfDay();
+        LocalDateTime end = query.getTo() == null ? null : query.getTo().plusDays(1).atStartOfDay();
+
+        List<Partition> partitions = new ArrayList<>();
+        int pruned = 0;
+        for (String username : users) {
+            MealTimeline timeline = snapshot.getTimeline(username);
+            int low = start == null ? 0 : timeline.lowerBound(start);
+            int high = end == null ? timeline.size() : timeline.lowerBound(end);
+            if (low < high) {
+                partitions.add(new Partition(username, timeline, low, high));
+            } else {
+                pruned++;
+            }
+        }
+        Plan plan = new Plan(query, snapshot, partitions, pruned);
+
+        if (!query.getMealTypes().isEmpty() || !query.getDaysOfWeek().isEmpty()) {
+            List<String> scopes = new ArrayList<>();
+            if (query.getUsernames().isEmpty()) {
+                scopes.add(null);
+            } else {
+                for (Partition partition : partitions) {
+                    scopes.add(partition.username);
+                }
+            }
+
+            RoaringBitmap candidates = RoaringBitmap.EMPTY;
+            for (String scope : scopes) {
+                candidates = candidates.or(bitmapCandidates(snapshot.getBitmaps().get(scope), query));
+            }
+            long matches = candidates.cardinality();
+            if (matches * BITMAP_ROW_COST < plan.estimatedScanRows(matches)) {
+                plan.useBitmap(candidates, scopes.size());
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Merges streams of meals that are each sorted by (timestamp, id).
+     * @param sources Iterators over the sorted sources
+     * @param newestFirst true if the sources are sorted newest first
+     * @return One lazily merged stream in the same order
+     */
+    static Stream<Meal> merge(List<Iterator<Meal>> sources, boolean newestFirst) {
+        Iterator<Meal> iterator = sources.size() == 1 ? sources.get(0) : new MergeIterator(sources, newestFirst);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private static RoaringBitmap bitmapCandidates(MealBitmapIndex.Dimensions dimensions, MealQuery query) {
+        RoaringBitmap result = null;
+        if (!query.getMealTypes().isEmpty()) {
+            result = dimensions.ofTypes(query.getMealTypes());
+        }
+        if (!query.getDaysOfWeek().isEmpty() || query.getFrom() != null || query.getTo() != null) {
+            RoaringBitmap days = dimensions.ofDays(query.getFrom(), query.getTo(), query.getDaysOfWeek());
+            result = result == null ? days : result.and(days);
+        }
+        return result;
+    }
+
+    /**
+     * An executable plan bound to the snapshot it was made from.
+     */
+    static final class Plan {
+        private final MealQuery query;
+        private final MealSnapshot snapshot;
+        private final List<Partition> partitions;
+        private final int prunedPartitions;
+        private RoaringBitmap candidates; // set when the bitmap path was chosen
+        private int bitmapScopes;
+
+        private Plan(MealQuery query, MealSnapshot snapshot, List<Partition> partitions, int prunedPartitions) {
+            this.query = query;
+            this.snapshot = snapshot;
+            this.partitions = partitions;
+            this.prunedPartitions = prunedPartitions;
+        }
+
+        private void useBitmap(RoaringBitmap candidates, int scopes) {
+            this.candidates = candidates;
+            this.bitmapScopes = scopes;
+        }
+
+        /**
+         * Upper bound on the number of meals the plan reads.
+         */
+        long estimatedRows() {
+            long rows = 0;
+            for (Partition partition : partitions) {
+                rows += partition.high - partition.low;
+            }
+            return rows;
+        }
+
+        /**
+         * Estimates the meals a range scan reads before it has enough results,
+         * assuming the matches are spread evenly over the ranges.
+         * @param matches Number of meals in range that match the indexed criteria
+         */
+        long estimatedScanRows(long matches) {
+            long rows = estimatedRows();
+            if (query.getLimit() <= 0 || matches == 0) {
+                return rows;
+            }
+            return Math.min(rows, (long) Math.ceil((double) query.getLimit() * rows / matches));
+        }
+
+        /**
+         * Streams matching meals lazily, in timestamp order.
+         */
+        Stream<Meal> stream() {
+            if (candidates != null) {
+                return bitmapStream();
+            }
+
+            List<Iterator<Meal>> sources = new ArrayList<>();
+            for (Partition partition : partitions) {
+                sources.add(partition.iterator(query.isNewestFirst()));
+            }
+
+            Stream<Meal> meals = merge(sources, query.isNewestFirst());
+            if (hasResidualFilter()) {
+                meals = meals.filter(query::matchesResidual);
+            }
+            if (query.getLimit() > 0) {
+                meals = meals.limit(query.getLimit());
+            }
+            return meals;
+        }
+
+        private Stream<Meal> bitmapStream() {
+            List<Meal> meals = new ArrayList<>(candidates.cardinality());
+            MealBitmapIndex bitmaps = snapshot.getBitmaps();
+            candidates.forEach(row -> meals.add(snapshot.getById(bitmaps.mealId(row))));
+            Comparator<Meal> order = (m1, m2) -> MealTimeline.compare(m1, m2.getTimestamp(), m2.getId());
+            meals.sort(query.isNewestFirst() ? order.reversed() : order);
+
+            Stream<Meal> result = meals.stream();
+            if (query.hasCalorieBounds() || query.getFoodName() != null) {
+                result = result.filter(query::matchesResidual);
+            }
+            if (query.getLimit() > 0) {
+                result = result.limit(query.getLimit());
+            }
+            return result;
+        }
+
+        /**
+         * Describes the plan, one operator per line, outermost first.
+         */
+        String explain() {
+            StringBuilder sb = new StringBuilder();
+            String indent = "";
+            if (query.getLimit() > 0) {
+                sb.append("Limit ").append(query.getLimit()).append('\n');
+                indent += "  ";
+            }
+            if (candidates != null) {
+                if (query.hasCalorieBounds() || query.getFoodName() != null) {
+                    sb.append(indent).append("Filter ").append(describeResidual(false)).append('\n');
+                    indent += "  ";
+                }
+                sb.append(indent).append("Sort by timestamp, ")
+                  .append(query.isNewestFirst() ? "newest first" : "oldest first").append('\n');
+                sb.append(indent).append("  Fetch by id\n");
+                sb.append(indent).append("    Bitmap ").append(describeBitmap()).append(", ")
+                  .append(query.getUsernames().isEmpty() ? "all users"
+                          : bitmapScopes + (bitmapScopes == 1 ? " user" : " users"))
+                  .append(" (").append(candidates.cardinality()).append(" candidates)\n");
+                sb.append("Snapshot version ").append(snapshot.getVersion())
+                  .append(", timeline range rows ").append(estimatedRows())
+                  .append(", pruned partitions ").append(prunedPartitions);
+                return sb.toString();
+            }
+            if (hasResidualFilter()) {
+                sb.append(indent).append("Filter ").append(describeResidual(true)).append('\n');
+                indent += "  ";
+            }
+
+            String order = query.isNewestFirst() ? "newest first" : "oldest first";
+            if (partitions.isEmpty()) {
+                sb.append(indent).append("Empty (no partition in range)");
+            } else if (partitions.size() > 1) {
+                sb.append(indent).append("Merge by timestamp, ").append(order).append(", ")
+                  .append(partitions.size()).append(" partitions\n");
+                indent += "  ";
+            }
+            for (Partition partition : partitions) {
+                sb.append(indent).append(partition.describe(query));
+                if (partitions.size() == 1) {
+                    sb.append(", ").append(order);
+                }
+                sb.append('\n');
+            }
+
+            sb.append("Snapshot version ").append(snapshot.getVersion())
+              .append(", est. rows ").append(estimatedRows())
+              .append(", pruned partitions ").append(prunedPartitions);
+            return sb.toString();
+        }
+
+        private boolean hasResidualFilter() {
+            return !query.getMealTypes().isEmpty() || !query.getDaysOfWeek().isEmpty()
+                   || query.hasCalorieBounds() || query.getFoodName() != null;
+        }
+
+        private String describeBitmap() {
+            List<String> terms = new ArrayList<>();
+            if (!query.getMealTypes().isEmpty()) {
+                terms.add("OR(type " + query.getMealTypes() + ")");
+            }
+            if (!query.getDaysOfWeek().isEmpty() || query.getFrom() != null || query.getTo() != null) {
+                String days = "OR(day " + Partition.describeRange(query.getFrom(), query.getTo());
+                if (!query.getDaysOfWeek().isEmpty()) {
+                    days += " on " + query.getDaysOfWeek();
+                }
+                terms.add(days + ")");
+            }
+            return terms.size() == 1 ? terms.get(0) : "AND(" + String.join(", ", terms) + ")";
+        }
+
+        private String describeResidual(boolean includeIndexed) {
+            List<String> predicates = new ArrayList<>();
+            if (includeIndexed && !query.getMealTypes().isEmpty()) {
+                predicates.add("mealType in " + query.getMealTypes());
+            }
+            if (includeIndexed && !query.getDaysOfWeek().isEmpty()) {
+                predicates.add("dayOfWeek in " + query.getDaysOfWeek());
+            }
+            if (query.hasCalorieBounds()) {
+                predicates.add("calories " + query.getMinCalories() + ".." + query.getMaxCalories());
+            }
+            if (query.getFoodName() != null) {
+                predicates.add("food = '" + query.getFoodName() + "'");
+            }
+            return String.join(" and ", predicates);
+        }
+    }
+
+    /**
+     * One user's timeline narrowed to the index range [low, high).
+     */
+    private static final class Partition {
+        private final String username;
+        private final MealTimeline timeline;
+        private final int low;
+        private final int high;
+
+        Partition(String username, MealTimeline timeline, int low, int high) {
+            this.username = username;
+            this.timeline = timeline;
+            this.low = low;
+            this.high = high;
+        }
+
+        Iterator<Meal> iterator(boolean newestFirst) {
+            return new Iterator<Meal>() {
+                private int next = newestFirst ? high - 1 : low;
+
+                @Override
+                public boolean hasNext() {
+                    return newestFirst ? next >= low : next < high;
+                }
+
+                @Override
+                public Meal next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Meal meal = timeline.get(next);
+                    next += newestFirst ? -1 : 1;
+                    return meal;
+                }
+            };
+        }
+
+        String describe(MealQuery query) {
+            int rows = high - low;
+            if (rows == timeline.size()) {
+                return "Timeline scan user=" + username + " (" + rows + " meals)";
+            }
+            return "Timeline range user=" + username + " dates=" + describeRange(query.getFrom(), query.getTo())
+                   + " (" + rows + " of " + timeline.size() + " meals)";
+        }
+
+        private static String describeRange(LocalDate from, LocalDate to) {
+            return "[" + (from == null ? "*" : from) + ", " + (to == null ? "*" : to) + "]";
+        }
+    }
+
+    /**
+     * K-way merge of iterators that are each sorted by (timestamp, id).
+     */
+    static final class MergeIterator implements Iterator<Meal> {
+        private final PriorityQueue<Head> heads;
+
+        MergeIterator(List<Iterator<Meal>> sources, boolean newestFirst) {
+            Comparator<Head> order = (h1, h2) ->
+                    MealTimeline.compare(h1.meal, h2.meal.getTimestamp(), h2.meal.getId());
+            this.heads = new PriorityQueue<>(Math.max(sources.size(), 1),
+                                             newestFirst ? order.reversed() : order);
+            for (Iterator<Meal> source : sources) {
+                if (source.hasNext()) {
+                    heads.add(new Head(source.next(), source));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Meal next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            Meal meal = head.meal;
+            if (head.source.hasNext()) {
+                heads.add(new Head(head.source.next(), head.source));
+            }
+            return meal;
+        }
+
+        private static final class Head {
+            private final Meal meal;
+            private final Iterator<Meal> source;
+
+            Head(Meal meal, Iterator<Meal> source) {
+                this.meal = meal;
+                this.source = source;
+            }
+        }
+    }
+}
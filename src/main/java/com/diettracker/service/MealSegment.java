@@ -0,0 +1,267 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed, read-only file of sealed meals, used by the cold tier for
+ * month files when cold.format is "compressed".
+ *
+ * Meals, sorted by (timestamp, id), are grouped into blocks of a fixed
+ * number of records. Each block holds the records in the meals file format,
+ * one per line, compressed with Deflater; usernames, food names, units and
+ * timestamps repeat so much that blocks shrink to a fraction of the text.
+ * A block index at the end of the file gives each block's position, sizes
+ * and first and last day, so a date range decompresses only the blocks
+ * that overlap it.
+ *
+ * Layout: MAGIC, VERSION, the compressed blocks, then per block
+ * (offset, compressed length, raw length, meal count, first day, last day),
+ * and a trailer of (block count, index offset, MAGIC). Days are epoch days.
+ */
+public final class MealSegment {
+    /** Meals per block unless configured otherwise. */
+    public static final int DEFAULT_BLOCK_MEALS = 128;
+
+    private static final int MAGIC = 0x4D534547; // "MSEG"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int INDEX_ENTRY_BYTES = 8 + 4 + 4 + 4 + 8 + 8;
+    private static final int TRAILER_BYTES = 4 + 8 + 4;
+
+    private final Path file;
+    private final Block[] blocks;
+
+    private MealSegment(Path file, Block[] blocks) {
+        this.file = file;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Writes meals to a new segment file, replacing any existing file.
+     * @param file The file to write
+     * @param meals The meals, sorted by (timestamp, id)
+     * @param blockMeals Meals per block
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, List<Meal> meals, int blockMeals) throws IOException {
+        int perBlock = Math.max(1, blockMeals);
+        List<Block> index = new ArrayList<>();
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int start = 0; start < meals.size(); start += perBlock) {
+                List<Meal> block = meals.subList(start, Math.min(meals.size(), start + perBlock));
+                raw.reset();
+                for (Meal meal : block) {
+                    raw.write(meal.toString().getBytes(StandardCharsets.UTF_8));
+                    raw.write('\n');
+                }
+
+                long offset = out.size();
+                deflater.reset();
+                deflater.setInput(raw.toByteArray());
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                index.add(new Block(offset, (int) (out.size() - offset), raw.size(), block.size(),
+                                    block.get(0).getTimestamp().toLocalDate().toEpochDay(),
+                                    block.get(block.size() - 1).getTimestamp().toLocalDate().toEpochDay()));
+            }
+
+            long indexOffset = out.size();
+            for (Block block : index) {
+                out.writeLong(block.offset);
+                out.writeInt(block.compressedLength);
+                out.writeInt(block.rawLength);
+                out.writeInt(block.mealCount);
+                out.writeLong(block.firstDay);
+                out.writeLong(block.lastDay);
+            }
+            out.writeInt(index.size());
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Opens a segment file by reading its block index.
+     * @param file The file
+     * @return The segment
+     * @throws IOException if the file cannot be read or is not a segment
+     */
+    public static MealSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + TRAILER_BYTES) {
+                throw new IOException("Not a meal segment: " + file);
+            }
+            ByteBuffer header = readFully(channel, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a meal segment of a supported version: " + file);
+            }
+            ByteBuffer trailer = readFully(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+            int blockCount = trailer.getInt();
+            long indexOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || blockCount < 0
+                    || indexOffset + (long) blockCount * INDEX_ENTRY_BYTES != size - TRAILER_BYTES) {
+                throw new IOException("Not a meal segment: " + file);
+            }
+
+            ByteBuffer entries = readFully(channel, indexOffset, blockCount * INDEX_ENTRY_BYTES);
+            Block[] blocks = new Block[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blocks[i] = new Block(entries.getLong(), entries.getInt(), entries.getInt(), entries.getInt(),
+                                      entries.getLong(), entries.getLong());
+            }
+            return new MealSegment(file, blocks);
+        }
+    }
+
+    public int getBlockCount() {
+        return blocks.length;
+    }
+
+    /**
+     * Gets the number of meals in the segment.
+     */
+    public int getMealCount() {
+        int count = 0;
+        for (Block block : blocks) {
+            count += block.mealCount;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the blocks a date range has to decompress.
+     * @param from First date (inclusive), or null for the oldest meal
+     * @param to Last date (inclusive), or null for the newest meal
+     * @return Number of blocks
+     */
+    public int countBlocks(LocalDate from, LocalDate to) {
+        int count = 0;
+        for (Block block : blocks) {
+            if (block.overlaps(from, to)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the meals in a date range, decompressing only the blocks that overlap it.
+     * @param from First date (inclusive), or null for the oldest meal
+     * @param to Last date (inclusive), or null for the newest meal
+     * @return Meals sorted by (timestamp, id)
+     * @throws IOException if the file cannot be read or a block is corrupt
+     */
+    public List<Meal> read(LocalDate from, LocalDate to) throws IOException {
+        List<Meal> meals = new ArrayList<>();
+        Inflater inflater = new Inflater();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (Block block : blocks) {
+                if (!block.overlaps(from, to)) {
+                    continue;
+                }
+                ByteBuffer compressed = readFully(channel, block.offset, block.compressedLength);
+                byte[] raw = new byte[block.rawLength];
+                inflater.reset();
+                inflater.setInput(compressed.array(), 0, block.compressedLength);
+                int length = 0;
+                while (length < raw.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(raw, length, raw.length - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != raw.length) {
+                    throw new IOException("Truncated block in meal segment " + file);
+                }
+                addMeals(raw, from, to, meals);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in meal segment " + file + ": " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        return meals;
+    }
+
+    private static void addMeals(byte[] raw, LocalDate from, LocalDate to, List<Meal> meals) {
+        int start = 0;
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] != '\n') {
+                continue;
+            }
+            Meal meal = FileService.parseMeal(new String(raw, start, i - start, StandardCharsets.UTF_8));
+            start = i + 1;
+            if (meal == null) {
+                continue;
+            }
+            LocalDate date = meal.getTimestamp().toLocalDate();
+            if ((from == null || !date.isBefore(from)) && (to == null || !date.isAfter(to))) {
+                meals.add(meal);
+            }
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of meal segment");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Index entry of one block.
+     */
+    private static final class Block {
+        private final long offset;
+        private final int compressedLength;
+        private final int rawLength;
+        private final int mealCount;
+        private final long firstDay;
+        private final long lastDay;
+
+        Block(long offset, int compressedLength, int rawLength, int mealCount, long firstDay, long lastDay) {
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.rawLength = rawLength;
+            this.mealCount = mealCount;
+            this.firstDay = firstDay;
+            this.lastDay = lastDay;
+        }
+
+        boolean overlaps(LocalDate from, LocalDate to) {
+            return (from == null || lastDay >= from.toEpochDay()) && (to == null || firstDay <= to.toEpochDay());
+        }
+    }
+}
@@ -1,23 +1,467 @@
 package com.diettracker.service;
 
+import com.diettracker.event.MealChangeListener;
+import com.diettracker.event.MealEvent;
+import com.diettracker.event.MealEventHandler;
+import com.diettracker.event.MealEventRingBuffer;
 import com.diettracker.model.*;
+import com.diettracker.storage.MealRepository;
+import com.diettracker.storage.Repositories;
+import com.diettracker.storage.StorageCapability;
+import com.diettracker.util.AppConfig;
+import com.diettracker.util.TDigest;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Service class for managing meal-related operations.
  * Handles meal logging, daily summaries, and food item management.
+ *
+ * Meals are held in immutable snapshots published through an atomic
+ * reference. Queries read the current snapshot without locking and see a
+ * consistent point-in-time view; writers are serialized, persist their
+ * change and then publish a new snapshot that shares unchanged data with
+ * the previous one. Returned meals belong to the snapshot and must not be
+ * modified by callers.
+ *
+ * Each change is then published on a ring buffer of meal events. Rollups,
+ * food sketches, quantile summaries, the food search index and the food
+ * statistics behind meal suggestions are updated by their own consumer
+ * threads, so they trail the snapshot by a few events and catch up without
+ * holding up the writer. At startup they are built together by replaying
+ * the stored meals to them as events, reading the history once.
+ *
+ * With the storage.hotDays setting, the service runs in tiered mode: only
+ * meals from that many recent days stay in memory, and older ones are moved
+ * to an on-disk cold tier at startup and then hourly. Queries reaching past
+ * the window read the cold tier a month at a time and merge it with the
+ * snapshot, so history stays available while heap use follows the window.
+ * Archived meals are read-only: they are not found by id and cannot be
+ * edited or removed.
+ *
+ * With the cache.idleMinutes or cache.heapBudgetMb setting, meals are also
+ * held per user: a user's meals are moved to the cold tier once they have
+ * been idle that long, or least recently used users first when the resident
+ * meals outgrow the heap budget, and are loaded back on the user's next
+ * access, including a lookup, edit or removal of one of their meals by id.
+ *
+ * When the meal repository answers queries itself (the QUERY capability,
+ * e.g. the SQL database), it takes the place of the cold tier: meals leaving
+ * memory stay in the repository, and queries reaching past memory run as
+ * repository queries.
  */
 public class MealService {
-    private List<Meal> meals;
+    private static final int EVENT_BUFFER_SIZE = 1024;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+    private static final String HOT_DAYS_SETTING = "storage.hotDays";
+    private static final long EVICTION_INTERVAL_MINUTES = 60;
+    private static final String IDLE_MINUTES_SETTING = "cache.idleMinutes";
+    private static final String HEAP_BUDGET_SETTING = "cache.heapBudgetMb";
+    private static final long RESIDENCY_SWEEP_SECONDS = 60;
+    
+    private final AtomicReference<MealSnapshot> snapshot;
+    private final MealEventRingBuffer events;
+    private final ReentrantLock writeLock; // UserService's, so changes of both are ordered
+    private final List<MealChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final MealRepository repository;
+    private long lastMealId; // guarded by writeLock
+    private final int hotDays; // 0 keeps every meal in memory
+    private final MealArchive coldStore; // null unless tiered or evicting users
+    private final UserResidency residency; // null unless evicting users
+    private final MealOwnerIndex evictedOwners; // null unless evicting users
+    private final ScheduledExecutorService evictor; // null without a cold store
     private UserService userService;
+    private RollupService rollupService;
+    private FoodSketchService foodSketchService;
+    private QuantileService quantileService;
+    private FoodSearchService foodSearchService;
+    private MealSuggestionService mealSuggestionService;
+    private NutritionDatabase nutritionDatabase;
     
     public MealService(UserService userService) {
+        this(userService, Repositories.openMeals());
+    }
+    
+    /**
+     * Creates the service on a given storage backend.
+     * @param userService The user service
+     * @param repository The meal repository
+     */
+    public MealService(UserService userService, MealRepository repository) {
         this.userService = userService;
-        this.meals = FileService.loadMeals();
+        this.writeLock = userService.getWriteLock();
+        this.repository = repository;
+        List<Meal> meals = repository.loadMeals();
+        for (Meal meal : meals) {
+            lastMealId = Math.max(lastMealId, meal.getId());
+        }
+        
+        this.hotDays = Math.max(0, AppConfig.getInt(HOT_DAYS_SETTING, 0));
+        int idleMinutes = Math.max(0, AppConfig.getInt(IDLE_MINUTES_SETTING, 0));
+        long budgetBytes = Math.max(0, AppConfig.getInt(HEAP_BUDGET_SETTING, 0)) * 1024L * 1024L;
+        this.residency = idleMinutes > 0 || budgetBytes > 0 ? new UserResidency(idleMinutes, budgetBytes) : null;
+        this.evictedOwners = residency != null ? new MealOwnerIndex() : null;
+        this.coldStore = hotDays > 0 || residency != null ? openArchive() : null;
+        Collection<Meal> allMeals = meals;
+        if (coldStore != null) {
+            if (!coldStore.storesCopies()) {
+                meals = restoreArchivedMeals(meals);
+            }
+            lastMealId = Math.max(lastMealId, coldStore.getMaxId());
+            if (hotDays > 0) {
+                meals = evictOnLoad(meals);
+            }
+            if (coldStore.storesCopies()) {
+                // A load interrupted before its archived copies were deleted leaves duplicates
+                coldStore.remove(meals);
+            }
+            // Derived data covers the whole history; the archive is streamed, not loaded
+            allMeals = coldStore.withHotMeals(meals);
+        } else {
+            meals = restoreArchivedMeals(meals);
+            allMeals = meals;
+        }
+        
+        this.snapshot = new AtomicReference<>(MealSnapshot.of(meals));
+        this.rollupService = new RollupService(allMeals.size());
+        this.foodSketchService = new FoodSketchService();
+        this.quantileService = new QuantileService();
+        this.foodSearchService = new FoodSearchService();
+        this.mealSuggestionService = new MealSuggestionService();
+        // One pass over the whole history, archive included, builds every consumer's derived data
+        List<MealEventHandler> builders = new ArrayList<>(
+                List.of(foodSketchService, quantileService, foodSearchService, mealSuggestionService));
+        if (rollupService.isRebuilding()) {
+            builders.add(rollupService);
+        }
+        if (evictedOwners != null) {
+            // Archived meals a load would bring back belong to users who start evicted
+            MealSnapshot loaded = snapshot.get();
+            LocalDate from = hotDays > 0 ? getHotCutoff().toLocalDate() : null;
+            builders.add((event, sequence, endOfBatch) -> {
+                Meal meal = event.getMeal();
+                if (loaded.getById(meal.getId()) == null
+                        && (from == null || !meal.getTimestamp().toLocalDate().isBefore(from))) {
+                    evictedOwners.add(meal);
+                }
+            });
+        }
+        MealEventRingBuffer.replay(allMeals, snapshot.get().getVersion(), builders);
+        rollupService.finishRebuild();
+        if (residency != null) {
+            // Users with meals in the repository start resident; the others only have summaries and indexes to drop
+            MealSnapshot current = snapshot.get();
+            for (String username : current.getUsernames()) {
+                residency.loaded(username, current.getTimeline(username).toList(), false);
+            }
+            for (User user : userService.getAllUsers()) {
+                if (!residency.isResident(user.getUsername())) {
+                    quantileService.evictUser(user.getUsername());
+                    foodSearchService.evictUser(user.getUsername());
+                }
+            }
+        }
+        this.nutritionDatabase = NutritionDatabase.openDefault();
+        
+        this.events = new MealEventRingBuffer(EVENT_BUFFER_SIZE);
+        events.subscribe("rollups", rollupService);
+        events.subscribe("food-sketches", foodSketchService);
+        events.subscribe("quantiles", quantileService);
+        events.subscribe("food-search", foodSearchService);
+        events.subscribe("meal-suggestions", mealSuggestionService);
+        events.start();
+        
+        if (coldStore != null) {
+            this.evictor = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "meal-eviction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (hotDays > 0) {
+                evictor.scheduleWithFixedDelay(this::evictColdMeals, EVICTION_INTERVAL_MINUTES,
+                                               EVICTION_INTERVAL_MINUTES, TimeUnit.MINUTES);
+            }
+            if (residency != null) {
+                // The first sweep also brings an over-budget startup under the budget
+                evictor.scheduleWithFixedDelay(this::evictInactiveUsers, 0,
+                                               RESIDENCY_SWEEP_SECONDS, TimeUnit.SECONDS);
+            }
+        } else {
+            this.evictor = null;
+        }
+    }
+    
+    /**
+     * Opens the archive for meals outside memory: the repository itself when
+     * it answers queries, the cold tier files otherwise.
+     */
+    private MealArchive openArchive() {
+        if (repository.supports(StorageCapability.QUERY)) {
+            return new RepositoryMealArchive(repository, hotDays, residency);
+        }
+        return ColdMealStore.openDefault();
+    }
+    
+    /**
+     * Brings meals archived under earlier settings back into memory when
+     * neither tiering nor user eviction is enabled, or when the repository
+     * serves as the archive, so that none are lost from view.
+     * @return The loaded meals plus the restored ones
+     */
+    private List<Meal> restoreArchivedMeals(List<Meal> meals) {
+        ColdMealStore archive = ColdMealStore.openDefault();
+        if (archive.size() == 0) {
+            return meals;
+        }
+    
+        Set<Long> loadedIds = meals.stream().map(Meal::getId).collect(Collectors.toSet());
+        List<Meal> archived = archive.getUsernames().stream()
+                .flatMap(username -> archive.scan(username, null, null, false))
+                .collect(Collectors.toList());
+        // Copies already back in the repository from an interrupted load are only deleted
+        List<Meal> restored = archived.stream()
+                .filter(meal -> !loadedIds.contains(meal.getId()))
+                .collect(Collectors.toList());
+        List<Meal> all = new ArrayList<>(meals);
+        all.addAll(restored);
+        if (repository.supports(StorageCapability.APPEND)) {
+            repository.appendMeals(restored);
+        } else {
+            repository.saveMeals(all);
+        }
+        archive.remove(archived);
+        for (Meal meal : restored) {
+            lastMealId = Math.max(lastMealId, meal.getId());
+        }
+        return all;
+    }
+    
+    /**
+     * Archives loaded meals older than the window before the first snapshot is built.
+     * @return The meals that stay in memory
+     */
+    private List<Meal> evictOnLoad(List<Meal> meals) {
+        LocalDateTime cutoff = getHotCutoff();
+        List<Meal> hot = new ArrayList<>();
+        List<Meal> cold = new ArrayList<>();
+        for (Meal meal : meals) {
+            (meal.getTimestamp().isBefore(cutoff) ? cold : hot).add(meal);
+        }
+        if (cold.isEmpty() || !coldStore.archive(cold)) {
+            return meals;
+        }
+        
+        if (coldStore.storesCopies()) {
+            repository.saveMeals(hot);
+        }
+        return hot;
+    }
+    
+    /**
+     * Moves meals that have aged out of the in-memory window to the cold tier.
+     * Runs hourly in tiered mode; does nothing otherwise.
+     * @return Number of meals archived
+     */
+    public int evictColdMeals() {
+        if (hotDays == 0) {
+            return 0;
+        }
+        
+        writeLock.lock();
+        try {
+            MealSnapshot current = snapshot.get();
+            LocalDateTime cutoff = getHotCutoff();
+            List<Meal> evicted = new ArrayList<>();
+            for (MealTimeline timeline : current.getTimelines()) {
+                evicted.addAll(timeline.slice(0, timeline.lowerBound(cutoff)));
+            }
+            // Archived first: a reader still holding the old snapshot skips the copies by id
+            if (evicted.isEmpty() || !coldStore.archive(evicted)) {
+                return 0;
+            }
+            
+            MealSnapshot next = current;
+            for (Meal meal : evicted) {
+                next = next.withMealRemoved(meal);
+            }
+            if (coldStore.storesCopies()) {
+                repository.saveMeals(next.getAllMeals());
+            }
+            snapshot.set(next);
+            if (residency != null) {
+                evicted.forEach(residency::mealRemoved);
+            }
+            return evicted.size();
+        } catch (RuntimeException e) {
+            System.err.println("Error evicting meals to the cold tier: " + e.getMessage());
+            return 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Gets the start of the oldest day kept in memory in tiered mode.
+     */
+    private LocalDateTime getHotCutoff() {
+        return LocalDate.now().minusDays(hotDays - 1).atStartOfDay();
+    }
+    
+    /**
+     * Moves the meals of users idle for longer than the idle time, then of
+     * the least recently used users while over the heap budget, to the cold tier.
+     * Runs every minute when evicting users; does nothing otherwise.
+     * @return Number of users evicted
+     */
+    public int evictInactiveUsers() {
+        if (residency == null) {
+            return 0;
+        }
+    
+        int evicted = 0;
+        for (String username : residency.idleUsers()) {
+            if (evictUser(username, true)) {
+                evicted++;
+            }
+        }
+        return evicted + evictOverBudget(null);
+    }
+    
+    /**
+     * Loads a user's meals into memory ahead of their first request, e.g. at login.
+     * @param username The username
+     */
+    public void loadUser(String username) {
+        ensureResident(username);
+    }
+    
+    /**
+     * Gets how many users' meals are in memory and how often they were loaded or evicted.
+     * @return The statistics (without eviction, every user with meals counts as resident)
+     */
+    public ResidencyStats getResidencyStats() {
+        if (residency != null) {
+            return residency.getStats();
+        }
+    
+        MealSnapshot current = snapshot.get();
+        long bytes = 0;
+        for (Meal meal : current.getAllMeals()) {
+            bytes += UserResidency.estimateBytes(meal);
+        }
+        return new ResidencyStats(current.getUsernames().size(), current.size(), bytes, 0, 0, 0, 0, 0);
+    }
+    
+    /**
+     * Makes sure a user's meals are in memory, loading them from the cold tier
+     * on the first access after an eviction. Loaded meals are already covered
+     * by the derived data, so no events are published.
+     */
+    private void ensureResident(String username) {
+        if (residency == null || username == null || residency.touch(username)) {
+            return;
+        }
+        if (userService.getUserByUsername(username) == null) {
+            return;
+        }
+    
+        writeLock.lock();
+        try {
+            if (residency.touch(username)) {
+                return;
+            }
+    
+            LocalDate from = hotDays > 0 ? getHotCutoff().toLocalDate() : null;
+            List<Meal> loaded = coldStore.scan(username, from, null, false).collect(Collectors.toList());
+            if (!loaded.isEmpty()) {
+                // Stored before the archived copies go, so a crash in between leaves duplicates, not losses
+                MealSnapshot next = snapshot.get().withUserMealsAdded(username, loaded);
+                if (coldStore.storesCopies()) {
+                    storeAdded(loaded, next);
+                }
+                snapshot.set(next);
+                coldStore.remove(loaded);
+                evictedOwners.removeAll(loaded);
+            }
+            residency.loaded(username, loaded, true);
+            evictOverBudget(username);
+        } catch (RuntimeException e) {
+            System.err.println("Error loading meals from the cold tier: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Moves all of a user's in-memory meals to the cold tier and drops their
+     * quantile summary and food search index.
+     * @return true if the user was evicted, false if archiving failed
+     */
+    private boolean evictUser(String username, boolean idle) {
+        writeLock.lock();
+        try {
+            if (!residency.isResident(username)) {
+                return false;
+            }
+    
+            MealSnapshot current = snapshot.get();
+            List<Meal> evicted = current.getTimeline(username).toList();
+            if (!evicted.isEmpty()) {
+                // Archived first: a reader still holding the old snapshot skips the copies by id
+                if (!coldStore.archive(evicted)) {
+                    return false;
+                }
+                MealSnapshot next = current.withUserMealsRemoved(username);
+                if (coldStore.storesCopies()) {
+                    storeRemoved(evicted, next);
+                }
+                snapshot.set(next);
+                evictedOwners.addAll(evicted);
+            }
+            quantileService.evictUser(username);
+            foodSearchService.evictUser(username);
+            residency.evicted(username, idle);
+            return true;
+        } catch (RuntimeException e) {
+            System.err.println("Error evicting user " + username + " to the cold tier: " + e.getMessage());
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Evicts least recently used users until resident meals fit the heap budget.
+     * @param keep A user to keep, e.g. the one just loaded, or null
+     * @return Number of users evicted
+     */
+    private int evictOverBudget(String keep) {
+        int evicted = 0;
+        for (String username : residency.usersOverBudget(keep)) {
+            if (evictUser(username, false)) {
+                evicted++;
+            }
+        }
+        return evicted;
     }
     
     /**
@@ -31,35 +475,435 @@ public class MealService {
         if (username == null || mealType == null || foodItems == null || foodItems.isEmpty()) {
             return false;
         }
+        for (FoodItem item : foodItems) {
+            if (!isValidFoodItem(item)) {
+                return false;
+            }
+        }
         
         // Verify user exists
         if (userService.getUserByUsername(username) == null) {
             return false;
         }
+        ensureResident(username);
         
-        Meal meal = new Meal(username, mealType);
+        writeLock.lock();
+        try {
+            Meal meal = new Meal(username, mealType);
+            meal.setId(++lastMealId);
+            for (FoodItem item : foodItems) {
+                meal.addFoodItem(item);
+            }
+            
+            MealSnapshot next = snapshot.get().withMealAdded(meal);
+            storeAdded(Collections.singletonList(meal), next);
+            snapshot.set(next);
+            publish(MealEvent.Type.ADDED, meal, null, next.getVersion());
+            if (residency != null) {
+                residency.mealAdded(meal);
+                evictOverBudget(username);
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Imports a batch of meals recorded elsewhere, keeping their timestamps.
+     * Ids in the input are ignored and new ones are assigned. Meals of
+     * unknown users or without food items are skipped. The batch is written
+     * in one append and published as a single snapshot.
+     * @param meals The meals to import
+     * @return Number of meals imported
+     */
+    public int importMeals(List<Meal> meals) {
+        if (meals == null || meals.isEmpty()) {
+            return 0;
+        }
+        
+        writeLock.lock();
+        try {
+            if (residency != null) {
+                // Imported meals join the users' history in memory, not the archive
+                meals.stream().map(Meal::getUsername).distinct().forEach(this::ensureResident);
+            }
+            List<Meal> accepted = new ArrayList<>();
+            for (Meal meal : meals) {
+                if (meal.getFoodItems().isEmpty() || userService.getUserByUsername(meal.getUsername()) == null) {
+                    continue;
+                }
+                Meal imported = new Meal(meal.getUsername(), meal.getMealType(), meal.getTimestamp());
+                imported.setId(++lastMealId);
+                imported.setFoodItems(meal.getFoodItems());
+                accepted.add(imported);
+            }
+            if (accepted.isEmpty()) {
+                return 0;
+            }
+            
+            MealSnapshot current = snapshot.get();
+            MealSnapshot next = current.withMealsAdded(accepted);
+            storeAdded(accepted, next);
+            snapshot.set(next);
+            for (int i = 0; i < accepted.size(); i++) {
+                publish(MealEvent.Type.ADDED, accepted.get(i), null, current.getVersion() + i + 1);
+            }
+            if (residency != null) {
+                accepted.forEach(residency::mealAdded);
+                evictOverBudget(null);
+            }
+            return accepted.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Stores added meals, appended where the repository supports it.
+     * @param added The new meals
+     * @param next The snapshot including them, saved in full otherwise
+     */
+    private void storeAdded(Collection<Meal> added, MealSnapshot next) {
+        if (repository.supports(StorageCapability.APPEND)) {
+            repository.appendMeals(added);
+        } else {
+            repository.saveMeals(next.getAllMeals());
+        }
+    }
+    
+    /**
+     * Deletes removed meals from storage, one by one where the repository supports it.
+     * @param removed The removed meals
+     * @param next The snapshot without them, saved in full otherwise
+     */
+    private void storeRemoved(Collection<Meal> removed, MealSnapshot next) {
+        if (repository.supports(StorageCapability.POINT_DELETE)) {
+            repository.deleteMeals(removed);
+        } else {
+            repository.saveMeals(next.getAllMeals());
+        }
+    }
+    
+    /**
+     * Publishes a change to the derived-data consumers and tells the change
+     * listeners. Call under the write lock, once the snapshot including the
+     * change is visible.
+     */
+    private void publish(MealEvent.Type type, Meal meal, Meal previousMeal, long version) {
+        events.publish(type, meal, previousMeal, version);
+        for (MealChangeListener listener : changeListeners) {
+            if (type == MealEvent.Type.REMOVED) {
+                listener.mealRemoved(meal);
+            } else {
+                listener.mealSaved(meal);
+            }
+        }
+    }
+    
+    /**
+     * Gets a meal by its id, loading its owner's meals if they were evicted.
+     * @param mealId The meal id
+     * @return The meal, or null if there is none or it was archived by the tiered window
+     */
+    public Meal getMealById(long mealId) {
+        Meal meal = snapshot.get().getById(mealId);
+        if (meal != null || evictedOwners == null) {
+            return meal;
+        }
+    
+        String owner = evictedOwners.get(mealId);
+        if (owner == null) {
+            return null;
+        }
+        ensureResident(owner);
+        meal = snapshot.get().getById(mealId);
+        if (meal == null && residency.isResident(owner)) {
+            // Left the tiered window while its owner was evicted, so it stays archived
+            evictedOwners.remove(mealId);
+        }
+        return meal;
+    }
+    
+    /**
+     * Replaces the food items of an existing meal.
+     * @param mealId The meal id
+     * @param foodItems The new food items
+     * @return true if the meal was updated, false if it does not exist or the items are empty or invalid
+     */
+    public boolean updateMeal(long mealId, List<FoodItem> foodItems) {
+        if (foodItems == null || foodItems.isEmpty()) {
+            return false;
+        }
+        // Checked before anything reaches the delta journal, which a bad name would corrupt
         for (FoodItem item : foodItems) {
-            meal.addFoodItem(item);
+            if (!isValidFoodItem(item)) {
+                return false;
+            }
         }
+        // Brings the meal back into memory if its owner was evicted
+        getMealById(mealId);
         
-        meals.add(meal);
-        saveMeals();
-        return true;
+        writeLock.lock();
+        try {
+            MealSnapshot current = snapshot.get();
+            Meal meal = current.getById(mealId);
+            if (meal == null) {
+                return false;
+            }
+            
+            // Snapshots are shared with readers, so the edit goes into a copy
+            Meal updated = new Meal(meal.getUsername(), meal.getMealType(), meal.getTimestamp());
+            updated.setId(mealId);
+            updated.setFoodItems(foodItems);
+            
+            MealSnapshot next = current.withMealReplaced(meal, updated);
+            if (repository.supports(StorageCapability.APPEND)) {
+                repository.updateMeal(updated);
+            } else {
+                repository.saveMeals(next.getAllMeals());
+            }
+            snapshot.set(next);
+            publish(MealEvent.Type.UPDATED, updated, meal, next.getVersion());
+            if (residency != null) {
+                residency.mealRemoved(meal);
+                residency.mealAdded(updated);
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Removes a meal by its id.
+     * @param mealId The meal id
+     * @return true if meal removed successfully, false otherwise
+     */
+    public boolean removeMeal(long mealId) {
+        // Brings the meal back into memory if its owner was evicted
+        getMealById(mealId);
+        writeLock.lock();
+        try {
+            MealSnapshot current = snapshot.get();
+            Meal meal = current.getById(mealId);
+            if (meal == null) {
+                return false;
+            }
+            
+            MealSnapshot next = current.withMealRemoved(meal);
+            storeRemoved(Collections.singletonList(meal), next);
+            snapshot.set(next);
+            publish(MealEvent.Type.REMOVED, meal, null, next.getVersion());
+            if (residency != null) {
+                residency.mealRemoved(meal);
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Removes all meals of a user, including archived ones, e.g. once the
+     * user has moved to another node.
+     * @param username The username
+     * @return Number of meals removed
+     */
+    public int removeUserMeals(String username) {
+        ensureResident(username);
+        writeLock.lock();
+        try {
+            MealSnapshot current = snapshot.get();
+            List<Meal> meals = query(current, MealQuery.builder().user(username).build()).collect(Collectors.toList());
+            if (meals.isEmpty()) {
+                return 0;
+            }
+            
+            MealSnapshot next = current;
+            List<Meal> hot = new ArrayList<>();
+            List<Meal> archived = new ArrayList<>();
+            long[] versions = new long[meals.size()];
+            for (int i = 0; i < meals.size(); i++) {
+                Meal meal = meals.get(i);
+                if (current.getById(meal.getId()) != null) {
+                    next = next.withMealRemoved(meal);
+                    hot.add(meal);
+                } else {
+                    archived.add(meal);
+                }
+                versions[i] = next.getVersion();
+            }
+            if (!archived.isEmpty()) {
+                if (coldStore.storesCopies()) {
+                    coldStore.remove(archived);
+                } else {
+                    repository.deleteMeals(archived);
+                }
+            }
+            if (!hot.isEmpty()) {
+                storeRemoved(hot, next);
+            }
+            snapshot.set(next);
+            // Archived meals count in derived data too
+            for (int i = 0; i < meals.size(); i++) {
+                publish(MealEvent.Type.REMOVED, meals.get(i), null, versions[i]);
+            }
+            if (residency != null) {
+                hot.forEach(residency::mealRemoved);
+            }
+            return meals.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Applies meal changes received from a replication primary, keeping their
+     * ids. A saved meal replaces the meal with its id or is added; unknown
+     * removed ids are ignored. Meals already in the received state are left
+     * alone, so applying a change twice is harmless.
+     * @param saved The added or updated meals
+     * @param removedIds Ids of the removed meals
+     * @return Number of meals changed
+     */
+    public int applyReplicatedChanges(Collection<Meal> saved, Collection<Long> removedIds) {
+        writeLock.lock();
+        try {
+            MealSnapshot next = snapshot.get();
+            List<Meal> added = new ArrayList<>();
+            List<Meal> updated = new ArrayList<>();
+            List<Meal> removed = new ArrayList<>();
+            List<PendingEvent> changes = new ArrayList<>();
+            for (Meal meal : saved) {
+                Meal existing = next.getById(meal.getId());
+                if (existing == null) {
+                    next = next.withMealAdded(meal);
+                    added.add(meal);
+                    changes.add(new PendingEvent(MealEvent.Type.ADDED, meal, null, next.getVersion()));
+                } else if (!existing.toString().equals(meal.toString())) {
+                    next = next.withMealReplaced(existing, meal);
+                    updated.add(meal);
+                    changes.add(new PendingEvent(MealEvent.Type.UPDATED, meal, existing, next.getVersion()));
+                }
+                lastMealId = Math.max(lastMealId, meal.getId());
+            }
+            for (long mealId : removedIds) {
+                Meal existing = next.getById(mealId);
+                if (existing != null) {
+                    next = next.withMealRemoved(existing);
+                    removed.add(existing);
+                    changes.add(new PendingEvent(MealEvent.Type.REMOVED, existing, null, next.getVersion()));
+                }
+            }
+            if (changes.isEmpty()) {
+                return 0;
+            }
+            
+            if (!added.isEmpty()) {
+                storeAdded(added, next);
+            }
+            if (!updated.isEmpty()) {
+                if (repository.supports(StorageCapability.APPEND)) {
+                    updated.forEach(repository::updateMeal);
+                } else {
+                    repository.saveMeals(next.getAllMeals());
+                }
+            }
+            if (!removed.isEmpty()) {
+                storeRemoved(removed, next);
+            }
+            snapshot.set(next);
+            for (PendingEvent change : changes) {
+                publish(change.type, change.meal, change.previousMeal, change.version);
+                if (residency != null) {
+                    if (change.type != MealEvent.Type.ADDED) {
+                        residency.mealRemoved(change.previousMeal != null ? change.previousMeal : change.meal);
+                    }
+                    if (change.type != MealEvent.Type.REMOVED) {
+                        residency.mealAdded(change.meal);
+                    }
+                }
+            }
+            return changes.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Gets all stored meals of every user, including archived ones.
+     * @return List of all meals
+     */
+    public List<Meal> getAllMeals() {
+        List<Meal> meals = snapshot.get().getAllMeals();
+        return coldStore == null ? meals : new ArrayList<>(coldStore.withHotMeals(meals));
+    }
+    
+    /**
+     * Registers another consumer of meal events, e.g. for replication.
+     * It receives every change made from now on, on its own thread.
+     * @param name Name used for the consumer thread and lag reporting
+     * @param handler The handler
+     */
+    public void addEventHandler(String name, MealEventHandler handler) {
+        writeLock.lock();
+        try {
+            events.subscribe(name, handler);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Registers a listener told of every meal change from now on, in the
+     * order the changes became visible and interleaved correctly with user
+     * changes, e.g. for replication.
+     * @param listener The listener
+     */
+    public void addChangeListener(MealChangeListener listener) {
+        changeListeners.add(listener);
+    }
+    
+    /**
+     * Gets how far each derived-data consumer trails the latest change.
+     * @return Consumer name mapped to the number of unprocessed meal events
+     */
+    public Map<String, Long> getSubscriberLag() {
+        return events.getLag();
+    }
+    
+    /**
+     * Lets the derived-data consumers apply all outstanding changes, stops
+     * them and closes the repository. Call before exiting so that rollups are saved.
+     */
+    public void shutdown() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        writeLock.lock();
+        try {
+            events.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+            repository.close();
+        } finally {
+            writeLock.unlock();
+        }
     }
     
     /**
      * Gets all meals for a specific user.
      * @param username The username
-     * @return List of meals for the user
+     * @return List of meals for the user, oldest first
      */
     public List<Meal> getMealsByUser(String username) {
         if (username == null) {
             return new ArrayList<>();
         }
         
-        return meals.stream()
-                .filter(meal -> meal.getUsername().equals(username))
-                .collect(Collectors.toList());
+        if (coldStore == null) {
+            return snapshot.get().getTimeline(username).toList();
+        }
+        return findMeals(MealQuery.builder().user(username).build());
     }
     
     /**
@@ -73,10 +917,7 @@ public class MealService {
             return new ArrayList<>();
         }
         
-        return meals.stream()
-                .filter(meal -> meal.getUsername().equals(username) && 
-                               meal.getTimestamp().toLocalDate().equals(date))
-                .collect(Collectors.toList());
+        return findMeals(MealQuery.builder().user(username).on(date).build());
     }
     
     /**
@@ -90,10 +931,134 @@ public class MealService {
             return new ArrayList<>();
         }
         
-        return meals.stream()
-                .filter(meal -> meal.getUsername().equals(username) && 
-                               meal.getMealType() == mealType)
-                .collect(Collectors.toList());
+        return findMeals(MealQuery.builder().user(username).mealType(mealType).build());
+    }
+    
+    /**
+     * Runs a meal query against the current snapshot.
+     * The date range narrows each user's timeline by binary search; the other
+     * criteria filter the meals as they are streamed. In tiered mode, archived
+     * months in the date range are merged in.
+     * @param query The query
+     * @return Matching meals in timestamp order, produced lazily
+     */
+    public Stream<Meal> query(MealQuery query) {
+        query.getUsernames().forEach(this::ensureResident);
+        return query(snapshot.get(), query);
+    }
+    
+    /**
+     * Streams a user's meals, or every user's, oldest first, e.g. for exports.
+     * Archived meals, including those of users evicted from memory, are read
+     * as the stream is consumed and are not loaded back into memory.
+     * @param username The username, or null for all users
+     * @return The meals in timestamp order, produced lazily
+     */
+    public Stream<Meal> streamMeals(String username) {
+        MealQuery.Builder query = MealQuery.builder();
+        if (username != null) {
+            query.user(username);
+        }
+        return query(snapshot.get(), query.build());
+    }
+    
+    private Stream<Meal> query(MealSnapshot current, MealQuery query) {
+        Stream<Meal> hot = MealQueryPlanner.plan(current, query).stream();
+        if (coldStore == null || !coldStore.covers(query)) {
+            return hot;
+        }
+        
+        Stream<Meal> cold = coldStore.scan(query).filter(meal -> current.getById(meal.getId()) == null);
+        Stream<Meal> merged = MealQueryPlanner.merge(Arrays.asList(cold.iterator(), hot.iterator()),
+                                                     query.isNewestFirst());
+        return query.getLimit() > 0 ? merged.limit(query.getLimit()) : merged;
+    }
+    
+    /**
+     * Runs a meal query and collects the results.
+     * @param query The query
+     * @return List of matching meals in timestamp order
+     */
+    public List<Meal> findMeals(MealQuery query) {
+        return query(query).collect(Collectors.toList());
+    }
+    
+    /**
+     * Describes how a query would be executed against the current snapshot.
+     * @param query The query
+     * @return The plan, one operator per line
+     */
+    public String explain(MealQuery query) {
+        String plan = MealQueryPlanner.plan(snapshot.get(), query).explain();
+        if (coldStore == null || !coldStore.covers(query)) {
+            return plan;
+        }
+        return "Merge by timestamp with cold tier\n  " + coldStore.describe(query) + "\n" + plan;
+    }
+    
+    /**
+     * Gets one page of a user's meal history, newest first, optionally
+     * filtered by meal type. Only the meals on the page are visited, plus
+     * any skipped by the filter.
+     * @param username The username
+     * @param before Cursor of the last meal of the previous page, or null for the newest meals
+     * @param limit Maximum number of meals on the page
+     * @param mealType Meal type to keep, or null for all types
+     * @return The page (empty if there are no older meals)
+     */
+    public MealPage getMealHistoryPage(String username, MealPage.Cursor before, int limit, Meal.MealType mealType) {
+        List<Meal> page = new ArrayList<>();
+        if (username == null || limit <= 0) {
+            return new MealPage(page, null);
+        }
+        
+        ensureResident(username);
+        MealSnapshot current = snapshot.get();
+        MealTimeline timeline = current.getTimeline(username);
+        int start = before == null ? timeline.size()
+                                   : timeline.lowerBound(before.getTimestamp(), before.getMealId());
+        Iterator<Meal> meals = new Iterator<Meal>() {
+            private int index = start;
+            
+            @Override
+            public boolean hasNext() {
+                return index > 0;
+            }
+            
+            @Override
+            public Meal next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return timeline.get(--index);
+            }
+        };
+        if (coldStore != null) {
+            // Older pages continue into the archive, a month at a time
+            LocalDate lastDate = before == null ? null : before.getTimestamp().toLocalDate();
+            Iterator<Meal> cold = coldStore.scan(username, null, lastDate, true)
+                    .filter(meal -> before == null
+                            || MealTimeline.compare(meal, before.getTimestamp(), before.getMealId()) < 0)
+                    .filter(meal -> current.getById(meal.getId()) == null)
+                    .iterator();
+            meals = MealQueryPlanner.merge(Arrays.asList(meals, cold), true).iterator();
+        }
+        
+        // Looks one match past the page so the last page has no next cursor
+        boolean more = false;
+        while (meals.hasNext()) {
+            Meal meal = meals.next();
+            if (mealType != null && meal.getMealType() != mealType) {
+                continue;
+            }
+            if (page.size() == limit) {
+                more = true;
+                break;
+            }
+            page.add(meal);
+        }
+        
+        return new MealPage(page, more ? MealPage.Cursor.of(page.get(page.size() - 1)) : null);
     }
     
     /**
@@ -103,10 +1068,7 @@ public class MealService {
      * @return Total calories consumed
      */
     public int getTotalCaloriesForDate(String username, LocalDate date) {
-        List<Meal> dailyMeals = getMealsByUserAndDate(username, date);
-        return dailyMeals.stream()
-                .mapToInt(Meal::getTotalCalories)
-                .sum();
+        return MealCalories.sum(getMealsByUserAndDate(username, date));
     }
     
     /**
@@ -139,21 +1101,20 @@ public class MealService {
      * @return true if meal removed successfully, false otherwise
      */
     public boolean removeMeal(String username, Meal.MealType mealType, LocalDateTime timestamp) {
-        Meal mealToRemove = null;
+        if (username == null || timestamp == null) {
+            return false;
+        }
         
-        for (Meal meal : meals) {
-            if (meal.getUsername().equals(username) && 
-                meal.getMealType() == mealType && 
-                meal.getTimestamp().equals(timestamp)) {
-                mealToRemove = meal;
+        ensureResident(username);
+        MealTimeline timeline = snapshot.get().getTimeline(username);
+        for (int i = timeline.lowerBound(timestamp); i < timeline.size(); i++) {
+            Meal meal = timeline.get(i);
+            if (!meal.getTimestamp().equals(timestamp)) {
                 break;
             }
-        }
-        
-        if (mealToRemove != null) {
-            meals.remove(mealToRemove);
-            saveMeals();
-            return true;
+            if (meal.getMealType() == mealType) {
+                return removeMeal(meal.getId());
+            }
         }
         
         return false;
@@ -169,10 +1130,13 @@ public class MealService {
             return null;
         }
         
-        return meals.stream()
-                .filter(meal -> meal.getUsername().equals(username))
-                .max((m1, m2) -> m1.getTimestamp().compareTo(m2.getTimestamp()))
-                .orElse(null);
+        ensureResident(username);
+        Meal meal = snapshot.get().getTimeline(username).last();
+        if (meal == null && coldStore != null) {
+            // Users inactive for longer than the window only have archived meals
+            meal = coldStore.scan(username, null, null, true).findFirst().orElse(null);
+        }
+        return meal;
     }
     
     /**
@@ -189,23 +1153,239 @@ public class MealService {
         LocalDate endDate = LocalDate.now();
         LocalDate startDate = endDate.minusDays(days - 1);
         
-        List<Meal> recentMeals = meals.stream()
-                .filter(meal -> meal.getUsername().equals(username) && 
-                               !meal.getTimestamp().toLocalDate().isBefore(startDate) &&
-                               !meal.getTimestamp().toLocalDate().isAfter(endDate))
-                .collect(Collectors.toList());
-        
-        int totalMeals = recentMeals.size();
-        int totalCalories = recentMeals.stream()
-                .mapToInt(Meal::getTotalCalories)
-                .sum();
+        int[] totals = rollupService.getTotals(username, startDate, endDate);
+        int totalMeals = totals[0];
+        int totalCalories = totals[1];
         double avgCaloriesPerDay = days > 0 ? (double) totalCalories / days : 0;
         
         return new double[]{totalMeals, totalCalories, avgCaloriesPerDay};
     }
     
+    /**
+     * Gets a user's calorie history as rollups of the given granularity.
+     * @param username The username
+     * @param granularity Day, week or month
+     * @param from First date (inclusive)
+     * @param to Last date (inclusive)
+     * @return Rollups ordered by period, skipping periods without meals
+     */
+    public List<CalorieRollup> getCalorieHistory(String username, CalorieRollup.Granularity granularity,
+                                                 LocalDate from, LocalDate to) {
+        if (username == null || granularity == null || from == null || to == null) {
+            return new ArrayList<>();
+        }
+        
+        return rollupService.getRollups(username, granularity, from, to);
+    }
+    
+    /**
+     * Rebuilds the persisted rollups from the stored meals.
+     * @return true if the rollups were already consistent, false if they were repaired
+     */
+    public boolean verifyRollups() {
+        writeLock.lock();
+        try {
+            // With writers excluded, let the rollup consumer finish before rebuilding under it
+            events.awaitDrained(SHUTDOWN_TIMEOUT_MILLIS);
+            List<Meal> meals = snapshot.get().getAllMeals();
+            return rollupService.verify(coldStore == null ? meals : coldStore.withHotMeals(meals));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Gets the most frequently logged foods in the ISO weeks overlapping a
+     * date range: exact for a user, approximate for all users.
+     * @param username The username, or null for all users
+     * @param from First date (inclusive, rounded down to its week's Monday)
+     * @param to Last date (inclusive, rounded up to its week's Sunday)
+     * @param limit Maximum number of foods
+     * @return Normalized food names mapped to log counts, highest first
+     */
+    public Map<String, Long> getMostLoggedFoods(String username, LocalDate from, LocalDate to, int limit) {
+        return foodSketchService.getTopFoods(username, from, to, limit);
+    }
+    
+    /**
+     * Counts how many distinct foods were logged in the ISO weeks overlapping
+     * a date range: exact for a user, estimated for all users.
+     * @param username The username, or null for all users
+     * @param from First date (inclusive, rounded down to its week's Monday)
+     * @param to Last date (inclusive, rounded up to its week's Sunday)
+     * @return Distinct food count
+     */
+    public long getDistinctFoodCount(String username, LocalDate from, LocalDate to) {
+        return foodSketchService.getDistinctFoodCount(username, from, to);
+    }
+    
+    /**
+     * Searches a user's meals, archived ones included, by food name. Words
+     * are matched against the words of food names, ignoring case, and a meal
+     * must contain every word, e.g. "greek yogurt".
+     * @param username The username
+     * @param text The food words
+     * @param prefix true to match words by their beginning, e.g. "ban" for banana
+     * @param from First date (inclusive), or null for the oldest meal
+     * @param to Last date (inclusive), or null for the newest meal
+     * @param limit Maximum number of meals, or 0 for no limit
+     * @return Matching meals, newest first
+     */
+    public List<Meal> searchMeals(String username, String text, boolean prefix, LocalDate from, LocalDate to,
+                                  int limit) {
+        List<Meal> meals = new ArrayList<>();
+        if (username == null || text == null) {
+            return meals;
+        }
+        
+        ensureResident(username);
+        if (foodSearchService.isEvicted(username)) {
+            rebuildFoodSearchIndex(username);
+        }
+        List<FoodSearchService.Hit> hits = foodSearchService.search(username, text, prefix, from, to, limit);
+        MealSnapshot current = snapshot.get();
+        Map<Long, Meal> archived = new HashMap<>();
+        if (coldStore != null) {
+            // Archived hits are read with one scan over the days they span
+            LocalDate first = null;
+            LocalDate last = null;
+            Set<Long> missing = new HashSet<>();
+            for (FoodSearchService.Hit hit : hits) {
+                if (current.getById(hit.getMealId()) == null) {
+                    missing.add(hit.getMealId());
+                    first = first == null || hit.getDate().isBefore(first) ? hit.getDate() : first;
+                    last = last == null || hit.getDate().isAfter(last) ? hit.getDate() : last;
+                }
+            }
+            if (!missing.isEmpty()) {
+                coldStore.scan(username, first, last, false)
+                         .filter(meal -> missing.contains(meal.getId()))
+                         .forEach(meal -> archived.put(meal.getId(), meal));
+            }
+        }
+        
+        for (FoodSearchService.Hit hit : hits) {
+            Meal meal = current.getById(hit.getMealId());
+            if (meal == null) {
+                meal = archived.get(hit.getMealId());
+            }
+            // The index trails the snapshot, so a hit may have just been removed
+            if (meal != null && meal.getUsername().equals(username)) {
+                meals.add(meal);
+            }
+        }
+        return meals;
+    }
+    
+    /**
+     * Finds the last meal in which a user ate a food, e.g. "when did I last eat banana".
+     * @param username The username
+     * @param foodName The food name
+     * @return The newest meal containing the food, or null if there is none
+     */
+    public Meal getLastMealWith(String username, String foodName) {
+        List<Meal> meals = searchMeals(username, foodName, false, null, null, 1);
+        return meals.isEmpty() ? null : meals.get(0);
+    }
+    
+    /**
+     * Rebuilds a user's food search index from their stored meals, e.g. after
+     * the meal files were edited outside the app.
+     * @param username The username
+     */
+    public void rebuildFoodSearchIndex(String username) {
+        if (username == null) {
+            return;
+        }
+        
+        ensureResident(username);
+        MealSnapshot current = snapshot.get();
+        List<Meal> userMeals = coldStore == null ? current.getTimeline(username).toList()
+                : query(current, MealQuery.builder().user(username).build()).collect(Collectors.toList());
+        foodSearchService.rebuildUser(username, userMeals, current.getVersion());
+    }
+    
+    /**
+     * Suggests combinations of the foods a user logs most, in their typical
+     * portions, that fill the calories left in their budget.
+     * @param username The username
+     * @param remainingCalories The calories left, e.g. from DailyLog.getRemainingCalories()
+     * @param limit Maximum number of suggestions
+     * @return Suggestions closest to the budget first, none above it
+     */
+    public List<MealSuggestion> suggestMeals(String username, int remainingCalories, int limit) {
+        if (username == null) {
+            return new ArrayList<>();
+        }
+        return mealSuggestionService.suggest(username, remainingCalories, limit);
+    }
+    
+    /**
+     * Gets the median, 90th and 99th percentile of a user's calories per meal
+     * and per completed day.
+     * @param username The username
+     * @return The calorie distribution (percentiles are NaN without data)
+     */
+    public CalorieDistribution getCalorieDistribution(String username) {
+        if (username == null) {
+            return getCohortCalorieDistribution(new ArrayList<>());
+        }
+        
+        return getCohortCalorieDistribution(Collections.singletonList(username));
+    }
+    
+    /**
+     * Gets the combined calorie distribution of a group of users.
+     * @param usernames The users in the cohort
+     * @return The merged calorie distribution
+     */
+    public CalorieDistribution getCohortCalorieDistribution(Collection<String> usernames) {
+        rebuildStaleQuantiles(usernames);
+        return quantileService.getDistribution(usernames);
+    }
+    
+    private void rebuildStaleQuantiles(Collection<String> usernames) {
+        for (String username : usernames) {
+            ensureResident(username);
+            if (quantileService.isStale(username)) {
+                // Events up to the snapshot's version are skipped once the rebuild includes them
+                MealSnapshot current = snapshot.get();
+                List<Meal> userMeals = coldStore == null ? current.getTimeline(username).toList()
+                        : query(current, MealQuery.builder().user(username).build()).collect(Collectors.toList());
+                quantileService.rebuildUser(username, userMeals, current.getVersion());
+            }
+        }
+    }
+    
+    /**
+     * Gets the digests behind the combined calorie distribution of a group of
+     * users, so distributions held on different nodes can be merged.
+     * @param usernames The users in the cohort
+     * @return Copies of the calories-per-meal and calories-per-day digests, in that order
+     */
+    public TDigest[] getCohortCalorieDigests(Collection<String> usernames) {
+        rebuildStaleQuantiles(usernames);
+        return quantileService.getDigests(usernames);
+    }
+    
+    /**
+     * Looks up a food in the local nutrition database.
+     * @param foodName The food name
+     * @return A food item pre-filled with calories per unit and unit (quantity 1),
+     *         or null if the food is unknown or no nutrition database is available
+     */
+    public FoodItem lookupFood(String foodName) {
+        if (nutritionDatabase == null || foodName == null || foodName.trim().isEmpty()) {
+            return null;
+        }
+        
+        return nutritionDatabase.lookup(foodName);
+    }
+    
     /**
      * Validates food item data.
+     * Names and units must not hold commas or line breaks, which separate
+     * the fields and records of the meal files.
      * @param foodItem The food item to validate
      * @return true if valid, false otherwise
      */
@@ -215,14 +1395,30 @@ public class MealService {
         }
         
         return foodItem.getName() != null && !foodItem.getName().trim().isEmpty() &&
+               isStorableText(foodItem.getName()) &&
+               foodItem.getUnit() != null && isStorableText(foodItem.getUnit()) &&
                foodItem.getCaloriesPerUnit() > 0 &&
-               foodItem.getQuantity() > 0;
+               foodItem.getQuantity() > 0 && Double.isFinite(foodItem.getQuantity());
+    }
+    
+    private static boolean isStorableText(String text) {
+        return text.indexOf(',') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0;
     }
     
     /**
-     * Saves meals to file.
+     * A meal event to publish once the snapshot including it is visible.
      */
-    private void saveMeals() {
-        FileService.saveMeals(meals);
+    private static final class PendingEvent {
+        private final MealEvent.Type type;
+        private final Meal meal;
+        private final Meal previousMeal;
+        private final long version;
+        
+        PendingEvent(MealEvent.Type type, Meal meal, Meal previousMeal, long version) {
+            this.type = type;
+            this.meal = meal;
+            this.previousMeal = previousMeal;
+            this.version = version;
+        }
     }
 }
@@ -0,0 +1,201 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable point-in-time view of every stored meal.
+ * MealService publishes a new snapshot for each change; readers keep using
+ * the snapshot they started with and never take a lock. New versions share
+ * all unchanged per-user timelines and index nodes with the old one, and
+ * the timelines are kept in a persistent map, so a change costs the same
+ * however many users there are.
+ */
+final class MealSnapshot {
+    static final MealSnapshot EMPTY =
+            new MealSnapshot(0, PersistentSortedMap.empty(), MealIdIndex.EMPTY, MealBitmapIndex.EMPTY);
+
+    private final long version;
+    private final PersistentSortedMap<String, MealTimeline> timelines;
+    private final MealIdIndex byId;
+    private final MealBitmapIndex bitmaps;
+
+    private MealSnapshot(long version, PersistentSortedMap<String, MealTimeline> timelines, MealIdIndex byId,
+                         MealBitmapIndex bitmaps) {
+        this.version = version;
+        this.timelines = timelines;
+        this.byId = byId;
+        this.bitmaps = bitmaps;
+    }
+
+    /**
+     * Builds the first snapshot from loaded meals.
+     * @param meals All stored meals
+     * @return The snapshot
+     */
+    static MealSnapshot of(Collection<Meal> meals) {
+        Map<String, List<Meal>> byUser = new HashMap<>();
+        MealIdIndex byId = MealIdIndex.EMPTY;
+        for (Meal meal : meals) {
+            byUser.computeIfAbsent(meal.getUsername(), u -> new ArrayList<>()).add(meal);
+            byId = byId.with(meal);
+        }
+
+        PersistentSortedMap<String, MealTimeline> timelines = PersistentSortedMap.empty();
+        for (Map.Entry<String, List<Meal>> entry : byUser.entrySet()) {
+            List<Meal> userMeals = entry.getValue();
+            userMeals.sort((m1, m2) -> MealTimeline.compare(m1, m2.getTimestamp(), m2.getId()));
+            timelines = timelines.with(entry.getKey(), MealTimeline.of(userMeals));
+        }
+        return new MealSnapshot(1, timelines, byId, MealBitmapIndex.of(meals));
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    Meal getById(long id) {
+        return byId.get(id);
+    }
+
+    MealBitmapIndex getBitmaps() {
+        return bitmaps;
+    }
+
+    MealTimeline getTimeline(String username) {
+        MealTimeline timeline = timelines.get(username);
+        return timeline == null ? MealTimeline.EMPTY : timeline;
+    }
+
+    Set<String> getUsernames() {
+        return timelines.keySet();
+    }
+
+    Collection<MealTimeline> getTimelines() {
+        return timelines.values();
+    }
+
+    List<Meal> getAllMeals() {
+        List<Meal> all = new ArrayList<>(size());
+        for (MealTimeline timeline : timelines.values()) {
+            for (Meal meal : timeline) {
+                all.add(meal);
+            }
+        }
+        return all;
+    }
+
+    MealSnapshot withMealAdded(Meal meal) {
+        MealTimeline timeline = getTimeline(meal.getUsername()).insert(meal);
+        return new MealSnapshot(version + 1, withTimeline(meal.getUsername(), timeline), byId.with(meal),
+                                bitmaps.with(meal));
+    }
+
+    MealSnapshot withMealRemoved(Meal meal) {
+        MealTimeline timeline = getTimeline(meal.getUsername()).remove(meal);
+        return new MealSnapshot(version + 1, withTimeline(meal.getUsername(), timeline), byId.without(meal.getId()),
+                                bitmaps.without(meal));
+    }
+
+    MealSnapshot withMealReplaced(Meal oldMeal, Meal newMeal) {
+        MealTimeline timeline = getTimeline(oldMeal.getUsername()).replace(oldMeal, newMeal);
+        // Edits keep the meal's type and day, so only a changed one touches the bitmaps
+        MealBitmapIndex newBitmaps = bitmaps;
+        if (oldMeal.getMealType() != newMeal.getMealType()
+                || !oldMeal.getTimestamp().toLocalDate().equals(newMeal.getTimestamp().toLocalDate())) {
+            newBitmaps = bitmaps.without(oldMeal).with(newMeal);
+        }
+        return new MealSnapshot(version + 1, withTimeline(oldMeal.getUsername(), timeline), byId.with(newMeal),
+                                newBitmaps);
+    }
+
+    /**
+     * Adds many new meals at once, e.g. an import. Each user's timeline is
+     * rebuilt once rather than per meal, and the bitmaps are indexed in one
+     * pass. The version advances by one per meal, as if they were added one
+     * at a time.
+     * @param meals The meals, none of them in this snapshot
+     */
+    MealSnapshot withMealsAdded(List<Meal> meals) {
+        Map<String, List<Meal>> byUser = new LinkedHashMap<>();
+        MealIdIndex newById = byId;
+        for (Meal meal : meals) {
+            byUser.computeIfAbsent(meal.getUsername(), u -> new ArrayList<>()).add(meal);
+            newById = newById.with(meal);
+        }
+
+        PersistentSortedMap<String, MealTimeline> newTimelines = timelines;
+        for (Map.Entry<String, List<Meal>> entry : byUser.entrySet()) {
+            MealTimeline timeline = getTimeline(entry.getKey());
+            List<Meal> added = entry.getValue();
+            if (added.size() * 8 < timeline.size()) {
+                // A few meals into a long history: inserting copies less than rebuilding
+                for (Meal meal : added) {
+                    timeline = timeline.insert(meal);
+                }
+            } else {
+                List<Meal> merged = timeline.toList();
+                merged.addAll(added);
+                merged.sort((m1, m2) -> MealTimeline.compare(m1, m2.getTimestamp(), m2.getId()));
+                timeline = MealTimeline.of(merged);
+            }
+            newTimelines = newTimelines.with(entry.getKey(), timeline);
+        }
+        return new MealSnapshot(version + meals.size(), newTimelines, newById, bitmaps.withMeals(meals));
+    }
+
+    /**
+     * Adds all meals of a user at once, e.g. when they are loaded back into memory.
+     * @param username The user
+     * @param meals The user's meals, none of them in this snapshot
+     */
+    MealSnapshot withUserMealsAdded(String username, List<Meal> meals) {
+        if (!getTimeline(username).isEmpty()) {
+            MealSnapshot next = this;
+            for (Meal meal : meals) {
+                next = next.withMealAdded(meal);
+            }
+            return next;
+        }
+
+        List<Meal> sorted = new ArrayList<>(meals);
+        sorted.sort((m1, m2) -> MealTimeline.compare(m1, m2.getTimestamp(), m2.getId()));
+        MealIdIndex newById = byId;
+        for (Meal meal : sorted) {
+            newById = newById.with(meal);
+        }
+        return new MealSnapshot(version + 1, withTimeline(username, MealTimeline.of(sorted)), newById,
+                                bitmaps.withUser(username, sorted));
+    }
+
+    /**
+     * Removes all meals of a user at once, e.g. when they are evicted from memory.
+     */
+    MealSnapshot withUserMealsRemoved(String username) {
+        MealTimeline timeline = getTimeline(username);
+        if (timeline.isEmpty()) {
+            return this;
+        }
+
+        MealIdIndex newById = byId;
+        for (Meal meal : timeline) {
+            newById = newById.without(meal.getId());
+        }
+        return new MealSnapshot(version + 1, withTimeline(username, MealTimeline.EMPTY), newById,
+                                bitmaps.withoutUser(username));
+    }
+
+    private PersistentSortedMap<String, MealTimeline> withTimeline(String username, MealTimeline timeline) {
+        return timeline.isEmpty() ? timelines.without(username) : timelines.with(username, timeline);
+    }
+}
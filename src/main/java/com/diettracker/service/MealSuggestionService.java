@@ -0,0 +1,248 @@
+package com.diettracker.service;
+
+import com.diettracker.event.MealEvent;
+import com.diettracker.event.MealEventHandler;
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.model.MealSuggestion;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Service class for suggesting what to eat with the calories left today.
+ *
+ * Keeps per user and food how often it was logged and its average calories
+ * per unit and quantity, the user's typical portion. A suggestion picks
+ * up to a few portions of several of the user's most logged foods so that
+ * their calories come as close to the remaining budget as possible without
+ * going over: a bounded knapsack solved by dynamic programming over calorie
+ * buckets. Each bucket keeps only the best few combinations, preferring
+ * foods the user logs often, and combinations stop at a few foods, so a
+ * query costs well under a millisecond however long the history is.
+ *
+ * Updates arrive as meal events; methods are synchronized because queries
+ * and updates touch the same statistics.
+ */
+public class MealSuggestionService implements MealEventHandler {
+    // Most logged foods considered per suggestion
+    private static final int CANDIDATE_FOODS = 24;
+    private static final int MAX_PORTIONS = 3;
+    private static final int MAX_FOODS = 4;
+    // Budgets above this many calories are solved in coarser buckets
+    private static final int MAX_BUCKETS = 400;
+
+    private final Map<String, Map<String, FoodStats>> users = new HashMap<>();
+
+    /**
+     * Creates empty statistics; the stored meals are replayed into them as events.
+     */
+    public MealSuggestionService() {
+    }
+
+    /**
+     * Applies a meal change to the food statistics.
+     */
+    @Override
+    public synchronized void onEvent(MealEvent event, long sequence, boolean endOfBatch) {
+        switch (event.getType()) {
+            case ADDED:
+                addFoods(event.getMeal(), 1);
+                break;
+            case REMOVED:
+                addFoods(event.getMeal(), -1);
+                break;
+            case UPDATED:
+                addFoods(event.getPreviousMeal(), -1);
+                addFoods(event.getMeal(), 1);
+                break;
+        }
+    }
+
+    /**
+     * Suggests combinations of a user's usual foods for their remaining calories.
+     * @param username The username
+     * @param remainingCalories The calories left in the budget
+     * @param limit Maximum number of suggestions
+     * @return Suggestions closest to the budget first, none above it
+     */
+    public synchronized List<MealSuggestion> suggest(String username, int remainingCalories, int limit) {
+        List<MealSuggestion> suggestions = new ArrayList<>();
+        Map<String, FoodStats> foods = users.get(username);
+        if (foods == null || remainingCalories <= 0 || limit <= 0) {
+            return suggestions;
+        }
+
+        // Calories per bucket, so that a full knapsack never exceeds the budget
+        int bucketCalories = (remainingCalories + MAX_BUCKETS - 1) / MAX_BUCKETS;
+        int capacity = remainingCalories / bucketCalories;
+        List<FoodStats> candidates = new ArrayList<>(foods.values());
+        candidates.sort(Comparator.comparingLong((FoodStats stats) -> stats.count).reversed()
+                                  .thenComparing(stats -> stats.key));
+
+        // best[b]: the highest scoring combinations whose buckets add up to b
+        Combination[][] best = new Combination[capacity + 1][];
+        best[0] = new Combination[] {Combination.EMPTY};
+        int considered = 0;
+        for (FoodStats food : candidates) {
+            if (considered == CANDIDATE_FOODS) {
+                break;
+            }
+            int[] calories = new int[MAX_PORTIONS + 1];
+            int[] weights = new int[MAX_PORTIONS + 1];
+            for (int portions = 1; portions <= MAX_PORTIONS; portions++) {
+                calories[portions] = food.item(portions).getTotalCalories();
+                weights[portions] = Math.max(1, (calories[portions] + bucketCalories - 1) / bucketCalories);
+            }
+            if (calories[1] <= 0 || weights[1] > capacity) {
+                continue;
+            }
+            considered++;
+
+            // Downwards, so each bucket extends combinations without this food
+            double score = Math.log1p(food.count);
+            for (int b = capacity; b >= weights[1]; b--) {
+                for (int portions = 1; portions <= MAX_PORTIONS && weights[portions] <= b; portions++) {
+                    Combination[] from = best[b - weights[portions]];
+                    if (from == null) {
+                        continue;
+                    }
+                    for (Combination combination : from) {
+                        if (combination != null && combination.foods < MAX_FOODS) {
+                            best[b] = insert(best[b], new Combination(combination, food, portions,
+                                                                      calories[portions], score), limit);
+                        }
+                    }
+                }
+            }
+        }
+
+        // The fullest buckets hold the closest fits
+        List<Combination> fits = new ArrayList<>();
+        for (int b = capacity; b > 0 && fits.size() < limit; b--) {
+            if (best[b] != null) {
+                for (Combination combination : best[b]) {
+                    if (combination != null) {
+                        fits.add(combination);
+                    }
+                }
+            }
+        }
+        fits.sort(Comparator.comparingInt((Combination combination) -> combination.calories).reversed()
+                            .thenComparing(Comparator.comparingDouble(
+                                    (Combination combination) -> combination.score).reversed()));
+        for (Combination combination : fits.subList(0, Math.min(limit, fits.size()))) {
+            suggestions.add(combination.toSuggestion());
+        }
+        return suggestions;
+    }
+
+    /**
+     * Inserts a combination into a bucket's top list, kept sorted by score.
+     * @return The bucket's list, created if it was null
+     */
+    private static Combination[] insert(Combination[] top, Combination combination, int limit) {
+        if (top == null) {
+            top = new Combination[limit];
+        }
+        int index = top.length;
+        while (index > 0 && (top[index - 1] == null || top[index - 1].score < combination.score)) {
+            index--;
+        }
+        if (index < top.length) {
+            System.arraycopy(top, index, top, index + 1, top.length - index - 1);
+            top[index] = combination;
+        }
+        return top;
+    }
+
+    private void addFoods(Meal meal, int delta) {
+        Map<String, FoodStats> foods = users.computeIfAbsent(meal.getUsername(), u -> new HashMap<>());
+        for (FoodItem item : meal.getFoodItems()) {
+            String key = item.getName().trim().toLowerCase(Locale.ROOT);
+            FoodStats stats = foods.computeIfAbsent(key, FoodStats::new);
+            stats.add(item, delta);
+            if (stats.count <= 0) {
+                foods.remove(key);
+            }
+        }
+    }
+
+    /**
+     * How often a user logged one food, and in what portions.
+     */
+    private static final class FoodStats {
+        private final String key;
+        private String name;
+        private String unit;
+        private long count;
+        private double caloriesPerUnitSum;
+        private double quantitySum;
+
+        FoodStats(String key) {
+            this.key = key;
+        }
+
+        void add(FoodItem item, int delta) {
+            count += delta;
+            caloriesPerUnitSum += delta * (double) item.getCaloriesPerUnit();
+            quantitySum += delta * item.getQuantity();
+            if (delta > 0) {
+                name = item.getName();
+                unit = item.getUnit();
+            }
+        }
+
+        /**
+         * A number of typical portions of this food, quantities rounded to hundredths.
+         */
+        FoodItem item(int portions) {
+            double quantity = Math.round(quantitySum / count * portions * 100) / 100.0;
+            return new FoodItem(name, (int) Math.round(caloriesPerUnitSum / count), quantity, unit);
+        }
+    }
+
+    /**
+     * A combination of food portions, as a chain of foods added to a smaller combination.
+     */
+    private static final class Combination {
+        static final Combination EMPTY = new Combination();
+
+        private final Combination previous;
+        private final FoodStats food;
+        private final int portions;
+        private final int calories;
+        private final int foods;
+        // Sum of log(1 + times logged) over the foods: familiar foods and variety score higher
+        private final double score;
+
+        private Combination() {
+            this.previous = null;
+            this.food = null;
+            this.portions = 0;
+            this.calories = 0;
+            this.foods = 0;
+            this.score = 0;
+        }
+
+        Combination(Combination previous, FoodStats food, int portions, int calories, double score) {
+            this.previous = previous;
+            this.food = food;
+            this.portions = portions;
+            this.calories = previous.calories + calories;
+            this.foods = previous.foods + 1;
+            this.score = previous.score + score;
+        }
+
+        MealSuggestion toSuggestion() {
+            List<FoodItem> items = new ArrayList<>();
+            for (Combination combination = this; combination.food != null; combination = combination.previous) {
+                items.add(0, combination.food.item(combination.portions));
+            }
+            return new MealSuggestion(items);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable, persistent list of one user's meals ordered by (timestamp, id).
+ * Meals are stored in small chunks; an insert or removal copies only the
+ * affected chunk and the chunk directory and shares every other chunk with
+ * the previous version, so old versions stay valid for concurrent readers.
+ */
+final class MealTimeline implements Iterable<Meal> {
+    static final MealTimeline EMPTY = new MealTimeline(new Meal[0][], new int[0], 0);
+
+    private static final int MAX_CHUNK_SIZE = 64;
+
+    private final Meal[][] chunks;
+    private final int[] chunkStarts; // index of each chunk's first meal
+    private final int size;
+
+    private MealTimeline(Meal[][] chunks, int[] chunkStarts, int size) {
+        this.chunks = chunks;
+        this.chunkStarts = chunkStarts;
+        this.size = size;
+    }
+
+    /**
+     * Builds a timeline from meals already sorted by (timestamp, id).
+     * @param sortedMeals The meals
+     * @return The timeline
+     */
+    static MealTimeline of(List<Meal> sortedMeals) {
+        int chunkCount = (sortedMeals.size() + MAX_CHUNK_SIZE / 2 - 1) / (MAX_CHUNK_SIZE / 2);
+        Meal[][] chunks = new Meal[chunkCount][];
+        for (int c = 0; c < chunkCount; c++) {
+            int from = c * (MAX_CHUNK_SIZE / 2);
+            int to = Math.min(from + MAX_CHUNK_SIZE / 2, sortedMeals.size());
+            chunks[c] = sortedMeals.subList(from, to).toArray(new Meal[0]);
+        }
+        return withChunks(chunks);
+    }
+
+    /**
+     * Orders meals by timestamp, then id.
+     */
+    static int compare(Meal meal, LocalDateTime timestamp, long id) {
+        int result = meal.getTimestamp().compareTo(timestamp);
+        return result != 0 ? result : Long.compare(meal.getId(), id);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    Meal get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+        }
+        int chunk = chunkOf(index);
+        return chunks[chunk][index - chunkStarts[chunk]];
+    }
+
+    Meal last() {
+        return size == 0 ? null : get(size - 1);
+    }
+
+    /**
+     * Finds the first position whose meal sorts at or after (timestamp, id).
+     * @return Index between 0 and size
+     */
+    int lowerBound(LocalDateTime timestamp, long id) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(get(mid), timestamp, id) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the first position whose meal is at or after a point in time.
+     * @return Index between 0 and size
+     */
+    int lowerBound(LocalDateTime timestamp) {
+        return lowerBound(timestamp, Long.MIN_VALUE);
+    }
+
+    /**
+     * Copies the meals in [from, to) into a new list.
+     */
+    List<Meal> slice(int from, int to) {
+        List<Meal> result = new ArrayList<>(Math.max(to - from, 0));
+        for (int i = from; i < to; i++) {
+            result.add(get(i));
+        }
+        return result;
+    }
+
+    List<Meal> toList() {
+        return slice(0, size);
+    }
+
+    /**
+     * Returns a new version with the meal inserted in order.
+     */
+    MealTimeline insert(Meal meal) {
+        if (size == 0) {
+            return withChunks(new Meal[][]{{meal}});
+        }
+
+        int position = lowerBound(meal.getTimestamp(), meal.getId());
+        int chunk = position == size ? chunks.length - 1 : chunkOf(position);
+        Meal[] old = chunks[chunk];
+        int offset = position - chunkStarts[chunk];
+
+        Meal[] grown = new Meal[old.length + 1];
+        System.arraycopy(old, 0, grown, 0, offset);
+        grown[offset] = meal;
+        System.arraycopy(old, offset, grown, offset + 1, old.length - offset);
+
+        if (grown.length <= MAX_CHUNK_SIZE) {
+            Meal[][] newChunks = chunks.clone();
+            newChunks[chunk] = grown;
+            return withChunks(newChunks);
+        }
+
+        // Split a full chunk in two
+        int half = grown.length / 2;
+        Meal[][] newChunks = new Meal[chunks.length + 1][];
+        System.arraycopy(chunks, 0, newChunks, 0, chunk);
+        newChunks[chunk] = Arrays.copyOfRange(grown, 0, half);
+        newChunks[chunk + 1] = Arrays.copyOfRange(grown, half, grown.length);
+        System.arraycopy(chunks, chunk + 1, newChunks, chunk + 2, chunks.length - chunk - 1);
+        return withChunks(newChunks);
+    }
+
+    /**
+     * Returns a new version without the given meal, or this timeline if absent.
+     */
+    MealTimeline remove(Meal meal) {
+        int position = lowerBound(meal.getTimestamp(), meal.getId());
+        if (position == size || get(position).getId() != meal.getId()) {
+            return this;
+        }
+
+        int chunk = chunkOf(position);
+        Meal[] old = chunks[chunk];
+        int offset = position - chunkStarts[chunk];
+
+        if (old.length == 1) {
+            Meal[][] newChunks = new Meal[chunks.length - 1][];
+            System.arraycopy(chunks, 0, newChunks, 0, chunk);
+            System.arraycopy(chunks, chunk + 1, newChunks, chunk, chunks.length - chunk - 1);
+            return withChunks(newChunks);
+        }
+
+        Meal[] shrunk = new Meal[old.length - 1];
+        System.arraycopy(old, 0, shrunk, 0, offset);
+        System.arraycopy(old, offset + 1, shrunk, offset, old.length - offset - 1);
+        Meal[][] newChunks = chunks.clone();
+        newChunks[chunk] = shrunk;
+        return withChunks(newChunks);
+    }
+
+    /**
+     * Returns a new version with a meal swapped for its new state.
+     */
+    MealTimeline replace(Meal oldMeal, Meal newMeal) {
+        return remove(oldMeal).insert(newMeal);
+    }
+
+    @Override
+    public Iterator<Meal> iterator() {
+        return new Iterator<Meal>() {
+            private int chunk;
+            private int offset;
+
+            @Override
+            public boolean hasNext() {
+                return chunk < chunks.length;
+            }
+
+            @Override
+            public Meal next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Meal meal = chunks[chunk][offset++];
+                if (offset == chunks[chunk].length) {
+                    chunk++;
+                    offset = 0;
+                }
+                return meal;
+            }
+        };
+    }
+
+    private int chunkOf(int index) {
+        int position = Arrays.binarySearch(chunkStarts, index);
+        return position >= 0 ? position : -position - 2;
+    }
+
+    private static MealTimeline withChunks(Meal[][] chunks) {
+        int[] starts = new int[chunks.length];
+        int total = 0;
+        for (int c = 0; c < chunks.length; c++) {
+            starts[c] = total;
+            total += chunks[c].length;
+        }
+        return new MealTimeline(chunks, starts, total);
+    }
+}
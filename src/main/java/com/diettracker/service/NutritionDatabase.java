@@ -0,0 +1,347 @@
+package com.diettracker.service;
+
+import com.diettracker.model.FoodItem;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Read-only nutrition table used to pre-fill food items by name.
+ * The table is imported once from a CSV file into a binary file that is
+ * memory-mapped, so lookups never load the table onto the heap.
+ *
+ * Binary layout: a fixed header, an open-addressing hash table of record
+ * offsets, then the records themselves (normalized key, calories per unit,
+ * display name and unit).
+ */
+public class NutritionDatabase {
+    private static final String DATA_DIR = "data";
+    private static final String CSV_FILE = DATA_DIR + "/nutrition.csv";
+    private static final String DB_FILE = DATA_DIR + "/nutrition.db";
+
+    private static final int MAGIC = 0x4E555452; // "NUTR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int EMPTY_SLOT = -1;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final MappedByteBuffer buffer;
+    private final int recordCount;
+    private final int tableSize;
+
+    private NutritionDatabase(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a nutrition database file");
+        }
+        this.recordCount = buffer.getInt(8);
+        this.tableSize = buffer.getInt(12);
+    }
+
+    /**
+     * Opens the default nutrition database, importing data/nutrition.csv first
+     * if the binary file is missing or older than the CSV.
+     * @return The opened database, or null if no nutrition data is available
+     */
+    public static NutritionDatabase openDefault() {
+        File csv = new File(CSV_FILE);
+        File db = new File(DB_FILE);
+
+        if (csv.exists() && (!db.exists() || db.lastModified() < csv.lastModified())) {
+            importCsv(csv.toPath(), db.toPath());
+        }
+
+        if (!db.exists()) {
+            return null;
+        }
+        return open(db.toPath());
+    }
+
+    /**
+     * Memory-maps an existing nutrition database file.
+     * @param dbPath Path of the binary database
+     * @return The opened database, or null if it cannot be read
+     */
+    public static NutritionDatabase open(Path dbPath) {
+        try (FileChannel channel = FileChannel.open(dbPath, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new NutritionDatabase(mapped);
+        } catch (IOException e) {
+            System.err.println("Error opening nutrition database: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Imports a CSV nutrition table into the binary format.
+     * Each line is "name,caloriesPerUnit,unit"; fields may be quoted as in the
+     * CSV export, with doubled quotes inside, so names can hold commas. A
+     * header line and malformed lines, including quoted fields spanning
+     * lines, are skipped, and later duplicates replace earlier ones.
+     * @param csvPath Source CSV file
+     * @param dbPath Destination binary file
+     * @return Number of foods imported, or -1 on error
+     */
+    public static int importCsv(Path csvPath, Path dbPath) {
+        Map<String, byte[]> records = new LinkedHashMap<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(csvPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> parts = splitCsvLine(line);
+                if (parts == null || parts.size() < 3) {
+                    continue;
+                }
+                String name = parts.get(0).trim();
+                String key = normalize(name);
+                int calories = parseCalories(parts.get(1).trim());
+                if (key.isEmpty() || calories <= 0) {
+                    continue;
+                }
+                records.put(key, encodeRecord(key, calories, name, parts.get(2).trim()));
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading nutrition CSV: " + e.getMessage());
+            return -1;
+        }
+
+        try {
+            writeDatabase(records, dbPath);
+        } catch (IOException e) {
+            System.err.println("Error writing nutrition database: " + e.getMessage());
+            return -1;
+        }
+        return records.size();
+    }
+
+    /**
+     * Looks up a food by name.
+     * @param foodName The food name (case and surrounding whitespace are ignored)
+     * @return A food item with the stored calories and unit and a quantity of 1,
+     *         or null if the food is unknown
+     */
+    public FoodItem lookup(String foodName) {
+        if (foodName == null || recordCount == 0) {
+            return null;
+        }
+
+        byte[] key = normalize(foodName).getBytes(StandardCharsets.UTF_8);
+        int mask = tableSize - 1;
+        int slot = hash(key) & mask;
+
+        for (int probes = 0; probes < tableSize; probes++) {
+            int offset = buffer.getInt(HEADER_SIZE + slot * 4);
+            if (offset == EMPTY_SLOT) {
+                return null;
+            }
+            if (keyMatches(offset, key)) {
+                return decodeRecord(offset + 2 + key.length);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of foods in the database.
+     * @return Food count
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    private boolean keyMatches(int offset, byte[] key) {
+        int length = buffer.getShort(offset) & 0xFFFF;
+        if (length != key.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + 2 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private FoodItem decodeRecord(int position) {
+        int calories = buffer.getInt(position);
+        position += 4;
+        String name = readString(position);
+        position += 2 + (buffer.getShort(position) & 0xFFFF);
+        String unit = readString(position);
+        return new FoodItem(name, calories, 1.0, unit);
+    }
+
+    private String readString(int position) {
+        int length = buffer.getShort(position) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(position + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDatabase(Map<String, byte[]> records, Path dbPath) throws IOException {
+        int tableSize = 1;
+        while (tableSize < records.size() * 2) {
+            tableSize <<= 1;
+        }
+
+        int[] table = new int[tableSize];
+        Arrays.fill(table, EMPTY_SLOT);
+        List<byte[]> data = new ArrayList<>(records.size());
+        int offset = HEADER_SIZE + tableSize * 4;
+        int mask = tableSize - 1;
+
+        for (Map.Entry<String, byte[]> entry : records.entrySet()) {
+            int slot = hash(entry.getKey().getBytes(StandardCharsets.UTF_8)) & mask;
+            while (table[slot] != EMPTY_SLOT) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = offset;
+            data.add(entry.getValue());
+            offset += entry.getValue().length;
+        }
+
+        Path parent = dbPath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tempPath = dbPath.resolveSibling(dbPath.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+            out.putInt(MAGIC).putInt(VERSION).putInt(records.size()).putInt(tableSize);
+            for (int value : table) {
+                if (out.remaining() < 4) {
+                    flush(out, channel);
+                }
+                out.putInt(value);
+            }
+            for (byte[] record : data) {
+                if (out.remaining() < record.length) {
+                    flush(out, channel);
+                }
+                if (record.length > out.capacity()) {
+                    channel.write(ByteBuffer.wrap(record));
+                } else {
+                    out.put(record);
+                }
+            }
+            flush(out, channel);
+        }
+        Files.move(tempPath, dbPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void flush(ByteBuffer out, FileChannel channel) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    private static byte[] encodeRecord(String key, int calories, String name, String unit) {
+        byte[] keyBytes = truncate(key.getBytes(StandardCharsets.UTF_8));
+        byte[] nameBytes = truncate(name.getBytes(StandardCharsets.UTF_8));
+        byte[] unitBytes = truncate((unit.isEmpty() ? "grams" : unit).getBytes(StandardCharsets.UTF_8));
+
+        ByteBuffer record = ByteBuffer.allocate(2 + keyBytes.length + 4 +
+                                                2 + nameBytes.length + 2 + unitBytes.length);
+        record.putShort((short) keyBytes.length).put(keyBytes)
+              .putInt(calories)
+              .putShort((short) nameBytes.length).put(nameBytes)
+              .putShort((short) unitBytes.length).put(unitBytes);
+        return record.array();
+    }
+
+    private static byte[] truncate(byte[] bytes) {
+        return bytes.length <= 0xFFFF ? bytes : Arrays.copyOf(bytes, 0xFFFF);
+    }
+
+    /**
+     * Splits one CSV line into fields, honouring quoted fields.
+     * @return The fields, or null if a quote is left open or stray
+     */
+    private static List<String> splitCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        int i = 0;
+        while (true) {
+            if (i < line.length() && line.charAt(i) == '"') {
+                i++;
+                while (true) {
+                    if (i >= line.length()) {
+                        return null;
+                    }
+                    char c = line.charAt(i++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < line.length() && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (i < line.length() && line.charAt(i) != ',') {
+                    return null;
+                }
+            } else {
+                while (i < line.length() && line.charAt(i) != ',') {
+                    char c = line.charAt(i++);
+                    if (c == '"') {
+                        return null;
+                    }
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            field.setLength(0);
+            if (i >= line.length()) {
+                return fields;
+            }
+            i++; // the comma
+        }
+    }
+
+    private static int parseCalories(String value) {
+        try {
+            return (int) Math.round(Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Normalizes a food name for lookup: trimmed, lower case, single spaces.
+     */
+    private static String normalize(String name) {
+        return WHITESPACE.matcher(name.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * FNV-1a hash over the UTF-8 bytes of a normalized key.
+     */
+    private static int hash(byte[] key) {
+        int h = 0x811C9DC5;
+        for (byte b : key) {
+            h ^= (b & 0xFF);
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+}
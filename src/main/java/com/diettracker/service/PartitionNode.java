@@ -0,0 +1,286 @@
+package com.diettracker.service;
+
+import com.diettracker.model.CalorieRollup;
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.model.MealPage;
+import com.diettracker.model.User;
+import com.diettracker.util.AppConfig;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One node of a partitioned tracker: serves the users a PartitionRouter
+ * assigns to it, with their meals, from its own data directory.
+ *
+ * Usage: java -cp bin com.diettracker.service.PartitionNode [port]
+ *
+ * Listens on partition.host (default localhost); set it to an address
+ * routers on other machines can reach.
+ *
+ * Requests and responses are serialized objects on a TCP connection. A
+ * request is an Object[] holding the operation name followed by its
+ * arguments; the response is the operation's result, or the
+ * RuntimeException it threw. Both ends only deserialize the classes FILTER
+ * allows. Operations run on the connection's thread against the node's
+ * UserService and MealService, which handle concurrent callers themselves.
+ */
+public class PartitionNode {
+    private static final String HOST_SETTING = "partition.host";
+    private static final String PORT_SETTING = "partition.port";
+    private static final int DEFAULT_PORT = 7300;
+
+    /**
+     * Classes that nodes and routers deserialize: the model, TDigest, java.time
+     * values, collections, boxed values and the exceptions a node returns.
+     * Any other class in a stream is rejected before it is instantiated.
+     */
+    static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=20;com.diettracker.model.*;com.diettracker.util.TDigest;java.time.*;java.util.*;java.lang.*;!*");
+
+    // Operations
+    static final String REGISTER = "register";
+    static final String AUTHENTICATE = "authenticate";
+    static final String GET_USER = "getUser";
+    static final String UPDATE_GOAL = "updateGoal";
+    static final String DELETE_USER = "deleteUser";
+    static final String LIST_USERS = "listUsers";
+    static final String ADD_MEAL = "addMeal";
+    static final String REMOVE_MEAL = "removeMeal";
+    static final String USER_MEALS = "userMeals";
+    static final String HISTORY_PAGE = "historyPage";
+    static final String DAILY_LOG = "dailyLog";
+    static final String DAY_CALORIES = "dayCalories";
+    static final String STATISTICS = "statistics";
+    static final String CALORIE_HISTORY = "calorieHistory";
+    static final String CALORIE_DIGESTS = "calorieDigests";
+    static final String REPORT = "report";
+    static final String IMPORT_USER = "importUser";
+    static final String DROP_USER = "dropUser";
+
+    private final UserService userService;
+    private final MealService mealService;
+    private final AnalyticsService analyticsService;
+    private final InetSocketAddress address;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    /**
+     * Starts a node on the data directory of the working directory.
+     * @param args Optional port, overriding the partition.port setting
+     */
+    public static void main(String[] args) {
+        String host = AppConfig.getString(HOST_SETTING, "localhost");
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : AppConfig.getInt(PORT_SETTING, DEFAULT_PORT);
+        UserService userService = new UserService();
+        MealService mealService = new MealService(userService);
+        PartitionNode node = new PartitionNode(userService, mealService, new InetSocketAddress(host, port));
+        if (!node.start()) {
+            mealService.shutdown();
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            node.shutdown();
+            mealService.shutdown();
+        }));
+        System.out.println("Partition node serving " + userService.getAllUsers().size() + " users on " + host + ":" + port);
+    }
+
+    /**
+     * Creates a node over local services.
+     * @param userService The node's users
+     * @param mealService The node's meals
+     * @param address Address to listen on
+     */
+    public PartitionNode(UserService userService, MealService mealService, InetSocketAddress address) {
+        this.userService = userService;
+        this.mealService = mealService;
+        this.analyticsService = new AnalyticsService(userService, mealService);
+        this.address = address;
+    }
+
+    /**
+     * Starts accepting router connections.
+     * @return true if listening, false if the address cannot be bound
+     */
+    public synchronized boolean start() {
+        if (running) {
+            return true;
+        }
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(address);
+        } catch (IOException e) {
+            System.err.println("Error listening on " + address + ": " + e.getMessage());
+            return false;
+        }
+        running = true;
+        Thread acceptor = new Thread(this::acceptConnections, "partition-node");
+        acceptor.start();
+        return true;
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    public synchronized void shutdown() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            for (Socket socket : connections) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    private void acceptConnections() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.add(socket);
+                Thread thread = new Thread(() -> serve(socket), "partition-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error accepting router connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers one connection's requests in order until it closes.
+     */
+    private void serve(Socket socket) {
+        try (socket;
+             ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setTcpNoDelay(true);
+            output.flush();
+            ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            input.setObjectInputFilter(FILTER);
+            while (running) {
+                Object[] request = (Object[]) input.readObject();
+                Object response;
+                try {
+                    response = handle((String) request[0], request);
+                } catch (RuntimeException e) {
+                    response = e;
+                }
+                output.writeObject(response);
+                // Objects are sent afresh each time, not as references to earlier copies
+                output.reset();
+                output.flush();
+            }
+        } catch (EOFException e) {
+            // Router disconnected
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            if (running) {
+                System.err.println("Error serving router " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Runs one operation.
+     * @param operation The operation name
+     * @param request The request; arguments start at index 1
+     * @return The result, serializable
+     */
+    @SuppressWarnings("unchecked")
+    private Object handle(String operation, Object[] request) {
+        switch (operation) {
+            case REGISTER:
+                return userService.registerUser((String) request[1], (String) request[2]);
+            case AUTHENTICATE:
+                return userService.authenticateUser((String) request[1], (String) request[2]);
+            case GET_USER:
+                return userService.getUserByUsername((String) request[1]);
+            case UPDATE_GOAL:
+                return userService.updateCalorieGoal((String) request[1], (Integer) request[2]);
+            case DELETE_USER:
+                return userService.deleteUser((String) request[1]);
+            case LIST_USERS:
+                return new ArrayList<>(userService.getAllUsers());
+            case ADD_MEAL:
+                return mealService.addMeal((String) request[1], (Meal.MealType) request[2],
+                                           (List<FoodItem>) request[3]);
+            case REMOVE_MEAL: {
+                Meal meal = mealService.getMealById((Long) request[2]);
+                return meal != null && meal.getUsername().equals(request[1]) && mealService.removeMeal(meal.getId());
+            }
+            case USER_MEALS:
+                return new ArrayList<>(mealService.getMealsByUser((String) request[1]));
+            case HISTORY_PAGE:
+                return mealService.getMealHistoryPage((String) request[1], (MealPage.Cursor) request[2],
+                                                      (Integer) request[3], (Meal.MealType) request[4]);
+            case DAILY_LOG:
+                return mealService.createDailyLog((String) request[1], (LocalDate) request[2]);
+            case DAY_CALORIES:
+                return mealService.getTotalCaloriesForDate((String) request[1], (LocalDate) request[2]);
+            case STATISTICS:
+                return mealService.getMealStatistics((String) request[1], (Integer) request[2]);
+            case CALORIE_HISTORY:
+                return new ArrayList<>(mealService.getCalorieHistory((String) request[1],
+                        (CalorieRollup.Granularity) request[2], (LocalDate) request[3], (LocalDate) request[4]));
+            case CALORIE_DIGESTS:
+                return mealService.getCohortCalorieDigests((Collection<String>) request[1]);
+            case REPORT:
+                return analyticsService.computeReport((LocalDate) request[1], (LocalDate) request[2]);
+            case IMPORT_USER:
+                return importUser((User) request[1], (List<Meal>) request[2]);
+            case DROP_USER:
+                return dropUser((String) request[1]);
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+    /**
+     * Takes over a user moved from another node, replacing any copy from an
+     * earlier, interrupted move. Meals get new ids on this node.
+     * @return Number of meals imported
+     */
+    private int importUser(User user, List<Meal> meals) {
+        if (userService.getUserByUsername(user.getUsername()) == null) {
+            if (!userService.registerUser(user.getUsername(), user.getPassword())) {
+                throw new IllegalArgumentException("Cannot register " + user.getUsername());
+            }
+        } else {
+            mealService.removeUserMeals(user.getUsername());
+        }
+        userService.updateCalorieGoal(user.getUsername(), user.getDailyCalorieGoal());
+        return mealService.importMeals(meals);
+    }
+
+    /**
+     * Deletes a user that moved to another node, with all their meals.
+     * @return Number of meals removed
+     */
+    private int dropUser(String username) {
+        int removed = mealService.removeUserMeals(username);
+        userService.deleteUser(username);
+        return removed;
+    }
+}
@@ -0,0 +1,414 @@
+package com.diettracker.service;
+
+import com.diettracker.model.CalorieDistribution;
+import com.diettracker.model.CalorieRollup;
+import com.diettracker.model.DailyLog;
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.model.MealPage;
+import com.diettracker.model.PopulationReport;
+import com.diettracker.model.User;
+import com.diettracker.util.AppConfig;
+import com.diettracker.util.ConsistentHashRing;
+import com.diettracker.util.TDigest;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Service class fronting a partitioned tracker: each user, with all their
+ * meals, lives on one PartitionNode, chosen by consistent hashing of the
+ * username, and the router forwards each user's calls to that node.
+ * Cross-user analytics are sent to every node in parallel and the partial
+ * results merged.
+ *
+ * Meal ids are assigned by each node and only unique there, so meals are
+ * addressed by username and id; a user's meals get new ids when the user
+ * moves to another node.
+ *
+ * Adding a node moves only the users the ring now assigns to it, about
+ * 1 / (nodes + 1) of them, and blocks other calls while they move. A move
+ * that fails part way leaves the ring unchanged and can be retried: users
+ * already copied are copied again, replacing the partial copy.
+ */
+public class PartitionRouter {
+    private static final String NODES_SETTING = "partition.nodes";
+    private static final String VIRTUAL_NODES_SETTING = "partition.virtualNodes";
+    private static final int DEFAULT_VIRTUAL_NODES = 128;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final Map<String, NodeClient> clients = new HashMap<>();
+    private final ReadWriteLock routingLock = new ReentrantReadWriteLock();
+    private final ExecutorService fanOut = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "partition-fan-out");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ConsistentHashRing ring;
+
+    /**
+     * Creates a router over the nodes in the partition.nodes setting
+     * (comma-separated host:port addresses).
+     */
+    public PartitionRouter() {
+        this(Arrays.asList(AppConfig.getString(NODES_SETTING, "").split(",")),
+             AppConfig.getInt(VIRTUAL_NODES_SETTING, DEFAULT_VIRTUAL_NODES));
+    }
+
+    /**
+     * Creates a router over a set of nodes. The nodes must be listed the same
+     * way, in any order, wherever their data is routed.
+     * @param nodes Node addresses as host:port
+     * @param virtualNodes Ring points per node
+     */
+    public PartitionRouter(Collection<String> nodes, int virtualNodes) {
+        this.ring = new ConsistentHashRing(virtualNodes);
+        for (String node : nodes) {
+            if (!node.trim().isEmpty()) {
+                ring.addNode(node.trim());
+            }
+        }
+        if (ring.getNodes().isEmpty()) {
+            throw new IllegalArgumentException("No partition nodes configured");
+        }
+    }
+
+    /**
+     * Gets the node owning a user.
+     * @param username The username
+     * @return The node's address
+     */
+    public String getNode(String username) {
+        routingLock.readLock().lock();
+        try {
+            return ring.getNode(username);
+        } finally {
+            routingLock.readLock().unlock();
+        }
+    }
+
+    public List<String> getNodes() {
+        routingLock.readLock().lock();
+        try {
+            return ring.getNodes();
+        } finally {
+            routingLock.readLock().unlock();
+        }
+    }
+
+    // Calls routed to the user's node
+
+    public boolean registerUser(String username, String password) {
+        return (Boolean) callOwner(username, PartitionNode.REGISTER, username, password);
+    }
+
+    public User authenticateUser(String username, String password) {
+        return (User) callOwner(username, PartitionNode.AUTHENTICATE, username, password);
+    }
+
+    public User getUserByUsername(String username) {
+        return (User) callOwner(username, PartitionNode.GET_USER, username);
+    }
+
+    public boolean updateCalorieGoal(String username, int newGoal) {
+        return (Boolean) callOwner(username, PartitionNode.UPDATE_GOAL, username, newGoal);
+    }
+
+    public boolean deleteUser(String username) {
+        return (Boolean) callOwner(username, PartitionNode.DELETE_USER, username);
+    }
+
+    public boolean addMeal(String username, Meal.MealType mealType, List<FoodItem> foodItems) {
+        return (Boolean) callOwner(username, PartitionNode.ADD_MEAL, username, mealType,
+                                   foodItems == null ? null : new ArrayList<>(foodItems));
+    }
+
+    /**
+     * Removes one of a user's meals.
+     * @param username The username
+     * @param mealId The meal id on the user's node
+     * @return true if removed, false if the user has no such meal
+     */
+    public boolean removeMeal(String username, long mealId) {
+        return (Boolean) callOwner(username, PartitionNode.REMOVE_MEAL, username, mealId);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Meal> getMealsByUser(String username) {
+        return (List<Meal>) callOwner(username, PartitionNode.USER_MEALS, username);
+    }
+
+    public MealPage getMealHistoryPage(String username, MealPage.Cursor before, int limit, Meal.MealType mealType) {
+        return (MealPage) callOwner(username, PartitionNode.HISTORY_PAGE, username, before, limit, mealType);
+    }
+
+    public DailyLog createDailyLog(String username, LocalDate date) {
+        return (DailyLog) callOwner(username, PartitionNode.DAILY_LOG, username, date);
+    }
+
+    public int getTotalCaloriesForDate(String username, LocalDate date) {
+        return (Integer) callOwner(username, PartitionNode.DAY_CALORIES, username, date);
+    }
+
+    public double[] getMealStatistics(String username, int days) {
+        return (double[]) callOwner(username, PartitionNode.STATISTICS, username, days);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<CalorieRollup> getCalorieHistory(String username, CalorieRollup.Granularity granularity,
+                                                 LocalDate from, LocalDate to) {
+        return (List<CalorieRollup>) callOwner(username, PartitionNode.CALORIE_HISTORY, username, granularity, from, to);
+    }
+
+    // Calls fanned out to every node
+
+    /**
+     * Gets the users of every node.
+     * @return All users, grouped by node
+     */
+    @SuppressWarnings("unchecked")
+    public List<User> getAllUsers() {
+        List<User> users = new ArrayList<>();
+        callAll(node -> call(node, PartitionNode.LIST_USERS))
+                .values().forEach(result -> users.addAll((List<User>) result));
+        return users;
+    }
+
+    /**
+     * Gets how many users each node holds.
+     * @return Node address mapped to its user count, in ring order
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Integer> getUserCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        callAll(node -> call(node, PartitionNode.LIST_USERS))
+                .forEach((node, result) -> counts.put(node, ((List<User>) result).size()));
+        return counts;
+    }
+
+    /**
+     * Computes the population report on every node and merges the per-user metrics.
+     * @param from First date (inclusive)
+     * @param to Last date (inclusive)
+     * @return Report keyed by username for the date range
+     */
+    public PopulationReport computeReport(LocalDate from, LocalDate to) {
+        Map<String, PopulationReport.UserMetrics> metrics = new HashMap<>();
+        callAll(node -> call(node, PartitionNode.REPORT, from, to))
+                .values().forEach(result -> metrics.putAll(((PopulationReport) result).getUserMetrics()));
+        return new PopulationReport(from, to, metrics);
+    }
+
+    /**
+     * Gets the combined calorie distribution of a group of users, merging
+     * the digests of each node's share of the cohort.
+     * @param usernames The users in the cohort
+     * @return The merged calorie distribution
+     */
+    public CalorieDistribution getCohortCalorieDistribution(Collection<String> usernames) {
+        routingLock.readLock().lock();
+        try {
+            Map<String, List<String>> byNode = new HashMap<>();
+            for (String username : usernames) {
+                byNode.computeIfAbsent(ring.getNode(username), node -> new ArrayList<>()).add(username);
+            }
+            List<CompletableFuture<Object>> parts = new ArrayList<>();
+            byNode.forEach((node, members) -> parts.add(CompletableFuture.supplyAsync(
+                    () -> call(node, PartitionNode.CALORIE_DIGESTS, members), fanOut)));
+
+            TDigest meals = null;
+            TDigest days = null;
+            for (CompletableFuture<Object> part : parts) {
+                TDigest[] digests = (TDigest[]) part.join();
+                meals = meals == null ? digests[0] : meals.merge(digests[0]);
+                days = days == null ? digests[1] : days.merge(digests[1]);
+            }
+            if (meals == null) {
+                meals = QuantileService.newDigest();
+                days = QuantileService.newDigest();
+            }
+            return QuantileService.toDistribution(meals, days);
+        } finally {
+            routingLock.readLock().unlock();
+        }
+    }
+
+    // Rebalancing
+
+    /**
+     * Adds a node and moves the users it now owns to it from the other nodes.
+     * @param node The new node's address as host:port
+     * @return Number of users moved
+     */
+    @SuppressWarnings("unchecked")
+    public int addNode(String node) {
+        routingLock.writeLock().lock();
+        try {
+            ConsistentHashRing next = ring.copy();
+            if (!next.addNode(node)) {
+                return 0;
+            }
+
+            int moved = 0;
+            for (String source : ring.getNodes()) {
+                for (User user : (List<User>) call(source, PartitionNode.LIST_USERS)) {
+                    String username = user.getUsername();
+                    if (!next.getNode(username).equals(node)) {
+                        continue;
+                    }
+                    List<Meal> meals = (List<Meal>) call(source, PartitionNode.USER_MEALS, username);
+                    call(node, PartitionNode.IMPORT_USER, user, meals);
+                    call(source, PartitionNode.DROP_USER, username);
+                    moved++;
+                }
+            }
+            ring = next;
+            return moved;
+        } finally {
+            routingLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the connections to all nodes.
+     */
+    public void close() {
+        fanOut.shutdownNow();
+        synchronized (clients) {
+            clients.values().forEach(NodeClient::close);
+            clients.clear();
+        }
+    }
+
+    // Transport
+
+    private Object callOwner(String username, String operation, Object... arguments) {
+        if (username == null) {
+            throw new IllegalArgumentException("Username is required");
+        }
+        routingLock.readLock().lock();
+        try {
+            return call(ring.getNode(username), operation, arguments);
+        } finally {
+            routingLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs a call on every node in parallel.
+     * @return Node address mapped to its result, in ring order
+     */
+    private Map<String, Object> callAll(Function<String, Object> call) {
+        routingLock.readLock().lock();
+        try {
+            Map<String, CompletableFuture<Object>> pending = new LinkedHashMap<>();
+            for (String node : ring.getNodes()) {
+                pending.put(node, CompletableFuture.supplyAsync(() -> call.apply(node), fanOut));
+            }
+            Map<String, Object> results = new LinkedHashMap<>();
+            pending.forEach((node, result) -> results.put(node, result.join()));
+            return results;
+        } finally {
+            routingLock.readLock().unlock();
+        }
+    }
+
+    private Object call(String node, String operation, Object... arguments) {
+        NodeClient client;
+        synchronized (clients) {
+            client = clients.computeIfAbsent(node, NodeClient::new);
+        }
+        Object[] request = new Object[arguments.length + 1];
+        request[0] = operation;
+        System.arraycopy(arguments, 0, request, 1, arguments.length);
+        return client.call(request);
+    }
+
+    /**
+     * A connection to one node, opened on first use and reopened after a failure.
+     * Calls on it are serialized.
+     */
+    private static final class NodeClient {
+        private final String node;
+        private Socket socket;
+        private ObjectOutputStream output;
+        private ObjectInputStream input;
+
+        NodeClient(String node) {
+            this.node = node;
+        }
+
+        synchronized Object call(Object[] request) {
+            Object response;
+            try {
+                if (socket == null) {
+                    connect();
+                }
+                output.writeObject(request);
+                output.reset();
+                output.flush();
+                response = input.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                close();
+                throw new IllegalStateException("Partition node " + node + " unavailable: " + e.getMessage(), e);
+            }
+            if (response instanceof RuntimeException) {
+                throw new IllegalStateException("Partition node " + node + " failed " + request[0] + ": "
+                                                + ((RuntimeException) response).getMessage(),
+                                                (RuntimeException) response);
+            }
+            return response;
+        }
+
+        private void connect() throws IOException {
+            int colon = node.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IOException("Address must be host:port");
+            }
+            Socket connecting = new Socket();
+            try {
+                connecting.connect(new InetSocketAddress(node.substring(0, colon),
+                                                         Integer.parseInt(node.substring(colon + 1))),
+                                   CONNECT_TIMEOUT_MILLIS);
+                connecting.setTcpNoDelay(true);
+                output = new ObjectOutputStream(new BufferedOutputStream(connecting.getOutputStream()));
+                output.flush();
+                input = new ObjectInputStream(new BufferedInputStream(connecting.getInputStream()));
+                input.setObjectInputFilter(PartitionNode.FILTER);
+            } catch (IOException | RuntimeException e) {
+                connecting.close();
+                throw e;
+            }
+            socket = connecting;
+        }
+
+        synchronized void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+                socket = null;
+            }
+        }
+    }
+}
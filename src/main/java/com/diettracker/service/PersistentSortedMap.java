@@ -0,0 +1,301 @@
+package com.diettracker.service;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Immutable, persistent sorted map.
+ * An AVL tree: updates copy only the nodes on the path to the changed key,
+ * about log2(n) of them, and share every other node with the previous
+ * version, so old versions stay valid for concurrent readers.
+ */
+final class PersistentSortedMap<K extends Comparable<K>, V> {
+    private static final PersistentSortedMap<?, ?> EMPTY = new PersistentSortedMap<>(null, 0);
+
+    private final Node<K, V> root;
+    private final int size;
+
+    private PersistentSortedMap(Node<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K extends Comparable<K>, V> PersistentSortedMap<K, V> empty() {
+        return (PersistentSortedMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Builds a balanced map from keys in ascending order, in linear time.
+     * @param keys Distinct keys, sorted ascending
+     * @param values The value of each key, in the same order
+     */
+    static <K extends Comparable<K>, V> PersistentSortedMap<K, V> ofSorted(List<K> keys, List<V> values) {
+        return new PersistentSortedMap<>(build(keys, values, 0, keys.size()), keys.size());
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    V get(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp == 0) {
+                return node.value;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    K firstKey() {
+        if (root == null) {
+            throw new NoSuchElementException();
+        }
+        return first(root).key;
+    }
+
+    K lastKey() {
+        if (root == null) {
+            throw new NoSuchElementException();
+        }
+        Node<K, V> node = root;
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.key;
+    }
+
+    /**
+     * Returns a new version mapping the key to the value.
+     */
+    PersistentSortedMap<K, V> with(K key, V value) {
+        boolean existed = get(key) != null;
+        return new PersistentSortedMap<>(put(root, key, value), existed ? size : size + 1);
+    }
+
+    /**
+     * Returns a new version without the key, or this map if absent.
+     */
+    PersistentSortedMap<K, V> without(K key) {
+        if (get(key) == null) {
+            return this;
+        }
+        return new PersistentSortedMap<>(remove(root, key), size - 1);
+    }
+
+    /**
+     * Visits the entries with keys in an inclusive range, in key order.
+     */
+    void forEachInRange(K from, K to, BiConsumer<? super K, ? super V> action) {
+        forEachInRange(root, from, to, action);
+    }
+
+    /**
+     * Gets the keys in order, as a read-only view of this version.
+     */
+    Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new NodeIterator<>(root, node -> node.key);
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                @SuppressWarnings("unchecked")
+                K k = (K) key;
+                return key != null && get(k) != null;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Gets the values in key order, as a read-only view of this version.
+     */
+    Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new NodeIterator<>(root, node -> node.value);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static <K extends Comparable<K>, V> Node<K, V> put(Node<K, V> node, K key, V value) {
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+        int cmp = key.compareTo(node.key);
+        if (cmp == 0) {
+            return new Node<>(key, value, node.left, node.right);
+        }
+        return cmp < 0
+               ? balance(node.key, node.value, put(node.left, key, value), node.right)
+               : balance(node.key, node.value, node.left, put(node.right, key, value));
+    }
+
+    private static <K extends Comparable<K>, V> Node<K, V> remove(Node<K, V> node, K key) {
+        int cmp = key.compareTo(node.key);
+        if (cmp < 0) {
+            return balance(node.key, node.value, remove(node.left, key), node.right);
+        }
+        if (cmp > 0) {
+            return balance(node.key, node.value, node.left, remove(node.right, key));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node<K, V> successor = first(node.right);
+        return balance(successor.key, successor.value, node.left, removeFirst(node.right));
+    }
+
+    private static <K, V> Node<K, V> removeFirst(Node<K, V> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.key, node.value, removeFirst(node.left), node.right);
+    }
+
+    private static <K, V> Node<K, V> first(Node<K, V> node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private static <K, V> Node<K, V> build(List<K> keys, List<V> values, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        return new Node<>(keys.get(middle), values.get(middle),
+                          build(keys, values, from, middle), build(keys, values, middle + 1, to));
+    }
+
+    /**
+     * Builds a node from subtrees whose heights differ by at most two,
+     * rotating once or twice to restore the AVL balance.
+     */
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        if (leftHeight > rightHeight + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+            }
+            Node<K, V> pivot = left.right;
+            return new Node<>(pivot.key, pivot.value, new Node<>(left.key, left.value, left.left, pivot.left),
+                              new Node<>(key, value, pivot.right, right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+            }
+            Node<K, V> pivot = right.left;
+            return new Node<>(pivot.key, pivot.value, new Node<>(key, value, left, pivot.left),
+                              new Node<>(right.key, right.value, pivot.right, right.right));
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static <K extends Comparable<K>, V> void forEachInRange(Node<K, V> node, K from, K to,
+                                                                    BiConsumer<? super K, ? super V> action) {
+        if (node == null) {
+            return;
+        }
+        boolean afterFrom = from.compareTo(node.key) <= 0;
+        boolean beforeTo = to.compareTo(node.key) >= 0;
+        if (afterFrom) {
+            forEachInRange(node.left, from, to, action);
+        }
+        if (afterFrom && beforeTo) {
+            action.accept(node.key, node.value);
+        }
+        if (beforeTo) {
+            forEachInRange(node.right, from, to, action);
+        }
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final V value;
+        private final Node<K, V> left;
+        private final Node<K, V> right;
+        private final int height;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+        }
+    }
+
+    /**
+     * In-order walk over the nodes, keeping the path of unvisited ancestors.
+     */
+    private static final class NodeIterator<K, V, T> implements Iterator<T> {
+        private final Deque<Node<K, V>> path = new ArrayDeque<>();
+        private final Function<Node<K, V>, T> element;
+
+        NodeIterator(Node<K, V> root, Function<Node<K, V>, T> element) {
+            this.element = element;
+            descend(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<K, V> node = path.pop();
+            descend(node.right);
+            return element.apply(node);
+        }
+
+        private void descend(Node<K, V> node) {
+            for (; node != null; node = node.left) {
+                path.push(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.diettracker.service;
+
+import com.diettracker.event.MealEvent;
+import com.diettracker.event.MealEventHandler;
+import com.diettracker.model.CalorieDistribution;
+import com.diettracker.model.Meal;
+import com.diettracker.util.TDigest;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Service class for per-user calorie distributions.
+ * Maintains t-digest summaries of calories per meal and per completed day
+ * for every user, so percentiles are answered without sorting history.
+ *
+ * A day's total is folded into the daily summary once the day is over.
+ * Digests cannot forget values, so edits, removals and meals logged for an
+ * already completed day mark the user's summaries stale; they are rebuilt
+ * from the user's meals the next time they are read.
+ *
+ * Updates arrive as meal events. A rebuilt summary remembers the store
+ * version it was built from and ignores older events that it already
+ * includes. Methods are synchronized because reading a digest may compress
+ * its buffer.
+ *
+ * Summaries of users evicted from memory are dropped and count as stale
+ * until they are rebuilt.
+ */
+public class QuantileService implements MealEventHandler {
+    private static final double COMPRESSION = 100;
+
+    private Map<String, UserSummary> summaries;
+    private final Set<String> evicted = new HashSet<>();
+
+    /**
+     * Creates empty summaries; the stored meals are replayed into them as
+     * events. Their days are sealed when the summaries are first read.
+     */
+    public QuantileService() {
+        this.summaries = new HashMap<>();
+    }
+
+    /**
+     * Applies a meal change: additions are recorded, edits and removals mark
+     * the user's summaries stale.
+     */
+    @Override
+    public synchronized void onEvent(MealEvent event, long sequence, boolean endOfBatch) {
+        Meal meal = event.getMeal();
+        if (evicted.contains(meal.getUsername())) {
+            return;
+        }
+        UserSummary summary = summaries.computeIfAbsent(meal.getUsername(), u -> new UserSummary());
+        if (event.getVersion() <= summary.builtVersion) {
+            return;
+        }
+
+        if (event.getType() == MealEvent.Type.ADDED) {
+            if (summary.isSealed(meal.getTimestamp().toLocalDate())) {
+                summary.stale = true;
+            }
+            summary.record(meal, meal.getTotalCalories());
+        } else {
+            summary.stale = true;
+        }
+    }
+
+    /**
+     * Checks whether a user's summaries must be rebuilt before they are read.
+     * @param username The username
+     * @return true if stale, false otherwise
+     */
+    public synchronized boolean isStale(String username) {
+        UserSummary summary = summaries.get(username);
+        return evicted.contains(username) || (summary != null && summary.stale);
+    }
+
+    /**
+     * Drops a user's summaries; they are rebuilt when next read.
+     * @param username The username
+     */
+    public synchronized void evictUser(String username) {
+        summaries.remove(username);
+        evicted.add(username);
+    }
+
+    /**
+     * Rebuilds one user's summaries from their meals.
+     * @param username The username
+     * @param userMeals All of the user's meals as of the given store version
+     * @param version The store version the meals were read from
+     */
+    public synchronized void rebuildUser(String username, Collection<Meal> userMeals, long version) {
+        UserSummary existing = summaries.get(username);
+        if (existing != null && existing.builtVersion >= version) {
+            return;
+        }
+        evicted.remove(username);
+
+        UserSummary summary = new UserSummary();
+        summary.builtVersion = version;
+        int[] calories = MealCalories.totals(userMeals);
+        int i = 0;
+        for (Meal meal : userMeals) {
+            summary.record(meal, calories[i++]);
+        }
+        summary.sealDaysBefore(LocalDate.now());
+        summaries.put(username, summary);
+    }
+
+    /**
+     * Gets the calorie distribution of one or more users.
+     * Summaries of several users are merged into a cohort-level view.
+     * @param usernames The users (stale users must be rebuilt first)
+     * @return The distribution; percentiles are NaN when there is no data
+     */
+    public synchronized CalorieDistribution getDistribution(Collection<String> usernames) {
+        if (usernames.size() == 1) {
+            UserSummary summary = summaries.get(usernames.iterator().next());
+            if (summary != null) {
+                summary.sealDaysBefore(LocalDate.now());
+                return toDistribution(summary.mealCalories, summary.dailyCalories);
+            }
+        }
+        TDigest[] digests = getDigests(usernames);
+        return toDistribution(digests[0], digests[1]);
+    }
+
+    /**
+     * Merges the summaries of one or more users.
+     * @param usernames The users (stale users must be rebuilt first)
+     * @return New calories-per-meal and calories-per-day digests, in that order
+     */
+    public synchronized TDigest[] getDigests(Collection<String> usernames) {
+        LocalDate today = LocalDate.now();
+        TDigest meals = null;
+        TDigest days = null;
+
+        for (String username : usernames) {
+            UserSummary summary = summaries.get(username);
+            if (summary == null) {
+                continue;
+            }
+            summary.sealDaysBefore(today);
+            meals = meals == null ? summary.mealCalories.copy() : meals.merge(summary.mealCalories);
+            days = days == null ? summary.dailyCalories.copy() : days.merge(summary.dailyCalories);
+        }
+
+        if (meals == null) {
+            meals = newDigest();
+            days = newDigest();
+        }
+        return new TDigest[] {meals, days};
+    }
+
+    /**
+     * Creates an empty digest with the compression of the summaries.
+     * @return The digest
+     */
+    public static TDigest newDigest() {
+        return new TDigest(COMPRESSION);
+    }
+
+    /**
+     * Reads the percentiles of calories per meal and per day.
+     * @param meals Digest of calories per meal
+     * @param days Digest of calories per completed day
+     * @return The distribution; percentiles are NaN when there is no data
+     */
+    public static CalorieDistribution toDistribution(TDigest meals, TDigest days) {
+        return new CalorieDistribution(meals.size(), meals.quantile(0.5), meals.quantile(0.9), meals.quantile(0.99),
+                                       days.size(), days.quantile(0.5), days.quantile(0.9), days.quantile(0.99));
+    }
+
+    /**
+     * Summaries for one user.
+     */
+    private static class UserSummary {
+        private final TDigest mealCalories = new TDigest(COMPRESSION);
+        private final TDigest dailyCalories = new TDigest(COMPRESSION);
+        // Running totals of days that may still receive meals
+        private final TreeMap<LocalDate, Integer> openDays = new TreeMap<>();
+        private LocalDate sealedThrough;
+        private long builtVersion; // events up to this store version are included
+        private boolean stale;
+
+        void record(Meal meal, int calories) {
+            mealCalories.add(calories);
+            openDays.merge(meal.getTimestamp().toLocalDate(), calories, Integer::sum);
+        }
+
+        boolean isSealed(LocalDate date) {
+            return sealedThrough != null && !date.isAfter(sealedThrough);
+        }
+
+        void sealDaysBefore(LocalDate date) {
+            while (!openDays.isEmpty() && openDays.firstKey().isBefore(date)) {
+                Map.Entry<LocalDate, Integer> day = openDays.pollFirstEntry();
+                dailyCalories.add(day.getValue());
+                sealedThrough = day.getKey();
+            }
+            LocalDate yesterday = date.minusDays(1);
+            if (sealedThrough == null || sealedThrough.isBefore(yesterday)) {
+                sealedThrough = yesterday;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.diettracker.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The primary's ordered log of changes for followers, numbered from 1.
+ * Only the most recent entries are kept; a follower further behind than
+ * that is sent a full snapshot instead.
+ */
+final class ReplicationLog {
+    private final int capacity;
+    private final ArrayDeque<String> entries;
+    private long lastSequence;
+
+    /**
+     * @param capacity Number of recent entries kept
+     */
+    ReplicationLog(int capacity) {
+        this.capacity = capacity;
+        this.entries = new ArrayDeque<>(Math.min(capacity, 1024));
+    }
+
+    /**
+     * Appends an entry and wakes up waiting followers.
+     * @param entry The change, in the replication protocol's record format
+     * @return The entry's sequence
+     */
+    synchronized long append(String entry) {
+        if (entries.size() == capacity) {
+            entries.removeFirst();
+        }
+        entries.addLast(entry);
+        notifyAll();
+        return ++lastSequence;
+    }
+
+    synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Gets the entries after a sequence.
+     * @param after The last sequence already sent
+     * @return The entries after it, oldest first, or null if some were already dropped
+     */
+    synchronized List<String> since(long after) {
+        long first = lastSequence - entries.size() + 1;
+        if (after < first - 1 || after > lastSequence) {
+            return null;
+        }
+
+        int count = (int) (lastSequence - after);
+        List<String> result = new ArrayList<>(count);
+        Iterator<String> iterator = entries.iterator();
+        for (int skipped = entries.size() - count; skipped > 0; skipped--) {
+            iterator.next();
+        }
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    /**
+     * Waits until an entry after a sequence is appended.
+     * @param after The last sequence already sent
+     * @param timeoutMillis Maximum time to wait
+     */
+    synchronized void awaitAfter(long after, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (lastSequence <= after && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+}
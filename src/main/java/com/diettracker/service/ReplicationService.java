@@ -0,0 +1,608 @@
+package com.diettracker.service;
+
+import com.diettracker.event.MealChangeListener;
+import com.diettracker.event.UserChangeListener;
+import com.diettracker.model.Meal;
+import com.diettracker.model.ReplicationStatus;
+import com.diettracker.model.User;
+import com.diettracker.storage.Repositories;
+import com.diettracker.util.AppConfig;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Service class for leader/follower replication of user and meal changes.
+ *
+ * With replication.role=primary, every registration, user change and
+ * deletion and every meal addition, update and removal is appended to an
+ * ordered log, numbered from 1, as it becomes visible under the write lock
+ * UserService and MealService share, so a meal never precedes its user in
+ * the log. The log is streamed over TCP to the followers connected to
+ * replication.host and replication.port. With replication.role=follower,
+ * the service connects to that address, applies the changes through
+ * UserService and MealService and keeps serving reads; writes belong on
+ * the primary.
+ *
+ * The log carries every user's password, so both sides must share the
+ * secret replication.token; replication stays off without one. The protocol
+ * is line based (UTF-8). A follower opens with
+ * "FOLLOW,<epoch>,<sequence>,<token>": the primary run it follows, the last
+ * change it applied and the token. A follower with another token is
+ * answered "REFUSED" and disconnected. If the primary still holds every
+ * later change, it answers
+ * "RESUME,<epoch>"; otherwise (a new follower, a restarted primary or one
+ * too far behind) it sends "SNAPSHOT,<epoch>,<sequence>", one "U,<user>" line
+ * per user and one "M,<meal>" line per meal, and "END". Changes follow as
+ * "C,<sequence>,<kind>,<record>" with the kinds USER, USER_DELETED, MEAL and
+ * MEAL_REMOVED, in the users.txt and meals.txt record formats, and
+ * "H,<sequence>" heartbeats give the primary's latest sequence after each
+ * batch and every second while idle.
+ *
+ * A snapshot is read after its sequence is taken, so it may include some of
+ * the changes that follow it; applying a change twice is harmless, so they
+ * are simply replayed. Followers reconnect after a disconnect and resume
+ * after the last change they applied; with a persistent storage engine that
+ * position survives restarts in data/replication_state.txt.
+ */
+public class ReplicationService {
+    private static final String ROLE_SETTING = "replication.role";
+    private static final String HOST_SETTING = "replication.host";
+    private static final String PORT_SETTING = "replication.port";
+    private static final String LOG_SIZE_SETTING = "replication.logSize";
+    private static final String TOKEN_SETTING = "replication.token";
+    private static final String STATE_FILE = "data/replication_state.txt";
+    private static final int DEFAULT_PORT = 7070;
+    private static final int DEFAULT_LOG_SIZE = 100_000;
+    private static final long HEARTBEAT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final int APPLY_BATCH_SIZE = 1000;
+
+    // Record kinds of logged changes
+    private static final String USER = "USER";
+    private static final String USER_DELETED = "USER_DELETED";
+    private static final String MEAL = "MEAL";
+    private static final String MEAL_REMOVED = "MEAL_REMOVED";
+
+    private final UserService userService;
+    private final MealService mealService;
+    private final ReplicationStatus.Role role; // null if replication is off
+    private final InetSocketAddress address;
+    private final String token;
+    private final Path stateFile; // null if the follower's position is not kept
+    private volatile boolean running;
+
+    // Primary
+    private ReplicationLog log;
+    private long epoch;
+    private ServerSocket serverSocket;
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+
+    // Follower
+    private Thread follower;
+    private volatile Socket connection;
+    private volatile long primarySequence;
+    private volatile long appliedSequence;
+    private volatile long caughtUpAt = System.currentTimeMillis();
+
+    public ReplicationService(UserService userService, MealService mealService) {
+        this(userService, mealService, getConfiguredRole(),
+             new InetSocketAddress(AppConfig.getString(HOST_SETTING, "localhost"),
+                                   AppConfig.getInt(PORT_SETTING, DEFAULT_PORT)),
+             AppConfig.getString(TOKEN_SETTING, ""),
+             Repositories.getConfiguredEngine().equals(Repositories.MEMORY) ? null : Paths.get(STATE_FILE));
+    }
+
+    /**
+     * Creates a replication service for a given role and address.
+     * @param userService The user service
+     * @param mealService The meal service
+     * @param role The role, or null for no replication
+     * @param address Address the primary listens on and followers connect to
+     * @param token Secret the primary and its followers share
+     * @param stateFile File keeping a follower's position, or null to start over on every run
+     */
+    public ReplicationService(UserService userService, MealService mealService, ReplicationStatus.Role role,
+                              InetSocketAddress address, String token, Path stateFile) {
+        this.userService = userService;
+        this.mealService = mealService;
+        this.role = role;
+        this.address = address;
+        this.token = token == null ? "" : token;
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Gets the role set by the replication.role setting.
+     * @return The role, or null if the setting is absent or unknown
+     */
+    public static ReplicationStatus.Role getConfiguredRole() {
+        String role = AppConfig.getString(ROLE_SETTING, "").trim().toUpperCase(Locale.ROOT);
+        if (role.isEmpty()) {
+            return null;
+        }
+        try {
+            return ReplicationStatus.Role.valueOf(role);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown replication role '" + role + "', replication is off");
+            return null;
+        }
+    }
+
+    public boolean isFollower() {
+        return role == ReplicationStatus.Role.FOLLOWER;
+    }
+
+    /**
+     * Starts listening for followers, or following the primary. Call once.
+     * @return true if replication started, false if it is off, has no token or the primary cannot listen
+     */
+    public synchronized boolean start() {
+        if (role == null || running) {
+            return running;
+        }
+        if (token.isEmpty()) {
+            System.err.println("Replication needs the shared secret " + TOKEN_SETTING + ", replication is off");
+            return false;
+        }
+
+        if (role == ReplicationStatus.Role.PRIMARY) {
+            try {
+                serverSocket = new ServerSocket();
+                serverSocket.bind(address);
+            } catch (IOException e) {
+                System.err.println("Error listening for replication followers on " + address + ": "
+                                   + e.getMessage());
+                return false;
+            }
+            log = new ReplicationLog(Math.max(1, AppConfig.getInt(LOG_SIZE_SETTING, DEFAULT_LOG_SIZE)));
+            epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+            userService.addChangeListener(new UserChangeListener() {
+                @Override
+                public void userSaved(User user) {
+                    log.append(USER + "," + user);
+                }
+
+                @Override
+                public void userDeleted(String username) {
+                    log.append(USER_DELETED + "," + username);
+                }
+            });
+            // Both are called under the lock the services share, as each change becomes visible
+            mealService.addChangeListener(new MealChangeListener() {
+                @Override
+                public void mealSaved(Meal meal) {
+                    log.append(MEAL + "," + meal);
+                }
+
+                @Override
+                public void mealRemoved(Meal meal) {
+                    log.append(MEAL_REMOVED + "," + meal.getId());
+                }
+            });
+            running = true;
+            startThread(this::acceptFollowers, "replication-primary");
+        } else {
+            loadState();
+            running = true;
+            follower = startThread(this::follow, "replication-follower");
+        }
+        return true;
+    }
+
+    /**
+     * Stops replication and closes all connections.
+     */
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        closeQuietly(serverSocket);
+        followers.forEach(ReplicationService::closeQuietly);
+        closeQuietly(connection);
+        if (follower != null) {
+            follower.interrupt();
+            try {
+                follower.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Gets the replication state, including a follower's lag behind the primary.
+     * @return The status, or null if replication is off
+     */
+    public ReplicationStatus getStatus() {
+        if (role == null) {
+            return null;
+        }
+        if (role == ReplicationStatus.Role.PRIMARY) {
+            long sequence = log == null ? 0 : log.getLastSequence();
+            return new ReplicationStatus(role, true, followers.size(), sequence, sequence, 0);
+        }
+
+        boolean connected = connection != null;
+        long applied = appliedSequence;
+        long primary = Math.max(primarySequence, applied);
+        long lagMillis = connected && applied >= primary ? 0 : System.currentTimeMillis() - caughtUpAt;
+        return new ReplicationStatus(role, connected, 0, primary, applied, lagMillis);
+    }
+
+    // Primary
+
+    private void acceptFollowers() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                followers.add(socket);
+                startThread(() -> serveFollower(socket), "replication-" + socket.getRemoteSocketAddress());
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error accepting replication follower: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams changes to one follower until it disconnects.
+     */
+    private void serveFollower(Socket socket) {
+        try (socket;
+             BufferedReader reader = reader(socket);
+             PrintWriter writer = writer(socket)) {
+            socket.setTcpNoDelay(true);
+            String[] hello = split(reader.readLine(), 4);
+            if (hello == null || hello.length < 4 || !hello[0].equals("FOLLOW")) {
+                return;
+            }
+            if (!MessageDigest.isEqual(hello[3].getBytes(StandardCharsets.UTF_8),
+                                       token.getBytes(StandardCharsets.UTF_8))) {
+                writer.println("REFUSED");
+                writer.flush();
+                System.err.println("Refused replication follower " + socket.getRemoteSocketAddress()
+                                   + ": wrong " + TOKEN_SETTING);
+                return;
+            }
+
+            long sent = Long.parseLong(hello[2]);
+            if (Long.parseLong(hello[1]) == epoch && log.since(sent) != null) {
+                writer.println("RESUME," + epoch);
+            } else {
+                sent = sendSnapshot(writer);
+            }
+
+            while (running && !writer.checkError()) {
+                List<String> entries = log.since(sent);
+                if (entries == null) {
+                    // Fell out of the log while waiting on a slow connection
+                    sent = sendSnapshot(writer);
+                    continue;
+                }
+                for (String entry : entries) {
+                    writer.println("C," + (++sent) + "," + entry);
+                }
+                writer.println("H," + log.getLastSequence());
+                writer.flush();
+                log.awaitAfter(sent, HEARTBEAT_MILLIS);
+            }
+        } catch (IOException | NumberFormatException e) {
+            if (running) {
+                System.err.println("Replication follower " + socket.getRemoteSocketAddress() + " disconnected: "
+                                   + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(socket);
+        }
+    }
+
+    /**
+     * Sends every user and meal as of the log's latest sequence.
+     * @return The snapshot's sequence
+     */
+    private long sendSnapshot(PrintWriter writer) {
+        long sequence = log.getLastSequence();
+        writer.println("SNAPSHOT," + epoch + "," + sequence);
+        for (User user : userService.getAllUsers()) {
+            writer.println("U," + user);
+        }
+        for (Meal meal : mealService.getAllMeals()) {
+            writer.println("M," + meal);
+        }
+        writer.println("END");
+        return sequence;
+    }
+
+    // Follower
+
+    /**
+     * Follows the primary, reconnecting after each disconnect.
+     */
+    private void follow() {
+        boolean reported = false;
+        while (running) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address, READ_TIMEOUT_MILLIS);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                connection = socket;
+                reported = false;
+                readChanges(socket);
+            } catch (IOException | RuntimeException e) {
+                if (running && !reported) {
+                    System.err.println("Replication from " + address + " interrupted: " + e.getMessage()
+                                       + "; reconnecting");
+                    reported = true;
+                }
+            } finally {
+                connection = null;
+            }
+
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void readChanges(Socket socket) throws IOException {
+        BufferedReader reader = reader(socket);
+        PrintWriter writer = writer(socket);
+        writer.println("FOLLOW," + epoch + "," + appliedSequence + "," + token);
+        writer.flush();
+
+        ChangeBatch batch = new ChangeBatch();
+        String line;
+        while (running && (line = reader.readLine()) != null) {
+            String[] parts = split(line, 2);
+            switch (parts[0]) {
+                case "SNAPSHOT": {
+                    String[] header = split(line, 3);
+                    applySnapshot(reader);
+                    epoch = Long.parseLong(header[1]);
+                    appliedSequence = Long.parseLong(header[2]);
+                    saveState();
+                    break;
+                }
+                case "RESUME":
+                    break;
+                case "REFUSED":
+                    throw new IOException("refused by the primary, check " + TOKEN_SETTING);
+                case "C": {
+                    String[] change = split(line, 4);
+                    long sequence = Long.parseLong(change[1]);
+                    if (sequence != appliedSequence + batch.size + 1) {
+                        throw new IOException("Expected change " + (appliedSequence + batch.size + 1)
+                                              + ", got " + sequence);
+                    }
+                    batch.add(change[2], change[3]);
+                    if (batch.size >= APPLY_BATCH_SIZE || !reader.ready()) {
+                        applyBatch(batch);
+                    }
+                    break;
+                }
+                case "H":
+                    applyBatch(batch);
+                    primarySequence = Long.parseLong(parts[1]);
+                    if (appliedSequence >= primarySequence) {
+                        caughtUpAt = System.currentTimeMillis();
+                    }
+                    break;
+                default:
+                    throw new IOException("Unexpected replication message: " + parts[0]);
+            }
+        }
+        applyBatch(batch);
+    }
+
+    /**
+     * Makes local users and meals match a snapshot, deleting those it does not contain.
+     */
+    private void applySnapshot(BufferedReader reader) throws IOException {
+        List<User> users = new ArrayList<>();
+        List<Meal> meals = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null && !line.equals("END")) {
+            if (line.startsWith("U,")) {
+                users.add(parseUser(line.substring(2)));
+            } else if (line.startsWith("M,")) {
+                Meal meal = FileService.parseMeal(line.substring(2));
+                if (meal != null) {
+                    meals.add(meal);
+                }
+            }
+        }
+        if (line == null) {
+            throw new IOException("Snapshot ended early");
+        }
+
+        Set<String> usernames = new HashSet<>();
+        for (User user : users) {
+            userService.applyReplicatedUser(user);
+            usernames.add(user.getUsername());
+        }
+        for (User user : userService.getAllUsers()) {
+            if (!usernames.contains(user.getUsername())) {
+                userService.applyReplicatedUserDeletion(user.getUsername());
+            }
+        }
+
+        Set<Long> mealIds = new HashSet<>();
+        meals.forEach(meal -> mealIds.add(meal.getId()));
+        List<Long> removed = new ArrayList<>();
+        for (Meal meal : mealService.getAllMeals()) {
+            if (!mealIds.contains(meal.getId())) {
+                removed.add(meal.getId());
+            }
+        }
+        mealService.applyReplicatedChanges(meals, removed);
+    }
+
+    private void applyBatch(ChangeBatch batch) {
+        if (batch.size == 0) {
+            return;
+        }
+        batch.flushMeals();
+        appliedSequence += batch.size;
+        batch.size = 0;
+        if (appliedSequence >= primarySequence) {
+            caughtUpAt = System.currentTimeMillis();
+        }
+        saveState();
+    }
+
+    private void loadState() {
+        if (stateFile == null || !Files.exists(stateFile)) {
+            return;
+        }
+        try {
+            String[] state = split(Files.readString(stateFile).trim(), 2);
+            epoch = Long.parseLong(state[0]);
+            appliedSequence = Long.parseLong(state[1]);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error loading replication state: " + e.getMessage());
+        }
+    }
+
+    private void saveState() {
+        if (stateFile == null) {
+            return;
+        }
+        Path tempFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try {
+            Files.writeString(tempFile, epoch + "," + appliedSequence + System.lineSeparator());
+            Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Error saving replication state: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses a users.txt record; the password may contain commas.
+     */
+    private static User parseUser(String record) {
+        int first = record.indexOf(',');
+        int last = record.lastIndexOf(',');
+        if (first < 0 || last == first) {
+            throw new IllegalArgumentException("Malformed user record");
+        }
+        return new User(record.substring(0, first), record.substring(first + 1, last),
+                        Integer.parseInt(record.substring(last + 1)));
+    }
+
+    /**
+     * Changes received since the last apply. Meal changes are merged by id
+     * and applied together; user changes are applied in order as they arrive,
+     * which is safe because they never depend on meals.
+     */
+    private final class ChangeBatch {
+        private final Map<Long, Meal> savedMeals = new LinkedHashMap<>();
+        private final Set<Long> removedMeals = new LinkedHashSet<>();
+        private int size;
+
+        void add(String kind, String record) throws IOException {
+            switch (kind) {
+                case USER:
+                    userService.applyReplicatedUser(parseUser(record));
+                    break;
+                case USER_DELETED:
+                    userService.applyReplicatedUserDeletion(record);
+                    break;
+                case MEAL: {
+                    Meal meal = FileService.parseMeal(record);
+                    if (meal == null) {
+                        throw new IOException("Malformed meal record");
+                    }
+                    removedMeals.remove(meal.getId());
+                    savedMeals.put(meal.getId(), meal);
+                    break;
+                }
+                case MEAL_REMOVED: {
+                    long mealId = Long.parseLong(record);
+                    savedMeals.remove(mealId);
+                    removedMeals.add(mealId);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown change kind: " + kind);
+            }
+            size++;
+        }
+
+        void flushMeals() {
+            if (!savedMeals.isEmpty() || !removedMeals.isEmpty()) {
+                mealService.applyReplicatedChanges(new ArrayList<>(savedMeals.values()),
+                                                   new ArrayList<>(removedMeals));
+                savedMeals.clear();
+                removedMeals.clear();
+            }
+        }
+    }
+
+    // Helpers
+
+    private static Thread startThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static PrintWriter writer(Socket socket) throws IOException {
+        return new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Splits a line into at most a number of comma-separated fields.
+     * @return The fields, or null for a null line
+     */
+    private static String[] split(String line, int fields) {
+        return line == null ? null : line.split(",", fields);
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
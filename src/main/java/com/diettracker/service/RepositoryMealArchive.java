@@ -0,0 +1,95 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+import com.diettracker.model.MealQuery;
+import com.diettracker.storage.MealRepository;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.stream.Stream;
+
+/**
+ * Archive view of a meal repository that answers queries itself (QUERY),
+ * such as the SQL database. Meals leaving memory simply stay in the
+ * repository, and queries reaching past memory run as indexed repository
+ * queries instead of reading cold tier files.
+ */
+final class RepositoryMealArchive implements MealArchive {
+    private final MealRepository repository;
+    private final int hotDays; // 0 unless tiered
+    private final UserResidency residency; // null unless evicting users
+
+    RepositoryMealArchive(MealRepository repository, int hotDays, UserResidency residency) {
+        this.repository = repository;
+        this.hotDays = hotDays;
+        this.residency = residency;
+    }
+
+    @Override
+    public boolean storesCopies() {
+        return false;
+    }
+
+    /**
+     * Returns 0: every meal in the repository was loaded at startup.
+     */
+    @Override
+    public long getMaxId() {
+        return 0;
+    }
+
+    @Override
+    public boolean archive(Collection<Meal> meals) {
+        return true;
+    }
+
+    @Override
+    public boolean remove(Collection<Meal> meals) {
+        return true;
+    }
+
+    @Override
+    public Stream<Meal> scan(String username, LocalDate from, LocalDate to, boolean newestFirst) {
+        MealQuery.Builder query = MealQuery.builder().user(username).between(from, to);
+        if (newestFirst) {
+            query.newestFirst();
+        }
+        return repository.findMeals(query.build()).stream();
+    }
+
+    @Override
+    public Stream<Meal> scan(MealQuery query) {
+        return repository.findMeals(query).stream();
+    }
+
+    /**
+     * Checks whether a query reaches before the window or into the meals of users not in memory.
+     */
+    @Override
+    public boolean covers(MealQuery query) {
+        if (hotDays > 0) {
+            LocalDate firstHotDay = LocalDate.now().minusDays(hotDays - 1);
+            if (query.getFrom() == null || query.getFrom().isBefore(firstHotDay)) {
+                return true;
+            }
+        }
+        if (residency == null) {
+            return false;
+        }
+        // Without named users any user may have been evicted
+        return query.getUsernames().isEmpty()
+               || query.getUsernames().stream().anyMatch(username -> !residency.isResident(username));
+    }
+
+    @Override
+    public String describe(MealQuery query) {
+        return "Repository query: " + repository.describeQuery(query);
+    }
+
+    /**
+     * Loads every meal from the repository, which already includes the in-memory ones.
+     */
+    @Override
+    public Collection<Meal> withHotMeals(Collection<Meal> hotMeals) {
+        return repository.loadMeals();
+    }
+}
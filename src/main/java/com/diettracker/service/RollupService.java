@@ -0,0 +1,349 @@
+package com.diettracker.service;
+
+import com.diettracker.event.MealEvent;
+import com.diettracker.event.MealEventHandler;
+import com.diettracker.model.CalorieRollup;
+import com.diettracker.model.Meal;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Service class for maintaining persisted calorie rollups.
+ * Keeps per-user day, ISO-week and month totals up to date as meals are
+ * added, edited and removed, so long-range statistics read a handful of
+ * rollups instead of every meal.
+ *
+ * Updates arrive as meal events on a single consumer thread. At the end of
+ * each batch the rollups it changed are appended to a journal, so saving
+ * costs as much as the batch, not as all stored rollups. The journal is
+ * replayed on load and compacted into the rollup files once it outgrows
+ * them. Readers use concurrent maps of immutable rollups and never lock.
+ */
+public class RollupService implements MealEventHandler {
+    // Journal records before compaction is considered, however few rollups there are
+    private static final int DELTA_COMPACTION_THRESHOLD = 1024;
+    // Meals whose calories are computed together when verifying
+    private static final int VERIFY_CHUNK_MEALS = 4096;
+
+    // Rollups changed in the current batch, by granularity, user and period; consumer thread only
+    private final Map<String, CalorieRollup> changed = new LinkedHashMap<>();
+    private int journalRecords;
+    private int savedRollups;
+    // Set while the stored meals are replayed into empty rollups at startup
+    private boolean rebuilding;
+    private volatile Map<CalorieRollup.Granularity, ConcurrentMap<String, ConcurrentSkipListMap<LocalDate, CalorieRollup>>> rollups;
+
+    /**
+     * Loads the persisted rollups. When they are missing or do not cover the
+     * same number of meals they start empty instead, and must be rebuilt by
+     * replaying the stored meals as events and then calling finishRebuild.
+     * @param mealCount Number of stored meals
+     */
+    public RollupService(int mealCount) {
+        this.rollups = new EnumMap<>(CalorieRollup.Granularity.class);
+
+        boolean complete = true;
+        for (CalorieRollup.Granularity granularity : CalorieRollup.Granularity.values()) {
+            ConcurrentMap<String, ConcurrentSkipListMap<LocalDate, CalorieRollup>> byUser = new ConcurrentHashMap<>();
+            List<CalorieRollup> loaded = FileService.loadRollups(granularity);
+            if (loaded == null) {
+                complete = false;
+            } else {
+                for (CalorieRollup rollup : loaded) {
+                    byUser.computeIfAbsent(rollup.getUsername(), u -> new ConcurrentSkipListMap<>())
+                          .put(rollup.getPeriodStart(), rollup);
+                }
+                savedRollups += loaded.size();
+            }
+            rollups.put(granularity, byUser);
+        }
+        if (complete) {
+            List<CalorieRollup> deltas = FileService.loadRollupDeltas();
+            for (CalorieRollup rollup : deltas) {
+                put(rollups, rollup);
+            }
+            journalRecords = deltas.size();
+        }
+
+        // A crash between saving meals and saving rollups shows up as a count mismatch
+        if (!complete || !coversMealCount(mealCount)) {
+            for (CalorieRollup.Granularity granularity : CalorieRollup.Granularity.values()) {
+                rollups.put(granularity, new ConcurrentHashMap<>());
+            }
+            rebuilding = true;
+        } else if (journalRecords >= DELTA_COMPACTION_THRESHOLD) {
+            saveRollups();
+        }
+    }
+
+    /**
+     * Checks whether the rollups are waiting for the stored meals to be replayed.
+     * @return true if they must be rebuilt, false if they were loaded
+     */
+    public boolean isRebuilding() {
+        return rebuilding;
+    }
+
+    /**
+     * Saves rollups rebuilt from replayed meals in full.
+     */
+    public void finishRebuild() {
+        if (rebuilding) {
+            rebuilding = false;
+            changed.clear();
+            saveRollups();
+        }
+    }
+
+    /**
+     * Applies a meal change to the rollups, journaling the changed ones at the end of each batch.
+     */
+    @Override
+    public void onEvent(MealEvent event, long sequence, boolean endOfBatch) {
+        Meal meal = event.getMeal();
+        LocalDate date = meal.getTimestamp().toLocalDate();
+
+        switch (event.getType()) {
+            case ADDED:
+                apply(meal.getUsername(), date, 1, meal.getTotalCalories());
+                break;
+            case REMOVED:
+                apply(meal.getUsername(), date, -1, -meal.getTotalCalories());
+                break;
+            case UPDATED:
+                apply(meal.getUsername(), date, 0,
+                      meal.getTotalCalories() - event.getPreviousMeal().getTotalCalories());
+                break;
+        }
+
+        if (endOfBatch) {
+            saveChanges();
+        }
+    }
+
+    /**
+     * Gets a user's rollups of one granularity for the periods overlapping a date range.
+     * @param username The username
+     * @param granularity The rollup granularity
+     * @param from First date (inclusive)
+     * @param to Last date (inclusive)
+     * @return Rollups ordered by period, skipping periods without meals
+     */
+    public List<CalorieRollup> getRollups(String username, CalorieRollup.Granularity granularity,
+                                          LocalDate from, LocalDate to) {
+        ConcurrentSkipListMap<LocalDate, CalorieRollup> userRollups = rollups.get(granularity).get(username);
+        if (userRollups == null || from.isAfter(to)) {
+            return new ArrayList<>();
+        }
+
+        NavigableMap<LocalDate, CalorieRollup> range =
+                userRollups.subMap(granularity.periodStart(from), true, to, true);
+        return new ArrayList<>(range.values());
+    }
+
+    /**
+     * Sums a user's meals and calories over a date range. Whole months inside
+     * the range are read from month rollups, whole weeks left over from week
+     * rollups and only the remaining days at the edges from day rollups.
+     * @param username The username
+     * @param from First date (inclusive)
+     * @param to Last date (inclusive)
+     * @return Array with [total meals, total calories]
+     */
+    public int[] getTotals(String username, LocalDate from, LocalDate to) {
+        Map<CalorieRollup.Granularity, ConcurrentMap<String, ConcurrentSkipListMap<LocalDate, CalorieRollup>>> current = rollups;
+        ConcurrentSkipListMap<LocalDate, CalorieRollup> days = current.get(CalorieRollup.Granularity.DAY).get(username);
+        ConcurrentSkipListMap<LocalDate, CalorieRollup> weeks = current.get(CalorieRollup.Granularity.WEEK).get(username);
+        ConcurrentSkipListMap<LocalDate, CalorieRollup> months = current.get(CalorieRollup.Granularity.MONTH).get(username);
+        int[] totals = new int[2];
+        if (days == null || weeks == null || months == null || from.isAfter(to)) {
+            return totals;
+        }
+
+        // Only walk the days that can have meals
+        LocalDate first = days.ceilingKey(from);
+        LocalDate last = days.floorKey(to);
+        if (first == null || last == null || first.isAfter(last)) {
+            return totals;
+        }
+        LocalDate date = first;
+        while (!date.isAfter(last)) {
+            LocalDate monthEnd = date.plusMonths(1).minusDays(1);
+            if (date.getDayOfMonth() == 1 && !monthEnd.isAfter(to)) {
+                add(totals, months.get(date));
+                date = date.plusMonths(1);
+            } else if (date.getDayOfWeek() == DayOfWeek.MONDAY && !date.plusDays(6).isAfter(to)) {
+                add(totals, weeks.get(date));
+                date = date.plusWeeks(1);
+            } else {
+                add(totals, days.get(date));
+                date = date.plusDays(1);
+            }
+        }
+        return totals;
+    }
+
+    private static void add(int[] totals, CalorieRollup rollup) {
+        if (rollup != null) {
+            totals[0] += rollup.getMealCount();
+            totals[1] += rollup.getTotalCalories();
+        }
+    }
+
+    /**
+     * Rebuilds all rollups from scratch and replaces the current ones.
+     * Must not run while meal events are still being applied.
+     * @param meals All stored meals
+     * @return true if the existing rollups already matched, false if they were repaired
+     */
+    public boolean verify(Collection<Meal> meals) {
+        Map<CalorieRollup.Granularity, ConcurrentMap<String, ConcurrentSkipListMap<LocalDate, CalorieRollup>>> previous = rollups;
+        rebuild(meals);
+        return previous.equals(rollups);
+    }
+
+    private void rebuild(Collection<Meal> meals) {
+        Map<CalorieRollup.Granularity, ConcurrentMap<String, ConcurrentSkipListMap<LocalDate, CalorieRollup>>> rebuilt =
+                new EnumMap<>(CalorieRollup.Granularity.class);
+        for (CalorieRollup.Granularity granularity : CalorieRollup.Granularity.values()) {
+            rebuilt.put(granularity, new ConcurrentHashMap<>());
+        }
+
+        // Calories are computed a chunk at a time, never as columns of the whole history
+        List<Meal> chunk = new ArrayList<>(VERIFY_CHUNK_MEALS);
+        for (Meal meal : meals) {
+            chunk.add(meal);
+            if (chunk.size() == VERIFY_CHUNK_MEALS) {
+                applyChunk(rebuilt, chunk);
+            }
+        }
+        applyChunk(rebuilt, chunk);
+        // Publish the finished rebuild in one step
+        rollups = rebuilt;
+        changed.clear();
+        saveRollups();
+    }
+
+    private static void applyChunk(Map<CalorieRollup.Granularity, ConcurrentMap<String, ConcurrentSkipListMap<LocalDate, CalorieRollup>>> target,
+                                   List<Meal> chunk) {
+        int[] calories = MealCalories.totals(chunk);
+        for (int i = 0; i < chunk.size(); i++) {
+            Meal meal = chunk.get(i);
+            apply(target, meal.getUsername(), meal.getTimestamp().toLocalDate(), 1, calories[i]);
+        }
+        chunk.clear();
+    }
+
+    private void apply(String username, LocalDate date, int mealDelta, int calorieDelta) {
+        for (CalorieRollup.Granularity granularity : CalorieRollup.Granularity.values()) {
+            CalorieRollup rollup = apply(rollups, username, date, mealDelta, calorieDelta, granularity);
+            if (!rebuilding) {
+                changed.put(granularity.name() + "," + username + "," + rollup.getPeriodStart(), rollup);
+            }
+        }
+    }
+
+    private static void apply(Map<CalorieRollup.Granularity, ConcurrentMap<String, ConcurrentSkipListMap<LocalDate, CalorieRollup>>> target,
+                              String username, LocalDate date, int mealDelta, int calorieDelta) {
+        for (CalorieRollup.Granularity granularity : CalorieRollup.Granularity.values()) {
+            apply(target, username, date, mealDelta, calorieDelta, granularity);
+        }
+    }
+
+    /**
+     * Applies a change to one granularity's rollup.
+     * @return The updated rollup, empty if its period no longer has meals
+     */
+    private static CalorieRollup apply(Map<CalorieRollup.Granularity, ConcurrentMap<String, ConcurrentSkipListMap<LocalDate, CalorieRollup>>> target,
+                                       String username, LocalDate date, int mealDelta, int calorieDelta,
+                                       CalorieRollup.Granularity granularity) {
+        ConcurrentSkipListMap<LocalDate, CalorieRollup> userRollups =
+                target.get(granularity).computeIfAbsent(username, u -> new ConcurrentSkipListMap<>());
+        LocalDate periodStart = granularity.periodStart(date);
+
+        CalorieRollup rollup = userRollups.getOrDefault(periodStart,
+                new CalorieRollup(username, granularity, periodStart)).plus(mealDelta, calorieDelta);
+        put(target, rollup);
+        return rollup;
+    }
+
+    /**
+     * Stores a rollup in place of the one for its period, or removes that one if the rollup is empty.
+     */
+    private static void put(Map<CalorieRollup.Granularity, ConcurrentMap<String, ConcurrentSkipListMap<LocalDate, CalorieRollup>>> target,
+                            CalorieRollup rollup) {
+        ConcurrentMap<String, ConcurrentSkipListMap<LocalDate, CalorieRollup>> byUser = target.get(rollup.getGranularity());
+        if (rollup.isEmpty()) {
+            ConcurrentSkipListMap<LocalDate, CalorieRollup> userRollups = byUser.get(rollup.getUsername());
+            if (userRollups != null) {
+                userRollups.remove(rollup.getPeriodStart());
+                if (userRollups.isEmpty()) {
+                    byUser.remove(rollup.getUsername());
+                }
+            }
+        } else {
+            byUser.computeIfAbsent(rollup.getUsername(), u -> new ConcurrentSkipListMap<>())
+                  .put(rollup.getPeriodStart(), rollup);
+        }
+    }
+
+    private boolean coversMealCount(int mealCount) {
+        for (ConcurrentMap<String, ConcurrentSkipListMap<LocalDate, CalorieRollup>> byUser : rollups.values()) {
+            int covered = 0;
+            for (ConcurrentSkipListMap<LocalDate, CalorieRollup> userRollups : byUser.values()) {
+                for (CalorieRollup rollup : userRollups.values()) {
+                    covered += rollup.getMealCount();
+                }
+            }
+            if (covered != mealCount) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Journals the rollups changed since the last batch, compacting the
+     * journal once it holds more records than the rollup files, so the cost
+     * of rewriting them is spread over at least as many changes.
+     */
+    private void saveChanges() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        FileService.appendRollupDeltas(changed.values());
+        journalRecords += changed.size();
+        changed.clear();
+        if (journalRecords >= Math.max(DELTA_COMPACTION_THRESHOLD, savedRollups)) {
+            saveRollups();
+        }
+    }
+
+    /**
+     * Rewrites the rollup files and clears the journal they now include.
+     */
+    private void saveRollups() {
+        int saved = 0;
+        for (CalorieRollup.Granularity granularity : CalorieRollup.Granularity.values()) {
+            List<CalorieRollup> all = new ArrayList<>();
+            for (ConcurrentSkipListMap<LocalDate, CalorieRollup> userRollups : rollups.get(granularity).values()) {
+                all.addAll(userRollups.values());
+            }
+            FileService.saveRollups(granularity, all);
+            saved += all.size();
+        }
+        FileService.clearRollupDeltas();
+        journalRecords = 0;
+        savedRollups = saved;
+    }
+}
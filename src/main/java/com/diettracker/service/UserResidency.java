@@ -0,0 +1,175 @@
+package com.diettracker.service;
+
+import com.diettracker.model.Meal;
+import com.diettracker.model.ResidencyStats;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bookkeeping of which users have their meals in memory.
+ * Users are kept in least-recently-used order with the time of their last
+ * access and an estimate of the heap their meals take. MealService asks
+ * which users are idle or must go to get back under the heap budget, and
+ * performs the loads and evictions itself.
+ */
+final class UserResidency {
+    // Rough heap cost of a meal with its timestamp, list and index entries, and of one food item
+    private static final long MEAL_BYTES = 240;
+    private static final long FOOD_ITEM_BYTES = 120;
+
+    private final long idleNanos; // 0: users never become idle
+    private final long budgetBytes; // 0: no budget
+    private final LinkedHashMap<String, Entry> users = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentMeals;
+    private long residentBytes;
+    private long hits;
+    private long loads;
+    private long idleEvictions;
+    private long budgetEvictions;
+
+    UserResidency(long idleMinutes, long budgetBytes) {
+        this.idleNanos = TimeUnit.MINUTES.toNanos(idleMinutes);
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Estimates the heap held by a meal in the snapshot.
+     */
+    static long estimateBytes(Meal meal) {
+        long bytes = MEAL_BYTES + 2L * meal.getUsername().length();
+        return bytes + meal.getFoodItemsView().size() * FOOD_ITEM_BYTES;
+    }
+
+    /**
+     * Records an access to a user's meals.
+     * @return true if the user is resident, false if the meals must be loaded first
+     */
+    synchronized boolean touch(String username) {
+        Entry entry = users.get(username);
+        if (entry == null) {
+            return false;
+        }
+        entry.lastAccess = System.nanoTime();
+        hits++;
+        return true;
+    }
+
+    synchronized boolean isResident(String username) {
+        return users.containsKey(username);
+    }
+
+    /**
+     * Marks a user resident with the meals now in memory.
+     * @param username The username
+     * @param meals The user's meals in memory
+     * @param fromDisk true if they were just loaded, false if they were already in memory at startup
+     */
+    synchronized void loaded(String username, Collection<Meal> meals, boolean fromDisk) {
+        Entry entry = new Entry();
+        for (Meal meal : meals) {
+            entry.add(meal, 1);
+        }
+        Entry previous = users.put(username, entry);
+        if (previous != null) {
+            residentMeals -= previous.meals;
+            residentBytes -= previous.bytes;
+        }
+        residentMeals += entry.meals;
+        residentBytes += entry.bytes;
+        if (fromDisk) {
+            loads++;
+        }
+    }
+
+    synchronized void mealAdded(Meal meal) {
+        resize(meal, 1);
+    }
+
+    synchronized void mealRemoved(Meal meal) {
+        resize(meal, -1);
+    }
+
+    private void resize(Meal meal, int sign) {
+        // Not an access: imports and replication must not keep a user resident
+        Entry entry = users.get(meal.getUsername());
+        if (entry != null) {
+            entry.add(meal, sign);
+            residentMeals += sign;
+            residentBytes += sign * estimateBytes(meal);
+        }
+    }
+
+    synchronized void evicted(String username, boolean idle) {
+        Entry entry = users.remove(username);
+        if (entry == null) {
+            return;
+        }
+        residentMeals -= entry.meals;
+        residentBytes -= entry.bytes;
+        if (idle) {
+            idleEvictions++;
+        } else {
+            budgetEvictions++;
+        }
+    }
+
+    /**
+     * Gets users not accessed within the idle time, least recently used first.
+     */
+    synchronized List<String> idleUsers() {
+        List<String> idle = new ArrayList<>();
+        if (idleNanos <= 0) {
+            return idle;
+        }
+        long now = System.nanoTime();
+        for (Map.Entry<String, Entry> user : users.entrySet()) {
+            if (now - user.getValue().lastAccess > idleNanos) {
+                idle.add(user.getKey());
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * Gets the least recently used users whose eviction brings resident
+     * meals back under the heap budget.
+     * @param keep A user never to pick, e.g. the one just loaded, or null
+     */
+    synchronized List<String> usersOverBudget(String keep) {
+        List<String> victims = new ArrayList<>();
+        if (budgetBytes <= 0) {
+            return victims;
+        }
+        long bytes = residentBytes;
+        for (Map.Entry<String, Entry> user : users.entrySet()) {
+            if (bytes <= budgetBytes) {
+                break;
+            }
+            if (!user.getKey().equals(keep)) {
+                victims.add(user.getKey());
+                bytes -= user.getValue().bytes;
+            }
+        }
+        return victims;
+    }
+
+    synchronized ResidencyStats getStats() {
+        return new ResidencyStats(users.size(), residentMeals, residentBytes, budgetBytes,
+                                  hits, loads, idleEvictions, budgetEvictions);
+    }
+
+    private static final class Entry {
+        private long lastAccess = System.nanoTime();
+        private long meals;
+        private long bytes;
+
+        void add(Meal meal, int sign) {
+            meals += sign;
+            bytes += sign * estimateBytes(meal);
+        }
+    }
+}
@@ -1,18 +1,54 @@
 package com.diettracker.service;
 
+import com.diettracker.event.UserChangeListener;
 import com.diettracker.model.User;
+import com.diettracker.storage.Repositories;
+import com.diettracker.storage.StorageCapability;
+import com.diettracker.storage.UserRepository;
+import com.diettracker.util.ValidationUtil;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Service class for managing user-related operations.
  * Handles user registration, authentication, and profile management.
  */
 public class UserService {
+    private final UserRepository repository;
+    private final List<UserChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // Shared with MealService, so user and meal changes reach listeners in the order they became visible
+    private final ReentrantLock writeLock = new ReentrantLock();
     private List<User> users;
     
     public UserService() {
-        this.users = FileService.loadUsers();
+        this(Repositories.openUsers());
+    }
+    
+    /**
+     * Creates the service on a given storage backend.
+     * @param repository The user repository
+     */
+    public UserService(UserRepository repository) {
+        this.repository = repository;
+        // Copied on write, so replication can apply changes while users are read
+        this.users = new CopyOnWriteArrayList<>(repository.loadUsers());
+    }
+    
+    /**
+     * Gets the lock held while users change and listeners are told.
+     */
+    ReentrantLock getWriteLock() {
+        return writeLock;
+    }
+    
+    /**
+     * Registers a listener for user registrations, changes and deletions.
+     * @param listener The listener
+     */
+    public void addChangeListener(UserChangeListener listener) {
+        listeners.add(listener);
     }
     
     /**
@@ -22,20 +58,30 @@ public class UserService {
      * @return true if registration successful, false if username already exists
      */
     public boolean registerUser(String username, String password) {
-        if (username == null || username.trim().isEmpty() || 
-            password == null || password.trim().isEmpty()) {
-            return false;
-        }
-        
-        // Check if username already exists
-        if (getUserByUsername(username) != null) {
-            return false;
+        writeLock.lock();
+        try {
+            if (username == null || username.trim().isEmpty() || 
+                password == null || password.trim().isEmpty()) {
+                return false;
+            }
+            
+            // Check if username already exists
+            if (getUserByUsername(username) != null) {
+                return false;
+            }
+            
+            User newUser = new User(username.trim(), password.trim());
+            users.add(newUser);
+            if (repository.supports(StorageCapability.APPEND)) {
+                repository.addUser(newUser);
+            } else {
+                saveUsers();
+            }
+            listeners.forEach(listener -> listener.userSaved(newUser));
+            return true;
+        } finally {
+            writeLock.unlock();
         }
-        
-        User newUser = new User(username.trim(), password.trim());
-        users.add(newUser);
-        saveUsers();
-        return true;
     }
     
     /**
@@ -83,18 +129,23 @@ public class UserService {
      * @return true if update successful, false otherwise
      */
     public boolean updateCalorieGoal(String username, int newGoal) {
-        if (newGoal <= 0) {
+        writeLock.lock();
+        try {
+            if (newGoal <= 0) {
+                return false;
+            }
+            
+            User user = getUserByUsername(username);
+            if (user != null) {
+                user.setDailyCalorieGoal(newGoal);
+                saveUser(user);
+                return true;
+            }
+            
             return false;
+        } finally {
+            writeLock.unlock();
         }
-        
-        User user = getUserByUsername(username);
-        if (user != null) {
-            user.setDailyCalorieGoal(newGoal);
-            saveUsers();
-            return true;
-        }
-        
-        return false;
     }
     
     /**
@@ -111,14 +162,24 @@ public class UserService {
      * @return true if deletion successful, false otherwise
      */
     public boolean deleteUser(String username) {
-        User user = getUserByUsername(username);
-        if (user != null) {
-            users.remove(user);
-            saveUsers();
-            return true;
+        writeLock.lock();
+        try {
+            User user = getUserByUsername(username);
+            if (user != null) {
+                users.remove(user);
+                if (repository.supports(StorageCapability.POINT_DELETE)) {
+                    repository.deleteUser(user.getUsername());
+                } else {
+                    saveUsers();
+                }
+                listeners.forEach(listener -> listener.userDeleted(user.getUsername()));
+                return true;
+            }
+            
+            return false;
+        } finally {
+            writeLock.unlock();
         }
-        
-        return false;
     }
     
     /**
@@ -129,18 +190,64 @@ public class UserService {
      * @return true if password change successful, false otherwise
      */
     public boolean changePassword(String username, String oldPassword, String newPassword) {
-        if (newPassword == null || newPassword.trim().isEmpty()) {
+        writeLock.lock();
+        try {
+            if (newPassword == null || newPassword.trim().isEmpty()) {
+                return false;
+            }
+            
+            User user = authenticateUser(username, oldPassword);
+            if (user != null) {
+                user.setPassword(newPassword.trim());
+                saveUser(user);
+                return true;
+            }
+            
             return false;
+        } finally {
+            writeLock.unlock();
         }
-        
-        User user = authenticateUser(username, oldPassword);
-        if (user != null) {
-            user.setPassword(newPassword.trim());
-            saveUsers();
+    }
+    
+    /**
+     * Applies a user registration or change received from a replication primary.
+     * @param user The user's new state
+     * @return true if the user was added or changed, false if already in that state
+     */
+    public boolean applyReplicatedUser(User user) {
+        writeLock.lock();
+        try {
+            User existing = getUserByUsername(user.getUsername());
+            if (existing == null) {
+                users.add(user);
+                if (repository.supports(StorageCapability.APPEND)) {
+                    repository.addUser(user);
+                } else {
+                    saveUsers();
+                }
+                listeners.forEach(listener -> listener.userSaved(user));
+                return true;
+            }
+            if (existing.toString().equals(user.toString())) {
+                return false;
+            }
+            
+            existing.setPassword(user.getPassword());
+            existing.setDailyCalorieGoal(user.getDailyCalorieGoal());
+            saveUser(existing);
             return true;
+        } finally {
+            writeLock.unlock();
         }
-        
-        return false;
+    }
+    
+    /**
+     * Applies a user deletion received from a replication primary.
+     * @param username The username
+     * @return true if the user was deleted, false if unknown
+     */
+    public boolean applyReplicatedUserDeletion(String username) {
+        return deleteUser(username);
     }
     
     /**
@@ -149,14 +256,8 @@ public class UserService {
      * @return true if valid, false otherwise
      */
     public boolean isValidUsername(String username) {
-        if (username == null || username.trim().isEmpty()) {
-            return false;
-        }
-        
         // Username should be 3-20 characters, alphanumeric and underscore only
-        String trimmed = username.trim();
-        return trimmed.length() >= 3 && trimmed.length() <= 20 && 
-               trimmed.matches("^[a-zA-Z0-9_]+$");
+        return ValidationUtil.isValidUsername(username);
     }
     
     /**
@@ -165,18 +266,26 @@ public class UserService {
      * @return true if valid, false otherwise
      */
     public boolean isValidPassword(String password) {
-        if (password == null || password.trim().isEmpty()) {
-            return false;
-        }
-        
         // Password should be at least 6 characters
-        return password.trim().length() >= 6;
+        return ValidationUtil.isValidPassword(password);
+    }
+    
+    /**
+     * Saves one changed user, or all users if the backend cannot update single users.
+     */
+    private void saveUser(User user) {
+        if (repository.supports(StorageCapability.APPEND)) {
+            repository.updateUser(user);
+        } else {
+            saveUsers();
+        }
+        listeners.forEach(listener -> listener.userSaved(user));
     }
     
     /**
-     * Saves users to file.
+     * Saves all users.
      */
     private void saveUsers() {
-        FileService.saveUsers(users);
+        repository.saveUsers(users);
     }
 }
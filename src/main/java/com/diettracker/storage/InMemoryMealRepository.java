@@ -0,0 +1,128 @@
+package com.diettracker.storage;
+
+import com.diettracker.model.Meal;
+import com.diettracker.model.MealQuery;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Meals kept in memory only, indexed by id and by user in timestamp order,
+ * e.g. for trying out the application or for benchmarks. Supports every
+ * capability. Nothing survives a restart.
+ */
+public class InMemoryMealRepository implements MealRepository {
+    private final Map<Long, Meal> byId = new LinkedHashMap<>();
+    private final Map<String, NavigableSet<Meal>> byUser = new HashMap<>();
+
+    @Override
+    public Set<StorageCapability> getCapabilities() {
+        return EnumSet.allOf(StorageCapability.class);
+    }
+
+    @Override
+    public synchronized List<Meal> loadMeals() {
+        return new ArrayList<>(byId.values());
+    }
+
+    @Override
+    public synchronized void saveMeals(Collection<Meal> meals) {
+        byId.clear();
+        byUser.clear();
+        meals.forEach(this::add);
+    }
+
+    @Override
+    public synchronized void appendMeals(Collection<Meal> meals) {
+        for (Meal meal : meals) {
+            Meal previous = byId.get(meal.getId());
+            if (previous != null) {
+                remove(previous);
+            }
+            add(meal);
+        }
+    }
+
+    @Override
+    public synchronized void updateMeal(Meal meal) {
+        appendMeals(List.of(meal));
+    }
+
+    @Override
+    public synchronized void deleteMeals(Collection<Meal> meals) {
+        for (Meal meal : meals) {
+            Meal stored = byId.get(meal.getId());
+            if (stored != null) {
+                remove(stored);
+            }
+        }
+    }
+
+    @Override
+    public synchronized List<Meal> scanMeals(String username, LocalDate from, LocalDate to) {
+        NavigableSet<Meal> meals = byUser.get(username);
+        if (meals == null) {
+            return new ArrayList<>();
+        }
+
+        NavigableSet<Meal> range = meals;
+        if (from != null) {
+            range = range.tailSet(probe(username, from.atStartOfDay(), Long.MIN_VALUE), true);
+        }
+        if (to != null) {
+            range = range.headSet(probe(username, to.plusDays(1).atStartOfDay(), Long.MIN_VALUE), false);
+        }
+        return new ArrayList<>(range);
+    }
+
+    /**
+     * Narrows each queried user's meals to the date range, then filters them by the other criteria.
+     */
+    @Override
+    public synchronized List<Meal> findMeals(MealQuery query) {
+        Collection<String> usernames = query.getUsernames().isEmpty() ? byUser.keySet() : query.getUsernames();
+        Comparator<Meal> order = query.isNewestFirst() ? MEAL_ORDER.reversed() : MEAL_ORDER;
+        Stream<Meal> matches = usernames.stream()
+                .flatMap(username -> scanMeals(username, query.getFrom(), query.getTo()).stream())
+                .filter(query::matchesResidual)
+                .sorted(order);
+        return (query.getLimit() > 0 ? matches.limit(query.getLimit()) : matches).collect(Collectors.toList());
+    }
+
+    @Override
+    public String describeQuery(MealQuery query) {
+        return "In-memory range scan of " + (query.getUsernames().isEmpty() ? "every user" : query.getUsernames());
+    }
+
+    private void add(Meal meal) {
+        byId.put(meal.getId(), meal);
+        byUser.computeIfAbsent(meal.getUsername(), u -> new TreeSet<>(MEAL_ORDER)).add(meal);
+    }
+
+    private void remove(Meal meal) {
+        byId.remove(meal.getId());
+        NavigableSet<Meal> meals = byUser.get(meal.getUsername());
+        meals.remove(meal);
+        if (meals.isEmpty()) {
+            byUser.remove(meal.getUsername());
+        }
+    }
+
+    private static Meal probe(String username, LocalDateTime timestamp, long id) {
+        Meal probe = new Meal(username, Meal.MealType.BREAKFAST, timestamp);
+        probe.setId(id);
+        return probe;
+    }
+}
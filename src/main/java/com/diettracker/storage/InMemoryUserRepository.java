@@ -0,0 +1,51 @@
+package com.diettracker.storage;
+
+import com.diettracker.model.User;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Users kept in memory only, e.g. for trying out the application or for
+ * benchmarks. Nothing survives a restart.
+ */
+public class InMemoryUserRepository implements UserRepository {
+    private final Map<String, User> users = new LinkedHashMap<>();
+
+    @Override
+    public Set<StorageCapability> getCapabilities() {
+        return EnumSet.of(StorageCapability.APPEND, StorageCapability.POINT_DELETE);
+    }
+
+    @Override
+    public synchronized List<User> loadUsers() {
+        return new ArrayList<>(users.values());
+    }
+
+    @Override
+    public synchronized void saveUsers(Collection<User> newUsers) {
+        users.clear();
+        for (User user : newUsers) {
+            users.put(user.getUsername(), user);
+        }
+    }
+
+    @Override
+    public synchronized void addUser(User user) {
+        users.put(user.getUsername(), user);
+    }
+
+    @Override
+    public synchronized void updateUser(User user) {
+        users.put(user.getUsername(), user);
+    }
+
+    @Override
+    public synchronized void deleteUser(String username) {
+        users.remove(username);
+    }
+}
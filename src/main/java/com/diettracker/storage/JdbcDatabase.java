@@ -0,0 +1,146 @@
+package com.diettracker.storage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One connection to an embedded SQL database, shared by the statements of
+ * a JDBC repository. Creates the schema on open and keeps prepared
+ * statements for reuse, so repeated queries of the same shape are parsed
+ * and planned once. Callers serialize access to the connection.
+ *
+ * Schema:
+ *   users(username, password, daily_calorie_goal)
+ *   meals(id, username, meal_type, ts), indexed on (username, ts, id) and (username, meal_type)
+ *   food_entries(meal_id, item_index, name, calories_per_unit, quantity, unit)
+ */
+final class JdbcDatabase {
+    // Prepared statements kept open; the least recently used one is closed beyond this
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS users ("
+            + "username VARCHAR(64) PRIMARY KEY, "
+            + "password VARCHAR(255) NOT NULL, "
+            + "daily_calorie_goal INT NOT NULL)",
+        "CREATE TABLE IF NOT EXISTS meals ("
+            + "id BIGINT PRIMARY KEY, "
+            + "username VARCHAR(64) NOT NULL, "
+            + "meal_type VARCHAR(16) NOT NULL, "
+            + "ts TIMESTAMP(9) NOT NULL)",
+        "CREATE INDEX IF NOT EXISTS meals_user_time ON meals (username, ts, id)",
+        "CREATE INDEX IF NOT EXISTS meals_user_type ON meals (username, meal_type)",
+        "CREATE TABLE IF NOT EXISTS food_entries ("
+            + "meal_id BIGINT NOT NULL, "
+            + "item_index INT NOT NULL, "
+            + "name VARCHAR(255) NOT NULL, "
+            + "calories_per_unit INT NOT NULL, "
+            + "quantity DOUBLE NOT NULL, "
+            + "unit VARCHAR(32), "
+            + "PRIMARY KEY (meal_id, item_index))"
+    };
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements =
+            new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= STATEMENT_CACHE_SIZE) {
+                        return false;
+                    }
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+            };
+
+    private JdbcDatabase(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Connects to a database and creates any missing tables and indexes.
+     * The JDBC driver for the URL must be on the classpath.
+     * @param url The JDBC URL, e.g. jdbc:h2:/path/to/diettracker
+     * @param user The database user
+     * @param password The database password
+     * @return The database
+     * @throws IllegalStateException if the database cannot be opened
+     */
+    static JdbcDatabase open(String url, String user, String password) {
+        try {
+            Connection connection = DriverManager.getConnection(url, user, password);
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : SCHEMA) {
+                    statement.execute(sql);
+                }
+            }
+            return new JdbcDatabase(connection);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot open database " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets a prepared statement for a SQL string, reusing an earlier one.
+     * @param sql The SQL
+     * @return The statement, with parameters to be set by the caller
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Runs work in one transaction, rolling it back if it fails.
+     * @param work The statements to run
+     */
+    void inTransaction(SqlWork work) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            work.run();
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Closes the cached statements and the connection.
+     */
+    void close() {
+        statements.values().forEach(JdbcDatabase::closeQuietly);
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing database: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Nothing left to release
+        }
+    }
+
+    /**
+     * Statements run inside a transaction.
+     */
+    interface SqlWork {
+        void run() throws SQLException;
+    }
+}
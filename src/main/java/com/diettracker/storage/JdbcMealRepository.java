@@ -0,0 +1,274 @@
+package com.diettracker.storage;
+
+import com.diettracker.model.FoodItem;
+import com.diettracker.model.Meal;
+import com.diettracker.model.MealQuery;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Meals in the meals and food_entries tables of an embedded SQL database.
+ * Supports every capability: writes are batched statements in one
+ * transaction, and queries become SQL over the (username, ts, id) and
+ * (username, meal_type) indexes. Day-of-week and calorie criteria, which
+ * the indexes do not answer, filter the rows as they are read.
+ */
+public class JdbcMealRepository implements MealRepository {
+    // Rows per executeBatch call
+    private static final int BATCH_SIZE = 500;
+
+    private static final String SELECT_MEALS =
+            "SELECT m.id, m.username, m.meal_type, m.ts, f.name, f.calories_per_unit, f.quantity, f.unit"
+            + " FROM meals m LEFT JOIN food_entries f ON f.meal_id = m.id";
+    private static final String INSERT_MEAL =
+            "INSERT INTO meals (id, username, meal_type, ts) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_FOOD_ENTRY =
+            "INSERT INTO food_entries (meal_id, item_index, name, calories_per_unit, quantity, unit)"
+            + " VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_MEAL = "DELETE FROM meals WHERE id = ?";
+    private static final String DELETE_FOOD_ENTRIES = "DELETE FROM food_entries WHERE meal_id = ?";
+
+    private final JdbcDatabase database;
+
+    JdbcMealRepository(JdbcDatabase database) {
+        this.database = database;
+    }
+
+    @Override
+    public Set<StorageCapability> getCapabilities() {
+        return EnumSet.allOf(StorageCapability.class);
+    }
+
+    @Override
+    public synchronized List<Meal> loadMeals() {
+        try {
+            return readMeals(database.prepare(SELECT_MEALS + " ORDER BY m.id, f.item_index"), null);
+        } catch (SQLException e) {
+            System.err.println("Error loading meals: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public synchronized void saveMeals(Collection<Meal> meals) {
+        try {
+            database.inTransaction(() -> {
+                database.prepare("DELETE FROM food_entries").executeUpdate();
+                database.prepare("DELETE FROM meals").executeUpdate();
+                insert(meals);
+            });
+        } catch (SQLException e) {
+            System.err.println("Error saving meals: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Inserts meals in batches, replacing stored meals with the same id.
+     */
+    @Override
+    public synchronized void appendMeals(Collection<Meal> meals) {
+        try {
+            database.inTransaction(() -> {
+                delete(meals);
+                insert(meals);
+            });
+        } catch (SQLException e) {
+            System.err.println("Error saving meals: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void updateMeal(Meal meal) {
+        appendMeals(Collections.singletonList(meal));
+    }
+
+    @Override
+    public synchronized void deleteMeals(Collection<Meal> meals) {
+        try {
+            database.inTransaction(() -> delete(meals));
+        } catch (SQLException e) {
+            System.err.println("Error deleting meals: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public List<Meal> scanMeals(String username, LocalDate from, LocalDate to) {
+        return findMeals(MealQuery.builder().user(username).between(from, to).build());
+    }
+
+    /**
+     * Runs the query as SQL and reads meals until the limit is reached.
+     */
+    @Override
+    public synchronized List<Meal> findMeals(MealQuery query) {
+        List<Object> parameters = new ArrayList<>();
+        String sql = toSql(query, parameters);
+        try {
+            PreparedStatement statement = database.prepare(sql);
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+            return readMeals(statement, query);
+        } catch (SQLException e) {
+            System.err.println("Error querying meals: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public String describeQuery(MealQuery query) {
+        String sql = toSql(query, new ArrayList<>());
+        String plan = "SQL" + sql.substring(SELECT_MEALS.length());
+        boolean filtered = !query.getDaysOfWeek().isEmpty() || query.hasCalorieBounds();
+        return filtered ? plan + "\n  Filter rows by day of week and calories" : plan;
+    }
+
+    @Override
+    public synchronized void close() {
+        database.close();
+    }
+
+    /**
+     * Translates the indexed criteria of a query into SQL.
+     * @param query The query
+     * @param parameters Receives the values of the statement's parameters, in order
+     * @return The SQL, the same for queries of the same shape
+     */
+    private static String toSql(MealQuery query, List<Object> parameters) {
+        List<String> conditions = new ArrayList<>();
+        if (!query.getUsernames().isEmpty()) {
+            conditions.add("m.username" + in(query.getUsernames().size()));
+            parameters.addAll(query.getUsernames());
+        }
+        if (query.getFrom() != null) {
+            conditions.add("m.ts >= ?");
+            parameters.add(query.getFrom().atStartOfDay());
+        }
+        if (query.getTo() != null) {
+            conditions.add("m.ts < ?");
+            parameters.add(query.getTo().plusDays(1).atStartOfDay());
+        }
+        if (!query.getMealTypes().isEmpty()) {
+            conditions.add("m.meal_type" + in(query.getMealTypes().size()));
+            query.getMealTypes().forEach(type -> parameters.add(type.name()));
+        }
+        if (query.getFoodName() != null) {
+            conditions.add("EXISTS (SELECT 1 FROM food_entries e WHERE e.meal_id = m.id"
+                           + " AND LOWER(TRIM(e.name)) = ?)");
+            parameters.add(query.getFoodName().toLowerCase(Locale.ROOT));
+        }
+
+        StringBuilder sql = new StringBuilder(SELECT_MEALS);
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+        String direction = query.isNewestFirst() ? " DESC" : "";
+        sql.append(" ORDER BY m.ts").append(direction).append(", m.id").append(direction).append(", f.item_index");
+        return sql.toString();
+    }
+
+    private static String in(int count) {
+        return count == 1 ? " = ?" : " IN (" + String.join(", ", Collections.nCopies(count, "?")) + ")";
+    }
+
+    /**
+     * Reads meal rows, one per food entry, into meals.
+     * @param statement The statement, ordered so that each meal's rows are adjacent
+     * @param query Criteria and limit to apply while reading, or null for none
+     * @return The meals in row order
+     */
+    private static List<Meal> readMeals(PreparedStatement statement, MealQuery query) throws SQLException {
+        List<Meal> meals = new ArrayList<>();
+        int limit = query == null ? 0 : query.getLimit();
+        try (ResultSet rows = statement.executeQuery()) {
+            Meal meal = null;
+            while (rows.next()) {
+                long id = rows.getLong(1);
+                if (meal == null || meal.getId() != id) {
+                    if (meal != null && accept(meal, query, meals) && meals.size() == limit) {
+                        return meals;
+                    }
+                    meal = new Meal(rows.getString(2), Meal.MealType.valueOf(rows.getString(3)),
+                                    rows.getObject(4, LocalDateTime.class));
+                    meal.setId(id);
+                }
+                String name = rows.getString(5);
+                if (name != null) {
+                    meal.addFoodItem(new FoodItem(name, rows.getInt(6), rows.getDouble(7), rows.getString(8)));
+                }
+            }
+            if (meal != null) {
+                accept(meal, query, meals);
+            }
+        }
+        return meals;
+    }
+
+    private static boolean accept(Meal meal, MealQuery query, List<Meal> meals) {
+        if (query != null && !query.matchesResidual(meal)) {
+            return false;
+        }
+        meals.add(meal);
+        return true;
+    }
+
+    private void insert(Collection<Meal> meals) throws SQLException {
+        PreparedStatement insertMeal = database.prepare(INSERT_MEAL);
+        PreparedStatement insertEntry = database.prepare(INSERT_FOOD_ENTRY);
+        int pending = 0;
+        for (Meal meal : meals) {
+            insertMeal.setLong(1, meal.getId());
+            insertMeal.setString(2, meal.getUsername());
+            insertMeal.setString(3, meal.getMealType().name());
+            insertMeal.setObject(4, meal.getTimestamp());
+            insertMeal.addBatch();
+            List<FoodItem> items = meal.getFoodItemsView();
+            for (int i = 0; i < items.size(); i++) {
+                FoodItem item = items.get(i);
+                insertEntry.setLong(1, meal.getId());
+                insertEntry.setInt(2, i);
+                insertEntry.setString(3, item.getName());
+                insertEntry.setInt(4, item.getCaloriesPerUnit());
+                insertEntry.setDouble(5, item.getQuantity());
+                insertEntry.setString(6, item.getUnit());
+                insertEntry.addBatch();
+            }
+            if (++pending == BATCH_SIZE) {
+                insertMeal.executeBatch();
+                insertEntry.executeBatch();
+                pending = 0;
+            }
+        }
+        insertMeal.executeBatch();
+        insertEntry.executeBatch();
+    }
+
+    private void delete(Collection<Meal> meals) throws SQLException {
+        PreparedStatement deleteMeal = database.prepare(DELETE_MEAL);
+        PreparedStatement deleteEntries = database.prepare(DELETE_FOOD_ENTRIES);
+        int pending = 0;
+        for (Meal meal : meals) {
+            deleteEntries.setLong(1, meal.getId());
+            deleteEntries.addBatch();
+            deleteMeal.setLong(1, meal.getId());
+            deleteMeal.addBatch();
+            if (++pending == BATCH_SIZE) {
+                deleteEntries.executeBatch();
+                deleteMeal.executeBatch();
+                pending = 0;
+            }
+        }
+        deleteEntries.executeBatch();
+        deleteMeal.executeBatch();
+    }
+}
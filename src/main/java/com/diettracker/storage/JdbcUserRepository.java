@@ -0,0 +1,113 @@
+package com.diettracker.storage;
+
+import com.diettracker.model.User;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Users in the users table of an embedded SQL database.
+ * Single-user changes are one-row statements.
+ */
+public class JdbcUserRepository implements UserRepository {
+    private static final String SELECT_USERS =
+            "SELECT username, password, daily_calorie_goal FROM users ORDER BY username";
+    private static final String INSERT_USER =
+            "INSERT INTO users (username, password, daily_calorie_goal) VALUES (?, ?, ?)";
+    private static final String UPDATE_USER =
+            "UPDATE users SET password = ?, daily_calorie_goal = ? WHERE username = ?";
+    private static final String DELETE_USER = "DELETE FROM users WHERE username = ?";
+    private static final String DELETE_USERS = "DELETE FROM users";
+
+    private final JdbcDatabase database;
+
+    JdbcUserRepository(JdbcDatabase database) {
+        this.database = database;
+    }
+
+    @Override
+    public Set<StorageCapability> getCapabilities() {
+        return EnumSet.of(StorageCapability.APPEND, StorageCapability.POINT_DELETE);
+    }
+
+    @Override
+    public synchronized List<User> loadUsers() {
+        List<User> users = new ArrayList<>();
+        try (ResultSet rows = database.prepare(SELECT_USERS).executeQuery()) {
+            while (rows.next()) {
+                users.add(new User(rows.getString(1), rows.getString(2), rows.getInt(3)));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error loading users: " + e.getMessage());
+        }
+        return users;
+    }
+
+    @Override
+    public synchronized void saveUsers(Collection<User> users) {
+        try {
+            database.inTransaction(() -> {
+                database.prepare(DELETE_USERS).executeUpdate();
+                PreparedStatement insert = database.prepare(INSERT_USER);
+                for (User user : users) {
+                    bindInsert(insert, user);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            });
+        } catch (SQLException e) {
+            System.err.println("Error saving users: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void addUser(User user) {
+        try {
+            PreparedStatement insert = database.prepare(INSERT_USER);
+            bindInsert(insert, user);
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error saving user: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void updateUser(User user) {
+        try {
+            PreparedStatement update = database.prepare(UPDATE_USER);
+            update.setString(1, user.getPassword());
+            update.setInt(2, user.getDailyCalorieGoal());
+            update.setString(3, user.getUsername());
+            update.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error saving user: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void deleteUser(String username) {
+        try {
+            PreparedStatement delete = database.prepare(DELETE_USER);
+            delete.setString(1, username);
+            delete.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error deleting user: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        database.close();
+    }
+
+    private static void bindInsert(PreparedStatement insert, User user) throws SQLException {
+        insert.setString(1, user.getUsername());
+        insert.setString(2, user.getPassword());
+        insert.setInt(3, user.getDailyCalorieGoal());
+    }
+}
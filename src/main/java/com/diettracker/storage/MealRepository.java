@@ -0,0 +1,112 @@
+package com.diettracker.storage;
+
+import com.diettracker.model.Meal;
+import com.diettracker.model.MealQuery;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Storage backend for meals.
+ * loadMeals, saveMeals, scanMeals and findMeals are always available; appends,
+ * updates and deletes may only be called when the matching capability is
+ * supported. Meals are identified by their id.
+ */
+public interface MealRepository {
+    /**
+     * Order of scanned meals: by timestamp, then id.
+     */
+    Comparator<Meal> MEAL_ORDER = Comparator.comparing(Meal::getTimestamp).thenComparingLong(Meal::getId);
+
+    /**
+     * Gets the optional operations this backend implements.
+     */
+    Set<StorageCapability> getCapabilities();
+
+    default boolean supports(StorageCapability capability) {
+        return getCapabilities().contains(capability);
+    }
+
+    /**
+     * Loads all stored meals.
+     * @return List of meals (empty if nothing is stored yet)
+     */
+    List<Meal> loadMeals();
+
+    /**
+     * Replaces all stored meals.
+     * @param meals The meals to store, with ids assigned
+     */
+    void saveMeals(Collection<Meal> meals);
+
+    /**
+     * Stores new meals. Requires APPEND.
+     * @param meals The meals, with ids assigned
+     */
+    default void appendMeals(Collection<Meal> meals) {
+        throw new UnsupportedOperationException("APPEND not supported");
+    }
+
+    /**
+     * Stores the new state of an existing meal. Requires APPEND.
+     * @param meal The meal
+     */
+    default void updateMeal(Meal meal) {
+        throw new UnsupportedOperationException("APPEND not supported");
+    }
+
+    /**
+     * Deletes meals. Requires POINT_DELETE.
+     * @param meals The meals to delete (matched by id)
+     */
+    default void deleteMeals(Collection<Meal> meals) {
+        throw new UnsupportedOperationException("POINT_DELETE not supported");
+    }
+
+    /**
+     * Gets a user's meals in an inclusive date range, oldest first.
+     * Without RANGE_SCAN this filters a full load.
+     * @param username The username
+     * @param from First date, or null for no lower bound
+     * @param to Last date, or null for no upper bound
+     * @return The meals ordered by timestamp and id
+     */
+    default List<Meal> scanMeals(String username, LocalDate from, LocalDate to) {
+        return loadMeals().stream()
+                .filter(meal -> meal.getUsername().equals(username))
+                .filter(meal -> from == null || !meal.getTimestamp().toLocalDate().isBefore(from))
+                .filter(meal -> to == null || !meal.getTimestamp().toLocalDate().isAfter(to))
+                .sorted(MEAL_ORDER)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Finds the meals matching a query, in its timestamp order and up to its limit.
+     * Without QUERY this filters a full load.
+     * @param query The query
+     * @return The matching meals
+     */
+    default List<Meal> findMeals(MealQuery query) {
+        Comparator<Meal> order = query.isNewestFirst() ? MEAL_ORDER.reversed() : MEAL_ORDER;
+        Stream<Meal> matches = loadMeals().stream().filter(query::matches).sorted(order);
+        return (query.getLimit() > 0 ? matches.limit(query.getLimit()) : matches).collect(Collectors.toList());
+    }
+
+    /**
+     * Describes how findMeals answers a query, for query plans.
+     */
+    default String describeQuery(MealQuery query) {
+        return "Full load filtered by query";
+    }
+
+    /**
+     * Releases the backend's resources, e.g. a database connection.
+     * The repository must not be used afterwards.
+     */
+    default void close() {
+    }
+}
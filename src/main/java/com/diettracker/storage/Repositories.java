@@ -0,0 +1,132 @@
+package com.diettracker.storage;
+
+import com.diettracker.util.AppConfig;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Opens the repositories of the storage engine chosen by the storage.engine
+ * setting: "text" (default) for the text files in the data directory,
+ * "memory" for repositories that keep nothing across restarts, or "jdbc"
+ * for an embedded SQL database. The jdbc engine connects to the
+ * storage.jdbc.url setting (default: an H2 database in the data directory)
+ * and needs the database's JDBC driver on the classpath.
+ */
+public final class Repositories {
+    public static final String TEXT = "text";
+    public static final String MEMORY = "memory";
+    public static final String JDBC = "jdbc";
+
+    private static final String ENGINE_SETTING = "storage.engine";
+    private static final String JDBC_URL_SETTING = "storage.jdbc.url";
+    private static final String JDBC_USER_SETTING = "storage.jdbc.user";
+    private static final String JDBC_PASSWORD_SETTING = "storage.jdbc.password";
+    private static final String DATABASE_NAME = "diettracker";
+    static final File DATA_DIR = new File("data");
+
+    private Repositories() {
+    }
+
+    /**
+     * Gets the names of all storage engines.
+     */
+    public static List<String> getEngineNames() {
+        return Arrays.asList(TEXT, MEMORY, JDBC);
+    }
+
+    /**
+     * Gets the configured storage engine.
+     * @return The engine name, or "text" if the setting is absent or unknown
+     */
+    public static String getConfiguredEngine() {
+        String engine = AppConfig.getString(ENGINE_SETTING, TEXT).toLowerCase();
+        if (!getEngineNames().contains(engine)) {
+            System.err.println("Unknown storage engine '" + engine + "', using " + TEXT);
+            return TEXT;
+        }
+        return engine;
+    }
+
+    /**
+     * Opens the user repository of the configured engine in the data directory.
+     * Falls back to "text" if the engine's store cannot be opened.
+     */
+    public static UserRepository openUsers() {
+        String engine = getConfiguredEngine();
+        try {
+            return openUsers(engine, DATA_DIR);
+        } catch (IllegalStateException e) {
+            System.err.println("Error opening " + engine + " storage: " + e.getMessage() + ", using " + TEXT);
+            return openUsers(TEXT, DATA_DIR);
+        }
+    }
+
+    /**
+     * Opens the meal repository of the configured engine in the data directory.
+     * Falls back to "text" if the engine's store cannot be opened.
+     */
+    public static MealRepository openMeals() {
+        String engine = getConfiguredEngine();
+        try {
+            return openMeals(engine, DATA_DIR);
+        } catch (IllegalStateException e) {
+            System.err.println("Error opening " + engine + " storage: " + e.getMessage() + ", using " + TEXT);
+            return openMeals(TEXT, DATA_DIR);
+        }
+    }
+
+    /**
+     * Opens the user repository of an engine.
+     * @param engine The engine name
+     * @param directory Directory for the engine's files (unused by "memory")
+     * @return The repository
+     * @throws IllegalStateException if the engine's store cannot be opened
+     */
+    public static UserRepository openUsers(String engine, File directory) {
+        switch (engine) {
+            case MEMORY:
+                return new InMemoryUserRepository();
+            case TEXT:
+                return new TextFileUserRepository(directory);
+            case JDBC:
+                return new JdbcUserRepository(openDatabase(directory));
+            default:
+                throw new IllegalArgumentException("Unknown storage engine: " + engine);
+        }
+    }
+
+    /**
+     * Opens the meal repository of an engine.
+     * @param engine The engine name
+     * @param directory Directory for the engine's files (unused by "memory")
+     * @return The repository
+     * @throws IllegalStateException if the engine's store cannot be opened
+     */
+    public static MealRepository openMeals(String engine, File directory) {
+        switch (engine) {
+            case MEMORY:
+                return new InMemoryMealRepository();
+            case TEXT:
+                return new TextFileMealRepository(directory);
+            case JDBC:
+                return new JdbcMealRepository(openDatabase(directory));
+            default:
+                throw new IllegalArgumentException("Unknown storage engine: " + engine);
+        }
+    }
+
+    /**
+     * Connects to the database of a directory. The configured URL belongs to
+     * the data directory; any other directory, e.g. a benchmark's, gets an H2
+     * database of its own.
+     */
+    private static JdbcDatabase openDatabase(File directory) {
+        String url = "jdbc:h2:" + new File(directory, DATABASE_NAME).getAbsolutePath();
+        if (directory.equals(DATA_DIR)) {
+            url = AppConfig.getString(JDBC_URL_SETTING, url);
+        }
+        return JdbcDatabase.open(url, AppConfig.getString(JDBC_USER_SETTING, "sa"),
+                                 AppConfig.getString(JDBC_PASSWORD_SETTING, ""));
+    }
+}
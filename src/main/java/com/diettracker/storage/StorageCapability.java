@@ -0,0 +1,17 @@
+package com.diettracker.storage;
+
+/**
+ * Optional operations a repository implements natively.
+ * Services check these flags and fall back to saving everything in full
+ * when an operation is not supported.
+ */
+public enum StorageCapability {
+    /** Reads one user's records in a date range without loading the rest. */
+    RANGE_SCAN,
+    /** Adds or replaces single records without rewriting the store. */
+    APPEND,
+    /** Deletes single records without rewriting the store. */
+    POINT_DELETE,
+    /** Answers meal queries from indexes without loading the rest. */
+    QUERY
+}
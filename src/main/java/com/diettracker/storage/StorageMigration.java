@@ -0,0 +1,47 @@
+package com.diettracker.storage;
+
+import com.diettracker.model.Meal;
+import com.diettracker.model.User;
+import java.util.List;
+
+/**
+ * Copies all users and meals from one storage engine to another in the data
+ * directory, e.g. from the text files into the SQL database before switching
+ * storage.engine to jdbc. The target's users and meals are replaced.
+ *
+ * Usage: java -cp bin:<driver.jar> com.diettracker.storage.StorageMigration [from] [to]
+ * (default: text jdbc)
+ *
+ * Meals in the cold tier stay where they are; the application moves them
+ * into the new engine's store on its next start.
+ */
+public class StorageMigration {
+    public static void main(String[] args) {
+        String from = args.length > 0 ? args[0] : Repositories.TEXT;
+        String to = args.length > 1 ? args[1] : Repositories.JDBC;
+        if (from.equals(to) || Repositories.MEMORY.equals(from) || Repositories.MEMORY.equals(to)
+                || !Repositories.getEngineNames().contains(from) || !Repositories.getEngineNames().contains(to)) {
+            System.err.println("Usage: StorageMigration [from] [to], two different engines out of "
+                               + Repositories.TEXT + " and " + Repositories.JDBC);
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        UserRepository sourceUsers = Repositories.openUsers(from, Repositories.DATA_DIR);
+        UserRepository targetUsers = Repositories.openUsers(to, Repositories.DATA_DIR);
+        List<User> users = sourceUsers.loadUsers();
+        targetUsers.saveUsers(users);
+        sourceUsers.close();
+        targetUsers.close();
+
+        MealRepository sourceMeals = Repositories.openMeals(from, Repositories.DATA_DIR);
+        MealRepository targetMeals = Repositories.openMeals(to, Repositories.DATA_DIR);
+        List<Meal> meals = sourceMeals.loadMeals();
+        targetMeals.saveMeals(meals);
+        sourceMeals.close();
+        targetMeals.close();
+
+        System.out.printf("Copied %d users and %d meals from %s to %s in %.1f s%n", users.size(), meals.size(),
+                          from, to, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,209 @@
+package com.diettracker.storage;
+
+import com.diettracker.model.Meal;
+import com.diettracker.service.FileService;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Meals in a text file, meals.txt, plus a delta journal, meal_deltas.txt.
+ * Changes are appended to the journal as "A,<meal>", "U,<meal>" and
+ * "D,<id>" records and replayed on load; a full save rewrites the meals
+ * file and clears the journal. Meal records use the format read by
+ * FileService.parseMeal.
+ */
+public class TextFileMealRepository implements MealRepository {
+    private static final String MEALS_FILE = "meals.txt";
+    private static final String MEAL_DELTAS_FILE = "meal_deltas.txt";
+
+    // Delta journal record prefixes
+    private static final String DELTA_ADD = "A";
+    private static final String DELTA_UPDATE = "U";
+    private static final String DELTA_DELETE = "D";
+
+    // Journal length at which loading compacts it into the meals file
+    private static final int DELTA_COMPACTION_THRESHOLD = 1024;
+
+    private final File directory;
+    private final File mealsFile;
+    private final File deltasFile;
+
+    /**
+     * @param directory The data directory (created on the first write)
+     */
+    public TextFileMealRepository(File directory) {
+        this.directory = directory;
+        this.mealsFile = new File(directory, MEALS_FILE);
+        this.deltasFile = new File(directory, MEAL_DELTAS_FILE);
+    }
+
+    @Override
+    public Set<StorageCapability> getCapabilities() {
+        return EnumSet.of(StorageCapability.APPEND, StorageCapability.POINT_DELETE);
+    }
+
+    /**
+     * Loads meals from file and replays the delta journal on top of them.
+     * Meals stored before ids existed are numbered in file order. The journal
+     * is compacted into the meals file when it has grown long or ids were
+     * assigned.
+     */
+    @Override
+    public List<Meal> loadMeals() {
+        Map<Long, Meal> meals = new LinkedHashMap<>();
+        List<Meal> unnumbered = new ArrayList<>();
+        long maxId = 0;
+
+        if (mealsFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(mealsFile))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Meal meal = FileService.parseMeal(line);
+                    if (meal == null) {
+                        continue;
+                    }
+                    if (meal.getId() > 0) {
+                        meals.put(meal.getId(), meal);
+                        maxId = Math.max(maxId, meal.getId());
+                    } else {
+                        unnumbered.add(meal);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error loading meals: " + e.getMessage());
+            }
+        }
+
+        for (Meal meal : unnumbered) {
+            meal.setId(++maxId);
+            meals.put(meal.getId(), meal);
+        }
+
+        int deltaCount = replayMealDeltas(meals);
+
+        List<Meal> result = new ArrayList<>(meals.values());
+        if (!unnumbered.isEmpty() || deltaCount >= DELTA_COMPACTION_THRESHOLD) {
+            saveMeals(result);
+        }
+        return result;
+    }
+
+    /**
+     * Saves all meals to file and clears the delta journal they now include.
+     */
+    @Override
+    public void saveMeals(Collection<Meal> meals) {
+        directory.mkdirs();
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(mealsFile)))) {
+            for (Meal meal : meals) {
+                writer.println(meal.toString());
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving meals: " + e.getMessage());
+            return;
+        }
+
+        if (deltasFile.exists()) deltasFile.delete();
+    }
+
+    /**
+     * Appends "added meal" records for a batch of meals in one write.
+     */
+    @Override
+    public void appendMeals(Collection<Meal> meals) {
+        List<String> records = new ArrayList<>(meals.size());
+        for (Meal meal : meals) {
+            records.add(DELTA_ADD + "," + meal.toString());
+        }
+        appendMealDeltas(records);
+    }
+
+    /**
+     * Appends an "updated meal" record to the delta journal.
+     */
+    @Override
+    public void updateMeal(Meal meal) {
+        appendMealDeltas(List.of(DELTA_UPDATE + "," + meal.toString()));
+    }
+
+    /**
+     * Appends "removed meal" records for a batch of meals in one write.
+     */
+    @Override
+    public void deleteMeals(Collection<Meal> meals) {
+        List<String> records = new ArrayList<>(meals.size());
+        for (Meal meal : meals) {
+            records.add(DELTA_DELETE + "," + meal.getId());
+        }
+        appendMealDeltas(records);
+    }
+
+    private void appendMealDeltas(List<String> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        directory.mkdirs();
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(deltasFile, true)))) {
+            for (String record : records) {
+                writer.println(record);
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving meal changes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies the delta journal to a set of meals keyed by id.
+     * @param meals Meals to update in place
+     * @return Number of journal records applied
+     */
+    private int replayMealDeltas(Map<Long, Meal> meals) {
+        if (!deltasFile.exists()) {
+            return 0;
+        }
+
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(deltasFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comma = line.indexOf(',');
+                if (comma < 0) {
+                    continue;
+                }
+                String op = line.substring(0, comma);
+                String payload = line.substring(comma + 1);
+
+                if (op.equals(DELTA_ADD) || op.equals(DELTA_UPDATE)) {
+                    Meal meal = FileService.parseMeal(payload);
+                    if (meal != null && meal.getId() > 0) {
+                        meals.put(meal.getId(), meal);
+                        count++;
+                    }
+                } else if (op.equals(DELTA_DELETE)) {
+                    try {
+                        meals.remove(Long.parseLong(payload.trim()));
+                        count++;
+                    } catch (NumberFormatException e) {
+                        // Skip a torn record
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading meal changes: " + e.getMessage());
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,77 @@
+package com.diettracker.storage;
+
+import com.diettracker.model.User;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Users in a comma-separated text file, users.txt, rewritten on every change.
+ * Record format: username,password,dailyCalorieGoal
+ */
+public class TextFileUserRepository implements UserRepository {
+    private static final String USERS_FILE = "users.txt";
+
+    private final File directory;
+    private final File usersFile;
+
+    /**
+     * @param directory The data directory (created on the first save)
+     */
+    public TextFileUserRepository(File directory) {
+        this.directory = directory;
+        this.usersFile = new File(directory, USERS_FILE);
+    }
+
+    @Override
+    public Set<StorageCapability> getCapabilities() {
+        return EnumSet.noneOf(StorageCapability.class);
+    }
+
+    @Override
+    public List<User> loadUsers() {
+        List<User> users = new ArrayList<>();
+        if (!usersFile.exists()) {
+            return users;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(usersFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    String[] parts = line.split(",");
+                    if (parts.length >= 3) {
+                        String username = parts[0];
+                        String password = parts[1];
+                        int calorieGoal = Integer.parseInt(parts[2]);
+                        users.add(new User(username, password, calorieGoal));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading users: " + e.getMessage());
+        }
+
+        return users;
+    }
+
+    @Override
+    public void saveUsers(Collection<User> users) {
+        directory.mkdirs();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(usersFile))) {
+            for (User user : users) {
+                writer.println(user.toString());
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving users: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.diettracker.storage;
+
+import com.diettracker.model.User;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Storage backend for user accounts.
+ * loadUsers and saveUsers are always available; the single-user operations
+ * may only be called when the matching capability is supported.
+ */
+public interface UserRepository {
+    /**
+     * Gets the optional operations this backend implements.
+     */
+    Set<StorageCapability> getCapabilities();
+
+    default boolean supports(StorageCapability capability) {
+        return getCapabilities().contains(capability);
+    }
+
+    /**
+     * Loads all stored users.
+     * @return List of users (empty if nothing is stored yet)
+     */
+    List<User> loadUsers();
+
+    /**
+     * Replaces all stored users.
+     * @param users The users to store
+     */
+    void saveUsers(Collection<User> users);
+
+    /**
+     * Stores a new user. Requires APPEND.
+     * @param user The user
+     */
+    default void addUser(User user) {
+        throw new UnsupportedOperationException("APPEND not supported");
+    }
+
+    /**
+     * Stores the new state of an existing user. Requires APPEND.
+     * @param user The user
+     */
+    default void updateUser(User user) {
+        throw new UnsupportedOperationException("APPEND not supported");
+    }
+
+    /**
+     * Deletes a user. Requires POINT_DELETE.
+     * @param username The username
+     */
+    default void deleteUser(String username) {
+        throw new UnsupportedOperationException("POINT_DELETE not supported");
+    }
+
+    /**
+     * Releases the backend's resources, e.g. a database connection.
+     * The repository must not be used afterwards.
+     */
+    default void close() {
+    }
+}
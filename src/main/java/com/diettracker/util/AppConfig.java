@@ -0,0 +1,80 @@
+package com.diettracker.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Application settings, read once from data/diettracker.properties.
+ * Every setting can be overridden with a system property of the same name
+ * prefixed by "diettracker.", e.g. -Ddiettracker.storage.hotDays=60.
+ * Missing or malformed values fall back to the caller's default.
+ */
+public final class AppConfig {
+    private static final Path CONFIG_FILE = Paths.get("data", "diettracker.properties");
+    private static final String PROPERTY_PREFIX = "diettracker.";
+
+    private static final Properties SETTINGS = load();
+
+    private AppConfig() {
+    }
+
+    /**
+     * Gets a setting as text.
+     * @param key The setting name
+     * @param defaultValue Value used when the setting is absent
+     * @return The trimmed value, or the default
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(PROPERTY_PREFIX + key, SETTINGS.getProperty(key));
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Gets a setting as an integer.
+     * @param key The setting name
+     * @param defaultValue Value used when the setting is absent or not a number
+     * @return The value, or the default
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring setting " + key + "=" + value + ": not a number");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets a setting as a boolean ("true" or "false").
+     * @param key The setting name
+     * @param defaultValue Value used when the setting is absent
+     * @return The value, or the default
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    private static Properties load() {
+        Properties properties = new Properties();
+        if (!Files.exists(CONFIG_FILE)) {
+            return properties;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(CONFIG_FILE, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            System.err.println("Error loading settings: " + e.getMessage());
+        }
+        return properties;
+    }
+}
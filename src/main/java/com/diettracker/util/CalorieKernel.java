@@ -0,0 +1,105 @@
+package com.diettracker.util;
+
+/**
+ * Batch calorie arithmetic over primitive columns of food items.
+ *
+ * Item calories are computed exactly as FoodItem does, (int) (caloriesPerUnit
+ * * quantity), and sums wrap like int addition, so batch results equal the
+ * per-object ones bit for bit. {@link #get()} returns a kernel built on the
+ * jdk.incubator.vector API when that module is present (run with
+ * --add-modules jdk.incubator.vector) and a scalar kernel otherwise.
+ */
+public abstract class CalorieKernel {
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_KERNEL = "com.diettracker.util.VectorCalorieKernel";
+    // Set to false to force the scalar kernel, e.g. for comparisons
+    private static final String VECTOR_SETTING = "vector";
+
+    private static final CalorieKernel SCALAR = new Scalar();
+    private static final CalorieKernel DEFAULT = load();
+
+    /**
+     * Gets the fastest available kernel.
+     * @return The kernel
+     */
+    public static CalorieKernel get() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets the scalar kernel.
+     * @return The kernel
+     */
+    public static CalorieKernel scalar() {
+        return SCALAR;
+    }
+
+    private static CalorieKernel load() {
+        if (!AppConfig.getBoolean(VECTOR_SETTING, true)
+                || ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            return SCALAR;
+        }
+        try {
+            // Loaded by name so that this class never links against the incubator module
+            return (CalorieKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("Vector calorie kernel unavailable, using scalar: " + e.getMessage());
+            return SCALAR;
+        }
+    }
+
+    /**
+     * Gets a short name of the implementation, e.g. for benchmark output.
+     * @return The name
+     */
+    public abstract String getName();
+
+    /**
+     * Computes total calories of consecutive item segments, e.g. the items of
+     * each meal.
+     * @param caloriesPerUnit Calories per unit of each item
+     * @param quantities Quantity of each item
+     * @param offsets Segment boundaries: segment s holds items offsets[s] to offsets[s + 1] - 1
+     * @param segments Number of segments (offsets holds segments + 1 entries)
+     * @return Total calories per segment
+     */
+    public abstract int[] segmentTotals(int[] caloriesPerUnit, double[] quantities, int[] offsets, int segments);
+
+    /**
+     * Computes the total calories of a range of items, e.g. all items of a day.
+     * @param caloriesPerUnit Calories per unit of each item
+     * @param quantities Quantity of each item
+     * @param from First item (inclusive)
+     * @param to Last item (exclusive)
+     * @return The total
+     */
+    public abstract int total(int[] caloriesPerUnit, double[] quantities, int from, int to);
+
+    /**
+     * Plain loops, matching FoodItem.getTotalCalories and Meal.getTotalCalories.
+     */
+    private static final class Scalar extends CalorieKernel {
+        @Override
+        public String getName() {
+            return "scalar";
+        }
+
+        @Override
+        public int[] segmentTotals(int[] caloriesPerUnit, double[] quantities, int[] offsets, int segments) {
+            int[] totals = new int[segments];
+            for (int s = 0; s < segments; s++) {
+                totals[s] = total(caloriesPerUnit, quantities, offsets[s], offsets[s + 1]);
+            }
+            return totals;
+        }
+
+        @Override
+        public int total(int[] caloriesPerUnit, double[] quantities, int from, int to) {
+            int total = 0;
+            for (int i = from; i < to; i++) {
+                total += (int) (caloriesPerUnit[i] * quantities[i]);
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.diettracker.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring assigning string keys to nodes.
+ * Each node is placed on the ring at a number of virtual points; a key
+ * belongs to the node of the first point at or after its hash, wrapping
+ * around. Adding a node therefore only takes over keys from the points just
+ * before its own, about 1 / (nodes + 1) of them, and leaves every other key
+ * where it was. Not thread-safe; copy the ring to change it while it is read.
+ */
+public class ConsistentHashRing {
+    private final int virtualNodes;
+    private final TreeMap<Long, String> points = new TreeMap<>();
+    private final Set<String> nodes = new LinkedHashSet<>();
+
+    /**
+     * Creates an empty ring.
+     * @param virtualNodes Points per node (more points spread keys more evenly)
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Virtual nodes must be positive");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Adds a node.
+     * @param node The node's name, e.g. its address
+     * @return true if added, false if already on the ring
+     */
+    public boolean addNode(String node) {
+        if (!nodes.add(node)) {
+            return false;
+        }
+        for (int i = 0; i < virtualNodes; i++) {
+            // On the rare hash collision the earlier node keeps the point
+            points.putIfAbsent(CountMinSketch.hash64(node + "#" + i), node);
+        }
+        return true;
+    }
+
+    /**
+     * Removes a node; its keys move to the nodes following its points.
+     * @param node The node's name
+     * @return true if removed, false if not on the ring
+     */
+    public boolean removeNode(String node) {
+        if (!nodes.remove(node)) {
+            return false;
+        }
+        points.values().removeIf(node::equals);
+        return true;
+    }
+
+    /**
+     * Gets the node owning a key.
+     * @param key The key
+     * @return The node, or null if the ring is empty
+     */
+    public String getNode(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(CountMinSketch.hash64(key));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    /**
+     * Gets the nodes in the order they were added.
+     * @return Unmodifiable list of nodes
+     */
+    public List<String> getNodes() {
+        return Collections.unmodifiableList(new ArrayList<>(nodes));
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * Copies the ring, e.g. to compute ownership after adding a node.
+     * @return An independent ring with the same nodes
+     */
+    public ConsistentHashRing copy() {
+        ConsistentHashRing copy = new ConsistentHashRing(virtualNodes);
+        copy.points.putAll(points);
+        copy.nodes.addAll(nodes);
+        return copy;
+    }
+}
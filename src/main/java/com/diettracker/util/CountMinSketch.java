@@ -0,0 +1,122 @@
+package com.diettracker.util;
+
+import java.io.Serializable;
+
+/**
+ * Count-Min sketch for approximate frequency counts of string keys.
+ * Estimates never undercount; they overcount by at most about
+ * (total count / width) with high probability. Sketches with the same
+ * dimensions can be merged, e.g. to combine several time windows.
+ */
+public class CountMinSketch implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final int depth;
+    private final int width;
+    private final long[][] counts;
+    private long totalCount;
+
+    /**
+     * Creates an empty sketch.
+     * @param depth Number of hash rows (more rows lower the failure probability)
+     * @param width Counters per row (more counters lower the error)
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth <= 0 || width <= 0) {
+            throw new IllegalArgumentException("Sketch dimensions must be positive");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.counts = new long[depth][width];
+    }
+
+    /**
+     * Adds to a key's count. Negative deltas undo earlier additions.
+     * @param key The key
+     * @param delta Amount to add
+     * @return The key's estimated count after the update
+     */
+    public long add(String key, long delta) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+
+        for (int row = 0; row < depth; row++) {
+            int column = Math.floorMod(h1 + row * h2, width);
+            counts[row][column] += delta;
+            estimate = Math.min(estimate, counts[row][column]);
+        }
+        totalCount += delta;
+        return Math.max(estimate, 0);
+    }
+
+    /**
+     * Estimates a key's count.
+     * @param key The key
+     * @return Estimated count (never below the true count)
+     */
+    public long estimate(String key) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counts[row][Math.floorMod(h1 + row * h2, width)]);
+        }
+        return Math.max(estimate, 0);
+    }
+
+    /**
+     * Adds another sketch's counts into this one.
+     * @param other A sketch with the same depth and width
+     * @return This sketch
+     */
+    public CountMinSketch merge(CountMinSketch other) {
+        if (other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException("Cannot merge sketches of different dimensions");
+        }
+        for (int row = 0; row < depth; row++) {
+            for (int column = 0; column < width; column++) {
+                counts[row][column] += other.counts[row][column];
+            }
+        }
+        totalCount += other.totalCount;
+        return this;
+    }
+
+    /**
+     * Creates an independent copy of this sketch.
+     * @return The copy
+     */
+    public CountMinSketch copy() {
+        return new CountMinSketch(depth, width).merge(this);
+    }
+
+    /**
+     * Gets the sum of all counts added.
+     * @return Total count
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * 64-bit FNV-1a over the key's characters followed by a MurmurHash3 finalizer.
+     * @param key The key
+     * @return Well-mixed 64-bit hash
+     */
+    static long hash64(String key) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
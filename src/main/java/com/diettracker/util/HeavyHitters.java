@@ -0,0 +1,83 @@
+package com.diettracker.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded set of the most frequent keys, fed with Count-Min estimates.
+ * A min-heap keeps at most capacity candidates; a new key only enters
+ * when its estimate beats the current minimum.
+ */
+public class HeavyHitters implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final int capacity;
+    private final Map<String, Long> counts;
+    private final PriorityQueue<String> heap;
+
+    /**
+     * Creates an empty tracker.
+     * @param capacity Maximum number of candidates kept
+     */
+    public HeavyHitters(int capacity) {
+        this.capacity = capacity;
+        this.counts = new HashMap<>();
+        this.heap = new PriorityQueue<>(Comparator.comparingLong((String key) -> counts.get(key)));
+    }
+
+    /**
+     * Offers a key with its current estimated count.
+     * @param key The key
+     * @param estimate The key's estimated count
+     */
+    public void offer(String key, long estimate) {
+        if (counts.containsKey(key)) {
+            // Re-insert so the heap sees the new count
+            heap.remove(key);
+            if (estimate <= 0) {
+                counts.remove(key);
+                return;
+            }
+            counts.put(key, estimate);
+            heap.add(key);
+        } else if (estimate > 0) {
+            if (counts.size() < capacity) {
+                counts.put(key, estimate);
+                heap.add(key);
+            } else if (estimate > counts.get(heap.peek())) {
+                counts.remove(heap.poll());
+                counts.put(key, estimate);
+                heap.add(key);
+            }
+        }
+    }
+
+    /**
+     * Gets the candidate keys currently tracked.
+     * @return Candidate keys
+     */
+    public List<String> getCandidates() {
+        return new ArrayList<>(counts.keySet());
+    }
+
+    /**
+     * Gets the top keys by estimated count.
+     * @param limit Maximum number of keys
+     * @return Keys mapped to estimates, highest first
+     */
+    public Map<String, Long> getTop(int limit) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size() && i < limit; i++) {
+            top.put(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+        return top;
+    }
+}
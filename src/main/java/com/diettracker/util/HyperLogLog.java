@@ -0,0 +1,91 @@
+package com.diettracker.util;
+
+import java.io.Serializable;
+
+/**
+ * HyperLogLog sketch for approximate distinct counts of string keys.
+ * Uses 2^precision one-byte registers; the standard error is about
+ * 1.04 / sqrt(2^precision). Sketches with the same precision can be merged.
+ */
+public class HyperLogLog implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * Creates an empty sketch.
+     * @param precision Number of index bits, between 4 and 16
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("Precision must be between 4 and 16");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Records a key.
+     * @param key The key
+     */
+    public void add(String key) {
+        long hash = CountMinSketch.hash64(key);
+        int index = (int) (hash >>> (64 - precision));
+        // Leading zeros of the remaining bits, with a sentinel bit so the rank is bounded
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * Estimates the number of distinct keys recorded.
+     * @return Estimated distinct count
+     */
+    public long cardinality() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+
+        // Linear counting is more accurate for small cardinalities
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Folds another sketch into this one.
+     * @param other A sketch with the same precision
+     * @return This sketch
+     */
+    public HyperLogLog merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge sketches of different precision");
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Creates an independent copy of this sketch.
+     * @return The copy
+     */
+    public HyperLogLog copy() {
+        return new HyperLogLog(precision).merge(this);
+    }
+}
@@ -0,0 +1,586 @@
+package com.diettracker.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable compressed bitmap of non-negative ints, in the Roaring layout.
+ * Values are split by their high 16 bits into containers. A container
+ * holds a sorted array of low 16 bits while it has at most 4096 values,
+ * and a 65536-bit bitmap above that, so both sparse and dense sets stay
+ * small. Updates return a new bitmap that shares every container but the
+ * one changed; AND, OR and AND NOT work container by container.
+ */
+public final class RoaringBitmap implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    public static final RoaringBitmap EMPTY = new RoaringBitmap(new char[0], new Container[0], 0);
+
+    private final char[] keys; // high 16 bits, ascending
+    private final Container[] containers;
+    private final int cardinality;
+
+    private RoaringBitmap(char[] keys, Container[] containers, int cardinality) {
+        this.keys = keys;
+        this.containers = containers;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * Creates a bitmap from values in any order.
+     * @param values Non-negative values
+     * @return The bitmap
+     */
+    public static RoaringBitmap of(int... values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        if (sorted.length > 0 && sorted[0] < 0) {
+            throw new IllegalArgumentException("Bitmap values must not be negative");
+        }
+
+        char[] keys = new char[sorted.length];
+        Container[] containers = new Container[sorted.length];
+        int size = 0;
+        int total = 0;
+        int start = 0;
+        while (start < sorted.length) {
+            char high = high(sorted[start]);
+            char[] lows = new char[Math.min(sorted.length - start, 1 << 16)];
+            int count = 0;
+            int i = start;
+            for (; i < sorted.length && high(sorted[i]) == high; i++) {
+                if (count == 0 || lows[count - 1] != low(sorted[i])) {
+                    lows[count++] = low(sorted[i]);
+                }
+            }
+            ArrayContainer array = new ArrayContainer(Arrays.copyOf(lows, count));
+            keys[size] = high;
+            containers[size++] = count > ARRAY_MAX ? BitmapContainer.from(array) : array;
+            total += count;
+            start = i;
+        }
+        return new RoaringBitmap(Arrays.copyOf(keys, size), Arrays.copyOf(containers, size), total);
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    public boolean contains(int value) {
+        int index = indexOf(high(value));
+        return index >= 0 && containers[index].contains(low(value));
+    }
+
+    /**
+     * Returns a bitmap that also contains the value.
+     * @param value A non-negative value
+     * @return The new bitmap, or this one if the value is already present
+     */
+    public RoaringBitmap with(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Bitmap values must not be negative");
+        }
+        char high = high(value);
+        int index = indexOf(high);
+        if (index >= 0) {
+            Container container = containers[index];
+            if (container.contains(low(value))) {
+                return this;
+            }
+            Container[] newContainers = containers.clone();
+            newContainers[index] = container.add(low(value));
+            return new RoaringBitmap(keys, newContainers, cardinality + 1);
+        }
+
+        int insertAt = -index - 1;
+        char[] newKeys = new char[keys.length + 1];
+        Container[] newContainers = new Container[containers.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, insertAt);
+        System.arraycopy(containers, 0, newContainers, 0, insertAt);
+        newKeys[insertAt] = high;
+        newContainers[insertAt] = new ArrayContainer(new char[]{low(value)});
+        System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+        System.arraycopy(containers, insertAt, newContainers, insertAt + 1, containers.length - insertAt);
+        return new RoaringBitmap(newKeys, newContainers, cardinality + 1);
+    }
+
+    /**
+     * Returns a bitmap without the value.
+     * @param value The value
+     * @return The new bitmap, or this one if the value is absent
+     */
+    public RoaringBitmap without(int value) {
+        int index = value < 0 ? -1 : indexOf(high(value));
+        if (index < 0 || !containers[index].contains(low(value))) {
+            return this;
+        }
+
+        Container remaining = containers[index].remove(low(value));
+        if (remaining.cardinality() > 0) {
+            Container[] newContainers = containers.clone();
+            newContainers[index] = remaining;
+            return new RoaringBitmap(keys, newContainers, cardinality - 1);
+        }
+
+        char[] newKeys = new char[keys.length - 1];
+        Container[] newContainers = new Container[containers.length - 1];
+        System.arraycopy(keys, 0, newKeys, 0, index);
+        System.arraycopy(containers, 0, newContainers, 0, index);
+        System.arraycopy(keys, index + 1, newKeys, index, keys.length - index - 1);
+        System.arraycopy(containers, index + 1, newContainers, index, containers.length - index - 1);
+        return new RoaringBitmap(newKeys, newContainers, cardinality - 1);
+    }
+
+    /**
+     * Intersection of two bitmaps.
+     */
+    public RoaringBitmap and(RoaringBitmap other) {
+        int capacity = Math.min(keys.length, other.keys.length);
+        char[] newKeys = new char[capacity];
+        Container[] newContainers = new Container[capacity];
+        int size = 0;
+        int total = 0;
+
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container both = containers[i].and(other.containers[j]);
+                if (both.cardinality() > 0) {
+                    newKeys[size] = keys[i];
+                    newContainers[size++] = both;
+                    total += both.cardinality();
+                }
+                i++;
+                j++;
+            }
+        }
+        return new RoaringBitmap(Arrays.copyOf(newKeys, size), Arrays.copyOf(newContainers, size), total);
+    }
+
+    /**
+     * Union of two bitmaps.
+     */
+    public RoaringBitmap or(RoaringBitmap other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+
+        char[] newKeys = new char[keys.length + other.keys.length];
+        Container[] newContainers = new Container[newKeys.length];
+        int size = 0;
+        int total = 0;
+
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            Container merged;
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                newKeys[size] = keys[i];
+                merged = containers[i++];
+            } else if (i == keys.length || keys[i] > other.keys[j]) {
+                newKeys[size] = other.keys[j];
+                merged = other.containers[j++];
+            } else {
+                newKeys[size] = keys[i];
+                merged = containers[i++].or(other.containers[j++]);
+            }
+            newContainers[size++] = merged;
+            total += merged.cardinality();
+        }
+        return new RoaringBitmap(Arrays.copyOf(newKeys, size), Arrays.copyOf(newContainers, size), total);
+    }
+
+    /**
+     * Difference of two bitmaps: the values of this one not in the other.
+     */
+    public RoaringBitmap andNot(RoaringBitmap other) {
+        if (isEmpty() || other.isEmpty()) {
+            return this;
+        }
+
+        char[] newKeys = new char[keys.length];
+        Container[] newContainers = new Container[keys.length];
+        int size = 0;
+        int total = 0;
+        for (int i = 0; i < keys.length; i++) {
+            int j = other.indexOf(keys[i]);
+            Container remaining = j < 0 ? containers[i] : containers[i].andNot(other.containers[j]);
+            if (remaining.cardinality() > 0) {
+                newKeys[size] = keys[i];
+                newContainers[size++] = remaining;
+                total += remaining.cardinality();
+            }
+        }
+        return new RoaringBitmap(Arrays.copyOf(newKeys, size), Arrays.copyOf(newContainers, size), total);
+    }
+
+    /**
+     * Calls the action for every value in ascending order.
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < keys.length; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    public int[] toArray() {
+        int[] values = new int[cardinality];
+        int[] position = {0};
+        forEach(value -> values[position[0]++] = value);
+        return values;
+    }
+
+    /**
+     * Approximate heap size, for diagnostics.
+     * @return Size in bytes
+     */
+    public long sizeInBytes() {
+        long bytes = 16 + keys.length * 2L + containers.length * 8L;
+        for (Container container : containers) {
+            bytes += container.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RoaringBitmap)) return false;
+        return Arrays.equals(toArray(), ((RoaringBitmap) o).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return "RoaringBitmap{cardinality=" + cardinality + ", containers=" + containers.length + "}";
+    }
+
+    private int indexOf(char high) {
+        return Arrays.binarySearch(keys, high);
+    }
+
+    private static char high(int value) {
+        return (char) (value >>> 16);
+    }
+
+    private static char low(int value) {
+        return (char) value;
+    }
+
+    /**
+     * Values sharing the same high 16 bits.
+     */
+    private abstract static class Container implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract void forEach(int base, IntConsumer action);
+
+        abstract long sizeInBytes();
+    }
+
+    /**
+     * Sorted array of up to ARRAY_MAX values.
+     */
+    private static final class ArrayContainer extends Container {
+        private static final long serialVersionUID = 1L;
+        private final char[] values;
+
+        ArrayContainer(char[] values) {
+            this.values = values;
+        }
+
+        @Override
+        int cardinality() {
+            return values.length;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, value) >= 0;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = Arrays.binarySearch(values, value);
+            if (index >= 0) {
+                return this;
+            }
+            if (values.length == ARRAY_MAX) {
+                return BitmapContainer.from(this).add(value);
+            }
+            int insertAt = -index - 1;
+            char[] newValues = new char[values.length + 1];
+            System.arraycopy(values, 0, newValues, 0, insertAt);
+            newValues[insertAt] = value;
+            System.arraycopy(values, insertAt, newValues, insertAt + 1, values.length - insertAt);
+            return new ArrayContainer(newValues);
+        }
+
+        @Override
+        Container remove(char value) {
+            int index = Arrays.binarySearch(values, value);
+            if (index < 0) {
+                return this;
+            }
+            char[] newValues = new char[values.length - 1];
+            System.arraycopy(values, 0, newValues, 0, index);
+            System.arraycopy(values, index + 1, newValues, index, values.length - index - 1);
+            return new ArrayContainer(newValues);
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[values.length];
+            int size = 0;
+            if (other instanceof ArrayContainer) {
+                char[] otherValues = ((ArrayContainer) other).values;
+                int i = 0;
+                int j = 0;
+                while (i < values.length && j < otherValues.length) {
+                    if (values[i] < otherValues[j]) {
+                        i++;
+                    } else if (values[i] > otherValues[j]) {
+                        j++;
+                    } else {
+                        result[size++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (char value : values) {
+                    if (other.contains(value)) {
+                        result[size++] = value;
+                    }
+                }
+            }
+            return new ArrayContainer(Arrays.copyOf(result, size));
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            char[] otherValues = ((ArrayContainer) other).values;
+            if (values.length + otherValues.length > ARRAY_MAX) {
+                return BitmapContainer.from(this).or(other);
+            }
+
+            char[] result = new char[values.length + otherValues.length];
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < values.length || j < otherValues.length) {
+                if (j == otherValues.length || (i < values.length && values[i] < otherValues[j])) {
+                    result[size++] = values[i++];
+                } else if (i == values.length || values[i] > otherValues[j]) {
+                    result[size++] = otherValues[j++];
+                } else {
+                    result[size++] = values[i++];
+                    j++;
+                }
+            }
+            return new ArrayContainer(Arrays.copyOf(result, size));
+        }
+
+        @Override
+        Container andNot(Container other) {
+            char[] result = new char[values.length];
+            int size = 0;
+            for (char value : values) {
+                if (!other.contains(value)) {
+                    result[size++] = value;
+                }
+            }
+            return size == values.length ? this : new ArrayContainer(Arrays.copyOf(result, size));
+        }
+
+        @Override
+        void forEach(int base, IntConsumer action) {
+            for (char value : values) {
+                action.accept(base | value);
+            }
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + values.length * 2L;
+        }
+    }
+
+    /**
+     * Fixed 65536-bit bitmap, used above ARRAY_MAX values.
+     */
+    private static final class BitmapContainer extends Container {
+        private static final long serialVersionUID = 1L;
+        private final long[] words;
+        private final int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        static BitmapContainer from(ArrayContainer array) {
+            long[] words = new long[BITMAP_WORDS];
+            for (char value : array.values) {
+                words[value >>> 6] |= 1L << value;
+            }
+            return new BitmapContainer(words, array.values.length);
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        Container add(char value) {
+            if (contains(value)) {
+                return this;
+            }
+            long[] newWords = words.clone();
+            newWords[value >>> 6] |= 1L << value;
+            return new BitmapContainer(newWords, cardinality + 1);
+        }
+
+        @Override
+        Container remove(char value) {
+            if (!contains(value)) {
+                return this;
+            }
+            if (cardinality - 1 <= ARRAY_MAX) {
+                return toArrayContainer(words).remove(value);
+            }
+            long[] newWords = words.clone();
+            newWords[value >>> 6] &= ~(1L << value);
+            return new BitmapContainer(newWords, cardinality - 1);
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] result = new long[BITMAP_WORDS];
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result[i] = words[i] & otherWords[i];
+                count += Long.bitCount(result[i]);
+            }
+            return count > ARRAY_MAX ? new BitmapContainer(result, count) : toArrayContainer(result);
+        }
+
+        @Override
+        Container or(Container other) {
+            long[] result = words.clone();
+            if (other instanceof ArrayContainer) {
+                for (char value : ((ArrayContainer) other).values) {
+                    result[value >>> 6] |= 1L << value;
+                }
+            } else {
+                long[] otherWords = ((BitmapContainer) other).words;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    result[i] |= otherWords[i];
+                }
+            }
+            int count = 0;
+            for (long word : result) {
+                count += Long.bitCount(word);
+            }
+            return new BitmapContainer(result, count);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            long[] result = words.clone();
+            if (other instanceof ArrayContainer) {
+                for (char value : ((ArrayContainer) other).values) {
+                    result[value >>> 6] &= ~(1L << value);
+                }
+            } else {
+                long[] otherWords = ((BitmapContainer) other).words;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    result[i] &= ~otherWords[i];
+                }
+            }
+            int count = 0;
+            for (long word : result) {
+                count += Long.bitCount(word);
+            }
+            return count > ARRAY_MAX ? new BitmapContainer(result, count) : toArrayContainer(result);
+        }
+
+        @Override
+        void forEach(int base, IntConsumer action) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    action.accept(base | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + BITMAP_WORDS * 8L;
+        }
+
+        /**
+         * Converts at most ARRAY_MAX + 1 set bits to an array container.
+         */
+        private static ArrayContainer toArrayContainer(long[] words) {
+            char[] values = new char[ARRAY_MAX + 1];
+            int size = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[size++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(Arrays.copyOf(values, size));
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.diettracker.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Merging t-digest for streaming quantile estimates.
+ * Values are buffered and periodically merged into at most about
+ * compression centroids, sized so that tail quantiles (p90, p99) stay
+ * accurate. A digest's size does not grow with the number of values, so
+ * quantile queries take constant time, and digests can be merged.
+ * Arrays start empty and grow with use, so the many small digests kept
+ * per user and day cost little more than the values they hold.
+ */
+public class TDigest implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final double[] EMPTY = new double[0];
+    private static final int INITIAL_BUFFER = 8;
+
+    private final double compression;
+    private double[] means = EMPTY;
+    private double[] weights = EMPTY;
+    private int centroidCount;
+
+    // Values waiting to be merged, at most about as many as the centroids
+    private double[] bufferValues = EMPTY;
+    private double[] bufferWeights = EMPTY;
+    private int bufferCount;
+
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates an empty digest.
+     * @param compression Accuracy/size trade-off; 100 is a common choice
+     */
+    public TDigest(double compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Adds a single value.
+     * @param value The value
+     */
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    /**
+     * Adds a value with a weight.
+     * @param value The value
+     * @param weight The weight (must be positive)
+     */
+    public void add(double value, double weight) {
+        if (bufferCount == bufferValues.length) {
+            if (bufferCount < maxCentroids()) {
+                int length = Math.min(maxCentroids(), Math.max(INITIAL_BUFFER, bufferCount * 2));
+                bufferValues = Arrays.copyOf(bufferValues, length);
+                bufferWeights = Arrays.copyOf(bufferWeights, length);
+            } else {
+                compress();
+            }
+        }
+        bufferValues[bufferCount] = value;
+        bufferWeights[bufferCount] = weight;
+        bufferCount++;
+        totalWeight += weight;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Folds another digest into this one.
+     * @param other The digest to merge
+     * @return This digest
+     */
+    public TDigest merge(TDigest other) {
+        other.compress();
+        for (int i = 0; i < other.centroidCount; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+        // Keep the exact extremes even if they were averaged into centroids
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        return this;
+    }
+
+    /**
+     * Creates an independent copy of this digest.
+     * @return The copy
+     */
+    public TDigest copy() {
+        return new TDigest(compression).merge(this);
+    }
+
+    /**
+     * Gets the total weight (number of values, for unweighted adds).
+     * @return Total weight
+     */
+    public long size() {
+        return Math.round(totalWeight);
+    }
+
+    /**
+     * Estimates the value at a quantile.
+     * @param q Quantile between 0 and 1 (e.g. 0.5 for the median)
+     * @return Estimated value, or NaN if the digest is empty
+     */
+    public double quantile(double q) {
+        compress();
+        if (centroidCount == 0) {
+            return Double.NaN;
+        }
+        if (centroidCount == 1) {
+            return means[0];
+        }
+
+        q = Math.max(0, Math.min(1, q));
+        double index = q * totalWeight;
+
+        // Between the minimum and the first centroid's center
+        if (index < weights[0] / 2) {
+            return min + (means[0] - min) * index / (weights[0] / 2);
+        }
+
+        double cumulative = weights[0] / 2;
+        for (int i = 0; i < centroidCount - 1; i++) {
+            double step = (weights[i] + weights[i + 1]) / 2;
+            if (cumulative + step > index) {
+                double t = (index - cumulative) / step;
+                return means[i] + t * (means[i + 1] - means[i]);
+            }
+            cumulative += step;
+        }
+
+        // Between the last centroid's center and the maximum
+        int last = centroidCount - 1;
+        double t = Math.min(1, (index - cumulative) / (weights[last] / 2));
+        return means[last] + t * (max - means[last]);
+    }
+
+    /**
+     * Merges buffered values into the centroids.
+     */
+    private void compress() {
+        if (bufferCount == 0) {
+            return;
+        }
+
+        int count = centroidCount + bufferCount;
+        double[] values = new double[count];
+        double[] pointWeights = new double[count];
+        System.arraycopy(means, 0, values, 0, centroidCount);
+        System.arraycopy(weights, 0, pointWeights, 0, centroidCount);
+        System.arraycopy(bufferValues, 0, values, centroidCount, bufferCount);
+        System.arraycopy(bufferWeights, 0, pointWeights, centroidCount, bufferCount);
+        bufferCount = 0;
+
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        int length = Math.min(count, Math.max(means.length, maxCentroids()));
+        double[] newMeans = new double[length];
+        double[] newWeights = new double[length];
+        int n = 0;
+        double weightSoFar = 0;
+        double currentMean = values[order[0]];
+        double currentWeight = pointWeights[order[0]];
+
+        for (int i = 1; i < count; i++) {
+            double value = values[order[i]];
+            double weight = pointWeights[order[i]];
+            double proposed = currentWeight + weight;
+            double qLeft = weightSoFar / totalWeight;
+            double qRight = (weightSoFar + proposed) / totalWeight;
+
+            if (scale(qRight) - scale(qLeft) <= 1) {
+                currentMean += (value - currentMean) * weight / proposed;
+                currentWeight = proposed;
+            } else {
+                if (n == newMeans.length) {
+                    newMeans = Arrays.copyOf(newMeans, n * 2);
+                    newWeights = Arrays.copyOf(newWeights, n * 2);
+                }
+                newMeans[n] = currentMean;
+                newWeights[n] = currentWeight;
+                n++;
+                weightSoFar += currentWeight;
+                currentMean = value;
+                currentWeight = weight;
+            }
+        }
+        if (n == newMeans.length) {
+            newMeans = Arrays.copyOf(newMeans, n * 2);
+            newWeights = Arrays.copyOf(newWeights, n * 2);
+        }
+        newMeans[n] = currentMean;
+        newWeights[n] = currentWeight;
+
+        means = newMeans;
+        weights = newWeights;
+        centroidCount = n + 1;
+    }
+
+    /**
+     * Centroids a compressed digest holds at most, with some slack.
+     */
+    private int maxCentroids() {
+        return (int) Math.ceil(compression) * 2 + 10;
+    }
+
+    /**
+     * Scale function k1: centroids near the tails cover less weight.
+     */
+    private double scale(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+    }
+}
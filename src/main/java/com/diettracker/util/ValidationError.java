@@ -0,0 +1,35 @@
+package com.diettracker.util;
+
+/**
+ * Outcome codes of ValidationUtil checks. NONE means the value is valid.
+ */
+public enum ValidationError {
+    NONE("Valid"),
+    EMPTY("Value is empty"),
+    TOO_SHORT("Value is too short"),
+    TOO_LONG("Value is too long"),
+    INVALID_CHARACTER("Value contains a character that is not allowed"),
+    NOT_A_NUMBER("Value is not a number"),
+    OUT_OF_RANGE("Number is out of range"),
+    INVALID_EMAIL("Not a valid email address"),
+    MISSING_FIELDS("Record has too few fields"),
+    INVALID_USERNAME("Record has an invalid username"),
+    INVALID_MEAL_TYPE("Record has an unknown meal type"),
+    INVALID_TIMESTAMP("Record has an invalid timestamp"),
+    INVALID_ID("Record has an invalid meal id"),
+    NO_FOOD_ITEMS("Record has no food items"),
+    INVALID_FOOD_NAME("Record has a food item without a name"),
+    INVALID_CALORIES("Record has a food item without positive whole calories"),
+    INVALID_QUANTITY("Record has a food item without a positive quantity"),
+    UNKNOWN_USER("Record belongs to an unknown user");
+
+    private final String message;
+
+    ValidationError(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,80 @@
+package com.diettracker.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of validating a batch of records: how many failed for each
+ * reason, and the first few failures with their record numbers.
+ */
+public class ValidationReport {
+    private static final int MAX_SAMPLES = 20;
+
+    private final long[] counts = new long[ValidationError.values().length];
+    private final List<String> samples = new ArrayList<>();
+    private long total;
+
+    /**
+     * Records the outcome of one record.
+     * @param recordNumber The record's number (e.g. its line number) for samples
+     * @param error The outcome, NONE if valid
+     */
+    public void add(long recordNumber, ValidationError error) {
+        total++;
+        counts[error.ordinal()]++;
+        if (error != ValidationError.NONE && samples.size() < MAX_SAMPLES) {
+            samples.add(recordNumber + ": " + error.getMessage());
+        }
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getValidCount() {
+        return counts[ValidationError.NONE.ordinal()];
+    }
+
+    public long getInvalidCount() {
+        return total - getValidCount();
+    }
+
+    /**
+     * Gets how many records failed for one reason.
+     * @param error The reason
+     * @return Number of records
+     */
+    public long getCount(ValidationError error) {
+        return counts[error.ordinal()];
+    }
+
+    /**
+     * Gets the failure counts by reason.
+     * @return Reasons that occurred, mapped to their counts
+     */
+    public Map<ValidationError, Long> getErrorCounts() {
+        Map<ValidationError, Long> errors = new EnumMap<>(ValidationError.class);
+        for (ValidationError error : ValidationError.values()) {
+            if (error != ValidationError.NONE && counts[error.ordinal()] > 0) {
+                errors.put(error, counts[error.ordinal()]);
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Gets the first failures, as "record number: message".
+     * @return Unmodifiable list of up to 20 failures
+     */
+    public List<String> getSamples() {
+        return Collections.unmodifiableList(samples);
+    }
+
+    @Override
+    public String toString() {
+        return total + "," + getValidCount() + "," + getErrorCounts();
+    }
+}
@@ -1,12 +1,30 @@
 package com.diettracker.util;
 
+import com.diettracker.model.Meal;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
 import java.util.Scanner;
 
 /**
  * Utility class for input validation and common validation methods.
  * Provides methods to validate user input and ensure data integrity.
+ *
+ * The check methods return a ValidationError code (NONE if valid) and the
+ * parse methods return a sentinel for invalid input, so neither throws or
+ * compiles a regular expression; they scan characters directly. Prompts,
+ * UserService and bulk imports share them, and validateMealRecords checks
+ * large batches of meal records without allocating per record.
  */
 public class ValidationUtil {
+    /** Returned by parseLong for text that is not a whole number. */
+    public static final long INVALID_NUMBER = Long.MIN_VALUE;
+    
+    private static final int MIN_USERNAME_LENGTH = 3;
+    private static final int MAX_USERNAME_LENGTH = 20;
+    private static final int MIN_PASSWORD_LENGTH = 6;
+    private static final Meal.MealType[] MEAL_TYPES = Meal.MealType.values();
+    
     private static final Scanner scanner = new Scanner(System.in);
     
     /**
@@ -24,16 +42,7 @@ public class ValidationUtil {
      * @return true if valid positive integer, false otherwise
      */
     public static boolean isValidPositiveInteger(String input) {
-        if (!isValidString(input)) {
-            return false;
-        }
-        
-        try {
-            int value = Integer.parseInt(input.trim());
-            return value > 0;
-        } catch (NumberFormatException e) {
-            return false;
-        }
+        return checkInteger(input, 1, Integer.MAX_VALUE) == ValidationError.NONE;
     }
     
     /**
@@ -42,16 +51,7 @@ public class ValidationUtil {
      * @return true if valid positive double, false otherwise
      */
     public static boolean isValidPositiveDouble(String input) {
-        if (!isValidString(input)) {
-            return false;
-        }
-        
-        try {
-            double value = Double.parseDouble(input.trim());
-            return value > 0;
-        } catch (NumberFormatException e) {
-            return false;
-        }
+        return checkPositiveDouble(input) == ValidationError.NONE;
     }
     
     /**
@@ -62,16 +62,7 @@ public class ValidationUtil {
      * @return true if valid integer in range, false otherwise
      */
     public static boolean isValidIntegerInRange(String input, int min, int max) {
-        if (!isValidString(input)) {
-            return false;
-        }
-        
-        try {
-            int value = Integer.parseInt(input.trim());
-            return value >= min && value <= max;
-        } catch (NumberFormatException e) {
-            return false;
-        }
+        return checkInteger(input, min, max) == ValidationError.NONE;
     }
     
     /**
@@ -99,15 +90,17 @@ public class ValidationUtil {
      */
     public static int getValidPositiveIntegerInput(String prompt) {
         String input;
+        ValidationError error;
         do {
             System.out.print(prompt);
             input = scanner.nextLine().trim();
-            if (!isValidPositiveInteger(input)) {
+            error = checkInteger(input, 1, Integer.MAX_VALUE);
+            if (error != ValidationError.NONE) {
                 System.out.println("Error: Please enter a valid positive number.");
             }
-        } while (!isValidPositiveInteger(input));
+        } while (error != ValidationError.NONE);
         
-        return Integer.parseInt(input);
+        return (int) parseLong(input);
     }
     
     /**
@@ -117,15 +110,17 @@ public class ValidationUtil {
      */
     public static double getValidPositiveDoubleInput(String prompt) {
         String input;
+        ValidationError error;
         do {
             System.out.print(prompt);
             input = scanner.nextLine().trim();
-            if (!isValidPositiveDouble(input)) {
+            error = checkPositiveDouble(input);
+            if (error != ValidationError.NONE) {
                 System.out.println("Error: Please enter a valid positive number.");
             }
-        } while (!isValidPositiveDouble(input));
+        } while (error != ValidationError.NONE);
         
-        return Double.parseDouble(input);
+        return parseDouble(input);
     }
     
     /**
@@ -137,15 +132,17 @@ public class ValidationUtil {
      */
     public static int getValidIntegerInRangeInput(String prompt, int min, int max) {
         String input;
+        ValidationError error;
         do {
             System.out.print(prompt);
             input = scanner.nextLine().trim();
-            if (!isValidIntegerInRange(input, min, max)) {
+            error = checkInteger(input, min, max);
+            if (error != ValidationError.NONE) {
                 System.out.println("Error: Please enter a number between " + min + " and " + max + ".");
             }
-        } while (!isValidIntegerInRange(input, min, max));
+        } while (error != ValidationError.NONE);
         
-        return Integer.parseInt(input);
+        return (int) parseLong(input);
     }
     
     /**
@@ -174,13 +171,7 @@ public class ValidationUtil {
      * @return true if valid email format, false otherwise
      */
     public static boolean isValidEmail(String email) {
-        if (!isValidString(email)) {
-            return false;
-        }
-        
-        // Basic email validation
-        String emailRegex = "^[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,}$";
-        return email.trim().matches(emailRegex);
+        return checkEmail(email) == ValidationError.NONE;
     }
     
     /**
@@ -189,14 +180,7 @@ public class ValidationUtil {
      * @return true if valid username format, false otherwise
      */
     public static boolean isValidUsername(String username) {
-        if (!isValidString(username)) {
-            return false;
-        }
-        
-        String trimmed = username.trim();
-        // Username should be 3-20 characters, alphanumeric and underscore only
-        return trimmed.length() >= 3 && trimmed.length() <= 20 && 
-               trimmed.matches("^[a-zA-Z0-9_]+$");
+        return checkUsername(username) == ValidationError.NONE;
     }
     
     /**
@@ -205,12 +189,496 @@ public class ValidationUtil {
      * @return true if valid password, false otherwise
      */
     public static boolean isValidPassword(String password) {
-        if (!isValidString(password)) {
-            return false;
+        return checkPassword(password) == ValidationError.NONE;
+    }
+    
+    // Checks shared by prompts, services and bulk imports
+    
+    /**
+     * Checks that text, ignoring surrounding whitespace, is a whole number in a range.
+     * @param input The text
+     * @param min Minimum allowed value
+     * @param max Maximum allowed value
+     * @return NONE, EMPTY, NOT_A_NUMBER or OUT_OF_RANGE
+     */
+    public static ValidationError checkInteger(CharSequence input, long min, long max) {
+        if (input == null) {
+            return ValidationError.EMPTY;
+        }
+        int start = trimStart(input);
+        int end = trimEnd(input, start);
+        if (start == end) {
+            return ValidationError.EMPTY;
+        }
+        long value = parseLong(input, start, end);
+        if (value == INVALID_NUMBER) {
+            return ValidationError.NOT_A_NUMBER;
+        }
+        return value >= min && value <= max ? ValidationError.NONE : ValidationError.OUT_OF_RANGE;
+    }
+    
+    /**
+     * Checks that text, ignoring surrounding whitespace, is a positive decimal number.
+     * @param input The text
+     * @return NONE, EMPTY, NOT_A_NUMBER or OUT_OF_RANGE
+     */
+    public static ValidationError checkPositiveDouble(CharSequence input) {
+        if (input == null) {
+            return ValidationError.EMPTY;
+        }
+        int start = trimStart(input);
+        int end = trimEnd(input, start);
+        if (start == end) {
+            return ValidationError.EMPTY;
+        }
+        double value = parseDouble(input, start, end);
+        if (Double.isNaN(value)) {
+            return ValidationError.NOT_A_NUMBER;
+        }
+        return value > 0 && value < Double.POSITIVE_INFINITY ? ValidationError.NONE : ValidationError.OUT_OF_RANGE;
+    }
+    
+    /**
+     * Checks a username: 3-20 letters, digits or underscores, ignoring surrounding whitespace.
+     * @param username The username
+     * @return NONE, EMPTY, TOO_SHORT, TOO_LONG or INVALID_CHARACTER
+     */
+    public static ValidationError checkUsername(CharSequence username) {
+        if (username == null) {
+            return ValidationError.EMPTY;
+        }
+        int start = trimStart(username);
+        int end = trimEnd(username, start);
+        return checkUsername(username, start, end);
+    }
+    
+    private static ValidationError checkUsername(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return ValidationError.EMPTY;
+        }
+        if (length < MIN_USERNAME_LENGTH) {
+            return ValidationError.TOO_SHORT;
+        }
+        if (length > MAX_USERNAME_LENGTH) {
+            return ValidationError.TOO_LONG;
+        }
+        for (int i = start; i < end; i++) {
+            if (!isWordChar(text.charAt(i))) {
+                return ValidationError.INVALID_CHARACTER;
+            }
+        }
+        return ValidationError.NONE;
+    }
+    
+    /**
+     * Checks a password: at least 6 characters, ignoring surrounding whitespace.
+     * @param password The password
+     * @return NONE, EMPTY or TOO_SHORT
+     */
+    public static ValidationError checkPassword(CharSequence password) {
+        if (password == null) {
+            return ValidationError.EMPTY;
+        }
+        int start = trimStart(password);
+        int length = trimEnd(password, start) - start;
+        if (length == 0) {
+            return ValidationError.EMPTY;
+        }
+        return length >= MIN_PASSWORD_LENGTH ? ValidationError.NONE : ValidationError.TOO_SHORT;
+    }
+    
+    /**
+     * Checks an email address (basic validation): local part of letters, digits
+     * and ._%+-, an @, and a domain of letters, digits, dots and hyphens
+     * ending in a dot and at least two letters.
+     * @param email The address
+     * @return NONE, EMPTY or INVALID_EMAIL
+     */
+    public static ValidationError checkEmail(CharSequence email) {
+        if (email == null) {
+            return ValidationError.EMPTY;
+        }
+        int start = trimStart(email);
+        int end = trimEnd(email, start);
+        if (start == end) {
+            return ValidationError.EMPTY;
+        }
+        
+        int at = start;
+        while (at < end && email.charAt(at) != '@') {
+            char c = email.charAt(at);
+            if (!isWordChar(c) && c != '.' && c != '%' && c != '+' && c != '-') {
+                return ValidationError.INVALID_EMAIL;
+            }
+            at++;
+        }
+        if (at == start || at == end) {
+            return ValidationError.INVALID_EMAIL;
+        }
+        
+        // The top-level domain is the letters after the last dot
+        int lastDot = -1;
+        for (int i = at + 1; i < end; i++) {
+            char c = email.charAt(i);
+            if (c == '.') {
+                lastDot = i;
+            } else if (!isLetterOrDigit(c) && c != '-') {
+                return ValidationError.INVALID_EMAIL;
+            }
+        }
+        if (lastDot <= at + 1 || end - lastDot - 1 < 2) {
+            return ValidationError.INVALID_EMAIL;
+        }
+        for (int i = lastDot + 1; i < end; i++) {
+            char c = email.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+                return ValidationError.INVALID_EMAIL;
+            }
+        }
+        return ValidationError.NONE;
+    }
+    
+    // Parsers that report invalid input with a sentinel instead of an exception
+    
+    /**
+     * Parses a whole number.
+     * @param text The text, without surrounding whitespace
+     * @return The number, or INVALID_NUMBER if the text is not one or overflows
+     */
+    public static long parseLong(CharSequence text) {
+        return text == null ? INVALID_NUMBER : parseLong(text, 0, text.length());
+    }
+    
+    /**
+     * Parses a whole number with an optional sign from part of a text.
+     * @param text The text
+     * @param start First character (inclusive)
+     * @param end Last character (exclusive)
+     * @return The number, or INVALID_NUMBER if the part is not one or overflows
+     */
+    public static long parseLong(CharSequence text, int start, int end) {
+        if (start >= end) {
+            return INVALID_NUMBER;
+        }
+        int i = start;
+        boolean negative = false;
+        char first = text.charAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++i == end) {
+                return INVALID_NUMBER;
+            }
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                return INVALID_NUMBER;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+    
+    /**
+     * Parses a decimal number.
+     * @param text The text, without surrounding whitespace
+     * @return The number, or NaN if the text is not one
+     */
+    public static double parseDouble(CharSequence text) {
+        return text == null ? Double.NaN : parseDouble(text, 0, text.length());
+    }
+    
+    /**
+     * Parses a decimal number, e.g. 2, -0.5 or 1.5E3, from part of a text.
+     * The syntax is checked first, so the JDK parser never throws.
+     * @param text The text
+     * @param start First character (inclusive)
+     * @param end Last character (exclusive)
+     * @return The number, or NaN if the part is not one
+     */
+    public static double parseDouble(CharSequence text, int start, int end) {
+        int i = start;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            i++;
+        }
+        int digits = 0;
+        while (i < end && isDigit(text.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < end && text.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(text.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        if (i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i++;
+            if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            while (i < end && isDigit(text.charAt(i))) {
+                i++;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return Double.NaN;
+            }
+        }
+        if (i != end) {
+            return Double.NaN;
+        }
+        return Double.parseDouble(text.subSequence(start, end).toString());
+    }
+    
+    /**
+     * Parses an ISO local date-time, yyyy-MM-ddTHH:mm with optional seconds and fraction.
+     * @param text The text, without surrounding whitespace
+     * @return The date-time, or null if the text is not one
+     */
+    public static LocalDateTime parseTimestamp(CharSequence text) {
+        return text == null ? null : parseTimestamp(text, 0, text.length());
+    }
+    
+    /**
+     * Parses an ISO local date-time from part of a text.
+     * @param text The text
+     * @param start First character (inclusive)
+     * @param end Last character (exclusive)
+     * @return The date-time, or null if the part is not a valid one
+     */
+    public static LocalDateTime parseTimestamp(CharSequence text, int start, int end) {
+        if (end - start < 16 || text.charAt(start + 4) != '-' || text.charAt(start + 7) != '-'
+                || text.charAt(start + 10) != 'T' || text.charAt(start + 13) != ':') {
+            return null;
+        }
+        int year = parseDigits(text, start, 4);
+        int month = parseDigits(text, start + 5, 2);
+        int day = parseDigits(text, start + 8, 2);
+        int hour = parseDigits(text, start + 11, 2);
+        int minute = parseDigits(text, start + 14, 2);
+        int second = 0;
+        int nano = 0;
+        int i = start + 16;
+        if (i < end) {
+            if (text.charAt(i) != ':' || end - i < 3) {
+                return null;
+            }
+            second = parseDigits(text, i + 1, 2);
+            i += 3;
+            if (i < end) {
+                int fractionDigits = end - i - 1;
+                if (text.charAt(i) != '.' || fractionDigits < 1 || fractionDigits > 9) {
+                    return null;
+                }
+                nano = parseDigits(text, i + 1, fractionDigits);
+                for (int scale = fractionDigits; scale < 9 && nano >= 0; scale++) {
+                    nano *= 10;
+                }
+            }
+        }
+        if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59 || nano < 0
+                || day > Month.of(month).length(Year.isLeap(year))) {
+            return null;
+        }
+        return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+    }
+    
+    /**
+     * Parses a meal type by its name, e.g. LUNCH.
+     * @param text The text
+     * @param start First character (inclusive)
+     * @param end Last character (exclusive)
+     * @return The meal type, or null if there is none of that name
+     */
+    public static Meal.MealType parseMealType(CharSequence text, int start, int end) {
+        for (Meal.MealType mealType : MEAL_TYPES) {
+            String name = mealType.name();
+            if (name.length() == end - start && regionEquals(text, start, name)) {
+                return mealType;
+            }
+        }
+        return null;
+    }
+    
+    // Bulk validation of meal records
+    
+    /**
+     * Checks one meal record in the meals file format:
+     * username,mealType,timestamp[,id],(foodName,caloriesPerUnit,quantity,unit)+
+     * Besides the syntax FileService.parseMeal needs, the username must be
+     * valid and every food item must have a name, positive whole calories and
+     * a positive quantity, as MealService requires of new meals.
+     * @param record The record
+     * @return NONE, or the first problem found
+     */
+    public static ValidationError validateMealRecord(CharSequence record) {
+        if (record == null) {
+            return ValidationError.EMPTY;
+        }
+        // Trailing empty fields are ignored, as String.split does
+        int end = record.length();
+        while (end > 0 && record.charAt(end - 1) == ',') {
+            end--;
+        }
+        int start = trimStart(record);
+        if (trimEnd(record, start) == start) {
+            return ValidationError.EMPTY;
+        }
+        int fields = 1;
+        for (int i = 0; i < end; i++) {
+            if (record.charAt(i) == ',') {
+                fields++;
+            }
+        }
+        if (fields < 3) {
+            return ValidationError.MISSING_FIELDS;
+        }
+        
+        int fieldEnd = nextComma(record, 0, end);
+        if (checkUsername(record, 0, fieldEnd) != ValidationError.NONE) {
+            return ValidationError.INVALID_USERNAME;
+        }
+        int fieldStart = fieldEnd + 1;
+        fieldEnd = nextComma(record, fieldStart, end);
+        if (parseMealType(record, fieldStart, fieldEnd) == null) {
+            return ValidationError.INVALID_MEAL_TYPE;
+        }
+        fieldStart = fieldEnd + 1;
+        fieldEnd = nextComma(record, fieldStart, end);
+        if (parseTimestamp(record, fieldStart, fieldEnd) == null) {
+            return ValidationError.INVALID_TIMESTAMP;
+        }
+        
+        int itemFields = fields - 3;
+        if (itemFields % 4 != 0) {
+            fieldStart = fieldEnd + 1;
+            fieldEnd = nextComma(record, fieldStart, end);
+            if (parseLong(record, fieldStart, fieldEnd) < 0) {
+                return ValidationError.INVALID_ID;
+            }
+            itemFields--;
+            if (itemFields % 4 != 0) {
+                return ValidationError.MISSING_FIELDS;
+            }
+        }
+        if (itemFields == 0) {
+            return ValidationError.NO_FOOD_ITEMS;
         }
         
-        // Password should be at least 6 characters
-        return password.trim().length() >= 6;
+        for (int item = 0; item < itemFields / 4; item++) {
+            fieldStart = fieldEnd + 1;
+            fieldEnd = nextComma(record, fieldStart, end);
+            if (trimStart(record, fieldStart, fieldEnd) == fieldEnd) {
+                return ValidationError.INVALID_FOOD_NAME;
+            }
+            fieldStart = fieldEnd + 1;
+            fieldEnd = nextComma(record, fieldStart, end);
+            long calories = parseLong(record, fieldStart, fieldEnd);
+            if (calories < 1 || calories > Integer.MAX_VALUE) {
+                return ValidationError.INVALID_CALORIES;
+            }
+            fieldStart = fieldEnd + 1;
+            fieldEnd = nextComma(record, fieldStart, end);
+            double quantity = parseDouble(record, fieldStart, fieldEnd);
+            if (!(quantity > 0) || quantity == Double.POSITIVE_INFINITY) {
+                return ValidationError.INVALID_QUANTITY;
+            }
+            // The unit is free text
+            fieldEnd = nextComma(record, fieldEnd + 1, end);
+        }
+        return ValidationError.NONE;
+    }
+    
+    /**
+     * Checks a batch of meal records, e.g. a file about to be imported.
+     * @param records The records, numbered from 1 in the report
+     * @return Counts by outcome and the first failures
+     */
+    public static ValidationReport validateMealRecords(Iterable<? extends CharSequence> records) {
+        ValidationReport report = new ValidationReport();
+        long recordNumber = 0;
+        for (CharSequence record : records) {
+            report.add(++recordNumber, validateMealRecord(record));
+        }
+        return report;
+    }
+    
+    // Character scanning helpers
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static boolean isLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c);
+    }
+    
+    private static boolean isWordChar(char c) {
+        return isLetterOrDigit(c) || c == '_';
+    }
+    
+    /**
+     * Parses a fixed number of digits.
+     * @return The value, or -1 if a character is not a digit
+     */
+    private static int parseDigits(CharSequence text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    
+    private static boolean regionEquals(CharSequence text, int start, String expected) {
+        for (int i = 0; i < expected.length(); i++) {
+            if (text.charAt(start + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static int nextComma(CharSequence text, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (text.charAt(i) == ',') {
+                return i;
+            }
+        }
+        return end;
+    }
+    
+    // Whitespace as String.trim defines it: characters up to and including the space
+    
+    private static int trimStart(CharSequence text) {
+        return trimStart(text, 0, text.length());
+    }
+    
+    private static int trimStart(CharSequence text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+    
+    private static int trimEnd(CharSequence text, int start) {
+        int end = text.length();
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
     }
     
     /**
@@ -0,0 +1,91 @@
+package com.diettracker.util;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Calorie kernel using SIMD lanes of the preferred vector size.
+ *
+ * Calories per unit are widened to double and multiplied by the quantities.
+ * The (int) cast is then reproduced in double lanes: magnitudes are capped
+ * at 2^31, truncated with the 2^52 rounding trick, clamped to the int range
+ * and NaN lanes zeroed. This avoids D2I lane conversions, which JDK 17 does
+ * not compile to SIMD instructions. Item calories are summed as doubles in
+ * chunks small enough to be exact, and each chunk is folded into an int
+ * total with wrapping addition, so results match the scalar kernel bit for
+ * bit. Ranges of only a few items, like a single meal, use the scalar loop.
+ * Only loaded by CalorieKernel when the jdk.incubator.vector module is
+ * present.
+ */
+final class VectorCalorieKernel extends CalorieKernel {
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    // Ints of the same vector size: each load widens into two double vectors
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, DOUBLES.vectorShape());
+
+    private static final double INT_LIMIT = 0x1p31;
+    private static final double ROUNDING = 0x1p52;
+    // Any CHUNK values of magnitude <= 2^31 sum exactly in a double (< 2^53)
+    private static final int CHUNK = 2048;
+    // Shorter ranges, such as the items of one meal, are faster in the scalar loop
+    private static final int MIN_VECTOR_ITEMS = 4 * INTS.length();
+    private static final CalorieKernel SCALAR = CalorieKernel.scalar();
+
+    @Override
+    public String getName() {
+        return "vector (" + DOUBLES.length() + " x double)";
+    }
+
+    @Override
+    public int[] segmentTotals(int[] caloriesPerUnit, double[] quantities, int[] offsets, int segments) {
+        int[] totals = new int[segments];
+        for (int s = 0; s < segments; s++) {
+            totals[s] = total(caloriesPerUnit, quantities, offsets[s], offsets[s + 1]);
+        }
+        return totals;
+    }
+
+    @Override
+    public int total(int[] caloriesPerUnit, double[] quantities, int from, int to) {
+        if (to - from < MIN_VECTOR_ITEMS) {
+            return SCALAR.total(caloriesPerUnit, quantities, from, to);
+        }
+        int total = 0;
+        int i = from;
+        int upper = from + INTS.loopBound(to - from);
+        while (i < upper) {
+            // Each lane adds at most CHUNK / lanes values before the flush
+            int stop = Math.min(upper, i + CHUNK);
+            DoubleVector lanes = DoubleVector.zero(DOUBLES);
+            for (; i < stop; i += INTS.length()) {
+                IntVector perUnit = IntVector.fromArray(INTS, caloriesPerUnit, i);
+                lanes = lanes.add(itemCalories(perUnit, 0, quantities, i))
+                             .add(itemCalories(perUnit, 1, quantities, i + DOUBLES.length()));
+            }
+            total += (int) (long) lanes.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < to; i++) {
+            total += (int) (caloriesPerUnit[i] * quantities[i]);
+        }
+        return total;
+    }
+
+    /**
+     * Computes (int) (caloriesPerUnit * quantity) for one half of an int vector.
+     */
+    private static DoubleVector itemCalories(IntVector perUnit, int part, double[] quantities, int offset) {
+        DoubleVector product = ((DoubleVector) perUnit.convert(VectorOperators.I2D, part))
+                .mul(DoubleVector.fromArray(DOUBLES, quantities, offset));
+
+        DoubleVector magnitude = product.abs().min(INT_LIMIT);
+        // Adding and removing 2^52 rounds to an integer; step back where it rounded up
+        DoubleVector rounded = magnitude.add(ROUNDING).sub(ROUNDING);
+        DoubleVector truncated = rounded.sub(1.0, rounded.compare(VectorOperators.GT, magnitude));
+
+        VectorMask<Double> negative = product.compare(VectorOperators.LT, 0.0);
+        DoubleVector result = truncated.min(INT_LIMIT - 1).blend(truncated.neg(), negative);
+        return result.blend(0.0, product.test(VectorOperators.IS_NAN));
+    }
+}